@@ -25,17 +25,17 @@ public class TcpLBHolder {
         return new ArrayList<>(map.keySet());
     }
 
-    public void add(String alias,
-                    EventLoopGroup acceptorEventLoopGroup,
-                    EventLoopGroup workerEventLoopGroup,
-                    IPPort bindAddress,
-                    Upstream backend,
-                    int timeout,
-                    int inBufferSize,
-                    int outBufferSize,
-                    String protocol,
-                    CertKey[] sslCertKeys,
-                    SecurityGroup securityGroup) throws AlreadyExistException, IOException, ClosedException, Exception {
+    public TcpLB add(String alias,
+                     EventLoopGroup acceptorEventLoopGroup,
+                     EventLoopGroup workerEventLoopGroup,
+                     IPPort bindAddress,
+                     Upstream backend,
+                     int timeout,
+                     int inBufferSize,
+                     int outBufferSize,
+                     String protocol,
+                     CertKey[] sslCertKeys,
+                     SecurityGroup securityGroup) throws AlreadyExistException, IOException, ClosedException, Exception {
         if (map.containsKey(alias))
             throw new AlreadyExistException("tcp-lb", alias);
 
@@ -49,6 +49,7 @@ public class TcpLBHolder {
             throw e;
         }
         map.put(alias, tcpLB);
+        return tcpLB;
     }
 
     public VSSLContext buildVSSLContext(CertKey[] sslCertKeys) throws Exception {
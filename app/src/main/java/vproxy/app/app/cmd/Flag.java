@@ -9,6 +9,15 @@ public enum Flag {
 
     noswitchflag("no-switch-flag"),
 
+    splice("splice"),
+    nosplice("no-splice"),
+    bufferondemand("buffer-on-demand"),
+    nobufferondemand("no-buffer-on-demand"),
+    backendpool("backend-pool"),
+    nobackendpool("no-backend-pool"),
+    h2mux("h2-mux"),
+    noh2mux("no-h2-mux"),
+
     force("force"),
     zerocopy("zerocopy"),
     ;
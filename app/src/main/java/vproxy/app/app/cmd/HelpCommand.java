@@ -455,6 +455,14 @@ public class HelpCommand {
         allownonbackend("allow-non-backend", null, "allow to access non backend endpoints"),
         denynonbackend("deny-non-backend", null, "only able to access backend endpoints"),
         noswitchflag("no-switch-flag", null, "do not add switch flag on vxlan packet"),
+        splice("splice", null, "relay plain tcp data with kernel splice(2), only available with vfd=posix on linux"),
+        nosplice("no-splice", null, "relay data through user space buffers"),
+        bufferondemand("buffer-on-demand", null, "allocate connection buffers only when data arrives, and release them when idle"),
+        nobufferondemand("no-buffer-on-demand", null, "allocate connection buffers when connections are created"),
+        backendpool("backend-pool", null, "keep idle backend connections of processors and lend them to other frontend connections on the same event loop"),
+        nobackendpool("no-backend-pool", null, "close backend connections of processors with their frontend connections"),
+        h2mux("h2-mux", null, "multiplex streams of h2 frontend connections onto shared backend connections on the same event loop"),
+        noh2mux("no-h2-mux", null, "proxy h2 frontend connections with their own backend connections"),
         force("force", null, "forcibly to do something"),
         zerocopy("zerocopy", null, "indicate to perform zerocopy operations"),
         ;
@@ -484,6 +492,12 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.certkey, "the certificates and keys used by tcp-lb. Multiple cert-key(s) are separated with `,`")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.splice, "relay data with splice(2) when protocol is tcp and no cert-key is set. Falls back to normal buffers when not supported", false),
+                    new ResActFlagMan(FlagMan.bufferondemand, "hold direct memory for connection buffers only when there is data to read or write. Suits a large number of mostly idle connections", false),
+                    new ResActFlagMan(FlagMan.backendpool, "reuse idle backend connections across frontend connections on the same event loop. Only takes effect on http/1.x and dubbo requests", false),
+                    new ResActFlagMan(FlagMan.h2mux, "multiplex streams of h2 frontend connections onto a few shared backend connections on each event loop. Only takes effect when protocol is h2", false)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "add tcp-lb lb0 acceptor-elg elg0 event-loop-group elg0 address 127.0.0.1:18080 upstream ups0 in-buffer-size 16384 out-buffer-size 16384",
@@ -503,7 +517,7 @@ public class HelpCommand {
                 Collections.singletonList(
                     new Tuple<>(
                         "list-detail tcp-lb",
-                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backend ups0 in-buffer-size 16384 out-buffer-size 16384 protocol tcp security-group secg0\""
+                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backend ups0 in-buffer-size 16384 out-buffer-size 16384 protocol tcp security-group secg0 resident-buffer-bytes 32768\""
                     )
                 ))
             , new ResActMan(ActMan.update, "update in-buffer-size or out-buffer-size of an lb",
@@ -514,6 +528,16 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.certkey, "the certificates and keys used by tcp-lb. Multiple cert-key(s) are separated with `,`", "not changed")
                     , new ResActParamMan(ParamMan.securitygroup, "the security group", "not changed")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.splice, "relay data of new connections with splice(2)", false),
+                    new ResActFlagMan(FlagMan.nosplice, "relay data of new connections through user space buffers", false),
+                    new ResActFlagMan(FlagMan.bufferondemand, "allocate buffers of new connections on demand", false),
+                    new ResActFlagMan(FlagMan.nobufferondemand, "allocate buffers of new connections when they are created", false),
+                    new ResActFlagMan(FlagMan.backendpool, "reuse idle backend connections", false),
+                    new ResActFlagMan(FlagMan.nobackendpool, "stop reusing backend connections and close the idle ones", false),
+                    new ResActFlagMan(FlagMan.h2mux, "multiplex h2 streams of new connections onto shared backend connections", false),
+                    new ResActFlagMan(FlagMan.noh2mux, "stop multiplexing h2 streams of new connections, the shared backend connections are closed when their streams finish", false)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "update tcp-lb lb0 in-buffer-size 32768 out-buffer-size 32768",
@@ -715,7 +739,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`", "tcp"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`, `latency`", "wrr"),
                         new ResActParamMan(ParamMan.annotations, "extra info for the server-group, such as host info, health check url. Must be a json and values must be strings", "{}"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group", Application.DEFAULT_CONTROL_EVENT_LOOP_GROUP_NAME)
                     ),
@@ -770,7 +794,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`. " +
                             "Note: this field will be set to `tcp` as default when updating other hc options", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`, `latency`", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in the upstream resource (only available for server-group in upstream)", "not changed"),
                         new ResActParamMan(ParamMan.annotations, "annotation of the group itself, or the group in the upstream", "not changed")
                     ),
@@ -841,7 +865,7 @@ public class HelpCommand {
                 new ResActMan(ActMan.addto, "specify name, remote ip:port, weight, and attach the server into the server group",
                     Arrays.asList(
                         new ResActParamMan(ParamMan.address, "remote address, ip:port"),
-                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc and source algorithm", "10")
+                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by all loadbalancing algorithms", "10")
                     ),
                     Collections.singletonList(
                         new Tuple<>(
@@ -867,7 +891,7 @@ public class HelpCommand {
                     )),
                 new ResActMan(ActMan.update, "change weight of the server",
                     Collections.singletonList(
-                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc and source algorithm", "not changed")
+                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by all loadbalancing algorithms", "not changed")
                     ),
                     Collections.singletonList(
                         new Tuple<>(
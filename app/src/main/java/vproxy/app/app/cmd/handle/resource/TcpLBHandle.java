@@ -2,6 +2,7 @@ package vproxy.app.app.cmd.handle.resource;
 
 import vproxy.app.app.Application;
 import vproxy.app.app.cmd.Command;
+import vproxy.app.app.cmd.Flag;
 import vproxy.app.app.cmd.Param;
 import vproxy.app.app.cmd.Resource;
 import vproxy.app.app.cmd.handle.param.AddrHandle;
@@ -82,9 +83,21 @@ public class TcpLBHandle {
                 certKeys[i] = Application.get().certKeyHolder.get(cks[i]);
             }
         }
-        Application.get().tcpLBHolder.add(
+        TcpLB tcpLB = Application.get().tcpLBHolder.add(
             alias, acceptor, worker, addr, backend, timeout, inBufferSize, outBufferSize, protocol, certKeys, secg
         );
+        if (cmd.flags.contains(Flag.splice)) {
+            tcpLB.setSplice(true);
+        }
+        if (cmd.flags.contains(Flag.bufferondemand)) {
+            tcpLB.setBufferOnDemand(true);
+        }
+        if (cmd.flags.contains(Flag.backendpool)) {
+            tcpLB.setBackendPool(true);
+        }
+        if (cmd.flags.contains(Flag.h2mux)) {
+            tcpLB.setH2Mux(true);
+        }
     }
 
     public static void remove(Command cmd) throws Exception {
@@ -106,6 +119,26 @@ public class TcpLBHandle {
         if (cmd.args.containsKey(Param.secg)) {
             tcpLB.securityGroup = Application.get().securityGroupHolder.get(cmd.args.get(Param.secg));
         }
+        if (cmd.flags.contains(Flag.splice)) {
+            tcpLB.setSplice(true);
+        } else if (cmd.flags.contains(Flag.nosplice)) {
+            tcpLB.setSplice(false);
+        }
+        if (cmd.flags.contains(Flag.bufferondemand)) {
+            tcpLB.setBufferOnDemand(true);
+        } else if (cmd.flags.contains(Flag.nobufferondemand)) {
+            tcpLB.setBufferOnDemand(false);
+        }
+        if (cmd.flags.contains(Flag.backendpool)) {
+            tcpLB.setBackendPool(true);
+        } else if (cmd.flags.contains(Flag.nobackendpool)) {
+            tcpLB.setBackendPool(false);
+        }
+        if (cmd.flags.contains(Flag.h2mux)) {
+            tcpLB.setH2Mux(true);
+        } else if (cmd.flags.contains(Flag.noh2mux)) {
+            tcpLB.setH2Mux(false);
+        }
         if (cmd.args.containsKey(Param.ck)) {
             if (tcpLB.getCertKeys() == null || tcpLB.getCertKeys().length == 0) {
                 throw new XException("cannot configure the tcp-lb to use TLS when it's originally using plain TCP");
@@ -136,7 +169,12 @@ public class TcpLBHandle {
                 + " timeout " + tcpLB.getTimeout()
                 + " in-buffer-size " + tcpLB.getInBufferSize() + " out-buffer-size " + tcpLB.getOutBufferSize()
                 + " protocol " + tcpLB.protocol
-                + " security-group " + tcpLB.securityGroup.alias;
+                + " security-group " + tcpLB.securityGroup.alias
+                + (tcpLB.isSplice() ? " splice" : "")
+                + (tcpLB.isBufferOnDemand() ? " buffer-on-demand" : "")
+                + (tcpLB.isBackendPool() ? " backend-pool idle-backend-connections " + tcpLB.backendPoolIdleCount() : "")
+                + (tcpLB.isH2Mux() ? " h2-mux h2-backend-connections " + tcpLB.h2MuxConnectionCount() + " h2-streams " + tcpLB.h2MuxStreamCount() : "")
+                + " resident-buffer-bytes " + tcpLB.residentBufferBytes();
         }
     }
 }
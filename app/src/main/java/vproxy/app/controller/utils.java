@@ -481,6 +481,10 @@ class utils {
             .put("outBufferSize", tl.getOutBufferSize())
             .putInst("listOfCertKey", listOfCertKey)
             .put("securityGroup", tl.securityGroup.alias)
+            .put("splice", tl.isSplice())
+            .put("bufferOnDemand", tl.isBufferOnDemand())
+            .put("backendPool", tl.isBackendPool())
+            .put("h2Mux", tl.isH2Mux())
             .build();
     }
 
@@ -506,6 +510,14 @@ class utils {
             .put("outBufferSize", tl.getOutBufferSize())
             .putInst("listOfCertKey", listOfCertKey)
             .putInst("securityGroup", formatSecurityGroupDetail(tl.securityGroup))
+            .put("splice", tl.isSplice())
+            .put("bufferOnDemand", tl.isBufferOnDemand())
+            .put("residentBufferBytes", tl.residentBufferBytes())
+            .put("backendPool", tl.isBackendPool())
+            .put("idleBackendConnections", tl.backendPoolIdleCount())
+            .put("h2Mux", tl.isH2Mux())
+            .put("h2BackendConnections", tl.h2MuxConnectionCount())
+            .put("h2Streams", tl.h2MuxStreamCount())
             .build();
     }
 
@@ -548,6 +548,18 @@ public class Shutdown {
                         cmd.append(",").append(tl.getCertKeys()[i].alias);
                     }
                 }
+                if (tl.isSplice()) {
+                    cmd.append(" splice");
+                }
+                if (tl.isBufferOnDemand()) {
+                    cmd.append(" buffer-on-demand");
+                }
+                if (tl.isBackendPool()) {
+                    cmd.append(" backend-pool");
+                }
+                if (tl.isH2Mux()) {
+                    cmd.append(" h2-mux");
+                }
                 commands.add(cmd.toString());
             }
         }
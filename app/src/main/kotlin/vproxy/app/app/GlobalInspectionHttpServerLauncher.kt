@@ -4,6 +4,7 @@ import kotlinx.coroutines.suspendCancellableCoroutine
 import vproxy.base.GlobalInspection
 import vproxy.base.connection.ServerSock
 import vproxy.base.selector.SelectorEventLoop
+import vproxy.base.util.thread.VProxyThread
 import vproxy.lib.common.coroutine
 import vproxy.lib.common.launch
 import vproxy.lib.http1.CoroutineHttp1Server
@@ -23,10 +24,19 @@ class GlobalInspectionHttpServerLauncher private constructor() {
     val serverSock = ServerSock.create(l4addr)
     if (loop == null) {
       loop = SelectorEventLoop.open()
+      loop!!.loop { VProxyThread.create(it, "global-inspection-http-server") }
     }
     val app = CoroutineHttp1Server(serverSock.coroutine(loop!!.ensureNetEventLoop()))
 
-    app.get("/metrics") { it.conn.response(200).send(GlobalInspection.getInstance().prometheusString) }
+    app.get("/metrics") {
+      // format and send the metrics chunk by chunk instead of building the whole text
+      val resp = it.conn.response(200)
+      val chunks = GlobalInspection.getInstance().getPrometheusChunks(16384)
+      for (chunk in chunks) {
+        resp.sendChunk(chunk)
+      }
+      resp.endChunks(emptyList())
+    }
     app.get("/lsof") {
       val data = suspendCancellableCoroutine<String> { cont ->
         GlobalInspection.getInstance().getOpenFDs { data -> cont.resume(data) }
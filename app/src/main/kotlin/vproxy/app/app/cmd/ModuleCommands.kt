@@ -26,6 +26,12 @@ class ModuleCommands : Commands() {
           it + ResActParam(Param.ck)
           it + ResActParam(Param.secg)
         },
+        flags = {
+          it + ResActFlag(Flag.splice)
+          it + ResActFlag(Flag.bufferondemand)
+          it + ResActFlag(Flag.backendpool)
+          it + ResActFlag(Flag.h2mux)
+        },
         exec = execUpdate { TcpLBHandle.add(it) },
       )
       it + ResAct(
@@ -53,6 +59,16 @@ class ModuleCommands : Commands() {
           it + ResActParam(Param.ck)
           it + ResActParam(Param.secg)
         },
+        flags = {
+          it + ResActFlag(Flag.splice)
+          it + ResActFlag(Flag.nosplice)
+          it + ResActFlag(Flag.bufferondemand)
+          it + ResActFlag(Flag.nobufferondemand)
+          it + ResActFlag(Flag.backendpool)
+          it + ResActFlag(Flag.nobackendpool)
+          it + ResActFlag(Flag.h2mux)
+          it + ResActFlag(Flag.noh2mux)
+        },
         exec = execUpdate { TcpLBHandle.update(it) }
       )
       it + ResAct(
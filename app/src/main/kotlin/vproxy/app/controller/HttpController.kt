@@ -101,6 +101,10 @@ class HttpController(val alias: String, val address: IPPort) {
           .put("outBufferSize", 16384)
           .putArray("listOfCertKey") { add("alias of the cert-key to be used") }
           .put("securityGroup", "alias of the security group, default: (allow-all)")
+          .put("splice", false)
+          .put("bufferOnDemand", false)
+          .put("backendPool", false)
+          .put("h2Mux", false)
           .build(),
         "name", "address", "backend"
       )
@@ -112,6 +116,10 @@ class HttpController(val alias: String, val address: IPPort) {
           .put("outBufferSize", 16384)
           .putArray("listOfCertKey") { add("alias of the cert-key to be used") }
           .put("securityGroup", "alias of the security group")
+          .put("splice", false)
+          .put("bufferOnDemand", false)
+          .put("backendPool", false)
+          .put("h2Mux", false)
           .build()
       )
     )
@@ -744,6 +752,18 @@ class HttpController(val alias: String, val address: IPPort) {
       options.add("security-group")
       options.add(body.getString("securityGroup"))
     }
+    if (bodyContainsKey(body, "splice") && body.getBool("splice")) {
+      options.add("splice")
+    }
+    if (bodyContainsKey(body, "bufferOnDemand") && body.getBool("bufferOnDemand")) {
+      options.add("buffer-on-demand")
+    }
+    if (bodyContainsKey(body, "backendPool") && body.getBool("backendPool")) {
+      options.add("backend-pool")
+    }
+    if (bodyContainsKey(body, "h2Mux") && body.getBool("h2Mux")) {
+      options.add("h2-mux")
+    }
     utils.execute(cb, options)
   }
 
@@ -789,6 +809,34 @@ class HttpController(val alias: String, val address: IPPort) {
       options.add("security-group")
       options.add(body.getString("securityGroup"))
     }
+    if (bodyContainsKey(body, "splice")) {
+      if (body.getBool("splice")) {
+        options.add("splice")
+      } else {
+        options.add("no-splice")
+      }
+    }
+    if (bodyContainsKey(body, "bufferOnDemand")) {
+      if (body.getBool("bufferOnDemand")) {
+        options.add("buffer-on-demand")
+      } else {
+        options.add("no-buffer-on-demand")
+      }
+    }
+    if (bodyContainsKey(body, "backendPool")) {
+      if (body.getBool("backendPool")) {
+        options.add("backend-pool")
+      } else {
+        options.add("no-backend-pool")
+      }
+    }
+    if (bodyContainsKey(body, "h2Mux")) {
+      if (body.getBool("h2Mux")) {
+        options.add("h2-mux")
+      } else {
+        options.add("no-h2-mux")
+      }
+    }
     utils.execute(cb, options)
   }
 
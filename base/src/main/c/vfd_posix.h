@@ -85,15 +85,20 @@
 
 
     #include <unistd.h>
+    #include <sys/uio.h>
 
     #ifdef FSTACK
         #define v_close       ff_close
         #define v_read        ff_read
         #define v_write       ff_write
+        #define v_readv       ff_readv
+        #define v_writev      ff_writev
     #else
         #define v_close       close
         #define v_read        read
         #define v_write       write
+        #define v_readv       readv
+        #define v_writev      writev
         #define v_pipe        pipe
     #endif
     typedef struct sockaddr_in  v_sockaddr_in;
@@ -157,6 +162,7 @@
 
 
     #include <strings.h>
+    #include <string.h>
     #include <stdio.h>
     #include <stdlib.h>
     #define v_bzero bzero
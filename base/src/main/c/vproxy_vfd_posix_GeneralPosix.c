@@ -1,3 +1,9 @@
+#ifdef __linux__
+  // for splice(2), pipe2(2) and F_SETPIPE_SZ
+  #ifndef _GNU_SOURCE
+    #define _GNU_SOURCE
+  #endif
+#endif
 #include "vproxy_vfd_posix_GeneralPosix.h"
 #include "vfd_posix.h"
 #include "exception.h"
@@ -656,6 +662,108 @@ JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_write
     return handleWriteIOOperationResult(env, res);
 }
 
+// fill iov with the buffers, return -1 if any buffer is not direct
+int fillIOVec(JNIEnv* env, struct iovec* iov, int cnt, jobjectArray directBuffers, jintArray offs, jintArray lens) {
+    jint offArr[cnt];
+    jint lenArr[cnt];
+    (*env)->GetIntArrayRegion(env, offs, 0, cnt, offArr);
+    (*env)->GetIntArrayRegion(env, lens, 0, cnt, lenArr);
+    for (int i = 0; i < cnt; ++i) {
+        jobject directBuffer = (*env)->GetObjectArrayElement(env, directBuffers, i);
+        byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+        (*env)->DeleteLocalRef(env, directBuffer);
+        if (buf == NULL) {
+            return -1;
+        }
+        iov[i].iov_base = buf + offArr[i];
+        iov[i].iov_len = lenArr[i];
+    }
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_readv
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens) {
+    int cnt = (*env)->GetArrayLength(env, directBuffers);
+    if (cnt == 0) {
+        return 0;
+    }
+    struct iovec iov[cnt];
+    if (fillIOVec(env, iov, cnt, directBuffers, offs, lens) < 0) {
+        throwIOException(env, "readv requires direct buffers");
+        return 0;
+    }
+    int res = v_readv(fd, iov, cnt);
+    return handleReadIOOperationResult(env, res);
+}
+
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_writev
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens) {
+    int cnt = (*env)->GetArrayLength(env, directBuffers);
+    if (cnt == 0) {
+        return 0;
+    }
+    struct iovec iov[cnt];
+    if (fillIOVec(env, iov, cnt, directBuffers, offs, lens) < 0) {
+        throwIOException(env, "writev requires direct buffers");
+        return 0;
+    }
+    int res = v_writev(fd, iov, cnt);
+    return handleWriteIOOperationResult(env, res);
+}
+
+JNIEXPORT jboolean JNICALL Java_vproxy_vfd_posix_GeneralPosix_spliceSupported
+  (JNIEnv* env, jobject self) {
+    #if defined(__linux__) && !defined(FSTACK)
+        return JNI_TRUE;
+    #else
+        return JNI_FALSE;
+    #endif
+}
+
+JNIEXPORT jintArray JNICALL Java_vproxy_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv* env, jobject self, jint size) {
+    #if defined(__linux__) && !defined(FSTACK)
+        int pipes[2];
+        int res = pipe2(pipes, O_NONBLOCK | O_CLOEXEC);
+        if (res < 0) {
+            throwIOExceptionBasedOnErrno(env);
+            return NULL;
+        }
+        if (size > 0) {
+            // failing to resize is not fatal, the default capacity will be used
+            fcntl(pipes[1], F_SETPIPE_SZ, size);
+        }
+        int cap = fcntl(pipes[1], F_GETPIPE_SZ);
+        if (cap <= 0) {
+            v_close(pipes[0]);
+            v_close(pipes[1]);
+            throwIOExceptionBasedOnErrno(env);
+            return NULL;
+        }
+        jintArray ret = (*env)->NewIntArray(env, 3);
+        jint elems[] = { pipes[0], pipes[1], cap };
+        (*env)->SetIntArrayRegion(env, ret, 0, 3, elems);
+        return ret;
+    #else
+        throwIOException(env, "splice is not supported");
+        return NULL;
+    #endif
+}
+
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_splice
+  (JNIEnv* env, jobject self, jint fdIn, jint fdOut, jint len) {
+    #if defined(__linux__) && !defined(FSTACK)
+        if (len == 0) {
+            return 0;
+        }
+        ssize_t res = splice(fdIn, NULL, fdOut, NULL, len, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+        return handleReadIOOperationResult(env, (int) res);
+    #else
+        throwIOException(env, "splice is not supported");
+        return 0;
+    #endif
+}
+
 JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_sendtoIPv4
   (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint len, jint addrHostOrder, jint port) {
     if (len == 0) {
@@ -742,6 +850,154 @@ JNIEXPORT jobject JNICALL Java_vproxy_vfd_posix_GeneralPosix_recvfromIPv6
     return ret;
 }
 
+#if defined(__linux__) && !defined(FSTACK)
+    #define V_MMSG_SUPPORTED 1
+#endif
+
+typedef union {
+    v_sockaddr_in  v4;
+    v_sockaddr_in6 v6;
+} v_sockaddr_inet;
+
+#define V_MMSG_ADDR_LEN 16
+
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_recvmmsg
+  (JNIEnv* env, jobject self, jint fd, jboolean ipv4, jobject directBuffer, jint off, jint slotLen, jint count,
+   jintArray lens, jbyteArray addrs, jintArray ports) {
+    if (count == 0 || slotLen == 0) {
+        return 0;
+    }
+    byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+    buf += off;
+    v_sockaddr_inet names[count];
+    jint retLens[count];
+    jint retPorts[count];
+    jbyte retAddrs[count * V_MMSG_ADDR_LEN];
+    int n = 0;
+    #ifdef V_MMSG_SUPPORTED
+        struct mmsghdr msgs[count];
+        struct iovec iov[count];
+        v_bzero(msgs, sizeof(msgs));
+        for (int i = 0; i < count; ++i) {
+            iov[i].iov_base = buf + i * slotLen;
+            iov[i].iov_len = slotLen;
+            msgs[i].msg_hdr.msg_iov = &iov[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = sizeof(v_sockaddr_inet);
+        }
+        n = recvmmsg(fd, msgs, count, 0, NULL);
+        if (n < 0) {
+            if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+                return 0;
+            }
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+        for (int i = 0; i < n; ++i) {
+            retLens[i] = msgs[i].msg_len;
+        }
+    #else
+        // receive one by one
+        for (; n < count; ++n) {
+            unsigned int namelen = sizeof(v_sockaddr_inet);
+            int res = v_recvfrom(fd, buf + n * slotLen, slotLen, 0, (v_sockaddr*) &names[n], &namelen);
+            if (res < 0) {
+                if (n == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                    return 0;
+                }
+                // report the error next time
+                break;
+            }
+            retLens[n] = res;
+        }
+        if (n == 0) {
+            return 0;
+        }
+    #endif
+    for (int i = 0; i < n; ++i) {
+        if (ipv4) {
+            memcpy(retAddrs + i * V_MMSG_ADDR_LEN, &(names[i].v4.sin_addr), 4);
+            retPorts[i] = v_ntohs(names[i].v4.sin_port);
+        } else {
+            memcpy(retAddrs + i * V_MMSG_ADDR_LEN, &(names[i].v6.sin6_addr), 16);
+            retPorts[i] = v_ntohs(names[i].v6.sin6_port);
+        }
+    }
+    (*env)->SetIntArrayRegion(env, lens, 0, n, retLens);
+    (*env)->SetIntArrayRegion(env, ports, 0, n, retPorts);
+    (*env)->SetByteArrayRegion(env, addrs, 0, n * V_MMSG_ADDR_LEN, retAddrs);
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_sendmmsg
+  (JNIEnv* env, jobject self, jint fd, jboolean ipv4, jobject directBuffer, jintArray offs, jintArray lens,
+   jbyteArray addrs, jintArray ports, jint count) {
+    if (count == 0) {
+        return 0;
+    }
+    byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+    jint offArr[count];
+    jint lenArr[count];
+    jint portArr[count];
+    jbyte addrArr[count * V_MMSG_ADDR_LEN];
+    (*env)->GetIntArrayRegion(env, offs, 0, count, offArr);
+    (*env)->GetIntArrayRegion(env, lens, 0, count, lenArr);
+    (*env)->GetIntArrayRegion(env, ports, 0, count, portArr);
+    (*env)->GetByteArrayRegion(env, addrs, 0, count * V_MMSG_ADDR_LEN, addrArr);
+    v_sockaddr_inet names[count];
+    unsigned int namelen = ipv4 ? sizeof(v_sockaddr_in) : sizeof(v_sockaddr_in6);
+    v_bzero(names, sizeof(names));
+    for (int i = 0; i < count; ++i) {
+        if (ipv4) {
+            names[i].v4.sin_family = V_AF_INET;
+            names[i].v4.sin_port = v_htons(portArr[i]);
+            memcpy(&(names[i].v4.sin_addr), addrArr + i * V_MMSG_ADDR_LEN, 4);
+        } else {
+            names[i].v6.sin6_family = V_AF_INET6;
+            names[i].v6.sin6_port = v_htons(portArr[i]);
+            memcpy(&(names[i].v6.sin6_addr), addrArr + i * V_MMSG_ADDR_LEN, 16);
+        }
+    }
+    int n = 0;
+    #ifdef V_MMSG_SUPPORTED
+        struct mmsghdr msgs[count];
+        struct iovec iov[count];
+        v_bzero(msgs, sizeof(msgs));
+        for (int i = 0; i < count; ++i) {
+            iov[i].iov_base = buf + offArr[i];
+            iov[i].iov_len = lenArr[i];
+            msgs[i].msg_hdr.msg_iov = &iov[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = namelen;
+        }
+        n = sendmmsg(fd, msgs, count, 0);
+        if (n < 0) {
+            if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+                return 0;
+            }
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+    #else
+        // send one by one
+        for (; n < count; ++n) {
+            int res = v_sendto(fd, buf + offArr[n], lenArr[n], 0, (v_sockaddr*) &names[n], namelen);
+            if (res < 0) {
+                if (n == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                    return 0;
+                }
+                // report the error next time
+                break;
+            }
+        }
+    #endif
+    return n;
+}
+
 JNIEXPORT jlong JNICALL Java_vproxy_vfd_posix_GeneralPosix_currentTimeMillis
   (JNIEnv* env, jobject self) {
     v_timeval tv;
@@ -351,6 +351,46 @@ JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_read
 JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_write
   (JNIEnv *, jobject, jint, jobject, jint, jint);
 
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    readv
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_readv
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray);
+
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    writev
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_writev
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray);
+
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    spliceSupported
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_vproxy_vfd_posix_GeneralPosix_spliceSupported
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    openSplicePipe
+ * Signature: (I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_vproxy_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    splice
+ * Signature: (III)I
+ */
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_splice
+  (JNIEnv *, jobject, jint, jint, jint);
+
 /*
  * Class:     vproxy_vfd_posix_GeneralPosix
  * Method:    sendtoIPv4
@@ -383,6 +423,22 @@ JNIEXPORT jobject JNICALL Java_vproxy_vfd_posix_GeneralPosix_recvfromIPv4
 JNIEXPORT jobject JNICALL Java_vproxy_vfd_posix_GeneralPosix_recvfromIPv6
   (JNIEnv *, jobject, jint, jobject, jint, jint);
 
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    recvmmsg
+ * Signature: (IZLjava/nio/ByteBuffer;III[I[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_recvmmsg
+  (JNIEnv *, jobject, jint, jboolean, jobject, jint, jint, jint, jintArray, jbyteArray, jintArray);
+
+/*
+ * Class:     vproxy_vfd_posix_GeneralPosix
+ * Method:    sendmmsg
+ * Signature: (IZLjava/nio/ByteBuffer;[I[I[B[II)I
+ */
+JNIEXPORT jint JNICALL Java_vproxy_vfd_posix_GeneralPosix_sendmmsg
+  (JNIEnv *, jobject, jint, jboolean, jobject, jintArray, jintArray, jbyteArray, jintArray, jint);
+
 /*
  * Class:     vproxy_vfd_posix_GeneralPosix
  * Method:    currentTimeMillis
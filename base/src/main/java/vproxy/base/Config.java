@@ -26,6 +26,13 @@ public class Config {
     // the maximum expected size of a udp packet
     public static final int udpMtu = 65536;
 
+    // the maximum count of udp packets transferred in one batch
+    public static final int udpBatchSize = 16;
+
+    // the maximum size of the direct memory of one batch,
+    // batches with large slots hold fewer packets
+    public static final int udpBatchMaxBytes = 256 * 1024;
+
     // the recommended min payload length
     // also, see Processor.PROXY_ZERO_COPY_THRESHOLD
     public static final int recommendedMinPayloadLength = 1200;
@@ -113,6 +120,92 @@ public class Config {
     public static final boolean dhcpGetDnsListEnabled;
     public static final Predicate<String> dhcpGetDnsListNics;
 
+    // whether to use the hierarchical timing wheel instead of the priority queue for event loop timers
+    // the timing wheel recycles its elements, so the timer path does not allocate in steady state
+    // this is the default value when opening event loops
+    // -DTimeWheel=true|false
+    public static final boolean useTimeWheel;
+
+    // number of threads running delegated tasks of ssl engines
+    // -DSslTaskThreads=...
+    public static final int sslTaskThreads;
+
+    // when the count of pending ssl delegated tasks reaches the limit,
+    // servers handling ssl stop accepting new connections for a while
+    // -DSslTaskPendingLimit=...
+    public static final int sslTaskPendingLimit;
+
+    // max count of sessions kept in the server session cache of each ssl context
+    // -DSslSessionCacheSize=...
+    public static final int sslSessionCacheSize;
+
+    // seconds before a cached ssl session or a session ticket expires
+    // -DSslSessionTimeout=...
+    public static final int sslSessionTimeout;
+
+    // whether to issue stateless session tickets, and how many seconds before the ticket key rotates
+    // tickets are sealed with keys of the ssl context, which is shared by all event loops,
+    // the jdk supports server side session tickets since 13, older runtimes only use the session cache
+    // -DSslSessionTicket=true|false
+    // -DSslSessionTicketKeyTimeout=...
+    public static final boolean sslSessionTicket;
+    public static final int sslSessionTicketKeyTimeout;
+
+    // whether dns servers bind one socket on each event loop of the group by default,
+    // only takes effect when SO_REUSEPORT can balance packets between sockets
+    // -DDnsServerSharded=true|false
+    public static final boolean dnsServerSharded;
+
+    // max count of responses cached by each dns server for recursive lookups, 0 to disable the cache
+    // ttl of cached responses are capped by the max ttl, and the negative max ttl for NXDOMAIN/NODATA
+    // -DDnsCacheSize=...
+    // -DDnsCacheMaxTtl=...
+    // -DDnsCacheNegativeMaxTtl=...
+    public static final int dnsCacheSize;
+    public static final int dnsCacheMaxTtl;
+    public static final int dnsCacheNegativeMaxTtl;
+
+    // on-demand ring buffers return their memory after staying empty for this long
+    // -DRingBufferReleaseIdleMillis=...
+    public static final int ringBufferReleaseIdleMillis;
+
+    // max connections accepted from one listening socket in one round of the event loop
+    // the rest are accepted in the next round, after events of other fds are handled
+    // -DAcceptBudget=...
+    public static final int acceptBudget;
+
+    // how EventLoopGroup chooses a loop for new connections: rr, leastbusy or p2c
+    // -DEventLoopPlacement=...
+    public static final String eventLoopPlacement;
+
+    // idle backend connections kept on each event loop for each server, when backend-pool is enabled on a tcp-lb,
+    // a connection is closed after staying idle for the idle timeout, and is not reused after the max lifetime
+    // -DBackendPoolMaxIdle=...
+    // -DBackendPoolIdleTimeoutMillis=...
+    // -DBackendPoolMaxLifetimeMillis=...
+    public static final int backendPoolMaxIdle;
+    public static final int backendPoolIdleTimeoutMillis;
+    public static final int backendPoolMaxLifetimeMillis;
+
+    // backend connections and streams on each connection when h2-mux is enabled on a tcp-lb,
+    // the connections are grouped by event loop and server, and are closed after staying idle for BackendPoolIdleTimeoutMillis
+    // -DH2MuxMaxConnectionsPerServer=...
+    // -DH2MuxMaxStreamsPerConnection=...
+    public static final int h2MuxMaxConnectionsPerServer;
+    public static final int h2MuxMaxStreamsPerConnection;
+
+    // whether switches bind one vxlan socket on each event loop of the group by default,
+    // each vni is handled on one of the loops, only takes effect when SO_REUSEPORT can balance packets between sockets
+    // -DSwitchSharded=true|false
+    public static final boolean switchSharded;
+
+    // whether switches read up to udpBatchSize packets from a socket or a tap/tun device before handling them together,
+    // and send udp packets generated when handling the batch with one batch operation.
+    // disabled by default: packets received from udp sockets are copied out of the shared batch before being handled,
+    // so it only pays off when the syscalls saved by recvmmsg/sendmmsg cost more than the copies
+    // -DSwitchBatchIo=true|false
+    public static final boolean switchBatchIO;
+
     static {
         appClass = Utils.getSystemProperty("deploy");
         String probeConf = Utils.getSystemProperty("probe", "");
@@ -136,6 +229,48 @@ public class Config {
             dhcpGetDnsListEnabled = true;
             dhcpGetDnsListNics = set::contains;
         }
+
+        useTimeWheel = Utils.getSystemProperty("time_wheel", "false").equals("true");
+
+        sslTaskThreads = Integer.parseInt(Utils.getSystemProperty("ssl_task_threads",
+            "" + Runtime.getRuntime().availableProcessors()));
+        sslTaskPendingLimit = Integer.parseInt(Utils.getSystemProperty("ssl_task_pending_limit",
+            "" + (sslTaskThreads * 64)));
+
+        sslSessionCacheSize = Integer.parseInt(Utils.getSystemProperty("ssl_session_cache_size", "20480"));
+        sslSessionTimeout = Integer.parseInt(Utils.getSystemProperty("ssl_session_timeout", "86400"));
+        sslSessionTicket = !Utils.getSystemProperty("ssl_session_ticket", "true").equals("false");
+        sslSessionTicketKeyTimeout = Integer.parseInt(Utils.getSystemProperty("ssl_session_ticket_key_timeout", "3600"));
+        // the jdk reads these properties when the first ssl context is created
+        // do not override them if specified by the user
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", "" + sslSessionTicket);
+        }
+        if (System.getProperty("jdk.tls.server.statelessKeyTimeout") == null) {
+            System.setProperty("jdk.tls.server.statelessKeyTimeout", "" + sslSessionTicketKeyTimeout);
+        }
+
+        dnsServerSharded = Utils.getSystemProperty("dns_server_sharded", "false").equals("true");
+
+        dnsCacheSize = Integer.parseInt(Utils.getSystemProperty("dns_cache_size", "10000"));
+        dnsCacheMaxTtl = Integer.parseInt(Utils.getSystemProperty("dns_cache_max_ttl", "86400"));
+        dnsCacheNegativeMaxTtl = Integer.parseInt(Utils.getSystemProperty("dns_cache_negative_max_ttl", "10800"));
+
+        ringBufferReleaseIdleMillis = Integer.parseInt(Utils.getSystemProperty("ring_buffer_release_idle_millis", "5000"));
+
+        acceptBudget = Integer.parseInt(Utils.getSystemProperty("accept_budget", "64"));
+
+        eventLoopPlacement = Utils.getSystemProperty("event_loop_placement", "rr");
+
+        backendPoolMaxIdle = Integer.parseInt(Utils.getSystemProperty("backend_pool_max_idle", "16"));
+        backendPoolIdleTimeoutMillis = Integer.parseInt(Utils.getSystemProperty("backend_pool_idle_timeout_millis", "15000"));
+        backendPoolMaxLifetimeMillis = Integer.parseInt(Utils.getSystemProperty("backend_pool_max_lifetime_millis", "300000"));
+
+        h2MuxMaxConnectionsPerServer = Integer.parseInt(Utils.getSystemProperty("h2_mux_max_connections_per_server", "2"));
+        h2MuxMaxStreamsPerConnection = Integer.parseInt(Utils.getSystemProperty("h2_mux_max_streams_per_connection", "100"));
+
+        switchSharded = Utils.getSystemProperty("switch_sharded", "false").equals("true");
+        switchBatchIO = Utils.getSystemProperty("switch_batch_io", "false").equals("true");
     }
 
     public static boolean supportReusePortLB() {
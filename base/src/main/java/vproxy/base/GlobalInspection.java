@@ -4,13 +4,17 @@ import vjson.simple.SimpleString;
 import vproxy.base.util.AppendableMap;
 import vproxy.base.prometheus.Counter;
 import vproxy.base.prometheus.Gauge;
+import vproxy.base.prometheus.GaugeF;
+import vproxy.base.prometheus.Histogram;
 import vproxy.base.prometheus.Metric;
 import vproxy.base.prometheus.Metrics;
+import vproxy.base.prometheus.Summary;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.selector.wrap.FDInspection;
 import vproxy.base.selector.wrap.VirtualFD;
 import vproxy.base.util.*;
 import vproxy.base.util.exception.NoException;
+import vproxy.base.util.ringbuffer.ssl.SSLTaskExecutor;
 import vproxy.base.util.table.TR;
 import vproxy.base.util.table.TableBuilder;
 import vproxy.base.util.thread.VProxyThread;
@@ -40,7 +44,22 @@ public class GlobalInspection {
     private final Counter directBufferFinalizeCount;
     private final Counter sslUnwrapTaskCount;
     private final Counter sslUnwrapTaskTimeMillisTotal;
+    private final Histogram sslTaskWaitTimeMicros;
+    private final Counter sslAcceptPausedCount;
+    private final Counter sslSessionResumptionHitCount;
+    private final Counter sslSessionResumptionMissCount;
+    private final Counter dnsCacheHitCount;
+    private final Counter dnsCacheMissCount;
+    private final Counter dnsCacheCoalescedCount;
+    private final Counter dnsCachePrefetchCount;
     private final Gauge threadNumberCurrent;
+    private final Counter eventLoopIterationCount;
+    private final Counter eventLoopTimerAllocationCount;
+    private final Counter eventLoopWakeupCount;
+    private final Counter eventLoopWakeupCoalescedCount;
+    private final Histogram tcpConnectTimeMicros;
+    private final Histogram dnsResolveTimeMicros;
+    private final Summary healthCheckCostMillis;
 
     private final ConcurrentHashSet<SelectorEventLoop> runningLoops = new ConcurrentHashSet<>();
     private final ConcurrentHashSet<VProxyThread> runningThreads = new ConcurrentHashSet<>();
@@ -81,10 +100,76 @@ public class GlobalInspection {
             .appendAll(extraLabels));
         metrics.add(sslUnwrapTaskTimeMillisTotal);
 
+        metrics.add(new GaugeF("ssl_task_pending_current", new AppendableMap<>()
+            .appendAll(extraLabels), () -> (long) SSLTaskExecutor.currentPending()));
+
+        // 10us ~ 5s
+        sslTaskWaitTimeMicros = new Histogram("ssl_task_wait_time_micros", new AppendableMap<>()
+            .appendAll(extraLabels), Histogram.exponentialBounds(10, 2, 20));
+        metrics.add(sslTaskWaitTimeMicros);
+
+        sslAcceptPausedCount = new Counter("ssl_accept_paused_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(sslAcceptPausedCount);
+
+        sslSessionResumptionHitCount = new Counter("ssl_session_resumption_hit_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(sslSessionResumptionHitCount);
+
+        sslSessionResumptionMissCount = new Counter("ssl_session_resumption_miss_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(sslSessionResumptionMissCount);
+
+        dnsCacheHitCount = new Counter("dns_cache_hit_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(dnsCacheHitCount);
+
+        dnsCacheMissCount = new Counter("dns_cache_miss_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(dnsCacheMissCount);
+
+        dnsCacheCoalescedCount = new Counter("dns_cache_coalesced_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(dnsCacheCoalescedCount);
+
+        dnsCachePrefetchCount = new Counter("dns_cache_prefetch_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(dnsCachePrefetchCount);
+
         threadNumberCurrent = new Gauge("thread_number_current", new AppendableMap<>()
             .appendAll(extraLabels));
         metrics.add(threadNumberCurrent);
 
+        eventLoopIterationCount = new Counter("event_loop_iteration_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(eventLoopIterationCount);
+
+        eventLoopTimerAllocationCount = new Counter("event_loop_timer_allocation_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(eventLoopTimerAllocationCount);
+
+        eventLoopWakeupCount = new Counter("event_loop_wakeup_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(eventLoopWakeupCount);
+
+        eventLoopWakeupCoalescedCount = new Counter("event_loop_wakeup_coalesced_count", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(eventLoopWakeupCoalescedCount);
+
+        // 50us ~ 13s
+        long[] latencyBoundsMicros = Histogram.exponentialBounds(50, 2, 19);
+        tcpConnectTimeMicros = new Histogram("tcp_connect_time_micros", new AppendableMap<>()
+            .appendAll(extraLabels), latencyBoundsMicros);
+        metrics.add(tcpConnectTimeMicros);
+
+        dnsResolveTimeMicros = new Histogram("dns_resolve_time_micros", new AppendableMap<>()
+            .appendAll(extraLabels), latencyBoundsMicros);
+        metrics.add(dnsResolveTimeMicros);
+
+        healthCheckCostMillis = new Summary("health_check_cost_millis", new AppendableMap<>()
+            .appendAll(extraLabels));
+        metrics.add(healthCheckCostMillis);
+
         metrics.registerHelpMessage("direct_memory_bytes_current", "Current allocated direct memory in bytes");
         metrics.registerHelpMessage("direct_memory_allocate_count", "Total count of how many times the direct memory is allocated");
         metrics.registerHelpMessage("direct_memory_free_count", "Total count of how many times the direct memory is freed");
@@ -92,7 +177,27 @@ public class GlobalInspection {
         metrics.registerHelpMessage("direct_memory_finalize_count", "Total count of how many times the direct memory is finalized");
         metrics.registerHelpMessage("ssl_unwrap_task_count", "Total count of how many times ssl unwrap requires executing a task");
         metrics.registerHelpMessage("ssl_unwrap_task_time_millis_total", "Total time cost for tasks required by ssl unwrapping");
+        metrics.registerHelpMessage("ssl_task_pending_current", "Current count of ssl delegated tasks waiting or running in the shared executor");
+        metrics.registerHelpMessage("ssl_task_wait_time_micros", "Time for ssl delegated tasks waiting in the queue of the shared executor");
+        metrics.registerHelpMessage("ssl_accept_paused_count", "Total count of how many times servers stop accepting because the ssl task executor is saturated");
+        metrics.registerHelpMessage("ssl_session_resumption_hit_count", "Total count of server side ssl handshakes resuming a cached session or a session ticket");
+        metrics.registerHelpMessage("ssl_session_resumption_miss_count", "Total count of server side ssl handshakes creating new sessions");
+        metrics.registerHelpMessage("dns_cache_hit_count", "Total count of recursive dns queries answered from the cache");
+        metrics.registerHelpMessage("dns_cache_miss_count", "Total count of recursive dns queries not found in the cache");
+        metrics.registerHelpMessage("dns_cache_coalesced_count", "Total count of recursive dns queries waiting for an identical in-flight upstream query");
+        metrics.registerHelpMessage("dns_cache_prefetch_count", "Total count of upstream queries refreshing hot cache entries before they expire");
         metrics.registerHelpMessage("thread_number_current", "The number of current running threads");
+        metrics.registerHelpMessage("event_loop_iteration_count", "Total count of event loop iterations");
+        metrics.registerHelpMessage("event_loop_timer_allocation_count", "Total count of objects allocated for timers on event loops, divide by event_loop_iteration_count to get allocations per iteration");
+        metrics.registerHelpMessage("event_loop_wakeup_count", "Total count of how many times the selector of an event loop is woken up by another thread");
+        metrics.registerHelpMessage("event_loop_wakeup_coalesced_count", "Total count of wakeups skipped because the event loop is running or already woken up");
+        metrics.registerHelpMessage("tcp_connect_time_micros", "Time cost from starting a tcp connection to the connection established");
+        metrics.registerHelpMessage("dns_resolve_time_micros", "Time cost from sending a dns request to receiving the response");
+        metrics.registerHelpMessage("health_check_cost_millis", "Time cost of successful health checks");
+        metrics.registerHelpMessage("event_loop_io_syscall_count", "Total count of read/write syscalls issued on network fds by each event loop");
+        metrics.registerHelpMessage("event_loop_utilization_percent", "Percentage of time each event loop spends outside select() recently");
+        metrics.registerHelpMessage("event_loop_fd_current", "Current count of fds registered on each event loop");
+        metrics.registerHelpMessage("event_loop_queue_depth_current", "Current count of tasks waiting to be run on each event loop");
     }
 
     private Map<String, String> getExtraLabels() {
@@ -155,6 +260,65 @@ public class GlobalInspection {
         sslUnwrapTaskTimeMillisTotal.incr(costMillis);
     }
 
+    public void sslTaskWait(long waitNanos) {
+        sslTaskWaitTimeMicros.record(waitNanos / 1000);
+    }
+
+    public void sslAcceptPaused() {
+        sslAcceptPausedCount.incr(1);
+    }
+
+    public void dnsCacheHit() {
+        dnsCacheHitCount.incr(1);
+    }
+
+    public void dnsCacheMiss() {
+        dnsCacheMissCount.incr(1);
+    }
+
+    public void dnsCacheCoalesced() {
+        dnsCacheCoalescedCount.incr(1);
+    }
+
+    public void dnsCachePrefetch() {
+        dnsCachePrefetchCount.incr(1);
+    }
+
+    public void sslSessionResumption(boolean hit) {
+        if (hit) {
+            sslSessionResumptionHitCount.incr(1);
+        } else {
+            sslSessionResumptionMissCount.incr(1);
+        }
+    }
+
+    public void eventLoopIteration(long timerAllocations) {
+        eventLoopIterationCount.incr(1);
+        if (timerAllocations != 0) {
+            eventLoopTimerAllocationCount.incr(timerAllocations);
+        }
+    }
+
+    public void tcpConnectTime(long costNanos) {
+        tcpConnectTimeMicros.record(costNanos / 1000);
+    }
+
+    public void dnsResolveTime(long costNanos) {
+        dnsResolveTimeMicros.record(costNanos / 1000);
+    }
+
+    public void healthCheckCost(long costMillis) {
+        healthCheckCostMillis.record(costMillis);
+    }
+
+    public void eventLoopWakeup() {
+        eventLoopWakeupCount.incr(1);
+    }
+
+    public void eventLoopWakeupCoalesced() {
+        eventLoopWakeupCoalescedCount.incr(1);
+    }
+
     public Runnable wrapThread(Runnable r) {
         return () -> {
             VProxyThread vt = (VProxyThread) Thread.currentThread();
@@ -181,6 +345,13 @@ public class GlobalInspection {
         return metrics.toString();
     }
 
+    /**
+     * @return the prometheus text split into chunks of about the specified size, formatted while iterating
+     */
+    public Iterator<String> getPrometheusChunks(int chunkSize) {
+        return metrics.chunks(chunkSize);
+    }
+
     public String getStackTraces() {
         var threads = new HashSet<>(runningThreads);
         StringBuilder sb = new StringBuilder();
@@ -1,5 +1,6 @@
 package vproxy.base.component.elgroup;
 
+import vproxy.base.Config;
 import vproxy.base.connection.NetEventLoop;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.*;
@@ -11,16 +12,33 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class EventLoopGroup {
+    // utilizations closer than this are considered the same, and the loop with fewer fds is preferred
+    private static final double UTILIZATION_TOLERANCE = 0.05;
+    private static final EventLoopPlacement DEFAULT_PLACEMENT;
+
+    static {
+        EventLoopPlacement placement;
+        try {
+            placement = EventLoopPlacement.valueOf(Config.eventLoopPlacement);
+        } catch (IllegalArgumentException e) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "invalid event loop placement " + Config.eventLoopPlacement + ", use rr instead");
+            placement = EventLoopPlacement.rr;
+        }
+        DEFAULT_PLACEMENT = placement;
+    }
+
     public final String alias;
     private ArrayList<EventLoopWrapper> eventLoops = new ArrayList<>(0); // use array list to make code look better,
     // it's the same if you use array
     private boolean closed = false; // if true, then all operations are disabled or return default value
     private final AtomicInteger cursor = new AtomicInteger(0); // current cursor of the eventLoops
     private final ConcurrentHashSet<EventLoopGroupAttach> attaches = new ConcurrentHashSet<>();
+    private volatile EventLoopPlacement placement = DEFAULT_PLACEMENT;
 
     public EventLoopGroup(String alias) {
         this.alias = alias;
@@ -201,7 +219,68 @@ public class EventLoopGroup {
             return (EventLoopWrapper) hint;
         }
         assert Logger.lowLevelDebug("caller loop is not contained in the event loop group, choose one");
-        return next(ls, 0);
+        switch (placement) {
+            case leastbusy:
+                return leastBusy(ls);
+            case p2c:
+                return p2c(ls);
+            default:
+                return next(ls, 0);
+        }
+    }
+
+    @ThreadSafe
+    public EventLoopPlacement getPlacement() {
+        return placement;
+    }
+
+    @ThreadSafe
+    public void setPlacement(EventLoopPlacement placement) {
+        this.placement = placement;
+    }
+
+    private static boolean lessBusy(EventLoopWrapper a, EventLoopWrapper b) {
+        double ua = a.getSelectorEventLoop().getUtilization();
+        double ub = b.getSelectorEventLoop().getUtilization();
+        if (Math.abs(ua - ub) > UTILIZATION_TOLERANCE) {
+            return ua < ub;
+        }
+        // the utilization is calculated per window, while the fd count changes immediately,
+        // which keeps connections arriving in the same window from going to the same loop
+        return a.getSelectorEventLoop().getFdCount() < b.getSelectorEventLoop().getFdCount();
+    }
+
+    private EventLoopWrapper leastBusy(ArrayList<EventLoopWrapper> ls) {
+        EventLoopWrapper result = null;
+        for (EventLoopWrapper w : ls) {
+            if (w.getSelectorEventLoop().isClosed()) {
+                continue;
+            }
+            if (result == null || lessBusy(w, result)) {
+                result = w;
+            }
+        }
+        return result;
+    }
+
+    private EventLoopWrapper p2c(ArrayList<EventLoopWrapper> ls) {
+        int size = ls.size();
+        if (size < 2) {
+            return next(ls, 0);
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int i = rand.nextInt(size);
+        int j = rand.nextInt(size - 1);
+        if (j >= i) {
+            ++j;
+        }
+        EventLoopWrapper a = ls.get(i);
+        EventLoopWrapper b = ls.get(j);
+        if (a.getSelectorEventLoop().isClosed() || b.getSelectorEventLoop().isClosed()) {
+            // maybe the list is operated in another thread
+            return leastBusy(ls);
+        }
+        return lessBusy(b, a) ? b : a;
     }
 
     private EventLoopWrapper next(ArrayList<EventLoopWrapper> ls, int recursion) {
@@ -0,0 +1,7 @@
+package vproxy.base.component.elgroup;
+
+public enum EventLoopPlacement {
+    rr, // round robin
+    leastbusy, // the loop with the lowest utilization, fewer fds when utilizations are close
+    p2c, // power of two random choices, pick the less busy one of two random loops
+}
@@ -47,6 +47,11 @@ public class EventLoopWrapper extends NetEventLoop {
         public void exception(ServerHandlerContext ctx, IOException err) {
             handler.exception(ctx, err);
         }
+
+        @Override
+        public boolean pauseAccepting(ServerHandlerContext ctx) {
+            return handler.pauseAccepting(ctx);
+        }
     }
 
     class ConnectionHandlerWrapper implements ConnectionHandler {
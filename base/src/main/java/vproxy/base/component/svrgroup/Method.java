@@ -4,4 +4,7 @@ public enum Method {
     wrr,
     wlc,
     source, // consistent hashing with source ip address
+    maglev, // maglev consistent hashing with source ip address, keys only move away from unhealthy servers
+    p2c, // power of two random choices, pick the one with less weighted connections
+    latency, // power of two random choices, pick the one with less weighted health check cost * connections
 }
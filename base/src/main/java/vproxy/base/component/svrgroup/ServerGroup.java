@@ -1,6 +1,7 @@
 package vproxy.base.component.svrgroup;
 
 import vproxy.base.GlobalEvents;
+import vproxy.base.GlobalInspection;
 import vproxy.base.component.check.*;
 import vproxy.base.component.elgroup.EventLoopAttach;
 import vproxy.base.component.elgroup.EventLoopGroup;
@@ -20,11 +21,11 @@ import vproxy.vfd.*;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 public class ServerGroup {
     public class ServerHandle implements EventLoopAttach, NetFlowRecorder, ConnCloseHandler {
@@ -66,16 +67,25 @@ public class ServerGroup {
             @Override
             public void upOnce(SockAddr remote, ConnectResult result) {
                 assert Logger.lowLevelDebug("up once for " + ServerHandle.this.alias + "(" + server + "), cost = " + result.cost);
-                hcCost.addLast(result.cost);
-                if (hcCost.size() > 10) {
-                    hcCost.removeFirst();
+                GlobalInspection.getInstance().healthCheckCost(result.cost);
+                if (hcCostCount == hcCost.length) {
+                    hcCostSum -= hcCost[hcCostIdx];
+                } else {
+                    ++hcCostCount;
                 }
+                hcCost[hcCostIdx] = result.cost;
+                hcCostSum += result.cost;
+                hcCostIdx = (hcCostIdx + 1) % hcCost.length;
+                hcCostAvg = hcCostSum / hcCostCount;
             }
 
             @Override
             public void downOnce(SockAddr remote, String reason) {
                 assert Logger.lowLevelDebug("down once for " + ServerHandle.this.alias + "(" + server + "), reason: " + reason);
-                hcCost.clear();
+                hcCostCount = 0;
+                hcCostIdx = 0;
+                hcCostSum = 0;
+                hcCostAvg = -1;
                 hcDownReason = reason;
 
                 // the server handle is default DOWN when added
@@ -112,13 +122,19 @@ public class ServerGroup {
         public final String hostName;
         private final ServerHealthCheckHandler handler = new ServerHealthCheckHandler();
         public final IPPort server;
-        private int weight;
+        private volatile int weight;
         private ServerHandle toLogicDelete; // the server will be deleted when this server is UP, may be null
         EventLoopWrapper el;
         boolean valid = true;
         // NOTE: healthy state is public
         public boolean healthy = false; // considered to be unhealthy when firstly created
-        private final LinkedList<Long> hcCost = new LinkedList<>(); // the time cost for one healthy checking result of this endpoint
+        // the time cost for the last few healthy checking results of this endpoint
+        // only modified on the health check event loop, the average is read by the selection methods
+        private final long[] hcCost = new long[10];
+        private int hcCostCount = 0;
+        private int hcCostIdx = 0;
+        private long hcCostSum = 0;
+        private volatile long hcCostAvg = -1;
         private String hcDownReason = null; // the reason for the failed health checks
         private boolean logicDelete = false; // if true, it will not be checked for dup alias nor saved to cfg file
         HealthCheckClient healthCheckClient;
@@ -197,7 +213,7 @@ public class ServerGroup {
         }
 
         public long getHcCost() {
-            return (long) hcCost.stream().mapToLong(l -> l).average().orElse(-1);
+            return hcCostAvg;
         }
 
         public String getHcDownReason() {
@@ -337,26 +353,24 @@ public class ServerGroup {
     public final EventLoopGroup eventLoopGroup;
     private HealthCheckConfig healthCheckConfig;
     private final AnnotatedHcConfig annotatedHcConfig = new AnnotatedHcConfig();
-    private Method method;
+    private volatile Method method;
     private final Attach attach;
-    private ArrayList<ServerHandle> servers = new ArrayList<>(0);
+    private volatile ArrayList<ServerHandle> servers = new ArrayList<>(0);
     private final CopyOnWriteArraySet<ServerListener> serverListeners = new CopyOnWriteArraySet<>();
+    private final CopyOnWriteArraySet<Runnable> annotationsListeners = new CopyOnWriteArraySet<>();
     private Annotations annotations = new Annotations();
 
     // START fields for WRR
     static class WRR {
-        int[] seq;
+        final int[] seq;
         final AtomicInteger wrrCursor = new AtomicInteger(0);
-        final ArrayList<ServerHandle> servers; // = servers;
+        final ArrayList<ServerHandle> servers;
 
-        WRR(List<ServerHandle> servers) {
+        WRR(List<ServerHandle> servers, int[] weights) {
             this.servers = new ArrayList<>(servers);
+            this.seq = wrrSeq(weights);
         }
     }
-
-    private WRR _wrr;
-    private WRR _wrrIPv4;
-    private WRR _wrrIPv6;
     // END fields for WRR
 
     // START fields for WLC
@@ -367,20 +381,29 @@ public class ServerGroup {
             this.servers = new ArrayList<>(servers);
         }
     }
-
-    private WLC _wlc;
-    private WLC _wlcIPv4;
-    private WLC _wlcIPv6;
     // END fields for WLC
 
     // START fields for SOURCE
     static class SOURCE {
-        final int[] seq;
         final ArrayList<ServerHandle> servers;
 
-        SOURCE(int[] seq, ArrayList<ServerHandle> servers) {
-            this.seq = seq;
-            this.servers = servers;
+        SOURCE(List<ServerHandle> servers) {
+            ArrayList<ServerHandle> svrs = new ArrayList<>(servers);
+            svrs.sort((a, b) -> {
+                byte[] ba = a.server.getAddress().getAddress();
+                byte[] bb = b.server.getAddress().getAddress();
+                if (ba.length > bb.length)
+                    return 1;
+                if (bb.length > ba.length)
+                    return -1;
+                for (int i = 0; i < ba.length; ++i) {
+                    int diff = ba[i] - bb[i];
+                    if (diff != 0)
+                        return diff;
+                }
+                return a.server.getPort() - b.server.getPort();
+            });
+            this.servers = svrs;
         }
 
         // sdbm
@@ -396,12 +419,198 @@ public class ServerGroup {
             return hash;
         }
     }
-
-    private SOURCE _source;
-    private SOURCE _sourceIPv4;
-    private SOURCE _sourceIPv6;
     // END fields for SOURCE
 
+    // START fields for MAGLEV
+    /*
+     * Maglev hashing:
+     * see https://research.google/pubs/pub44824/
+     *
+     * Each server generates a permutation of the lookup table positions
+     * from its address: offset = h1 % M, skip = h2 % (M - 1) + 1,
+     * and the servers take turns (proportional to their weights)
+     * to fill the first empty position in their own permutation,
+     * until the table is full.
+     *
+     * The table is only built when servers or weights change,
+     * the health state is not considered when building,
+     * so a key is always mapped to the same server while the server is healthy.
+     * When the server is unhealthy, the key is re-hashed to probe the table again,
+     * so only keys of the unhealthy server are moved, and they come back when it's up.
+     */
+    static class MAGLEV {
+        private static final int[] TABLE_SIZES = {
+            251, 509, 1021, 2039, 4093, 8191, 16381, 32749, 65521, 131071, 262139, 524287,
+        };
+        private static final int MAX_PROBE = 32;
+
+        final int[] table;
+        final ServerHandle[] servers;
+
+        MAGLEV(List<ServerHandle> servers, int[] weights) {
+            // make the table independent of the adding order
+            Integer[] order = new Integer[servers.size()];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> servers.get(i).server.formatToIPPortString()));
+            this.servers = new ServerHandle[order.length];
+            int[] w = new int[order.length];
+            for (int i = 0; i < order.length; ++i) {
+                this.servers[i] = servers.get(order[i]);
+                w[i] = weights[order[i]];
+            }
+            if (order.length == 0) {
+                this.table = new int[0];
+            } else {
+                this.table = populate(this.servers, w, tableSize(this.servers.length));
+            }
+        }
+
+        // the table size should be a prime and much larger than the servers count
+        private static int tableSize(int n) {
+            for (int size : TABLE_SIZES) {
+                if (size >= n * 100) {
+                    return size;
+                }
+            }
+            return TABLE_SIZES[TABLE_SIZES.length - 1];
+        }
+
+        private static int[] populate(ServerHandle[] servers, int[] weights, int m) {
+            int n = servers.length;
+            int[] offset = new int[n];
+            int[] skip = new int[n];
+            int[] next = new int[n];
+            int[] credit = new int[n];
+            int maxWeight = 0;
+            for (int i = 0; i < n; ++i) {
+                byte[] key = servers[i].server.formatToIPPortString().getBytes();
+                offset[i] = (hash(key, 0x5bd1e995) & 0x7fffffff) % m;
+                skip[i] = (hash(key, 0x1b873593) & 0x7fffffff) % (m - 1) + 1;
+                maxWeight = Math.max(maxWeight, weights[i]);
+            }
+            int[] table = new int[m];
+            Arrays.fill(table, -1);
+            int filled = 0;
+            while (true) {
+                for (int i = 0; i < n; ++i) {
+                    // a server with the max weight fills one entry in every round
+                    credit[i] += weights[i];
+                    if (credit[i] < maxWeight) {
+                        continue;
+                    }
+                    credit[i] -= maxWeight;
+                    int c = (int) ((offset[i] + (long) next[i] * skip[i]) % m);
+                    while (table[c] >= 0) {
+                        ++next[i];
+                        c = (int) ((offset[i] + (long) next[i] * skip[i]) % m);
+                    }
+                    table[c] = i;
+                    ++next[i];
+                    if (++filled == m) {
+                        return table;
+                    }
+                }
+            }
+        }
+
+        // murmur3 32bit
+        static int hash(byte[] bytes, int seed) {
+            int h = seed;
+            for (byte b : bytes) {
+                int k = (b & 0xff) * 0xcc9e2d51;
+                k = Integer.rotateLeft(k, 15) * 0x1b873593;
+                h ^= k;
+                h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+            }
+            h ^= bytes.length;
+            return mix(h);
+        }
+
+        static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+
+    // END fields for MAGLEV
+
+    /**
+     * The selection structures for one address family.
+     * Only the structure used by the method is built, others are empty.
+     */
+    static class Selection {
+        final WRR wrr;
+        final WLC wlc;
+        final SOURCE source;
+        final MAGLEV maglev;
+
+        Selection(Method method, List<ServerHandle> servers, int[] weights) {
+            List<ServerHandle> empty = Collections.emptyList();
+            boolean useWlc = method == Method.wlc || method == Method.p2c || method == Method.latency;
+            boolean useSource = method == Method.source;
+            boolean useMaglev = method == Method.maglev;
+            boolean useWrr = !useWlc && !useSource && !useMaglev; // wrr is also the fallback method
+            this.wrr = useWrr ? new WRR(servers, weights) : new WRR(empty, new int[0]);
+            this.wlc = useWlc ? new WLC(servers) : new WLC(empty);
+            this.source = useSource ? new SOURCE(servers) : new SOURCE(empty);
+            this.maglev = useMaglev ? new MAGLEV(servers, weights) : new MAGLEV(empty, new int[0]);
+        }
+    }
+
+    /**
+     * Immutable snapshot of the selection structures.
+     * The snapshot is built by the thread which modifies the server group (not the event loops),
+     * and published with one volatile write, so that `next()` never locks and
+     * always sees structures built from the same servers, weights and method.
+     */
+    static class Snapshot {
+        final long version;
+        final Method method;
+        final Selection all;
+        final Selection ipv4;
+        final Selection ipv6;
+
+        Snapshot(long version, Method method, List<ServerHandle> servers) {
+            this.version = version;
+            this.method = method;
+
+            // read the weights only once, they might be modified concurrently
+            ArrayList<ServerHandle> all = new ArrayList<>(servers.size());
+            ArrayList<ServerHandle> ipv4 = new ArrayList<>(servers.size());
+            ArrayList<ServerHandle> ipv6 = new ArrayList<>(servers.size());
+            int[] allW = new int[servers.size()];
+            int[] ipv4W = new int[servers.size()];
+            int[] ipv6W = new int[servers.size()];
+            for (ServerHandle s : servers) {
+                int w = s.weight;
+                if (w <= 0) // only consider those weight > 0
+                    continue;
+                allW[all.size()] = w;
+                all.add(s);
+                if (s.server.getAddress() instanceof IPv4) {
+                    ipv4W[ipv4.size()] = w;
+                    ipv4.add(s);
+                } else if (s.server.getAddress() instanceof IPv6) {
+                    ipv6W[ipv6.size()] = w;
+                    ipv6.add(s);
+                }
+            }
+            this.all = new Selection(method, all, Arrays.copyOf(allW, all.size()));
+            this.ipv4 = new Selection(method, ipv4, Arrays.copyOf(ipv4W, ipv4.size()));
+            this.ipv6 = new Selection(method, ipv6, Arrays.copyOf(ipv6W, ipv6.size()));
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(0, Method.wrr, Collections.emptyList());
+    private final AtomicLong configVersion = new AtomicLong(0);
+    private final Object snapshotLock = new Object();
+
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
                        HealthCheckConfig healthCheckConfig,
@@ -420,60 +629,114 @@ public class ServerGroup {
      * @return null if not found any healthy
      */
     public SvrHandleConnector next(IPPort source) {
-        if (method == Method.wrr) {
-            return wrrNext();
-        } else if (method == Method.wlc) {
-            return wlcNext();
-        } else if (method == Method.source) {
-            return sourceHashGet(source.getAddress());
-        } else {
-            Logger.shouldNotHappen("unsupported method " + method);
-            // use wrr instead
-            return wrrNext();
-        }
+        Snapshot s = snapshot;
+        return next(s.method, s.all, source);
     }
 
     public SvrHandleConnector nextIPv4(IPPort source) {
-        if (method == Method.wrr) {
-            return wrrNextIPv4();
-        } else if (method == Method.wlc) {
-            return wlcNextIPv4();
-        } else if (method == Method.source) {
-            return sourceHashGetIPv4(source.getAddress());
-        } else {
-            Logger.shouldNotHappen("unsupported method " + method);
-            // use wrr instead
-            return wrrNextIPv4();
-        }
+        Snapshot s = snapshot;
+        return next(s.method, s.ipv4, source);
     }
 
     public SvrHandleConnector nextIPv6(IPPort source) {
+        Snapshot s = snapshot;
+        return next(s.method, s.ipv6, source);
+    }
+
+    private SvrHandleConnector next(Method method, Selection selection, IPPort source) {
         if (method == Method.wrr) {
-            return wrrNextIPv6();
+            return wrrNext(selection.wrr);
         } else if (method == Method.wlc) {
-            return wlcNextIPv6();
+            return wlcNext(selection.wlc, 0);
         } else if (method == Method.source) {
-            return sourceHashGetIPv6(source.getAddress());
+            return sourceHashGet(selection.source, source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(selection.maglev, source.getAddress());
+        } else if (method == Method.p2c) {
+            return p2cNext(selection.wlc, false);
+        } else if (method == Method.latency) {
+            return p2cNext(selection.wlc, true);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
-            return wrrNextIPv6();
+            return wrrNext(selection.wrr);
         }
     }
 
-    private SvrHandleConnector sourceHashGet(IP source) {
-        byte[] bytes = source.getAddress();
-        return sourceHashGet(_source, _source.hash(bytes), 0);
+    private SvrHandleConnector maglevGet(MAGLEV maglev, IP source) {
+        int[] table = maglev.table;
+        if (table.length == 0)
+            return null;
+        int hash = MAGLEV.hash(source.getAddress(), 0);
+        for (int i = 0; i < MAGLEV.MAX_PROBE; ++i) {
+            ServerHandle h = maglev.servers[table[(hash & 0x7fffffff) % table.length]];
+            if (h.healthy)
+                return h.makeConnector();
+            hash = MAGLEV.mix(hash + 1);
+        }
+        // too many unhealthy servers, pick the next healthy one in the list
+        int start = table[(hash & 0x7fffffff) % table.length];
+        for (int i = 1; i < maglev.servers.length; ++i) {
+            ServerHandle h = maglev.servers[(start + i) % maglev.servers.length];
+            if (h.healthy)
+                return h.makeConnector();
+        }
+        return null;
     }
 
-    private SvrHandleConnector sourceHashGetIPv4(IP source) {
-        byte[] bytes = source.getAddress();
-        return sourceHashGet(_sourceIPv4, _sourceIPv4.hash(bytes), 0);
+    /*
+     * P2C:
+     * randomly choose two servers, and use the one with less load.
+     * the load is C(Si) / W(Si) for `p2c`,
+     * and (hcCost(Si) + 1) * (C(Si) + 1) / W(Si) for `latency`,
+     * which prefers fast servers but still spreads connections when they are equally fast.
+     * the comparison is done with multiplying like WLC.
+     */
+    private static final int P2C_MAX_RETRY = 3;
+
+    private SvrHandleConnector p2cNext(WLC wlc, boolean latency) {
+        ArrayList<ServerHandle> servers = wlc.servers;
+        int n = servers.size();
+        if (n == 0)
+            return null;
+        if (n == 1) {
+            ServerHandle h = servers.get(0);
+            return h.healthy ? h.makeConnector() : null;
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < P2C_MAX_RETRY; ++i) {
+            int a = rand.nextInt(n);
+            int b = rand.nextInt(n - 1);
+            if (b >= a) {
+                ++b;
+            }
+            ServerHandle sa = servers.get(a);
+            ServerHandle sb = servers.get(b);
+            if (!sa.healthy) {
+                if (sb.healthy)
+                    return sb.makeConnector();
+                continue;
+            }
+            if (!sb.healthy)
+                return sa.makeConnector();
+            long la = p2cLoad(sa, latency);
+            long lb = p2cLoad(sb, latency);
+            return (la * sb.weight <= lb * sa.weight) ? sa.makeConnector() : sb.makeConnector();
+        }
+        // most servers are unhealthy, fall back to scanning
+        return wlcNext(wlc, 0);
     }
 
-    private SvrHandleConnector sourceHashGetIPv6(IP source) {
-        byte[] bytes = source.getAddress();
-        return sourceHashGet(_sourceIPv6, _sourceIPv6.hash(bytes), 0);
+    private static long p2cLoad(ServerHandle h, boolean latency) {
+        if (latency) {
+            return (Math.max(h.getHcCost(), 0) + 1) * (h.connectionCount() + 1);
+        }
+        return h.connectionCount();
+    }
+
+    private SvrHandleConnector sourceHashGet(SOURCE source, IP address) {
+        byte[] bytes = address.getAddress();
+        return sourceHashGet(source, source.hash(bytes), 0);
     }
 
     private SvrHandleConnector sourceHashGet(SOURCE source, int hash, int recurse) {
@@ -523,18 +786,6 @@ public class ServerGroup {
      * return NULL;
      */
 
-    private SvrHandleConnector wlcNext() {
-        return wlcNext(_wlc, 0);
-    }
-
-    private SvrHandleConnector wlcNextIPv4() {
-        return wlcNext(_wlcIPv4, 0);
-    }
-
-    private SvrHandleConnector wlcNextIPv6() {
-        return wlcNext(_wlcIPv6, 0);
-    }
-
     private SvrHandleConnector wlcNext(WLC wlc, int mStart) {
         if (mStart >= wlc.servers.size())
             return null;
@@ -574,199 +825,63 @@ public class ServerGroup {
         // return null;
     }
 
-    private SvrHandleConnector wrrNext() {
-        return wrrNext(this._wrr, 0);
-    }
-
-    private SvrHandleConnector wrrNextIPv4() {
-        return wrrNext(this._wrrIPv4, 0);
-    }
-
-    private SvrHandleConnector wrrNextIPv6() {
-        return wrrNext(this._wrrIPv6, 0);
-    }
-
-    private SvrHandleConnector wrrNext(WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
-            return null;
+    private SvrHandleConnector wrrNext(WRR wrr) {
         if (wrr.seq.length == 0)
             return null; // return null if no elements
 
-        int idx = wrr.wrrCursor.getAndIncrement();
-        if (idx >= wrr.seq.length) {
-            idx = idx % wrr.seq.length;
-            wrr.wrrCursor.set(idx + 1);
+        // the seq may be long, so use a loop instead of recursion
+        for (int i = 0; i <= wrr.seq.length; ++i) {
+            int idx = wrr.wrrCursor.getAndIncrement();
+            if (idx >= wrr.seq.length) {
+                idx = idx % wrr.seq.length;
+                wrr.wrrCursor.set(idx + 1);
+            }
+            int realIdx = wrr.seq[idx];
+            ServerHandle h = wrr.servers.get(realIdx);
+            if (h.healthy)
+                return h.makeConnector();
         }
-        int realIdx = wrr.seq[idx];
-        ServerHandle h = wrr.servers.get(realIdx);
-        if (h.healthy)
-            return h.makeConnector();
-        else
-            return wrrNext(wrr, recursion + 1);
+        return null;
     }
 
+    /**
+     * Rebuild and publish the snapshot.
+     * Must be called after the servers, weights or method are modified.
+     * Concurrent calls are coalesced: if another thread already published a snapshot
+     * built after this modification, this call returns without rebuilding.
+     */
     private void resetMethodRelatedFields() {
-        wrrReset();
-        wlcReset();
-        sourceReset();
-    }
-
-    private int gcd(int a, int b) {
-        if (a == b) return a;
-        if (a > b) return gcd(a - b, b);
-        return gcd(b - a, a);
-    }
-
-    private void sourceReset() {
-        _source = sourceReset(servers);
-        _sourceIPv4 = sourceReset(servers.stream().filter(s -> s.server.getAddress() instanceof IPv4).collect(Collectors.toList()));
-        _sourceIPv6 = sourceReset(servers.stream().filter(s -> s.server.getAddress() instanceof IPv6).collect(Collectors.toList()));
-    }
-
-    private SOURCE sourceReset(List<ServerHandle> servers) {
-        //noinspection FuseStreamOperations
-        ArrayList<ServerHandle> svrs = new ArrayList<>(servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
-        svrs.sort((a, b) -> {
-            byte[] ba = a.server.getAddress().getAddress();
-            byte[] bb = b.server.getAddress().getAddress();
-            if (ba.length > bb.length)
-                return 1;
-            if (bb.length > ba.length)
-                return -1;
-            for (int i = 0; i < ba.length; ++i) {
-                int diff = ba[i] - bb[i];
-                if (diff != 0)
-                    return diff;
-            }
-            return a.server.getPort() - b.server.getPort();
-        });
-        if (svrs.size() == 0) {
-            return new SOURCE(new int[0], svrs);
-        }
-        int g = svrs.size() > 1
-            ? gcd(svrs.get(0).weight, svrs.get(1).weight)
-            : svrs.get(0).weight;
-        LinkedList<Integer> seqList = new LinkedList<>();
-        for (int sIdx = 0; sIdx < svrs.size(); sIdx++) {
-            ServerHandle s = svrs.get(sIdx);
-            int w = s.weight;
-            int times = w / g;
-            for (int i = 0; i < times; ++i) {
-                seqList.add(sIdx);
-            }
-        }
-        int[] seq = new int[seqList.size()];
-        int idx = 0;
-        for (Integer integer : seqList) {
-            seq[idx++] = integer;
-        }
-        return new SOURCE(seq, svrs);
-    }
-
-    private void wlcReset() {
-        this._wlc = new WLC(this.servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
-        this._wlcIPv4 = new WLC(this.servers.stream()
-            .filter(s -> s.weight > 0)
-            .filter(s -> s.server.getAddress() instanceof IPv4)
-            .collect(Collectors.toList()));
-        this._wlcIPv6 = new WLC(this.servers.stream()
-            .filter(s -> s.weight > 0)
-            .filter(s -> s.server.getAddress() instanceof IPv6)
-            .collect(Collectors.toList()));
-    }
-
-    private void wrrReset() {
-        this._wrr = wrrReset(new WRR(this.servers.stream()
-            .filter(s -> s.weight > 0) // only consider those weight > 0
-            .collect(Collectors.toList())));
-        this._wrrIPv4 = wrrReset(new WRR(this.servers.stream()
-            .filter(s -> s.weight > 0)
-            .filter(s -> s.server.getAddress() instanceof IPv4)
-            .collect(Collectors.toList())));
-        this._wrrIPv6 = wrrReset(new WRR(this.servers.stream()
-            .filter(s -> s.weight > 0)
-            .filter(s -> s.server.getAddress() instanceof IPv6)
-            .collect(Collectors.toList())));
-    }
-
-    private WRR wrrReset(WRR wrr) {
-        if (wrr.servers.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.servers.size()];
-            int[] original = new int[wrr.servers.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.servers.size(); i++) {
-                ServerHandle h = wrr.servers.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
-            }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
-
-            // random is for this concern:
-            // if you deploy multiple instances of vproxy
-            // with exactly the same configuration
-            // behind a (w)rr LVS or other proxy servers
-            // without the `randStart`, first few connections
-            // will always be made to the same server
-            // which may cause some failure
-            int randStart = new Random().nextInt(seq.length);
-            // the random wll only run when updating config
-            Iterator<Integer> ite = listSeq.iterator();
-            int idx = 0;
-            while (ite.hasNext()) {
-                seq[(idx + randStart) % seq.length] = ite.next();
-                ++idx;
+        long version = configVersion.incrementAndGet();
+        synchronized (snapshotLock) {
+            if (snapshot.version >= version) {
+                return;
             }
-            wrr.seq = seq;
+            // read the version before reading the config,
+            // all modifications with a version not greater than it are visible
+            long buildVersion = configVersion.get();
+            snapshot = new Snapshot(buildVersion, method, servers);
         }
-
-        return wrr;
-    }
-
-    private int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
-        }
-        return s;
     }
 
-    private boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
+    private static int[] wrrSeq(int[] weights) {
+        int[] seq = WRRSequence.build(weights);
+        if (seq.length == 0) {
+            return seq;
         }
-        return true;
-    }
-
-    private int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
-            }
+        // random is for this concern:
+        // if you deploy multiple instances of vproxy
+        // with exactly the same configuration
+        // behind a (w)rr LVS or other proxy servers
+        // without the `randStart`, first few connections
+        // will always be made to the same server
+        // which may cause some failure
+        int randStart = ThreadLocalRandom.current().nextInt(seq.length);
+        // the random wll only run when updating config
+        int[] ret = new int[seq.length];
+        for (int i = 0; i < seq.length; ++i) {
+            ret[(i + randStart) % seq.length] = seq[i];
         }
-        return maxIdx;
+        return ret;
     }
 
     public void setMethod(Method method) {
@@ -806,6 +921,10 @@ public class ServerGroup {
 
         // set hc client annotations
         annotatedHcConfig.set(annotations);
+
+        for (Runnable r : annotationsListeners) {
+            r.run();
+        }
     }
 
     public synchronized ServerHandle add(String alias, IPPort server, int weight) throws AlreadyExistException {
@@ -977,6 +1096,17 @@ public class ServerGroup {
         this.serverListeners.remove(serverListener);
     }
 
+    /**
+     * @param listener called after annotations of the group are replaced
+     */
+    public void addAnnotationsListener(Runnable listener) {
+        this.annotationsListeners.add(listener);
+    }
+
+    public void removeAnnotationsListener(Runnable listener) {
+        this.annotationsListeners.remove(listener);
+    }
+
     public List<ServerHandle> getServerHandles() {
         return new ArrayList<>(servers);
     }
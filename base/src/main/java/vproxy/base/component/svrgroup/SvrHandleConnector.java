@@ -30,6 +30,11 @@ public class SvrHandleConnector extends Connector {
         return serverHandle.valid;
     }
 
+    @Override
+    public boolean isHealthy() {
+        return serverHandle.healthy;
+    }
+
     @Override
     public void connectionFailed() {
         // accelerate the down process
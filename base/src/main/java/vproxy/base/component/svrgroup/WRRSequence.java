@@ -0,0 +1,78 @@
+package vproxy.base.component.svrgroup;
+
+/**
+ * Build the smooth weighted round robin sequence.
+ * <p>
+ * The sequence length is sum(weights) / gcd(weights), which might be very large for co-prime weights.
+ * When the length exceeds the max length, weights are scaled down proportionally (and at least 1),
+ * so the distribution is approximately kept and the sequence is bounded.
+ */
+public class WRRSequence {
+    public static final int MAX_LENGTH = 8192;
+
+    private WRRSequence() {
+    }
+
+    public static int[] build(int[] weights) {
+        return build(weights, MAX_LENGTH);
+    }
+
+    /**
+     * @param weights   weights of the elements, all weights must be positive
+     * @param maxLength the max length of the sequence,
+     *                  the result may still be longer when weights.length is greater than maxLength
+     * @return indexes of the elements in the round robin order
+     */
+    public static int[] build(int[] weights, int maxLength) {
+        int n = weights.length;
+        if (n == 0) {
+            return new int[0];
+        }
+        int[] w = weights.clone();
+        long sum = reduce(w);
+        if (sum > maxLength) {
+            for (int i = 0; i < n; ++i) {
+                w[i] = (int) Math.max(1, (long) w[i] * maxLength / sum);
+            }
+            sum = reduce(w);
+        }
+        int total = (int) sum;
+        int[] seq = new int[total];
+        int[] current = new int[n];
+        for (int step = 0; step < total; ++step) {
+            int maxIdx = 0;
+            for (int i = 0; i < n; ++i) {
+                current[i] += w[i];
+                if (current[i] > current[maxIdx]) {
+                    maxIdx = i;
+                }
+            }
+            current[maxIdx] -= total;
+            seq[step] = maxIdx;
+        }
+        return seq;
+    }
+
+    // divide weights by their gcd and return the sum
+    private static long reduce(int[] w) {
+        int g = w[0];
+        for (int i = 1; i < w.length; ++i) {
+            g = gcd(g, w[i]);
+        }
+        long sum = 0;
+        for (int i = 0; i < w.length; ++i) {
+            w[i] /= g;
+            sum += w[i];
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -15,6 +15,7 @@ import java.net.StandardSocketOptions;
 
 public class ConnectableConnection extends Connection {
     Connector connector; // maybe null, only for recording purpose, will not be used by the connection lib
+    long connectBeginNanos = 0; // 0 if the tcp connecting process is not started by this connection
 
     public Connector getConnector() {
         return connector;
@@ -41,7 +42,10 @@ public class ConnectableConnection extends Connection {
                                                ConnectionOpts opts,
                                                RingBuffer inBuffer, RingBuffer outBuffer) throws IOException {
         SocketFD channel = FDProvider.get().openSocketFD();
-        return create(channel, remote, opts, inBuffer, outBuffer);
+        long begin = System.nanoTime();
+        ConnectableConnection conn = create(channel, remote, opts, inBuffer, outBuffer);
+        conn.connectBeginNanos = begin;
+        return conn;
     }
 
     public static ConnectableConnection createUDP(IPPort remote,
@@ -31,6 +31,10 @@ public class Connector {
         return true; // it's always valid for a manually created Connector
     }
 
+    public boolean isHealthy() {
+        return true; // no health check for a manually created Connector
+    }
+
     // let user code alert that the connection failed
     public void connectionFailed() {
         // do nothing in default implementation
@@ -1,6 +1,7 @@
 package vproxy.base.connection;
 
 import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
 import vproxy.base.selector.Handler;
 import vproxy.base.selector.HandlerContext;
 import vproxy.base.selector.SelectorEventLoop;
@@ -144,22 +145,44 @@ public class NetEventLoop {
 }
 
 class HandlerForTCPServer implements Handler<ServerSocketFD> {
+    private static final int ACCEPT_PAUSE_MILLIS = 50;
+
     @Override
     public void accept(HandlerContext<ServerSocketFD> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
+        sctx.server.acceptStart();
+        // accept until the queue is drained or the budget is used up
+        // the selector is level-triggered, if connections are left in the queue,
+        // the event fires again in the next round, after other fds on this loop are handled
+        for (int i = 0; i < Config.acceptBudget; ++i) {
+            if (sctx.handler.pauseAccepting(sctx)) {
+                sctx.server.acceptEnd(false);
+                pauseAccepting(ctx, sctx);
+                return;
+            }
+            if (!acceptOne(ctx, sctx)) {
+                sctx.server.acceptEnd(true);
+                return;
+            }
+        }
+        sctx.server.acceptEnd(false);
+    }
 
+    // return false if the queue is empty or accepting failed
+    private boolean acceptOne(HandlerContext<ServerSocketFD> ctx, ServerHandlerContext sctx) {
         ServerSocketFD server = ctx.getChannel();
         SocketFD sock;
         try {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
+        sctx.server.accepted();
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
             try {
@@ -191,15 +214,27 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
                 } catch (IOException e1) {
                     Logger.shouldNotHappen("failed to close the sock " + sock + " after failed creating Connection object", e1);
                 }
-                return;
+                // other connections may still be waiting
+                return true;
             }
             conn.addNetFlowRecorder(sctx.server);
             sctx.handler.connection(sctx, conn);
         }
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
-        // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
+    }
+
+    private void pauseAccepting(HandlerContext<ServerSocketFD> ctx, ServerHandlerContext sctx) {
+        assert Logger.lowLevelDebug("pause accepting on " + sctx.server + " for " + ACCEPT_PAUSE_MILLIS + "ms");
+        ctx.rmOps(EventSet.read());
+        ctx.getEventLoop().delay(ACCEPT_PAUSE_MILLIS, () -> {
+            if (sctx.server.isClosed() || sctx.server._eventLoop != sctx.eventLoop) {
+                return; // removed from the loop
+            }
+            // accept events will fire again if connections are waiting
+            ctx.addOps(EventSet.read());
+        });
     }
 
     @Override
@@ -224,6 +259,7 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
     public void removed(HandlerContext<ServerSocketFD> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
         sctx.server._eventLoop = null;
+        sctx.server.removeAcceptMetrics();
         sctx.handler.removed(sctx);
     }
 }
@@ -345,6 +381,12 @@ class HandlerForConnection implements Handler<SocketFD> {
             return;
         }
         if (read == 0) {
+            if (cctx.connection.getInBuffer().free() == 0) {
+                // some buffers only find out they are full when reading, e.g. the splice pipe
+                assert Logger.lowLevelDebug("the inBuffer turns out to be full, remove READ event " + cctx.connection);
+                ctx.rmOps(EventSet.read());
+                return;
+            }
             Logger.shouldNotHappen("read nothing, the event should not be fired");
             return;
         }
@@ -468,6 +510,10 @@ class HandlerForConnectableConnection extends HandlerForConnection {
             NetEventLoopUtils.callExceptionEvent(cctx, e);
             return;
         }
+        if (connected && cctx.connection.connectBeginNanos != 0) {
+            GlobalInspection.getInstance().tcpConnectTime(System.nanoTime() - cctx.connection.connectBeginNanos);
+            cctx.connection.connectBeginNanos = 0;
+        }
         cctx.connection.regenId();
         if (!connected) {
             Logger.shouldNotHappen("the connection is not connected, should not fire the event");
@@ -23,4 +23,14 @@ public interface ServerHandler {
     default ConnectionOpts connectionOpts() {
         return DefaultConnectionOpts.defaultConnectionOpts;
     }
+
+    /**
+     * Checked before accepting. When returning true, the server stops accepting for a while,
+     * and new connections are kept in the backlog of the listening socket.
+     *
+     * @return true if the server should stop accepting
+     */
+    default boolean pauseAccepting(ServerHandlerContext ctx) {
+        return false;
+    }
 }
@@ -1,5 +1,7 @@
 package vproxy.base.connection;
 
+import vproxy.base.GlobalInspection;
+import vproxy.base.prometheus.Histogram;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.selector.wrap.udp.ServerDatagramFD;
 import vproxy.base.selector.wrap.udp.UDPBasedFDs;
@@ -11,9 +13,20 @@ import vproxy.vfd.posix.PosixFDs;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.StandardSocketOptions;
+import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
 
 public class ServerSock implements NetFlowRecorder {
+    private static final String server_sock_accept_queue_depth = "server_sock_accept_queue_depth";
+    private static final String server_sock_accept_latency_micros = "server_sock_accept_latency_micros";
+
+    static {
+        GlobalInspection.getInstance().registerHelpMessage(server_sock_accept_queue_depth,
+            "Count of connections found in the accept queue each time the queue is drained");
+        GlobalInspection.getInstance().registerHelpMessage(server_sock_accept_latency_micros,
+            "Time from the server sock becoming acceptable to each connection being accepted, in microseconds");
+    }
+
     private static int supportReusePort = -1; // 1:true 0:false -1:not decided yet
     private static int supportTransparent = -1; // 1:true 0:false -1:not decided yet
 
@@ -25,6 +38,13 @@ public class ServerSock implements NetFlowRecorder {
     private final LongAdder fromRemoteBytes = new LongAdder();
     private final LongAdder toRemoteBytes = new LongAdder();
     private long historyAcceptedConnectionCount = 0; // no concurrency when accepting connections
+    // registered on the loop thread when accepting for the first time,
+    // reuseport sockets of the same address are bond to different loops, so they are labeled with the thread
+    private volatile Histogram statisticsAcceptQueueDepth;
+    private volatile Histogram statisticsAcceptLatencyMicros;
+    // the accept queue is being drained, maybe in multiple rounds of the loop because of the accept budget
+    private long acceptDrainBeginNanos = 0;
+    private int acceptDrainCount = 0; // accepted in the current round
 
     NetEventLoop _eventLoop = null;
 
@@ -213,6 +233,28 @@ public class ServerSock implements NetFlowRecorder {
         _id = bind.formatToIPPortString();
     }
 
+    private synchronized void addAcceptMetrics() {
+        if (closed || statisticsAcceptQueueDepth != null) {
+            return;
+        }
+        Map<String, String> labels = Map.of("listen", _id, "thread", Thread.currentThread().getName());
+        statisticsAcceptQueueDepth = GlobalInspection.getInstance().addMetric(server_sock_accept_queue_depth, labels,
+            (m, l) -> new Histogram(m, l, Histogram.exponentialBounds(1, 2, 12)));
+        statisticsAcceptLatencyMicros = GlobalInspection.getInstance().addMetric(server_sock_accept_latency_micros, labels,
+            (m, l) -> new Histogram(m, l, Histogram.exponentialBounds(10, 2, 20)));
+    }
+
+    // called when removed from the loop, the metrics will be registered again with the new thread if added to another loop
+    synchronized void removeAcceptMetrics() {
+        if (statisticsAcceptQueueDepth == null) {
+            return;
+        }
+        GlobalInspection.getInstance().removeMetric(statisticsAcceptQueueDepth);
+        GlobalInspection.getInstance().removeMetric(statisticsAcceptLatencyMicros);
+        statisticsAcceptQueueDepth = null;
+        statisticsAcceptLatencyMicros = null;
+    }
+
     // --- START statistics ---
     public long getFromRemoteBytes() {
         return fromRemoteBytes.longValue();
@@ -239,6 +281,51 @@ public class ServerSock implements NetFlowRecorder {
     public long getHistoryAcceptedConnectionCount() {
         return historyAcceptedConnectionCount;
     }
+
+    void acceptStart() {
+        if (statisticsAcceptQueueDepth == null) {
+            addAcceptMetrics();
+        }
+        if (acceptDrainBeginNanos == 0) {
+            acceptDrainBeginNanos = System.nanoTime();
+        }
+    }
+
+    void accepted() {
+        ++acceptDrainCount;
+        Histogram statisticsAcceptLatencyMicros = this.statisticsAcceptLatencyMicros;
+        if (statisticsAcceptLatencyMicros == null) { // closed
+            return;
+        }
+        statisticsAcceptLatencyMicros.record((System.nanoTime() - acceptDrainBeginNanos) / 1000);
+    }
+
+    // called at the end of each wakeup, so the recorded depth is capped at the accept budget
+    void acceptEnd(boolean drained) {
+        Histogram statisticsAcceptQueueDepth = this.statisticsAcceptQueueDepth;
+        if (acceptDrainCount != 0 && statisticsAcceptQueueDepth != null) {
+            statisticsAcceptQueueDepth.record(acceptDrainCount);
+        }
+        acceptDrainCount = 0;
+        // the latency of connections left in the queue is still counted from the first wakeup
+        if (drained) {
+            acceptDrainBeginNanos = 0;
+        }
+    }
+
+    /**
+     * @return null if the server never accepted on any loop
+     */
+    public Histogram getAcceptQueueDepth() {
+        return statisticsAcceptQueueDepth;
+    }
+
+    /**
+     * @return null if the server never accepted on any loop
+     */
+    public Histogram getAcceptLatencyMicros() {
+        return statisticsAcceptLatencyMicros;
+    }
     // --- END statistics ---
 
     public boolean isClosed() {
@@ -257,6 +344,7 @@ public class ServerSock implements NetFlowRecorder {
         }
 
         _eventLoop = null;
+        removeAcceptMetrics();
         try {
             channel.close();
         } catch (IOException e) {
@@ -1,6 +1,7 @@
 package vproxy.base.dns;
 
 import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
 import vproxy.base.component.check.CheckProtocol;
 import vproxy.base.component.check.HealthCheckConfig;
 import vproxy.base.component.elgroup.EventLoopGroup;
@@ -161,6 +162,7 @@ public class DNSClient {
         final BiFunction<DNSPacket, IOException[], RETURN> transform;
         final Supplier<EXCEPTION> retryFailErr;
         final Callback<RETURN, EXCEPTION> cb;
+        final long beginNanos = System.nanoTime();
 
         Request(DNSPacket reqPacket,
                 BiFunction<DNSPacket, IOException[], RETURN> transform,
@@ -237,12 +239,14 @@ public class DNSClient {
             RETURN ret = transform.apply(packet, errHolder);
             if (errHolder[0] != null) {
                 release();
+                GlobalInspection.getInstance().dnsResolveTime(System.nanoTime() - beginNanos);
                 //noinspection unchecked
                 cb.failed((EXCEPTION) errHolder[0]);
                 return;
             }
             if (ret != null) {
                 release();
+                GlobalInspection.getInstance().dnsResolveTime(System.nanoTime() - beginNanos);
                 cb.succeeded(ret);
                 return;
             }
@@ -28,7 +28,41 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadProces
 
     @Override
     public HeadPayloadSubContext initSub(HeadPayloadContext headPayloadContext, int id, ConnectionDelegate delegate) {
-        return new HeadPayloadSubContext(headPayloadContext, id, delegate, head, off, len, maxLen);
+        return new HeadPayloadSubContext(this, headPayloadContext, id, delegate, head, off, len, maxLen);
+    }
+
+    /**
+     * @return true if backend connections can be shared, in which case
+     * {@link #expectsResponse(ByteArray)} and {@link #isResponse(ByteArray)} should be overridden
+     */
+    protected boolean backendReusable() {
+        return false;
+    }
+
+    /**
+     * @param head the head bytes of a frame from the frontend, containing the length property
+     * @return true if the backend will send a response for the frame
+     */
+    protected boolean expectsResponse(ByteArray head) {
+        return true;
+    }
+
+    /**
+     * @param head the head bytes of a frame from the backend, containing the length property
+     * @return true if the frame is a response to a frame from the frontend
+     */
+    protected boolean isResponse(ByteArray head) {
+        return true;
+    }
+
+    @Override
+    public String backendPoolKey(HeadPayloadContext ctx) {
+        return backendReusable() ? name : null;
+    }
+
+    @Override
+    public boolean backendIdle(HeadPayloadContext ctx, HeadPayloadSubContext sub) {
+        return sub.pendingResponses == 0 && sub.nextProcessorTODO.mode == Mode.handle;
     }
 
     @Override
@@ -40,6 +74,7 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadProces
     }
 
     public static class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
+        private final HeadPayloadProcessor processor;
         private final int off; // the offset of length property in bytes
         private final int len; // the length of length property in bytes
         private final int maxLen; // the max supported length
@@ -48,10 +83,13 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadProces
         private final int proxyBaseLen;
 
         private ProcessorTODO nextProcessorTODO;
+        // only used in backend sub contexts: count of frames sent to the backend which are not responded yet
+        private int pendingResponses = 0;
 
-        public HeadPayloadSubContext(HeadPayloadContext headPayloadContext, int connId, ConnectionDelegate delegate,
+        public HeadPayloadSubContext(HeadPayloadProcessor processor, HeadPayloadContext headPayloadContext, int connId, ConnectionDelegate delegate,
                                      int head, int off, int len, int maxLen) {
             super(headPayloadContext, connId, delegate);
+            this.processor = processor;
             this.off = off;
             this.len = len;
             this.maxLen = maxLen;
@@ -84,9 +122,17 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadProces
             if (isFrontend()) {
                 nextProcessorTODO.proxyTODO.connTODO = ConnectionTODO.create();
 
+                boolean expectsResponse = processor.backendReusable() && processor.expectsResponse(data);
                 handleTODO.connTODO = ConnectionTODO.create();
                 handleTODO.connTODO.connId = -1;
-                handleTODO.connTODO.chosen = subCtx -> nextProcessorTODO.proxyTODO.connTODO.connId = subCtx.connId;
+                handleTODO.connTODO.chosen = subCtx -> {
+                    nextProcessorTODO.proxyTODO.connTODO.connId = subCtx.connId;
+                    if (expectsResponse) {
+                        ++((HeadPayloadSubContext) subCtx).pendingResponses;
+                    }
+                };
+            } else if (pendingResponses > 0 && processor.isResponse(data)) {
+                --pendingResponses;
             }
             return handleTODO;
         }
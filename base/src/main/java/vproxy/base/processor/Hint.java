@@ -4,9 +4,10 @@ import vproxy.base.util.Annotations;
 import vproxy.vfd.IP;
 
 public class Hint {
-    private final String host;
-    private final int port;
-    private final String uri;
+    // accessed by HintIndex
+    final String host;
+    final int port;
+    final String uri;
 
     private Hint(String host, int port, String uri) {
         this.host = host;
@@ -141,11 +142,18 @@ public class Hint {
         }
         level += hostLevel << HOST_SHIFT;
 
+        int uriLevel = uriLevel(this.uri, annoUri);
+        level += uriLevel << URI_SHIFT;
+
+        return level;
+    }
+
+    static int uriLevel(String uri, String annoUri) {
         int uriLevel = 0;
-        if (annoUri != null && this.uri != null) {
-            if (this.uri.equals(annoUri)) {
-                uriLevel = this.uri.length() + URI_WILDCARD_MATCH;
-            } else if (this.uri.startsWith(annoUri)) {
+        if (annoUri != null && uri != null) {
+            if (uri.equals(annoUri)) {
+                uriLevel = uri.length() + URI_WILDCARD_MATCH;
+            } else if (uri.startsWith(annoUri)) {
                 uriLevel = annoUri.length() + URI_WILDCARD_MATCH;
             } else if (annoUri.equals("*")) {
                 uriLevel = URI_WILDCARD_MATCH;
@@ -154,9 +162,7 @@ public class Hint {
         if (uriLevel > URI_MAX_MATCH) {
             uriLevel = URI_MAX_MATCH;
         }
-        level += uriLevel << URI_SHIFT;
-
-        return level;
+        return uriLevel;
     }
 
     @Override
@@ -0,0 +1,317 @@
+package vproxy.base.processor;
+
+import vproxy.base.util.Annotations;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Precompiled form of {@link Hint#matchLevel(Annotations...)} over a list of values.<br>
+ * {@link #search(Hint)} returns the same value as calling matchLevel on each value in order
+ * and keeping the first one with the highest non-zero level, but only visits values whose host or uri could match:
+ * hosts are indexed in a trie of reversed labels, and uris are indexed in a trie of characters.
+ * <p>
+ * The index is immutable, build a new one when the values or their annotations change.
+ *
+ * @param <T> value type
+ */
+public class HintIndex<T> {
+    private static final class Entry<T> {
+        final T value;
+        final int index;
+        final int port;
+        final String uri;
+
+        Entry(T value, int index, int port, String uri) {
+            this.value = value;
+            this.index = index;
+            this.port = port;
+            this.uri = uri;
+        }
+    }
+
+    private static final class Best<T> {
+        Entry<T> entry;
+        int level;
+
+        void offer(Entry<T> e, int level) {
+            if (level == 0) {
+                return;
+            }
+            if (entry == null || level > this.level || (level == this.level && e.index < entry.index)) {
+                entry = e;
+                this.level = level;
+            }
+        }
+    }
+
+    /**
+     * a node of reversed host labels, children are kept in an open addressing table,
+     * so that labels can be looked up by a region of the host without creating strings
+     */
+    private static final class HostNode<T> {
+        String[] labels = new String[4];
+        HostNode<T>[] children = newHostNodes(4);
+        int size;
+        Entry<T>[] entries;
+
+        HostNode<T> get(String host, int start, int end) {
+            int len = end - start;
+            int mask = labels.length - 1;
+            int i = regionHash(host, start, end) & mask;
+            while (labels[i] != null) {
+                String l = labels[i];
+                if (l.length() == len && l.regionMatches(0, host, start, len)) {
+                    return children[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        HostNode<T> getOrCreate(String label) {
+            HostNode<T> n = get(label, 0, label.length());
+            if (n != null) {
+                return n;
+            }
+            if ((size + 1) * 2 > labels.length) {
+                String[] oldLabels = labels;
+                HostNode<T>[] oldChildren = children;
+                labels = new String[oldLabels.length * 2];
+                children = newHostNodes(oldLabels.length * 2);
+                for (int i = 0; i < oldLabels.length; ++i) {
+                    if (oldLabels[i] != null) {
+                        insert(oldLabels[i], oldChildren[i]);
+                    }
+                }
+            }
+            n = new HostNode<>();
+            insert(label, n);
+            ++size;
+            return n;
+        }
+
+        private void insert(String label, HostNode<T> n) {
+            int mask = labels.length - 1;
+            int i = label.hashCode() & mask;
+            while (labels[i] != null) {
+                i = (i + 1) & mask;
+            }
+            labels[i] = label;
+            children[i] = n;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> HostNode<T>[] newHostNodes(int n) {
+            return new HostNode[n];
+        }
+
+        // same as String#hashCode() of host.substring(start, end)
+        private static int regionHash(String host, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; ++i) {
+                h = 31 * h + host.charAt(i);
+            }
+            return h;
+        }
+    }
+
+    private static final class UriNode<T> {
+        char[] chars = new char[0]; // sorted
+        UriNode<T>[] children = newUriNodes(0);
+        Entry<T>[] entries;
+
+        UriNode<T> get(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            return i < 0 ? null : children[i];
+        }
+
+        UriNode<T> getOrCreate(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -(i + 1);
+            char[] newChars = new char[chars.length + 1];
+            UriNode<T>[] newChildren = newUriNodes(chars.length + 1);
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, chars.length - i);
+            UriNode<T> n = new UriNode<>();
+            newChars[i] = c;
+            newChildren[i] = n;
+            chars = newChars;
+            children = newChildren;
+            return n;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> UriNode<T>[] newUriNodes(int n) {
+            return new UriNode[n];
+        }
+    }
+
+    private final Map<String, Entry<T>[]> exactHosts = new HashMap<>();
+    private final HostNode<T> hostRoot = new HostNode<>();
+    private final Entry<T>[] wildcardHosts;
+    private final UriNode<T> uriRoot = new UriNode<>();
+    private final Entry<T>[] wildcardUris;
+
+    /**
+     * @param values      values in the order of precedence when levels are equal
+     * @param annotations retrieve annotations of a value, same as the arguments passed to matchLevel
+     */
+    public HintIndex(List<T> values, Function<T, Annotations[]> annotations) {
+        Map<String, List<Entry<T>>> exact = new HashMap<>();
+        Map<HostNode<T>, List<Entry<T>>> suffix = new IdentityHashMap<>();
+        List<Entry<T>> wildcardHosts = new ArrayList<>();
+        Map<UriNode<T>, List<Entry<T>>> prefix = new IdentityHashMap<>();
+        List<Entry<T>> wildcardUris = new ArrayList<>();
+
+        int index = 0;
+        for (T value : values) {
+            Annotations[] annosArray = annotations.apply(value);
+            String annoHost = null;
+            int annoPort = 0;
+            String annoUri = null;
+            if (annosArray != null) {
+                for (Annotations a : annosArray) {
+                    if (annoHost == null) {
+                        annoHost = a.ServerGroup_HintHost;
+                    }
+                    if (annoPort == 0) {
+                        annoPort = a.ServerGroup_HintPort;
+                    }
+                    if (annoUri == null) {
+                        annoUri = a.ServerGroup_HintUri;
+                    }
+                }
+            }
+            Entry<T> e = new Entry<>(value, index++, annoPort, annoUri);
+            // the level is decided by host and uri, the port only filters
+            if (annoHost != null) {
+                exact.computeIfAbsent(annoHost, k -> new ArrayList<>()).add(e);
+                HostNode<T> n = hostRoot;
+                // split with -1 to keep empty labels, then `a.b` ends with `.b` exactly when labels of `b` is a proper suffix
+                String[] labels = annoHost.split("\\.", -1);
+                for (int i = labels.length - 1; i >= 0; --i) {
+                    n = n.getOrCreate(labels[i]);
+                }
+                suffix.computeIfAbsent(n, k -> new ArrayList<>()).add(e);
+                if (annoHost.equals("*")) {
+                    wildcardHosts.add(e);
+                }
+            }
+            if (annoUri != null) {
+                UriNode<T> n = uriRoot;
+                for (int i = 0; i < annoUri.length(); ++i) {
+                    n = n.getOrCreate(annoUri.charAt(i));
+                }
+                prefix.computeIfAbsent(n, k -> new ArrayList<>()).add(e);
+                if (annoUri.equals("*")) {
+                    wildcardUris.add(e);
+                }
+            }
+        }
+
+        for (var kv : exact.entrySet()) {
+            exactHosts.put(kv.getKey(), toArray(kv.getValue()));
+        }
+        for (var kv : suffix.entrySet()) {
+            kv.getKey().entries = toArray(kv.getValue());
+        }
+        this.wildcardHosts = toArray(wildcardHosts);
+        for (var kv : prefix.entrySet()) {
+            kv.getKey().entries = toArray(kv.getValue());
+        }
+        this.wildcardUris = toArray(wildcardUris);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] toArray(List<Entry<T>> ls) {
+        return ls.toArray(new Entry[0]);
+    }
+
+    /**
+     * @return the value with the highest match level, or null if nothing matches
+     */
+    public T search(Hint hint) {
+        Best<T> best = new Best<>();
+        // a value matching the host always has a higher level than any value not matching the host,
+        // so check the host from exact match to wildcard, and uri only decides among values with the same host level
+        if (hint.host != null) {
+            String host = hint.host;
+            offerHostMatches(best, hint, exactHosts.get(host));
+            if (best.entry != null) {
+                return best.entry.value;
+            }
+
+            HostNode<T> n = hostRoot;
+            int end = host.length();
+            while (n != null) {
+                int dot = host.lastIndexOf('.', end - 1);
+                n = n.get(host, dot + 1, end);
+                if (dot == -1 || n == null) { // the last node is the exact match, which is already checked
+                    break;
+                }
+                offerHostMatches(best, hint, n.entries);
+                end = dot;
+            }
+            if (best.entry != null) {
+                return best.entry.value;
+            }
+
+            offerHostMatches(best, hint, wildcardHosts);
+            if (best.entry != null) {
+                return best.entry.value;
+            }
+        }
+        // no host matches, only uri matters
+        if (hint.uri != null) {
+            String uri = hint.uri;
+            UriNode<T> n = uriRoot;
+            offerUriMatches(best, hint, n.entries);
+            for (int i = 0; i < uri.length(); ++i) {
+                n = n.get(uri.charAt(i));
+                if (n == null) {
+                    break;
+                }
+                offerUriMatches(best, hint, n.entries);
+            }
+            if (wildcardUris.length != 0) {
+                offerUriMatches(best, hint, wildcardUris);
+            }
+        }
+        return best.entry == null ? null : best.entry.value;
+    }
+
+    private static boolean portMatch(Hint hint, Entry<?> e) {
+        return hint.port == 0 || e.port == 0 || hint.port == e.port;
+    }
+
+    private static <T> void offerHostMatches(Best<T> best, Hint hint, Entry<T>[] entries) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry<T> e : entries) {
+            if (!portMatch(hint, e)) {
+                continue;
+            }
+            // +1 because matching only the host still has a level
+            best.offer(e, Hint.uriLevel(hint.uri, e.uri) + 1);
+        }
+    }
+
+    private static <T> void offerUriMatches(Best<T> best, Hint hint, Entry<T>[] entries) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry<T> e : entries) {
+            if (!portMatch(hint, e)) {
+                continue;
+            }
+            best.offer(e, Hint.uriLevel(hint.uri, e.uri));
+        }
+    }
+}
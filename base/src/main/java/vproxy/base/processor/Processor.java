@@ -260,6 +260,30 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     DisconnectTODO disconnected(CTX ctx, SUB sub, boolean exception);
 
+    /**
+     * backend connections with the same key can be lent to other frontend connections when they are idle,
+     * the lib creates a new sub context for the borrowing frontend and does not call {@link #connected(Context, SubContext)},
+     * so the key must describe all protocol state left on the connection after a request is completely handled.
+     *
+     * @param ctx context
+     * @return the key of backend connections of this context, or null if they cannot be shared
+     */
+    default String backendPoolKey(CTX ctx) {
+        return null;
+    }
+
+    /**
+     * check whether the backend connection is at a request boundary.
+     * will only be called when {@link #backendPoolKey(Context)} returns non-null.
+     *
+     * @param ctx context
+     * @param sub backend sub context
+     * @return true if no request or response is being transferred and no response is expected from the connection
+     */
+    default boolean backendIdle(CTX ctx, SUB sub) {
+        return false;
+    }
+
     /**
      * zero copy is not free.
      * e.g. when processing http2 frames, the frame header is 9 bytes, and with uint24 payload length,
@@ -1,9 +1,30 @@
 package vproxy.base.processor.dubbo;
 
 import vproxy.base.processor.HeadPayloadProcessor;
+import vproxy.base.util.ByteArray;
 
 public class DubboProcessor extends HeadPayloadProcessor {
+    // flags in the third byte of the dubbo head
+    private static final int FLAG_REQUEST = 0x80;
+    private static final int FLAG_TWO_WAY = 0x40;
+
     public DubboProcessor() {
         super("dubbo", 16, 12, 4, Integer.MAX_VALUE);
     }
+
+    @Override
+    protected boolean backendReusable() {
+        return true;
+    }
+
+    @Override
+    protected boolean expectsResponse(ByteArray head) {
+        int flag = head.uint8(2);
+        return (flag & FLAG_REQUEST) != 0 && (flag & FLAG_TWO_WAY) != 0;
+    }
+
+    @Override
+    protected boolean isResponse(ByteArray head) {
+        return (head.uint8(2) & FLAG_REQUEST) == 0;
+    }
 }
@@ -98,4 +98,17 @@ public class GeneralHttpProcessor implements Processor<GeneralHttpContext, Gener
         // if (ctx.willUseHttp2)
         return null;
     }
+
+    @Override
+    public String backendPoolKey(GeneralHttpContext ctx) {
+        // h2 backend connections carry hpack and stream states of the frontend connection
+        if (ctx.useHttp) return httpProcessor.backendPoolKey(ctx.httpContext);
+        return null;
+    }
+
+    @Override
+    public boolean backendIdle(GeneralHttpContext ctx, GeneralHttpSubContext subCtx) {
+        if (ctx.useHttp) return httpProcessor.backendIdle(ctx.httpContext, subCtx.httpSubContext);
+        return false;
+    }
 }
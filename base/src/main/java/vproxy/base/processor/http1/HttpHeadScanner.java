@@ -0,0 +1,354 @@
+package vproxy.base.processor.http1;
+
+import vproxy.base.util.ByteArray;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scan the head (the first line and the headers) of a http/1.x message in bulk.<br>
+ * Line ends and separators are searched 8 bytes at a time, and the parts of the head are recorded as offsets,
+ * strings are only created for the values asked by the caller.
+ * <p>
+ * The scanner accepts the same input as the byte by byte state machine in {@link HttpSubContext}
+ * and {@link #toByteArray(byte[])} produces the same bytes as building the head from the parsed entity.
+ * Input which the state machine handles in an unusual way (e.g. a bare CR, a header without colon)
+ * is reported as {@link #UNSUPPORTED}, and the caller should fall back to the state machine.
+ * <p>
+ * The object is reused for every message, offsets are valid until the next call to {@link #scan(byte[], int, int, boolean)}.
+ */
+public class HttpHeadScanner {
+    public static final int INCOMPLETE = -1;
+    public static final int UNSUPPORTED = -2;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long CRS = ONES * '\r';
+    private static final long LFS = ONES * '\n';
+
+    private static final byte[] SP = {' '};
+    private static final byte[] COLON_SP = {':', ' '};
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] bytes;
+    private boolean request;
+    // the first line is split into three parts by the first two spaces
+    // request: method, uri, version (may be absent)
+    // response: version, status, reason
+    private final int[] firstLine = new int[6];
+    // name begin, name end, value begin, value end of each header
+    private int[] headers = new int[4 * 16];
+    private boolean[] removed = new boolean[16];
+    private int headerCount;
+
+    /**
+     * @return offset after the head, or {@link #INCOMPLETE} if the head is not ended in the input,
+     * or {@link #UNSUPPORTED} if the input should be handled by the state machine
+     */
+    public int scan(byte[] bytes, int off, int end, boolean request) {
+        this.bytes = bytes;
+        this.request = request;
+        this.headerCount = 0;
+
+        int lineEnd = indexOfLineEnd(bytes, off, end);
+        if (lineEnd < 0) {
+            return INCOMPLETE;
+        }
+        int next = nextLine(bytes, lineEnd, end);
+        if (next < 0) {
+            return next;
+        }
+        if (!scanFirstLine(off, lineEnd)) {
+            return UNSUPPORTED;
+        }
+
+        int pos = next;
+        while (true) {
+            lineEnd = indexOfLineEnd(bytes, pos, end);
+            if (lineEnd < 0) {
+                return INCOMPLETE;
+            }
+            next = nextLine(bytes, lineEnd, end);
+            if (next < 0) {
+                return next;
+            }
+            if (lineEnd == pos) { // empty line
+                return next;
+            }
+            int colon = indexOf(bytes, pos, lineEnd, ':');
+            if (colon < 0) {
+                return UNSUPPORTED;
+            }
+            int valueBegin = colon + 1;
+            while (valueBegin < lineEnd && bytes[valueBegin] == ' ') { // leading spaces are ignored
+                ++valueBegin;
+            }
+            addHeader(pos, colon, valueBegin, lineEnd);
+            pos = next;
+        }
+    }
+
+    // return offset of the next line, or INCOMPLETE or UNSUPPORTED
+    private static int nextLine(byte[] bytes, int lineEnd, int end) {
+        if (bytes[lineEnd] == '\n') {
+            return lineEnd + 1;
+        }
+        if (lineEnd + 1 >= end) {
+            return INCOMPLETE;
+        }
+        // the state machine drops CR anywhere in the line
+        return bytes[lineEnd + 1] == '\n' ? lineEnd + 2 : UNSUPPORTED;
+    }
+
+    private boolean scanFirstLine(int begin, int end) {
+        int sp1 = indexOf(bytes, begin, end, ' ');
+        if (sp1 < 0) {
+            return false;
+        }
+        int sp2 = indexOf(bytes, sp1 + 1, end, ' ');
+        firstLine[0] = begin;
+        firstLine[1] = sp1;
+        firstLine[2] = sp1 + 1;
+        if (request) {
+            if (sp2 < 0 || sp2 + 1 == end) { // no version
+                firstLine[3] = sp2 < 0 ? end : sp2;
+                firstLine[4] = -1;
+                firstLine[5] = -1;
+            } else {
+                firstLine[3] = sp2;
+                firstLine[4] = sp2 + 1;
+                firstLine[5] = end;
+            }
+            return true;
+        }
+        if (sp2 < 0) {
+            return false;
+        }
+        // the status code is formatted from an int when serialized
+        int len = sp2 - sp1 - 1;
+        if (len == 0 || len > 9 || (len > 1 && bytes[sp1 + 1] == '0')) {
+            return false;
+        }
+        for (int i = sp1 + 1; i < sp2; ++i) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return false;
+            }
+        }
+        firstLine[3] = sp2;
+        firstLine[4] = sp2 + 1;
+        firstLine[5] = end;
+        return true;
+    }
+
+    private void addHeader(int nameBegin, int nameEnd, int valueBegin, int valueEnd) {
+        if (headerCount == removed.length) {
+            int[] newHeaders = new int[headers.length * 2];
+            System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+            headers = newHeaders;
+            removed = new boolean[removed.length * 2];
+        }
+        int i = headerCount * 4;
+        headers[i] = nameBegin;
+        headers[i + 1] = nameEnd;
+        headers[i + 2] = valueBegin;
+        headers[i + 3] = valueEnd;
+        removed[headerCount] = false;
+        ++headerCount;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * @return the uri of the request
+     */
+    public String uri() {
+        return string(firstLine[2], firstLine[3]);
+    }
+
+    /**
+     * @param lowerCaseName name in lower case
+     * @return true if the trimmed name of the header equals to the input ignoring case
+     */
+    public boolean nameEqualsIgnoreCase(int idx, String lowerCaseName) {
+        return equalsIgnoreCaseAfterTrim(headers[idx * 4], headers[idx * 4 + 1], lowerCaseName);
+    }
+
+    /**
+     * @param lowerCaseValue value in lower case
+     * @return true if the trimmed value of the header equals to the input ignoring case
+     */
+    public boolean valueEqualsIgnoreCase(int idx, String lowerCaseValue) {
+        return equalsIgnoreCaseAfterTrim(headers[idx * 4 + 2], headers[idx * 4 + 3], lowerCaseValue);
+    }
+
+    /**
+     * @return the trimmed value of the header
+     */
+    public String value(int idx) {
+        int begin = headers[idx * 4 + 2];
+        int end = headers[idx * 4 + 3];
+        while (begin < end && (bytes[begin] & 0xff) <= ' ') {
+            ++begin;
+        }
+        while (end > begin && (bytes[end - 1] & 0xff) <= ' ') {
+            --end;
+        }
+        return string(begin, end);
+    }
+
+    /**
+     * @return the trimmed value of the header as a non-negative int, or -1 if it's not written in plain digits
+     */
+    public int valueInt(int idx) {
+        int begin = headers[idx * 4 + 2];
+        int end = headers[idx * 4 + 3];
+        while (begin < end && (bytes[begin] & 0xff) <= ' ') {
+            ++begin;
+        }
+        while (end > begin && (bytes[end - 1] & 0xff) <= ' ') {
+            --end;
+        }
+        if (begin == end || end - begin > 9) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = begin; i < end; ++i) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            n = n * 10 + (b - '0');
+        }
+        return n;
+    }
+
+    /**
+     * the header will not be serialized by {@link #toByteArray(byte[])}
+     */
+    public void remove(int idx) {
+        removed[idx] = true;
+    }
+
+    /**
+     * @param extra bytes of additional header lines, each ends with CRLF
+     * @return the head serialized in the same way as Request#toByteArray() and Response#toByteArray()
+     */
+    public ByteArray toByteArray(byte[] extra) {
+        int len = (firstLine[1] - firstLine[0]) + 1 + (firstLine[3] - firstLine[2]);
+        if (firstLine[4] != -1) {
+            len += 1 + (firstLine[5] - firstLine[4]);
+        }
+        len += 2;
+        for (int i = 0; i < headerCount; ++i) {
+            if (removed[i]) {
+                continue;
+            }
+            int h = i * 4;
+            len += (headers[h + 1] - headers[h]) + 2 + (headers[h + 3] - headers[h + 2]) + 2;
+        }
+        len += extra.length + 2;
+
+        byte[] ret = new byte[len];
+        int off = put(ret, 0, bytes, firstLine[0], firstLine[1]);
+        off = put(ret, off, SP, 0, 1);
+        off = put(ret, off, bytes, firstLine[2], firstLine[3]);
+        if (firstLine[4] != -1) {
+            off = put(ret, off, SP, 0, 1);
+            off = put(ret, off, bytes, firstLine[4], firstLine[5]);
+        }
+        off = put(ret, off, CRLF, 0, 2);
+        for (int i = 0; i < headerCount; ++i) {
+            if (removed[i]) {
+                continue;
+            }
+            int h = i * 4;
+            off = put(ret, off, bytes, headers[h], headers[h + 1]);
+            off = put(ret, off, COLON_SP, 0, 2);
+            off = put(ret, off, bytes, headers[h + 2], headers[h + 3]);
+            off = put(ret, off, CRLF, 0, 2);
+        }
+        off = put(ret, off, extra, 0, extra.length);
+        put(ret, off, CRLF, 0, 2);
+        return ByteArray.from(ret);
+    }
+
+    private static int put(byte[] dst, int off, byte[] src, int begin, int end) {
+        System.arraycopy(src, begin, dst, off, end - begin);
+        return off + (end - begin);
+    }
+
+    private String string(int begin, int end) {
+        // same as appending each byte as a char
+        return new String(bytes, begin, end - begin, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean equalsIgnoreCaseAfterTrim(int begin, int end, String lowerCase) {
+        while (begin < end && (bytes[begin] & 0xff) <= ' ') {
+            ++begin;
+        }
+        while (end > begin && (bytes[end - 1] & 0xff) <= ' ') {
+            --end;
+        }
+        if (end - begin != lowerCase.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length(); ++i) {
+            int b = bytes[begin + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // bytes equal to zero in x are marked with the high bit,
+    // the lowest marked byte is always correct, higher bytes may be false positive
+    private static long zeros(long x) {
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    // return index of the first CR or LF, or -1 if not found
+    static int indexOfLineEnd(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long w = (long) LONG.get(bytes, i);
+            long m = zeros(w ^ CRS) | zeros(w ^ LFS);
+            if (m != 0) {
+                return i + (Long.numberOfTrailingZeros(m) >>> 3);
+            }
+        }
+        for (; i < to; ++i) {
+            byte b = bytes[i];
+            if (b == '\r' || b == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // return index of the first byte equal to c, or -1 if not found
+    static int indexOf(byte[] bytes, int from, int to, char c) {
+        long pattern = ONES * c;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long m = zeros((long) LONG.get(bytes, i) ^ pattern);
+            if (m != 0) {
+                return i + (Long.numberOfTrailingZeros(m) >>> 3);
+            }
+        }
+        for (; i < to; ++i) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -24,4 +24,19 @@ public class HttpProcessor extends OOProcessor<HttpContext, HttpSubContext> {
     public HttpSubContext initSub(HttpContext httpContext, int id, ConnectionDelegate delegate) {
         return new HttpSubContext(httpContext, id, delegate);
     }
+
+    @Override
+    public String backendPoolKey(HttpContext ctx) {
+        if (ctx.upgradedConnection) {
+            return null;
+        }
+        return name();
+    }
+
+    @Override
+    public boolean backendIdle(HttpContext ctx, HttpSubContext sub) {
+        return sub.isIdle()
+            && sub.storedBytesForProcessing == null
+            && !(ctx.frontendExpectingResponse && ctx.frontendExpectingResponseFrom == sub.connId);
+    }
 }
@@ -12,6 +12,7 @@ import vproxy.base.processor.http1.entity.Response;
 import vproxy.base.util.ByteArray;
 import vproxy.base.util.Logger;
 import vproxy.base.util.Utils;
+import vproxy.base.util.bytearray.SimpleByteArray;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,6 +21,9 @@ import java.util.List;
 
 @SuppressWarnings("StatementWithEmptyBody")
 public class HttpSubContext extends OOSubContext<HttpContext> {
+    // heads longer than this are parsed byte by byte if not received at once
+    private static final int MAX_BULK_HEAD_LENGTH = 16384;
+
     private int state = 0;
     /*
      * 0 => idle ~> 1 (if request) or -> 22 (if response)
@@ -102,7 +106,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     // only accessed when it's a frontend sub context
     // if it's a backend sub context, the field might be set but never used
     String theHostHeader = null;
-    private StringBuilder theConnectionHeader = null;
+    private boolean keepConnectionHeader = false;
     // all these endHeaders fields will set to true in state9 (end-all-headers)
     // if there's no body and chunk, the [0] will be set to false because statm will call end() to reset states
     // otherwise [0] will remain to be true until the body/chunk is properly handled
@@ -120,8 +124,15 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     // endHeaders[2] means the data in method feed(...) can be returned
     private final boolean[] endHeaders = new boolean[]{false, false, false};
     private boolean parserMode;
+    // when proxying, heads are scanned in bulk if received entirely, see HttpHeadScanner
+    private boolean bulkScan = true;
+    private HttpHeadScanner scanner;
+    private ByteArray scannedHead = null;
     // bytes consumed via feed(...) but paused before handling
     ByteArray storedBytesForProcessing = null;
+    // the head is partially received and stored, waiting for the rest before scanning again
+    // the message is already started though the state is still 0
+    private boolean headPending = false;
 
     public HttpSubContext(HttpContext httpContext, int connId, ConnectionDelegate delegate) {
         super(httpContext, connId, delegate);
@@ -161,6 +172,10 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         this.parserMode = true;
     }
 
+    public void setBulkScan(boolean bulkScan) {
+        this.bulkScan = bulkScan;
+    }
+
     public RequestBuilder getParsingReq() {
         return this.req;
     }
@@ -174,7 +189,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     }
 
     public boolean isIdle() {
-        return state == 0;
+        return state == 0 && !headPending;
     }
 
     public boolean isBeforeBody() {
@@ -220,7 +235,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     public Processor.HandleTODO processorFeed(ByteArray data) throws Exception {
         Processor.HandleTODO handleTODO = Processor.HandleTODO.create();
         handleTODO.send = feedWithStored(data);
-        handleTODO.frameEnds = state == 0;
+        handleTODO.frameEnds = isIdle();
         if (isFrontend()) {
             handleTODO.connTODO = ctx.connection();
         }
@@ -233,13 +248,13 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             // regardless of whether the request is completely received
             ctx.frontendExpectingResponse = true;
         }
-        boolean isIdleBeforeFeeding = state == 0;
+        boolean isIdleBeforeFeeding = isIdle();
         if (storedBytesForProcessing != null) {
             data = storedBytesForProcessing.concat(data);
             storedBytesForProcessing = null;
         }
         ByteArray ret = feed(data);
-        boolean isIdleAfterFeeding = state == 0;
+        boolean isIdleAfterFeeding = isIdle();
         if (isFrontend() && isIdleBeforeFeeding && isIdleAfterFeeding) {
             ctx.currentBackend = -1;
         }
@@ -247,16 +262,34 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     }
 
     public ByteArray feed(ByteArray data) throws Exception {
+        headPending = false;
         int consumedBytes = 0;
         ByteArray headersBytes = null;
         while (consumedBytes < data.length()) {
-            feed(data.get(consumedBytes++));
+            if (state == 0 && bulkScan && !parserMode) {
+                int headEnd = feedHead(data, consumedBytes);
+                if (headEnd == HttpHeadScanner.INCOMPLETE) {
+                    // wait for the rest of the head
+                    storedBytesForProcessing = data;
+                    headPending = true;
+                    return null;
+                } else if (headEnd > 0) {
+                    consumedBytes = headEnd;
+                } else {
+                    feed(data.get(consumedBytes++));
+                }
+            } else {
+                feed(data.get(consumedBytes++));
+            }
             if (parserMode) { // headers manipulation is skipped in parser mode
                 continue;
             }
 
             if (endHeaders[1]) {
-                if (isFrontend()) {
+                if (scannedHead != null) {
+                    headersBytes = scannedHead;
+                    scannedHead = null;
+                } else if (isFrontend()) {
                     headersBytes = req.build().toByteArray();
                 } else {
                     headersBytes = resp.build().toByteArray();
@@ -319,6 +352,114 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
+    /**
+     * Handle the head in bulk, the result is the same as feeding the head byte by byte.
+     *
+     * @return offset after the head,
+     * or {@link HttpHeadScanner#INCOMPLETE} if the head is not fully received and it's the beginning of the data,
+     * or 0 if the head should be parsed byte by byte
+     */
+    private int feedHead(ByteArray data, int off) {
+        int len = data.length() - off;
+        // the head never exceeds MAX_BULK_HEAD_LENGTH, so body bytes behind it are not touched
+        int scanLen = Math.min(len, MAX_BULK_HEAD_LENGTH);
+        byte[] bytes;
+        int begin;
+        if (data instanceof SimpleByteArray) {
+            // scan the backing array in place
+            bytes = data.toJavaArray();
+            begin = off;
+        } else {
+            bytes = data.sub(off, scanLen).toJavaArray();
+            begin = 0;
+        }
+        if (scanner == null) {
+            scanner = new HttpHeadScanner();
+        }
+        int headEnd = scanner.scan(bytes, begin, begin + scanLen, isFrontend());
+        if (headEnd == HttpHeadScanner.INCOMPLETE) {
+            return off == 0 && len < MAX_BULK_HEAD_LENGTH ? HttpHeadScanner.INCOMPLETE : 0;
+        }
+        if (headEnd == HttpHeadScanner.UNSUPPORTED) {
+            return 0;
+        }
+        int headLen = headEnd - begin;
+
+        // check how the body is transferred before modifying any field, so that the state machine can still take over
+        int contentLength = -1;
+        boolean chunked = false;
+        boolean upgrade = false;
+        for (int i = 0; i < scanner.headerCount(); ++i) {
+            if (scanner.nameEqualsIgnoreCase(i, "content-length")) {
+                contentLength = scanner.valueInt(i);
+                if (contentLength == -1) {
+                    return 0; // let the state machine report the error
+                }
+                break;
+            } else if (scanner.nameEqualsIgnoreCase(i, "transfer-encoding")) {
+                if (!scanner.valueEqualsIgnoreCase(i, "chunked")) {
+                    return 0;
+                }
+                chunked = true;
+                break;
+            } else if (scanner.nameEqualsIgnoreCase(i, "upgrade")) {
+                upgrade = true;
+            }
+        }
+
+        byte[] extra;
+        if (isFrontend()) {
+            req = null;
+            theUri = scanner.uri();
+            keepConnectionHeader = false;
+            for (int i = 0; i < scanner.headerCount(); ++i) {
+                if (scanner.nameEqualsIgnoreCase(i, "host")) {
+                    theHostHeader = scanner.value(i);
+                } else if (scanner.nameEqualsIgnoreCase(i, "connection")) {
+                    if (scanner.valueEqualsIgnoreCase(i, "close")) {
+                        scanner.remove(i);
+                    } else {
+                        keepConnectionHeader = true;
+                    }
+                } else if (scanner.nameEqualsIgnoreCase(i, "x-forwarded-for")
+                    || scanner.nameEqualsIgnoreCase(i, "x-client-port")
+                    || scanner.nameEqualsIgnoreCase(i, "keep-alive")) {
+                    scanner.remove(i);
+                }
+            }
+            // same as addAdditionalHeaders()
+            String additional = "x-forwarded-for: " + ctx.clientAddress + "\r\n" +
+                "x-client-port: " + ctx.clientPort + "\r\n";
+            if (!keepConnectionHeader) {
+                additional += "Connection: Keep-Alive\r\n";
+            }
+            extra = additional.getBytes();
+        } else {
+            resp = null;
+            extra = Utils.getZeroLengthByteArray();
+        }
+        scannedHead = scanner.toByteArray(extra);
+
+        // same as state9
+        Arrays.fill(endHeaders, true);
+        if (upgrade && connId != 0) {
+            assert Logger.lowLevelDebug("found upgrade header");
+            ctx.upgradedConnection = true;
+            proxyLen = 0x00ffffff; // use max uint24 to prevent some possible overflow
+        }
+        if (contentLength > 0) {
+            assert Logger.lowLevelDebug("found Content-Length: " + contentLength);
+            state = 10;
+            proxyLen = contentLength;
+        } else if (chunked) {
+            assert Logger.lowLevelDebug("found Transfer-Encoding: chunked");
+            state = 11;
+        } else {
+            end();
+        }
+        return off + headLen;
+    }
+
     public void feed(byte b) throws Exception {
         if (state < 0 || state >= handlers.length) {
             throw new IllegalStateException("BUG: unexpected state " + state);
@@ -384,7 +525,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         state = 0;
 
         headers = null;
-        theConnectionHeader = null;
+        keepConnectionHeader = false;
         endHeaders[0] = false;
         if (!isFrontend() && !parserMode) {
             ctx.clearFrontendExpectingResponse(this);
@@ -503,7 +644,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                         break;
                     case "connection":
                         if (!header.value.toString().trim().equalsIgnoreCase("close")) {
-                            theConnectionHeader = header.value;
+                            keepConnectionHeader = true;
                             // keep the Connection: xxx header if it's not 'close'
                             break;
                         }
@@ -558,7 +699,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             assert Logger.lowLevelDebug("add header " + h);
         }
         // connection
-        if (theConnectionHeader == null) {
+        if (!keepConnectionHeader) {
             HeaderBuilder h = new HeaderBuilder();
             h.key.append("Connection");
             h.value.append("Keep-Alive");
@@ -696,10 +837,15 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                 }
                 chunks.add(chunk);
                 chunk = null;
+                // builders are not created if the head is scanned in bulk
                 if (isFrontend()) {
-                    req.chunks = chunks;
+                    if (req != null) {
+                        req.chunks = chunks;
+                    }
                 } else {
-                    resp.chunks = chunks;
+                    if (resp != null) {
+                        resp.chunks = chunks;
+                    }
                 }
                 chunks = null;
             } else {
@@ -800,9 +946,13 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         } else if (b == '\n') {
             state = 21;
             if (isFrontend()) {
-                req.trailers = trailers;
+                if (req != null) {
+                    req.trailers = trailers;
+                }
             } else {
-                resp.trailers = trailers;
+                if (resp != null) {
+                    resp.trailers = trailers;
+                }
             }
             trailers = null;
             state21(null);
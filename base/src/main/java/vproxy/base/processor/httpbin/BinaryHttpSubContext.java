@@ -63,6 +63,8 @@ public class BinaryHttpSubContext extends OOSubContext<BinaryHttpContext> implem
             state = STATE_FIRST_SETTINGS_FRAME_HEADER;
         }
         streamHolder = new StreamHolder(this);
+        // frames are serialized to the other side right after they are parsed
+        hpack.setReuseHeaderList(true);
         init();
     }
 
@@ -870,6 +872,7 @@ public class BinaryHttpSubContext extends OOSubContext<BinaryHttpContext> implem
         if ((connId == 0 && state != STATE_PREFACE) || (connId != 0 && state != STATE_FIRST_SETTINGS_FRAME_HEADER))
             throw new IllegalStateException("the method must be called when initialization");
         this.parserMode = true;
+        hpack.setReuseHeaderList(false); // frames are returned to the user
         init();
     }
 
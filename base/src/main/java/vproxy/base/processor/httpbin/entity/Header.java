@@ -21,6 +21,16 @@ public class Header {
         this.caseSensitive = caseSensitive;
     }
 
+    /**
+     * @param keyStr the string form of the key, it must be the same as what the other constructor generates
+     */
+    public Header(String keyStr, byte[] key, byte[] value, boolean caseSensitive) {
+        this.keyStr = keyStr;
+        this.key = key;
+        this.value = value;
+        this.caseSensitive = caseSensitive;
+    }
+
     @Override
     public String toString() {
         return "Header{" +
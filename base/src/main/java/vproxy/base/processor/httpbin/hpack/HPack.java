@@ -1,36 +1,52 @@
 package vproxy.base.processor.httpbin.hpack;
 
-import com.twitter.hpack.Decoder;
-import com.twitter.hpack.Encoder;
 import vproxy.base.processor.httpbin.entity.Header;
 import vproxy.base.util.ByteArray;
 import vproxy.base.util.LogType;
 import vproxy.base.util.Logger;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * HPACK codec of one http/2 connection.<br>
+ * Header blocks are decoded directly from the ByteArray and encoded into a reused buffer.
+ * When {@link #setReuseHeaderList(boolean)} is enabled, every call to {@link #decode(ByteArray)} returns the same list,
+ * which is only valid until the next call.
+ */
 public class HPack {
-    private final Decoder decoder;
-    private final Encoder encoder;
-    private final SyncHeaderListener sync = new SyncHeaderListener();
+    private static final int MAX_HEADER_LIST_SIZE = 65536;
+
+    private final HPackDecoder decoder;
+    private final HPackEncoder encoder;
+    private final ArrayList<Header> headerList = new ArrayList<>(64);
+    private boolean reuseHeaderList = false;
 
     public HPack(int decoderMaxHeaderTableSize, int encoderMaxHeaderTableSize) {
-        this.decoder = new Decoder(65536, decoderMaxHeaderTableSize);
-        this.encoder = new Encoder(encoderMaxHeaderTableSize);
+        this.decoder = new HPackDecoder(MAX_HEADER_LIST_SIZE, decoderMaxHeaderTableSize);
+        this.encoder = new HPackEncoder(encoderMaxHeaderTableSize);
+    }
+
+    public void setReuseHeaderList(boolean reuseHeaderList) {
+        this.reuseHeaderList = reuseHeaderList;
     }
 
     public List<Header> decode(ByteArray headers) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(headers.toJavaArray());
+        List<Header> ret;
+        if (reuseHeaderList) {
+            headerList.clear();
+            ret = headerList;
+        } else {
+            ret = new ArrayList<>();
+        }
         try {
-            decoder.decode(bais, sync);
+            decoder.decode(headers, ret);
         } catch (IOException e) {
             Logger.error(LogType.INVALID_EXTERNAL_DATA, "hpack decode failed", e);
             throw e;
         }
-        return sync.getHeaders();
+        return ret;
     }
 
     public void setDecoderMaxHeaderTableSize(int size) {
@@ -38,26 +54,10 @@ public class HPack {
     }
 
     public ByteArray encode(List<Header> headers) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        for (Header h : headers) {
-            try {
-                encoder.encodeHeader(baos, h.key, h.value, h.caseSensitive);
-            } catch (IOException e) {
-                Logger.shouldNotHappen("hpack encode failed", e);
-                throw new RuntimeException(e);
-            }
-        }
-        return ByteArray.from(baos.toByteArray());
+        return encoder.encode(headers);
     }
 
-    private final ByteArrayOutputStream fooBAOS = new ByteArrayOutputStream();
-
     public void setEncoderMaxHeaderTableSize(int size) {
-        try {
-            encoder.setMaxHeaderTableSize(fooBAOS, size);
-        } catch (IOException e) {
-            Logger.shouldNotHappen("hpack setting encoder max header table size failed", e);
-        }
-        fooBAOS.reset();
+        encoder.setMaxHeaderTableSize(size);
     }
 }
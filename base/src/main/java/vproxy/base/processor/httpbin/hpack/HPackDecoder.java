@@ -0,0 +1,174 @@
+package vproxy.base.processor.httpbin.hpack;
+
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.util.ByteArray;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decode header blocks of rfc 7541 directly from the ByteArray.<br>
+ * Indexed fields return the Header objects stored in the tables, literal names are interned when possible,
+ * only the literal values are copied out of the input.
+ */
+final class HPackDecoder {
+    private final HPackDynamicTable dynamicTable;
+    private final int maxHeaderListSize;
+    private int maxDynamicTableSize;
+    private boolean dynamicTableSizeChangeRequired = false;
+
+    // the block being decoded
+    private ByteArray in;
+    private int pos;
+    private int end;
+    // huffman input and output
+    private byte[] huffmanSrc = new byte[256];
+    private byte[] huffmanDst = new byte[HPackHuffman.maxDecodedLength(256)];
+
+    HPackDecoder(int maxHeaderListSize, int maxHeaderTableSize) {
+        this.maxHeaderListSize = maxHeaderListSize;
+        this.maxDynamicTableSize = maxHeaderTableSize;
+        this.dynamicTable = new HPackDynamicTable(maxHeaderTableSize);
+    }
+
+    void setMaxHeaderTableSize(int size) {
+        maxDynamicTableSize = size;
+        if (size < dynamicTable.capacity()) {
+            // the encoder must send a dynamic table size update before using the table
+            dynamicTableSizeChangeRequired = true;
+            dynamicTable.setCapacity(size);
+        }
+    }
+
+    void decode(ByteArray block, List<Header> out) throws IOException {
+        in = block;
+        pos = 0;
+        end = block.length();
+        try {
+            long listSize = 0;
+            while (pos < end) {
+                int b = in.uint8(pos);
+                if (dynamicTableSizeChangeRequired && (b & 0xe0) != 0x20) {
+                    throw new IOException("max dynamic table size change required");
+                }
+                Header h;
+                if ((b & 0x80) != 0) { // indexed
+                    int index = readInt(7);
+                    if (index == 0) {
+                        throw new IOException("illegal index value: 0");
+                    }
+                    h = getEntry(index);
+                } else if ((b & 0x40) != 0) { // literal with incremental indexing
+                    h = readLiteral(readInt(6), false);
+                    dynamicTable.add(h);
+                } else if ((b & 0x20) != 0) { // dynamic table size update
+                    int size = readInt(5);
+                    if (size > maxDynamicTableSize) {
+                        throw new IOException("invalid max dynamic table size: " + size);
+                    }
+                    dynamicTableSizeChangeRequired = false;
+                    dynamicTable.setCapacity(size);
+                    continue;
+                } else { // literal without indexing (0x00) or never indexed (0x10)
+                    h = readLiteral(readInt(4), (b & 0x10) != 0);
+                }
+                listSize += h.key.length + h.value.length;
+                if (listSize > maxHeaderListSize) {
+                    throw new IOException("header list size exceeds " + maxHeaderListSize);
+                }
+                out.add(h);
+            }
+        } finally {
+            in = null;
+        }
+    }
+
+    private Header getEntry(int index) throws IOException {
+        if (index <= HPackStaticTable.LENGTH) {
+            return HPackStaticTable.get(index);
+        }
+        index -= HPackStaticTable.LENGTH;
+        if (index <= dynamicTable.length()) {
+            return dynamicTable.get(index);
+        }
+        throw new IOException("illegal index value: " + (index + HPackStaticTable.LENGTH));
+    }
+
+    private Header readLiteral(int nameIndex, boolean sensitive) throws IOException {
+        byte[] value;
+        if (nameIndex != 0) {
+            Header name = getEntry(nameIndex);
+            value = readString();
+            if (!sensitive || nameIndex <= HPackStaticTable.LENGTH) {
+                // static names are in lower case, so the key string is the same for sensitive headers
+                return new Header(name.keyStr, name.key, value, sensitive);
+            }
+            return new Header(name.key, value, true);
+        }
+        byte[] nameBytes = readString();
+        if (nameBytes.length == 0) {
+            throw new IOException("empty header name");
+        }
+        value = readString();
+        Header name = HPackStaticTable.internedName(nameBytes, nameBytes.length);
+        if (name != null) {
+            return new Header(name.keyStr, name.key, value, sensitive);
+        }
+        return new Header(nameBytes, value, sensitive);
+    }
+
+    // rfc 7541 section 5.1
+    private int readInt(int prefixBits) throws IOException {
+        int mask = (1 << prefixBits) - 1;
+        int value = in.uint8(pos++) & mask;
+        if (value < mask) {
+            return value;
+        }
+        long result = value;
+        int shift = 0;
+        while (true) {
+            if (pos >= end) {
+                throw new IOException("incomplete integer");
+            }
+            int b = in.uint8(pos++);
+            result += (long) (b & 0x7f) << shift;
+            if (result > Integer.MAX_VALUE) {
+                throw new IOException("integer overflow");
+            }
+            if ((b & 0x80) == 0) {
+                return (int) result;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("integer overflow");
+            }
+        }
+    }
+
+    // rfc 7541 section 5.2
+    private byte[] readString() throws IOException {
+        if (pos >= end) {
+            throw new IOException("incomplete string literal");
+        }
+        boolean huffman = (in.uint8(pos) & 0x80) != 0;
+        int len = readInt(7);
+        if (len > end - pos) {
+            throw new IOException("incomplete string literal");
+        }
+        ByteArray src = in.sub(pos, len);
+        pos += len;
+        if (!huffman) {
+            byte[] ret = new byte[len];
+            src.toNewJavaArray(ret, 0);
+            return ret;
+        }
+        if (huffmanSrc.length < len) {
+            huffmanSrc = new byte[len];
+            huffmanDst = new byte[HPackHuffman.maxDecodedLength(len)];
+        }
+        src.toNewJavaArray(huffmanSrc, 0);
+        int n = HPackHuffman.decode(huffmanSrc, 0, len, huffmanDst);
+        return Arrays.copyOf(huffmanDst, n);
+    }
+}
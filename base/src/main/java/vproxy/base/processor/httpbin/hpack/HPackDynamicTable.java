@@ -0,0 +1,154 @@
+package vproxy.base.processor.httpbin.hpack;
+
+import vproxy.base.processor.httpbin.entity.Header;
+
+import java.util.Arrays;
+
+/**
+ * The dynamic table of rfc 7541 section 4, stored in a ring.<br>
+ * Index 1 is the newest entry.
+ * <p>
+ * Entries are also chained in buckets by the hash of their names, newest first, for the encoder to search.
+ * Each entry is identified by its insertion sequence, since entries are evicted from the oldest,
+ * a chain ends at the first sequence which is already evicted, so eviction does not touch the chains.
+ */
+final class HPackDynamicTable {
+    static final int ENTRY_OVERHEAD = 32;
+    private static final int BUCKET_MASK = 127;
+
+    private Header[] entries = new Header[16];
+    private int[] nameHashes = new int[16];
+    private long[] nextSeqs = new long[16]; // sequence + 1 of the next entry in the bucket, 0 for the end
+    private int head = 0; // position of the newest entry
+    private int count = 0;
+    private long size = 0;
+    private int capacity;
+
+    private final long[] buckets = new long[BUCKET_MASK + 1]; // sequence + 1 of the newest entry, 0 for empty
+    private long insertCount = 0;
+
+    HPackDynamicTable(int capacity) {
+        this.capacity = capacity;
+    }
+
+    static long sizeOf(Header h) {
+        return (long) h.key.length + h.value.length + ENTRY_OVERHEAD;
+    }
+
+    int length() {
+        return count;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param index starts from 1
+     */
+    Header get(int index) {
+        return entries[position(index)];
+    }
+
+    private int position(int index) {
+        int pos = head - index + 1;
+        return pos < 0 ? pos + entries.length : pos;
+    }
+
+    void add(Header h) {
+        long hSize = sizeOf(h);
+        if (hSize > capacity) {
+            clear();
+            return;
+        }
+        while (size + hSize > capacity) {
+            evict();
+        }
+        if (count == entries.length) {
+            grow();
+        }
+        head = head + 1 == entries.length ? 0 : head + 1;
+        int nameHash = h.keyStr.hashCode();
+        int bucket = nameHash & BUCKET_MASK;
+        entries[head] = h;
+        nameHashes[head] = nameHash;
+        nextSeqs[head] = buckets[bucket];
+        buckets[bucket] = ++insertCount; // sequence of this entry is insertCount - 1
+        ++count;
+        size += hSize;
+    }
+
+    private void grow() {
+        int newLength = entries.length * 2;
+        Header[] newEntries = new Header[newLength];
+        int[] newNameHashes = new int[newLength];
+        long[] newNextSeqs = new long[newLength];
+        for (int i = 0; i < count; ++i) { // oldest first
+            int pos = position(count - i);
+            newEntries[i] = entries[pos];
+            newNameHashes[i] = nameHashes[pos];
+            newNextSeqs[i] = nextSeqs[pos];
+        }
+        entries = newEntries;
+        nameHashes = newNameHashes;
+        nextSeqs = newNextSeqs;
+        head = count - 1;
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        while (size > capacity) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        int tail = position(count);
+        size -= sizeOf(entries[tail]);
+        entries[tail] = null;
+        --count;
+    }
+
+    private void clear() {
+        Arrays.fill(entries, null);
+        count = 0;
+        size = 0;
+    }
+
+    /**
+     * @return index of the entry with the same name and value, or -1 if not found
+     */
+    int indexOf(Header h) {
+        return search(h, true);
+    }
+
+    /**
+     * @return index of the entry with the same name, or -1 if not found
+     */
+    int indexOfName(Header h) {
+        return search(h, false);
+    }
+
+    private int search(Header h, boolean matchValue) {
+        int nameHash = h.keyStr.hashCode();
+        long oldestSeq = insertCount - count;
+        long seq = buckets[nameHash & BUCKET_MASK] - 1;
+        while (seq >= oldestSeq) {
+            int index = (int) (insertCount - seq);
+            int pos = position(index);
+            if (nameHashes[pos] == nameHash) {
+                Header e = entries[pos];
+                if (Arrays.equals(e.key, h.key)
+                    && (!matchValue || Arrays.equals(e.value, h.value))) {
+                    return index;
+                }
+            }
+            seq = nextSeqs[pos] - 1;
+        }
+        return -1;
+    }
+}
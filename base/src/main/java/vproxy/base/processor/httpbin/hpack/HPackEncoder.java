@@ -0,0 +1,145 @@
+package vproxy.base.processor.httpbin.hpack;
+
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.util.ByteArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encode header blocks of rfc 7541 into a reused byte array.<br>
+ * Headers are indexed in the same way as the com.twitter.hpack encoder:
+ * sensitive headers are never indexed, other headers are added to the dynamic table if they fit in,
+ * and strings are huffman encoded when it makes them shorter.
+ */
+final class HPackEncoder {
+    private final HPackDynamicTable dynamicTable;
+    // the smallest size set since the last block, or -1 if the size is not changed
+    private int pendingMinTableSize = -1;
+
+    private byte[] buf = new byte[1024];
+    private int len;
+
+    HPackEncoder(int maxHeaderTableSize) {
+        this.dynamicTable = new HPackDynamicTable(maxHeaderTableSize);
+    }
+
+    void setMaxHeaderTableSize(int size) {
+        if (size == dynamicTable.capacity()) {
+            return;
+        }
+        if (pendingMinTableSize == -1 || size < pendingMinTableSize) {
+            pendingMinTableSize = size;
+        }
+        dynamicTable.setCapacity(size);
+    }
+
+    ByteArray encode(List<Header> headers) {
+        len = 0;
+        if (pendingMinTableSize != -1) {
+            // rfc 7541 section 4.2, signal the smallest size and then the final size
+            if (pendingMinTableSize < dynamicTable.capacity()) {
+                writeInt(0x20, 5, pendingMinTableSize);
+            }
+            writeInt(0x20, 5, dynamicTable.capacity());
+            pendingMinTableSize = -1;
+        }
+        for (Header h : headers) {
+            encodeHeader(h);
+        }
+        return ByteArray.from(Arrays.copyOf(buf, len));
+    }
+
+    private void encodeHeader(Header h) {
+        if (h.caseSensitive) {
+            writeLiteral(0x10, 4, nameIndex(h), h);
+            return;
+        }
+        if (dynamicTable.capacity() == 0) {
+            int index = HPackStaticTable.indexOf(h);
+            if (index == -1) {
+                writeLiteral(0x00, 4, HPackStaticTable.indexOfName(h), h);
+            } else {
+                writeInt(0x80, 7, index);
+            }
+            return;
+        }
+        if (HPackDynamicTable.sizeOf(h) > dynamicTable.capacity()) {
+            writeLiteral(0x00, 4, nameIndex(h), h);
+            return;
+        }
+        int index = dynamicTable.indexOf(h);
+        if (index != -1) {
+            writeInt(0x80, 7, index + HPackStaticTable.LENGTH);
+            return;
+        }
+        index = HPackStaticTable.indexOf(h);
+        if (index != -1) {
+            writeInt(0x80, 7, index);
+            return;
+        }
+        writeLiteral(0x40, 6, nameIndex(h), h);
+        dynamicTable.add(h);
+    }
+
+    // return 0 if not found
+    private int nameIndex(Header h) {
+        int index = HPackStaticTable.indexOfName(h);
+        if (index != -1) {
+            return index;
+        }
+        index = dynamicTable.indexOfName(h);
+        if (index != -1) {
+            return index + HPackStaticTable.LENGTH;
+        }
+        return 0;
+    }
+
+    private void writeLiteral(int mask, int prefixBits, int nameIndex, Header h) {
+        if (nameIndex <= 0) {
+            writeInt(mask, prefixBits, 0);
+            writeString(h.key);
+        } else {
+            writeInt(mask, prefixBits, nameIndex);
+        }
+        writeString(h.value);
+    }
+
+    // rfc 7541 section 5.1
+    private void writeInt(int mask, int prefixBits, int value) {
+        ensureCapacity(6);
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            buf[len++] = (byte) (mask | value);
+            return;
+        }
+        buf[len++] = (byte) (mask | max);
+        value -= max;
+        while ((value & ~0x7f) != 0) {
+            buf[len++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[len++] = (byte) value;
+    }
+
+    // rfc 7541 section 5.2
+    private void writeString(byte[] s) {
+        int huffmanLength = HPackHuffman.encodedLength(s);
+        if (huffmanLength < s.length) {
+            writeInt(0x80, 7, huffmanLength);
+            ensureCapacity(huffmanLength);
+            len = HPackHuffman.encode(s, buf, len);
+        } else {
+            writeInt(0x00, 7, s.length);
+            ensureCapacity(s.length);
+            System.arraycopy(s, 0, buf, len, s.length);
+            len += s.length;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (buf.length - len < n) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
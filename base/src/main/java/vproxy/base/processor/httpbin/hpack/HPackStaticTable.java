@@ -0,0 +1,189 @@
+package vproxy.base.processor.httpbin.hpack;
+
+import vproxy.base.processor.httpbin.entity.Header;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The static table of rfc 7541 appendix A, and the interned names.<br>
+ * Entries of the table are shared Header objects, so decoding an indexed static field allocates nothing.
+ * Names of the table and some other common names are interned,
+ * a literal name equal to one of them reuses the interned string and bytes.
+ */
+final class HPackStaticTable {
+    static final int LENGTH = 61;
+
+    private static final String[][] TABLE = {
+        {":authority", ""},
+        {":method", "GET"},
+        {":method", "POST"},
+        {":path", "/"},
+        {":path", "/index.html"},
+        {":scheme", "http"},
+        {":scheme", "https"},
+        {":status", "200"},
+        {":status", "204"},
+        {":status", "206"},
+        {":status", "304"},
+        {":status", "400"},
+        {":status", "404"},
+        {":status", "500"},
+        {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""},
+        {"accept-ranges", ""},
+        {"accept", ""},
+        {"access-control-allow-origin", ""},
+        {"age", ""},
+        {"allow", ""},
+        {"authorization", ""},
+        {"cache-control", ""},
+        {"content-disposition", ""},
+        {"content-encoding", ""},
+        {"content-language", ""},
+        {"content-length", ""},
+        {"content-location", ""},
+        {"content-range", ""},
+        {"content-type", ""},
+        {"cookie", ""},
+        {"date", ""},
+        {"etag", ""},
+        {"expect", ""},
+        {"expires", ""},
+        {"from", ""},
+        {"host", ""},
+        {"if-match", ""},
+        {"if-modified-since", ""},
+        {"if-none-match", ""},
+        {"if-range", ""},
+        {"if-unmodified-since", ""},
+        {"last-modified", ""},
+        {"link", ""},
+        {"location", ""},
+        {"max-forwards", ""},
+        {"proxy-authenticate", ""},
+        {"proxy-authorization", ""},
+        {"range", ""},
+        {"referer", ""},
+        {"refresh", ""},
+        {"retry-after", ""},
+        {"server", ""},
+        {"set-cookie", ""},
+        {"strict-transport-security", ""},
+        {"transfer-encoding", ""},
+        {"user-agent", ""},
+        {"vary", ""},
+        {"via", ""},
+        {"www-authenticate", ""},
+    };
+
+    // names not in the static table but commonly seen in requests and responses
+    private static final String[] COMMON_NAMES = {
+        "origin", "te", "dnt", "upgrade-insecure-requests", "x-requested-with", "x-request-id",
+        "x-forwarded-for", "x-forwarded-proto", "x-forwarded-host", "x-real-ip", "x-client-port",
+        "sec-fetch-site", "sec-fetch-mode", "sec-fetch-dest", "sec-fetch-user",
+        "sec-ch-ua", "sec-ch-ua-mobile", "sec-ch-ua-platform",
+        "access-control-allow-credentials", "access-control-allow-headers",
+        "access-control-allow-methods", "access-control-expose-headers",
+        "access-control-request-headers", "access-control-request-method",
+        "alt-svc", "content-security-policy", "x-content-type-options", "x-frame-options", "x-xss-protection",
+        "grpc-encoding", "grpc-accept-encoding", "grpc-timeout", "grpc-status", "grpc-message",
+    };
+
+    private static final Header[] ENTRIES = new Header[LENGTH + 1]; // 1 based
+    private static final Map<String, Integer> FIRST_INDEX_OF_NAME = new HashMap<>();
+
+    private static final int NAMES_MASK = 255;
+    private static final Header[] NAMES = new Header[NAMES_MASK + 1]; // open addressing, values are empty
+
+    static {
+        for (int i = 0; i < LENGTH; ++i) {
+            String name = TABLE[i][0];
+            Header interned = intern(name);
+            ENTRIES[i + 1] = new Header(interned.keyStr, interned.key, TABLE[i][1].getBytes(), false);
+            FIRST_INDEX_OF_NAME.putIfAbsent(name, i + 1);
+        }
+        for (String name : COMMON_NAMES) {
+            intern(name);
+        }
+    }
+
+    private HPackStaticTable() {
+    }
+
+    private static Header intern(String name) {
+        byte[] bytes = name.getBytes();
+        Header h = internedName(bytes, bytes.length);
+        if (h != null) {
+            return h;
+        }
+        h = new Header(name, bytes, new byte[0], false);
+        int i = hash(bytes, bytes.length) & NAMES_MASK;
+        while (NAMES[i] != null) {
+            i = (i + 1) & NAMES_MASK;
+        }
+        NAMES[i] = h;
+        return h;
+    }
+
+    // same as String#hashCode() of latin1 strings
+    private static int hash(byte[] bytes, int len) {
+        int h = 0;
+        for (int i = 0; i < len; ++i) {
+            h = 31 * h + (bytes[i] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * @return the entry, index starts from 1
+     */
+    static Header get(int index) {
+        return ENTRIES[index];
+    }
+
+    /**
+     * @return the interned name with empty value, or null if the name is not interned
+     */
+    static Header internedName(byte[] bytes, int len) {
+        int i = hash(bytes, len) & NAMES_MASK;
+        Header h;
+        while ((h = NAMES[i]) != null) {
+            if (h.key.length == len && Arrays.equals(h.key, 0, len, bytes, 0, len)) {
+                return h;
+            }
+            i = (i + 1) & NAMES_MASK;
+        }
+        return null;
+    }
+
+    /**
+     * @return index of the entry with the same name, or -1 if not found
+     */
+    static int indexOfName(Header h) {
+        Integer idx = FIRST_INDEX_OF_NAME.get(h.keyStr);
+        if (idx == null || !Arrays.equals(ENTRIES[idx].key, h.key)) {
+            return -1;
+        }
+        return idx;
+    }
+
+    /**
+     * @return index of the entry with the same name and value, or -1 if not found
+     */
+    static int indexOf(Header h) {
+        int idx = indexOfName(h);
+        if (idx == -1) {
+            return -1;
+        }
+        // entries with the same name are adjacent
+        for (int i = idx; i <= LENGTH && ENTRIES[i].keyStr.equals(ENTRIES[idx].keyStr); ++i) {
+            if (Arrays.equals(ENTRIES[i].value, h.value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
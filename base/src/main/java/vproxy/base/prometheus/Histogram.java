@@ -0,0 +1,108 @@
+package vproxy.base.prometheus;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observed values into buckets with fixed upper bounds.<br>
+ * Recording only increments striped adders, so it can be called from any thread without locking.
+ */
+public class Histogram extends Metric {
+    private final long[] bounds;
+    private final LongAdder[] buckets; // the last one is +Inf
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(String metric, Map<String, String> labels, long[] bounds) {
+        super(metric, labels);
+        if (bounds.length == 0)
+            throw new IllegalArgumentException("no bucket");
+        for (int i = 1; i < bounds.length; ++i) {
+            if (bounds[i] <= bounds[i - 1])
+                throw new IllegalArgumentException("bounds must be increasing: " + Arrays.toString(bounds));
+        }
+        this.bounds = Arrays.copyOf(bounds, bounds.length);
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return bounds increasing exponentially: start, start*factor, start*factor^2 ...
+     */
+    public static long[] exponentialBounds(long start, int factor, int count) {
+        long[] ret = new long[count];
+        long b = start;
+        for (int i = 0; i < count; ++i) {
+            ret[i] = b;
+            b *= factor;
+        }
+        return ret;
+    }
+
+    @Override
+    public String type() {
+        return "histogram";
+    }
+
+    @Override
+    public String value() {
+        return "" + count();
+    }
+
+    public void record(long value) {
+        buckets[bucketIndex(value)].increment();
+        sum.add(value);
+    }
+
+    private int bucketIndex(long value) {
+        int idx = Arrays.binarySearch(bounds, value);
+        if (idx < 0) {
+            idx = -idx - 1; // the first bound greater than value
+        }
+        return idx;
+    }
+
+    public long count() {
+        long n = 0;
+        for (LongAdder b : buckets) {
+            n += b.sum();
+        }
+        return n;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return counts of the buckets (not cumulative), the last element is for +Inf
+     */
+    public long[] bucketCounts() {
+        long[] ret = new long[buckets.length];
+        for (int i = 0; i < buckets.length; ++i) {
+            ret[i] = buckets[i].sum();
+        }
+        return ret;
+    }
+
+    public void clear() {
+        for (LongAdder b : buckets) {
+            b.reset();
+        }
+        sum.reset();
+    }
+
+    @Override
+    protected void appendSamples(StringBuilder sb) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            cumulative += buckets[i].sum();
+            String le = i == bounds.length ? "+Inf" : "" + bounds[i];
+            appendSample(sb, "_bucket", "le", le, "" + cumulative);
+        }
+        appendSample(sb, "_sum", null, null, "" + sum());
+        appendSample(sb, "_count", null, null, "" + cumulative);
+    }
+}
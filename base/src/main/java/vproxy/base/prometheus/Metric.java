@@ -11,6 +11,8 @@ public abstract class Metric {
     public final String metric;
     public final Map<String, String> labels;
     final List<String> labelKeys;
+    // formatted labels without braces, e.g. a="x",b="y"
+    final String formattedLabels;
 
     protected Metric(String metric, Map<String, String> labels) {
         index = indexes.incrementAndGet();
@@ -22,9 +24,44 @@ public abstract class Metric {
         this.labels = Collections.unmodifiableMap(foo);
         labelKeys = new ArrayList<>(labels.keySet());
         labelKeys.sort(String::compareTo);
+
+        StringBuilder sb = new StringBuilder();
+        boolean isFirst = true;
+        for (String key : labelKeys) {
+            if (isFirst) {
+                isFirst = false;
+            } else {
+                sb.append(",");
+            }
+            // the value is already formatted (quoted)
+            sb.append(key).append("=").append(this.labels.get(key));
+        }
+        formattedLabels = sb.toString();
     }
 
     abstract public String type();
 
     abstract public String value();
+
+    /**
+     * append all samples of the metric in the text exposition format
+     */
+    protected void appendSamples(StringBuilder sb) {
+        sb.append(metric).append("{").append(formattedLabels).append("}")
+            .append(" ").append(value()).append("\n");
+    }
+
+    /**
+     * append a sample with an extra label, used by metrics with multiple samples
+     */
+    protected final void appendSample(StringBuilder sb, String suffix, String extraLabelKey, String extraLabelValue, String value) {
+        sb.append(metric).append(suffix).append("{").append(formattedLabels);
+        if (extraLabelKey != null) {
+            if (!formattedLabels.isEmpty()) {
+                sb.append(",");
+            }
+            sb.append(extraLabelKey).append("=\"").append(extraLabelValue).append("\"");
+        }
+        sb.append("}").append(" ").append(value).append("\n");
+    }
 }
@@ -1,15 +1,22 @@
 package vproxy.base.prometheus;
 
-import vproxy.base.util.ConcurrentHashSet;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 public class Metrics {
-    private final Set<Metric> metrics = new ConcurrentHashSet<>();
+    // kept sorted by metric name then by adding order, so scraping does not need to sort
+    private final NavigableSet<Metric> metrics = new ConcurrentSkipListSet<>((a, b) -> {
+        int ret = a.metric.compareTo(b.metric);
+        if (ret == 0) {
+            return Long.compare(a.index, b.index);
+        } else {
+            return ret;
+        }
+    });
     private final Map<String, String> helpMessages = new ConcurrentHashMap<>();
 
     public Metrics() {
@@ -27,41 +34,50 @@ public class Metrics {
         helpMessages.put(metric, message);
     }
 
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        List<Metric> metrics = new ArrayList<>(this.metrics);
-        metrics.sort((a, b) -> {
-            int ret = a.metric.compareTo(b.metric);
-            if (ret == 0) {
-                return (int) (a.index - b.index);
-            } else {
-                return ret;
-            }
-        });
+    /**
+     * Format the metrics lazily, each returned string holds one or more complete metric samples.
+     * Metrics added or removed while iterating may or may not be included.
+     *
+     * @param chunkSize the minimum length of each chunk except the last one
+     * @return formatted chunks
+     */
+    public Iterator<String> chunks(int chunkSize) {
+        Iterator<Metric> ite = metrics.iterator();
+        return new Iterator<>() {
+            private String lastMetricName = null;
 
-        String lastMetricName = null;
-        for (Metric metric : metrics) {
-            if (!metric.metric.equals(lastMetricName)) {
-                if (helpMessages.containsKey(metric.metric)) {
-                    sb.append("# HELP ").append(metric.metric).append(" ").append(helpMessages.get(metric.metric)).append("\n");
-                }
-                sb.append("# TYPE ").append(metric.metric).append(" ").append(metric.type()).append("\n");
+            @Override
+            public boolean hasNext() {
+                return ite.hasNext();
             }
-            lastMetricName = metric.metric;
-            sb.append(metric.metric).append("{");
-            {
-                boolean isFirst = true;
-                for (String key : metric.labelKeys) {
-                    if (isFirst) {
-                        isFirst = false;
-                    } else {
-                        sb.append(",");
+
+            @Override
+            public String next() {
+                if (!ite.hasNext())
+                    throw new NoSuchElementException();
+                StringBuilder sb = new StringBuilder();
+                while (ite.hasNext() && sb.length() < chunkSize) {
+                    Metric metric = ite.next();
+                    if (!metric.metric.equals(lastMetricName)) {
+                        String help = helpMessages.get(metric.metric);
+                        if (help != null) {
+                            sb.append("# HELP ").append(metric.metric).append(" ").append(help).append("\n");
+                        }
+                        sb.append("# TYPE ").append(metric.metric).append(" ").append(metric.type()).append("\n");
                     }
-                    // the value is already formatted (quoted)
-                    sb.append(key).append("=").append(metric.labels.get(key));
+                    lastMetricName = metric.metric;
+                    metric.appendSamples(sb);
                 }
+                return sb.toString();
             }
-            sb.append("}").append(" ").append(metric.value()).append("\n");
+        };
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Iterator<String> ite = chunks(Integer.MAX_VALUE);
+        while (ite.hasNext()) {
+            sb.append(ite.next());
         }
         return sb.toString();
     }
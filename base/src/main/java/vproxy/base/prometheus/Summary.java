@@ -0,0 +1,149 @@
+package vproxy.base.prometheus;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records non-negative values into log-linear buckets (like HdrHistogram)
+ * and reports quantiles with a relative error no more than 1/64.<br>
+ * Values in [0, 128) are recorded exactly, and each power-of-2 range above is split into 64 buckets.
+ * Recording is one atomic increment, quantiles are calculated when the metric is scraped.
+ * The quantiles cover all values recorded since the metric is created or cleared.
+ */
+public class Summary extends Metric {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 128
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1; // 64
+    private static final double[] DEFAULT_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final double[] quantiles;
+    private final AtomicLongArray counts;
+    private final LongAdder sum = new LongAdder();
+
+    public Summary(String metric, Map<String, String> labels) {
+        this(metric, labels, DEFAULT_QUANTILES);
+    }
+
+    public Summary(String metric, Map<String, String> labels, double[] quantiles) {
+        super(metric, labels);
+        for (double q : quantiles) {
+            if (q < 0 || q > 1)
+                throw new IllegalArgumentException("invalid quantile " + q);
+        }
+        this.quantiles = quantiles;
+        this.counts = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+    }
+
+    @Override
+    public String type() {
+        return "summary";
+    }
+
+    @Override
+    public String value() {
+        return "" + count();
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+    }
+
+    static int bucketIndex(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        if (bits <= SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = bits - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT; // [0, 64)
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + sub;
+    }
+
+    // the largest value recorded into the bucket
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int k = index - SUB_BUCKET_COUNT;
+        int shift = k / HALF_SUB_BUCKET_COUNT + 1;
+        long sub = k % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        long low = sub << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the value at the quantile, or 0 if nothing recorded
+     */
+    public long quantile(double q) {
+        long[] snapshot = snapshot();
+        return quantile(snapshot, total(snapshot), q);
+    }
+
+    private long[] snapshot() {
+        long[] ret = new long[counts.length()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = counts.get(i);
+        }
+        return ret;
+    }
+
+    private static long total(long[] snapshot) {
+        long n = 0;
+        for (long c : snapshot) {
+            n += c;
+        }
+        return n;
+    }
+
+    private static long quantile(long[] snapshot, long total, double q) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long n = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            n += snapshot[i];
+            if (n >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(snapshot.length - 1);
+    }
+
+    public void clear() {
+        for (int i = 0; i < counts.length(); ++i) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+    }
+
+    @Override
+    protected void appendSamples(StringBuilder sb) {
+        long[] snapshot = snapshot();
+        long total = total(snapshot);
+        for (double q : quantiles) {
+            appendSample(sb, "", "quantile", "" + q, "" + quantile(snapshot, total, q));
+        }
+        appendSample(sb, "_sum", null, null, "" + sum());
+        appendSample(sb, "_count", null, null, "" + total);
+    }
+}
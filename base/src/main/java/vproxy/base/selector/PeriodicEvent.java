@@ -24,10 +24,12 @@ public class PeriodicEvent {
         if (running) {
             runnable.run();
             // at this time, it might be canceled
-            if (running) {
-                te = loop.delay(delay, this::run);
+            TimerEvent te = this.te;
+            if (running && te != null) {
+                // the timer handle is reused for the next period
+                loop.delayAgain(te, delay);
             } else {
-                te = null; // set to null in case concurrency
+                this.te = null; // set to null in case concurrency
             }
         } else {
             te = null; // set to null in case concurrency
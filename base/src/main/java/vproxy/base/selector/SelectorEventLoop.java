@@ -3,9 +3,12 @@ package vproxy.base.selector;
 import vproxy.base.Config;
 import vproxy.base.GlobalInspection;
 import vproxy.base.connection.NetEventLoop;
+import vproxy.base.prometheus.Counter;
+import vproxy.base.prometheus.GaugeF;
 import vproxy.base.selector.wrap.FDInspection;
 import vproxy.base.selector.wrap.WrappedSelector;
 import vproxy.base.util.*;
+import vproxy.base.util.objectpool.MPSCQueue;
 import vproxy.base.util.promise.Promise;
 import vproxy.base.util.thread.VProxyThread;
 import vproxy.base.util.time.TimeQueue;
@@ -17,11 +20,14 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 public class SelectorEventLoop implements AutoCloseable {
     static class RegisterData {
         boolean connected = false;
+        boolean removed = false; // guarded by the channel, makes sure the fd count is decreased only once
         final Handler handler;
         final Object att;
 
@@ -51,8 +57,29 @@ public class SelectorEventLoop implements AutoCloseable {
 
     public final WrappedSelector selector;
     public final FDs fds;
-    private final TimeQueue<Runnable> timeQueue = TimeQueue.create();
-    private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
+    private final TimeQueue<TimerEvent> timeQueue;
+    private final ArrayList<TimerEvent> timerDrainBuffer = new ArrayList<>(); // reused to avoid allocating when handling timers
+    private long timerAllocations = 0; // timer handles allocated, will be reported to GlobalInspection
+    private long lastQueueElemAllocations = 0;
+    private Counter ioSyscallCounter; // created when the loop starts
+    private long lastIoSyscallCount = 0;
+    private final MPSCQueue<Runnable> runOnLoopEvents = new MPSCQueue<>(RUN_ON_LOOP_QUEUE_CAPACITY);
+    // true when the loop thread is going to block or is blocking in select() and no wakeup is sent yet
+    // other threads only call selector.wakeup() when they successfully switch it from true to false,
+    // so multiple wakeups are coalesced into one eventfd write
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+
+    // load of the loop, read by other threads when choosing a loop
+    // busy time is the time spent outside select(), the utilization is calculated for every window
+    private static final long UTILIZATION_WINDOW_NANOS = 100_000_000L;
+    private long windowBeginNanos = 0;
+    private long windowBusyNanos = 0;
+    private long windowSelectNanos = 0;
+    private long lastSelectEndNanos = 0;
+    private volatile long selectBeginNanos = 0; // 0 when not selecting
+    private volatile double utilization = 0;
+    private final AtomicInteger fdCount = new AtomicInteger(0);
+    private List<GaugeF> loadGauges; // created when the loop starts
 
     private final Lock channelRegisteringLock = Lock.create();
     private final ConcurrentLinkedQueue<AddFdData> channelsToBeRegisteredStep1 = new ConcurrentLinkedQueue<>();
@@ -67,9 +94,15 @@ public class SelectorEventLoop implements AutoCloseable {
     private final Lock CLOSE_LOCK;
     private List<Tuple<FD, RegisterData>> THE_KEY_SET_BEFORE_SELECTOR_CLOSE;
 
-    private SelectorEventLoop(FDs fds) throws IOException {
+    private SelectorEventLoop(FDs fds, boolean useTimeWheel) throws IOException {
         this.selector = new WrappedSelector(fds.openSelector());
         this.fds = fds;
+        if (useTimeWheel) {
+            // elements are recycled, TimerEvent makes sure they are not used after triggered or removed
+            timeQueue = TimeQueue.createTimeWheel(TIME_WHEEL_POOL_CAPACITY);
+        } else {
+            timeQueue = TimeQueue.create();
+        }
         if (VFDConfig.useFStack) {
             CLOSE_LOCK = Lock.createMock();
         } else {
@@ -103,8 +136,17 @@ public class SelectorEventLoop implements AutoCloseable {
     }
 
     private static volatile SelectorEventLoop theLoop = null; // this field is used when using fstack
+    private static final int TIME_WHEEL_POOL_CAPACITY = 4096;
+    private static final int RUN_ON_LOOP_QUEUE_CAPACITY = 8192;
 
     public static SelectorEventLoop open() throws IOException {
+        return open(Config.useTimeWheel);
+    }
+
+    /**
+     * @param useTimeWheel true to use the hierarchical timing wheel for timers, false to use the priority queue
+     */
+    public static SelectorEventLoop open(boolean useTimeWheel) throws IOException {
         if (VFDConfig.useFStack) {
             // we use only one event loop if it's using f-stack
             // considering the program code base, it will take too much time
@@ -114,7 +156,7 @@ public class SelectorEventLoop implements AutoCloseable {
             if (theLoop == null) {
                 synchronized (SelectorEventLoop.class) {
                     if (theLoop == null) {
-                        theLoop = new SelectorEventLoop(FDProvider.get().getProvided());
+                        theLoop = new SelectorEventLoop(FDProvider.get().getProvided(), useTimeWheel);
                     }
                 }
             }
@@ -122,16 +164,20 @@ public class SelectorEventLoop implements AutoCloseable {
             // no need to consider whether the loop would be closed
             // when the loop closes, the program will exit
         }
-        return new SelectorEventLoop(FDProvider.get().getProvided());
+        return new SelectorEventLoop(FDProvider.get().getProvided(), useTimeWheel);
     }
 
     public static SelectorEventLoop open(FDs fds) throws IOException {
+        return open(fds, Config.useTimeWheel);
+    }
+
+    public static SelectorEventLoop open(FDs fds, boolean useTimeWheel) throws IOException {
         if (VFDConfig.useFStack) {
             if (FDProvider.get().getProvided() == fds) {
                 throw new IllegalArgumentException("should not call SelectorEventLoop.open(fds) with the default fds impl");
             }
         }
-        return new SelectorEventLoop(fds);
+        return new SelectorEventLoop(fds, useTimeWheel);
     }
 
     private void tryRunnable(Runnable r) {
@@ -158,6 +204,7 @@ public class SelectorEventLoop implements AutoCloseable {
                 assert Logger.lowLevelDebug("handling registering channel " + data.channel + " when looping");
                 try {
                     selector.register(data.channel, data.ops, data.registerData);
+                    fdCount.incrementAndGet();
                 } catch (Throwable t) {
                     Logger.error(LogType.IMPROPER_USE, "the channel " + data.channel + " failed to be added into the event loop", t);
                     data.callback.failed(t);
@@ -178,18 +225,44 @@ public class SelectorEventLoop implements AutoCloseable {
         // only run available events when entering this function
         for (int i = 0; i < len; ++i) {
             Runnable r = runOnLoopEvents.poll();
+            if (r == null) {
+                break;
+            }
             tryRunnable(r);
         }
     }
 
     private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
-        while (timeQueue.nextTime(Config.currentTimestamp) == 0) {
-            Runnable r = timeQueue.poll();
-            toRun.add(r);
+        if (timeQueue.nextTime(Config.currentTimestamp) != 0) {
+            return;
         }
-        for (Runnable r : toRun) {
-            tryRunnable(r);
+        // retrieve all triggered events before running them,
+        // so that events added with timeout 0 will not run in this round
+        ArrayList<TimerEvent> toRun = timerDrainBuffer;
+        do {
+            TimerEvent e = timeQueue.poll();
+            e.triggered();
+            toRun.add(e);
+        } while (timeQueue.nextTime(Config.currentTimestamp) == 0);
+        int size = toRun.size();
+        for (int i = 0; i < size; ++i) {
+            tryRunnable(toRun.get(i).runnable);
+        }
+        toRun.clear();
+    }
+
+    private void recordIteration() {
+        long queueElemAllocations = timeQueue.elemAllocateCount();
+        long allocations = timerAllocations + (queueElemAllocations - lastQueueElemAllocations);
+        timerAllocations = 0;
+        lastQueueElemAllocations = queueElemAllocations;
+        GlobalInspection.getInstance().eventLoopIteration(allocations);
+        if (ioSyscallCounter != null) {
+            long ioSyscallCount = VProxyThread.current().ioSyscallCount;
+            if (ioSyscallCount != lastIoSyscallCount) {
+                ioSyscallCounter.incr(ioSyscallCount - lastIoSyscallCount);
+                lastIoSyscallCount = ioSyscallCount;
+            }
         }
     }
 
@@ -302,6 +375,7 @@ public class SelectorEventLoop implements AutoCloseable {
             // handle some non select events
             Config.currentTimestamp = fds.currentTimeMillis();
             handleNonSelectEvents();
+            recordIteration();
         }
         // here we do not lock select()
         // let close() have chance to run
@@ -310,18 +384,16 @@ public class SelectorEventLoop implements AutoCloseable {
         try {
             if (VFDConfig.useFStack && fds == FDProvider.get().getProvided()) { // f-stack main loop does not wait
                 selected = selector.selectNow();
-            } else if (timeQueue.isEmpty() && runOnLoopEvents.isEmpty()) {
-                selected = selector.select(); // let it sleep
-            } else if (!runOnLoopEvents.isEmpty()) {
-                selected = selector.selectNow(); // immediately return when tasks registered into the loop
-            } else if (!channelsToBeRegisteredStep1.isEmpty() || !channelsToBeRegisteredStep2.isEmpty()) {
-                selected = selector.selectNow(); // immediately return when channels are going to be registered
             } else {
-                int time = timeQueue.nextTime(Config.currentTimestamp);
-                if (time == 0) {
-                    selected = selector.selectNow(); // immediately return
-                } else {
-                    selected = selector.select(time); // wait until the nearest timer
+                // the flag must be set before checking the queues
+                // tasks added after the checking will see the flag and wake up the selector
+                parked.set(true);
+                selectBegin();
+                try {
+                    selected = doSelect();
+                } finally {
+                    selectEnd();
+                    parked.set(false);
                 }
             }
         } catch (IOException | ClosedSelectorException e) {
@@ -347,6 +419,78 @@ public class SelectorEventLoop implements AutoCloseable {
         return 0;
     }
 
+    private void selectBegin() {
+        long now = System.nanoTime();
+        if (lastSelectEndNanos != 0) {
+            windowBusyNanos += now - lastSelectEndNanos;
+        } else {
+            windowBeginNanos = now;
+        }
+        selectBeginNanos = now;
+    }
+
+    private void selectEnd() {
+        long now = System.nanoTime();
+        windowSelectNanos += now - selectBeginNanos;
+        selectBeginNanos = 0;
+        lastSelectEndNanos = now;
+        if (now - windowBeginNanos >= UTILIZATION_WINDOW_NANOS) {
+            long total = windowBusyNanos + windowSelectNanos;
+            double u = total == 0 ? 0 : (double) windowBusyNanos / total;
+            // smooth with the last window, so that one busy window does not make the loop look overloaded
+            utilization = (utilization + u) / 2;
+            windowBeginNanos = now;
+            windowBusyNanos = 0;
+            windowSelectNanos = 0;
+        }
+    }
+
+    /**
+     * @return ratio of time spent outside select() in recent windows, from 0 to 1
+     */
+    @ThreadSafe
+    public double getUtilization() {
+        long selectBegin = selectBeginNanos;
+        if (selectBegin != 0 && System.nanoTime() - selectBegin >= UTILIZATION_WINDOW_NANOS) {
+            // blocked in select() for a whole window, the loop is idle
+            return 0;
+        }
+        return utilization;
+    }
+
+    /**
+     * @return count of fds registered on this loop
+     */
+    @ThreadSafe
+    public int getFdCount() {
+        return fdCount.get();
+    }
+
+    /**
+     * @return count of tasks waiting to be run on this loop
+     */
+    @ThreadSafe
+    public int getQueueDepth() {
+        return runOnLoopEvents.size();
+    }
+
+    private Collection<SelectedEntry> doSelect() throws IOException {
+        if (!runOnLoopEvents.isEmpty()) {
+            return selector.selectNow(); // immediately return when tasks registered into the loop
+        } else if (!channelsToBeRegisteredStep1.isEmpty() || !channelsToBeRegisteredStep2.isEmpty()) {
+            return selector.selectNow(); // immediately return when channels are going to be registered
+        } else if (timeQueue.isEmpty()) {
+            return selector.select(); // let it sleep
+        } else {
+            int time = timeQueue.nextTime(Config.currentTimestamp);
+            if (time == 0) {
+                return selector.selectNow(); // immediately return
+            } else {
+                return selector.select(time); // wait until the nearest timer
+            }
+        }
+    }
+
     @Blocking
     public void loop() {
         if (VFDConfig.useFStack && fds == FDProvider.get().getProvided()) {
@@ -371,6 +515,17 @@ public class SelectorEventLoop implements AutoCloseable {
         runningThread = Thread.currentThread();
         GlobalInspection.getInstance().registerSelectorEventLoop(this);
         VProxyThread.current().loop = this;
+        lastIoSyscallCount = VProxyThread.current().ioSyscallCount;
+        ioSyscallCounter = GlobalInspection.getInstance().addMetric("event_loop_io_syscall_count",
+            Map.of("thread", runningThread.getName()), Counter::new);
+        loadGauges = List.of(
+            GlobalInspection.getInstance().addMetric("event_loop_utilization_percent",
+                Map.of("thread", runningThread.getName()), (m, l) -> new GaugeF(m, l, () -> Math.round(getUtilization() * 100))),
+            GlobalInspection.getInstance().addMetric("event_loop_fd_current",
+                Map.of("thread", runningThread.getName()), (m, l) -> new GaugeF(m, l, () -> (long) getFdCount())),
+            GlobalInspection.getInstance().addMetric("event_loop_queue_depth_current",
+                Map.of("thread", runningThread.getName()), (m, l) -> new GaugeF(m, l, () -> (long) getQueueDepth()))
+        );
         // run
         while (selector.isOpen()) {
             if (-1 == onePoll()) {
@@ -378,6 +533,12 @@ public class SelectorEventLoop implements AutoCloseable {
             }
         }
         GlobalInspection.getInstance().deregisterSelectorEventLoop(this);
+        GlobalInspection.getInstance().removeMetric(ioSyscallCounter);
+        ioSyscallCounter = null;
+        for (GaugeF g : loadGauges) {
+            GlobalInspection.getInstance().removeMetric(g);
+        }
+        loadGauges = null;
         runningThread = null; // it's not running now, set to null
         VProxyThread.current().loop = null; // remove from thread local
         // do the final release
@@ -389,7 +550,14 @@ public class SelectorEventLoop implements AutoCloseable {
     }
 
     private void wakeup() {
-        selector.wakeup();
+        if (parked.compareAndSet(true, false)) {
+            GlobalInspection.getInstance().eventLoopWakeup();
+            selector.wakeup();
+        } else {
+            // the loop is running, or another thread already woke it up
+            // the loop will check the queues before its next select
+            GlobalInspection.getInstance().eventLoopWakeupCoalesced();
+        }
     }
 
     @ThreadSafe
@@ -416,13 +584,29 @@ public class SelectorEventLoop implements AutoCloseable {
 
     @ThreadSafe
     public TimerEvent delay(int timeout, Runnable r) {
-        TimerEvent e = new TimerEvent(this);
-        // timeQueue is not thread safe
-        // modify it in the event loop's thread
-        nextTick(() -> e.setEvent(timeQueue.add(Config.currentTimestamp, timeout, r)));
+        TimerEvent e = new TimerEvent(this, r);
+        if (runningThread == Thread.currentThread()) {
+            // on the loop thread, add directly
+            ++timerAllocations; // the TimerEvent
+            e.setEvent(timeQueue.add(Config.currentTimestamp, timeout, e));
+        } else {
+            // timeQueue is not thread safe
+            // modify it in the event loop's thread
+            nextTick(() -> {
+                timerAllocations += 2; // the TimerEvent and this lambda
+                e.setEvent(timeQueue.add(Config.currentTimestamp, timeout, e));
+            });
+        }
         return e;
     }
 
+    // re-add a triggered TimerEvent, which avoids allocating a new handle
+    // this method must be called on the loop thread
+    void delayAgain(TimerEvent e, int timeout) {
+        assert runningThread == Thread.currentThread();
+        e.setEvent(timeQueue.add(Config.currentTimestamp, timeout, e));
+    }
+
     @ThreadSafe
     public PeriodicEvent period(int timeout, Runnable r) {
         PeriodicEvent pe = new PeriodicEvent(r, this, timeout);
@@ -459,6 +643,7 @@ public class SelectorEventLoop implements AutoCloseable {
     private Promise<FD> add0(FD channel, EventSet ops, RegisterData registerData) throws IOException {
         try {
             selector.register(channel, ops, registerData);
+            fdCount.incrementAndGet();
         } catch (CancelledKeyException e) {
             // the key might still being processed
             // but is canceled
@@ -522,9 +707,14 @@ public class SelectorEventLoop implements AutoCloseable {
             if (!selector.isRegistered(channel))
                 return;
             att = (RegisterData) selector.attachment(channel);
+            // another thread may be removing the channel and has not yet removed it from the selector
+            if (att.removed)
+                return;
+            att.removed = true;
         }
 
         selector.remove(channel);
+        fdCount.decrementAndGet();
         if (needWake()) {
             wakeup();
         }
@@ -4,15 +4,17 @@ import vproxy.base.util.ThreadSafe;
 import vproxy.base.util.time.TimeElem;
 
 public class TimerEvent {
-    private TimeElem event;
+    private TimeElem<TimerEvent> event;
     private final SelectorEventLoop eventLoop;
+    final Runnable runnable;
     private boolean canceled = false;
 
-    TimerEvent(SelectorEventLoop eventLoop) {
+    TimerEvent(SelectorEventLoop eventLoop, Runnable runnable) {
         this.eventLoop = eventLoop;
+        this.runnable = runnable;
     }
 
-    synchronized void setEvent(TimeElem event) {
+    synchronized void setEvent(TimeElem<TimerEvent> event) {
         if (canceled) {
             event.removeSelf(); // this is invoked on event loop, so it's safe
             return;
@@ -20,6 +22,12 @@ public class TimerEvent {
         this.event = event;
     }
 
+    // invoked on event loop when the timer triggers
+    // the elem might be reused by the time queue after this call, so the reference must be cleared
+    synchronized void triggered() {
+        event = null;
+    }
+
     @ThreadSafe
     public synchronized void cancel() {
         if (canceled)
@@ -27,6 +35,20 @@ public class TimerEvent {
         canceled = true;
         if (event == null)
             return;
-        eventLoop.nextTick(event::removeSelf);
+        if (eventLoop.getRunningThread() == Thread.currentThread()) {
+            removeEvent();
+        } else {
+            eventLoop.nextTick(this::removeEvent);
+        }
+    }
+
+    // invoked on event loop
+    // check the field again because the event might be triggered before this method runs
+    private synchronized void removeEvent() {
+        TimeElem<TimerEvent> event = this.event;
+        if (event == null)
+            return;
+        this.event = null;
+        event.removeSelf();
     }
 }
@@ -34,7 +34,6 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
     private final SelectorEventLoop loop;
     private final WrappedSelector selector;
 
-    private final ByteBuffer buf = Utils.allocateByteBuffer(Config.udpMtu); // enough for any udp packet
     private final Deque<VirtualDatagramFD> acceptQ = new LinkedList<>();
     private final Map<IPPort, VirtualDatagramFD> acceptMap = new HashMap<>();
     private final Map<IPPort, VirtualDatagramFD> conns = new HashMap<>();
@@ -67,49 +66,22 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
         return server.getLocalAddress();
     }
 
-    @SuppressWarnings("Java8MapApi")
     @Override
     public VirtualDatagramFD accept() throws IOException {
-        while (true) {
-            try {
-                IPPort addr = server.receive(buf);
-                if (addr == null) {
-                    // no data for now
-                    break;
-                }
-
-                buf.flip();
-
-                boolean fireReadable = false;
-                VirtualDatagramFD fd;
-                if (conns.containsKey(addr)) {
-                    fd = conns.get(addr);
-                    fireReadable = true;
-                } else if (acceptMap.containsKey(addr)) {
-                    fd = acceptMap.get(addr);
-                } else {
-                    fd = null;
+        DatagramBatch batch = DatagramBatch.current(Config.udpMtu); // any udp packet
+        try {
+            while (true) {
+                int n = server.receive(batch);
+                for (int i = 0; i < n; ++i) {
+                    handlePacket(batch.packet(i), batch.remote(i));
                 }
-                if (fd == null) {
-                    // new fd
-                    fd = new VirtualDatagramFD(addr);
-                    acceptMap.put(addr, fd);
-                    acceptQ.add(fd);
-                }
-                // append to fd
-                ByteBuffer b = Utils.allocateByteBuffer(buf.limit() - buf.position());
-                b.put(buf);
-                b.flip();
-                fd.bufs.add(b);
-
-                if (fireReadable) {
-                    fd.setReadable();
+                if (n < batch.capacity) {
+                    // no more data for now
+                    break;
                 }
-            } finally {
-                // reset buf
-                buf.limit(buf.capacity());
-                buf.position(0);
             }
+        } finally {
+            batch.clear();
         }
 
         // retrieve
@@ -124,6 +96,35 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
         return fd;
     }
 
+    @SuppressWarnings("Java8MapApi")
+    private void handlePacket(ByteBuffer packet, IPPort addr) {
+        boolean fireReadable = false;
+        VirtualDatagramFD fd;
+        if (conns.containsKey(addr)) {
+            fd = conns.get(addr);
+            fireReadable = true;
+        } else if (acceptMap.containsKey(addr)) {
+            fd = acceptMap.get(addr);
+        } else {
+            fd = null;
+        }
+        if (fd == null) {
+            // new fd
+            fd = new VirtualDatagramFD(addr);
+            acceptMap.put(addr, fd);
+            acceptQ.add(fd);
+        }
+        // append to fd
+        ByteBuffer b = Utils.allocateByteBuffer(packet.limit() - packet.position());
+        b.put(packet);
+        b.flip();
+        fd.bufs.add(b);
+
+        if (fireReadable) {
+            fd.setReadable();
+        }
+    }
+
     @Override
     public void configureBlocking(boolean b) throws IOException {
         server.configureBlocking(b);
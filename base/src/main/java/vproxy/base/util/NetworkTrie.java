@@ -0,0 +1,266 @@
+package vproxy.base.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A path compressed binary radix trie keyed on network prefixes of a fixed address length.<br>
+ * Nodes are immutable, modifications copy the nodes on the path and publish a new root,
+ * so lookups never lock and always see a consistent trie while rules are being added or removed.
+ * Modifications are serialized on the trie object.
+ *
+ * @param <V> value type
+ */
+public class NetworkTrie<V> {
+    public interface MatchVisitor<V, C> {
+        void visit(V value, C ctx);
+    }
+
+    private static final class Node<V> {
+        final byte[] key; // bits after len are always 0
+        final int len;
+        final V value; // null when the node only splits branches
+        final Node<V> zero;
+        final Node<V> one;
+
+        Node(byte[] key, int len, V value, Node<V> zero, Node<V> one) {
+            this.key = key;
+            this.len = len;
+            this.value = value;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        Node<V> child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        Node<V> withValue(V value) {
+            return new Node<>(key, len, value, zero, one);
+        }
+
+        Node<V> withChild(int bit, Node<V> child) {
+            if (bit == 0) {
+                return new Node<>(key, len, value, child, one);
+            } else {
+                return new Node<>(key, len, value, zero, child);
+            }
+        }
+    }
+
+    public final int bits;
+    private volatile Node<V> root;
+    private volatile int size;
+
+    public NetworkTrie(int bits) {
+        if (bits != 32 && bits != 128)
+            throw new IllegalArgumentException("unsupported address length " + bits);
+        this.bits = bits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(byte[] key, int prefix) {
+        checkKey(key, prefix);
+        Node<V> n = root;
+        while (n != null) {
+            if (n.len > prefix || !prefixMatch(n.key, key, 0, n.len))
+                return null;
+            if (n.len == prefix)
+                return n.value;
+            n = n.child(bit(key, 0, n.len));
+        }
+        return null;
+    }
+
+    /**
+     * @return the value with the longest prefix containing the address, or null if not found
+     */
+    public V longestMatch(byte[] addr, int off) {
+        V ret = null;
+        Node<V> n = root;
+        while (n != null) {
+            if (!prefixMatch(n.key, addr, off, n.len))
+                break;
+            if (n.value != null)
+                ret = n.value;
+            if (n.len == bits)
+                break;
+            n = n.child(bit(addr, off, n.len));
+        }
+        return ret;
+    }
+
+    /**
+     * visit values of all prefixes containing the address, from the shortest prefix to the longest
+     */
+    public <C> void forEachMatch(byte[] addr, int off, C ctx, MatchVisitor<V, C> visitor) {
+        Node<V> n = root;
+        while (n != null) {
+            if (!prefixMatch(n.key, addr, off, n.len))
+                break;
+            if (n.value != null)
+                visitor.visit(n.value, ctx);
+            if (n.len == bits)
+                break;
+            n = n.child(bit(addr, off, n.len));
+        }
+    }
+
+    /**
+     * @return all values, a value is always placed before values of prefixes containing it
+     */
+    public List<V> values() {
+        List<V> ret = new ArrayList<>(size);
+        forEach(root, ret::add);
+        return ret;
+    }
+
+    private static <V> void forEach(Node<V> n, Consumer<V> f) {
+        if (n == null)
+            return;
+        forEach(n.zero, f);
+        forEach(n.one, f);
+        if (n.value != null)
+            f.accept(n.value);
+    }
+
+    /**
+     * @param key    the network address, bits after the prefix are ignored
+     * @param prefix prefix length
+     * @return the previous value of the prefix, or null if not exists
+     */
+    public synchronized V put(byte[] key, int prefix, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("value is null");
+        checkKey(key, prefix);
+        key = networkKey(key, prefix);
+        V old = get(key, prefix);
+        root = put(root, key, prefix, value);
+        if (old == null) {
+            ++size;
+        }
+        return old;
+    }
+
+    private Node<V> put(Node<V> n, byte[] key, int len, V value) {
+        if (n == null)
+            return new Node<>(key, len, value, null, null);
+        int common = commonPrefix(n.key, key, Math.min(n.len, len));
+        if (common == n.len && common == len)
+            return n.withValue(value);
+        if (common == n.len) { // n contains the new prefix
+            int b = bit(key, 0, n.len);
+            return n.withChild(b, put(n.child(b), key, len, value));
+        }
+        if (common == len) { // the new prefix contains n
+            if (bit(n.key, 0, len) == 0) {
+                return new Node<>(key, len, value, n, null);
+            } else {
+                return new Node<>(key, len, value, null, n);
+            }
+        }
+        // branches at the first different bit
+        Node<V> leaf = new Node<>(key, len, value, null, null);
+        byte[] glueKey = networkKey(key, common);
+        if (bit(key, 0, common) == 0) {
+            return new Node<>(glueKey, common, null, leaf, n);
+        } else {
+            return new Node<>(glueKey, common, null, n, leaf);
+        }
+    }
+
+    /**
+     * @return the removed value, or null if not exists
+     */
+    public synchronized V remove(byte[] key, int prefix) {
+        checkKey(key, prefix);
+        V old = get(key, prefix);
+        if (old == null)
+            return null;
+        root = remove(root, networkKey(key, prefix), prefix);
+        --size;
+        return old;
+    }
+
+    private Node<V> remove(Node<V> n, byte[] key, int len) {
+        // the prefix is known to exist
+        Node<V> ret;
+        if (n.len == len) {
+            ret = n.withValue(null);
+        } else {
+            int b = bit(key, 0, n.len);
+            ret = n.withChild(b, remove(n.child(b), key, len));
+        }
+        // remove nodes which do not hold a value and do not split branches
+        if (ret.value == null) {
+            if (ret.zero == null)
+                return ret.one;
+            if (ret.one == null)
+                return ret.zero;
+        }
+        return ret;
+    }
+
+    public synchronized void clear() {
+        root = null;
+        size = 0;
+    }
+
+    private void checkKey(byte[] key, int prefix) {
+        if (key.length * 8 != bits)
+            throw new IllegalArgumentException("key length " + key.length + " does not match " + bits + " bits");
+        if (prefix < 0 || prefix > bits)
+            throw new IllegalArgumentException("invalid prefix " + prefix);
+    }
+
+    private static byte[] networkKey(byte[] key, int prefix) {
+        byte[] ret = new byte[key.length];
+        int full = prefix / 8;
+        System.arraycopy(key, 0, ret, 0, full);
+        int rest = prefix % 8;
+        if (rest != 0) {
+            ret[full] = (byte) (key[full] & (0xff << (8 - rest)));
+        }
+        return ret;
+    }
+
+    private static int bit(byte[] addr, int off, int idx) {
+        return (addr[off + (idx >>> 3)] >>> (7 - (idx & 7))) & 1;
+    }
+
+    private static boolean prefixMatch(byte[] key, byte[] addr, int off, int len) {
+        int full = len >>> 3;
+        for (int i = 0; i < full; ++i) {
+            if (key[i] != addr[off + i])
+                return false;
+        }
+        int rest = len & 7;
+        if (rest == 0)
+            return true;
+        int m = 0xff << (8 - rest);
+        return ((key[full] ^ addr[off + full]) & m) == 0;
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b, int max) {
+        int i = 0;
+        while (i < max) {
+            int x = (a[i >>> 3] ^ b[i >>> 3]) & 0xff;
+            if (x == 0) {
+                i += 8;
+                continue;
+            }
+            // first different bit in the byte
+            i += Integer.numberOfLeadingZeros(x) - 24;
+            break;
+        }
+        return Math.min(i, max);
+    }
+}
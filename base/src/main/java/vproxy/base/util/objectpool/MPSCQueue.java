@@ -0,0 +1,92 @@
+package vproxy.base.util.objectpool;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-producer single-consumer queue backed by a ring array.
+ * Producers claim a slot by increasing the producer index with CAS, then store the element into the slot.
+ * The consumer reads the slot, clears it, then increases the consumer index.
+ * No object is allocated when adding and polling elements.
+ * <p>
+ * When the array is full, elements are added into an overflow queue.
+ * Producers keep using the overflow queue until it's drained, and the consumer polls the array first,
+ * so elements from the same producer are polled in FIFO order.
+ * <p>
+ * {@link #poll()} and {@link #size()} must only be called from the consumer thread.
+ *
+ * @param <E> element type
+ */
+public class MPSCQueue<E> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private final ConcurrentLinkedQueue<E> overflow = new ConcurrentLinkedQueue<>();
+
+    public MPSCQueue(int capacityHint) {
+        capacityHint -= 1;
+        capacityHint |= capacityHint >>> 1;
+        capacityHint |= capacityHint >>> 2;
+        capacityHint |= capacityHint >>> 4;
+        capacityHint |= capacityHint >>> 8;
+        capacityHint |= capacityHint >>> 16;
+        capacityHint += 1;
+
+        this.capacity = capacityHint;
+        this.mask = capacityHint - 1;
+        this.buffer = new AtomicReferenceArray<>(capacityHint);
+    }
+
+    public void add(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (!overflow.isEmpty()) {
+            overflow.add(e);
+            return;
+        }
+        long p;
+        do {
+            p = producerIndex.get();
+            if (p - consumerIndex.get() >= capacity) {
+                overflow.add(e);
+                return;
+            }
+        } while (!producerIndex.compareAndSet(p, p + 1));
+        buffer.lazySet((int) (p & mask), e);
+    }
+
+    public E poll() {
+        long c = consumerIndex.get();
+        int idx = (int) (c & mask);
+        E e = buffer.get(idx);
+        if (e == null) {
+            if (c == producerIndex.get()) {
+                return overflow.poll();
+            }
+            // the slot is claimed by a producer, but the element is not stored yet
+            do {
+                Thread.onSpinWait();
+                e = buffer.get(idx);
+            } while (e == null);
+        }
+        buffer.lazySet(idx, null);
+        consumerIndex.lazySet(c + 1);
+        return e;
+    }
+
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get() && overflow.isEmpty();
+    }
+
+    public int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        if (!overflow.isEmpty()) {
+            size += overflow.size();
+        }
+        return (int) size;
+    }
+}
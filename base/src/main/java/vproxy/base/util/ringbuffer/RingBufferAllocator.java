@@ -0,0 +1,73 @@
+package vproxy.base.util.ringbuffer;
+
+import vproxy.base.Config;
+import vproxy.base.util.RingBuffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocates direct ring buffers for a group of connections, and counts the direct memory held by these buffers.<br>
+ * In on-demand mode, a buffer does not hold any memory when created.
+ * The memory is borrowed from the DirectMemoryUtils pools when bytes are about to be stored,
+ * and returned after the buffer stays empty for a while, {@link Config#ringBufferReleaseIdleMillis} by default.
+ * The mode only affects buffers allocated after it's changed.
+ */
+public class RingBufferAllocator {
+    private volatile boolean onDemand;
+    final int releaseIdleMillis;
+    private final LongAdder residentBytes = new LongAdder();
+
+    public RingBufferAllocator() {
+        this(false);
+    }
+
+    public RingBufferAllocator(boolean onDemand) {
+        this(onDemand, Config.ringBufferReleaseIdleMillis);
+    }
+
+    public RingBufferAllocator(boolean onDemand, int releaseIdleMillis) {
+        this.onDemand = onDemand;
+        this.releaseIdleMillis = releaseIdleMillis;
+    }
+
+    public SimpleRingBuffer allocateDirect(int cap) {
+        return SimpleRingBuffer.allocateDirect(cap, this, onDemand);
+    }
+
+    /**
+     * allocate a buffer in the same way as the sibling buffer,
+     * used for the internal buffers of the wrapping buffers
+     */
+    static SimpleRingBuffer allocateDirectLike(RingBuffer sibling, int cap) {
+        if (sibling instanceof SimpleRingBuffer) {
+            SimpleRingBuffer s = (SimpleRingBuffer) sibling;
+            if (s.allocator != null) {
+                return SimpleRingBuffer.allocateDirect(cap, s.allocator, s.onDemand);
+            }
+        }
+        return RingBuffer.allocateDirect(cap);
+    }
+
+    public boolean isOnDemand() {
+        return onDemand;
+    }
+
+    public void setOnDemand(boolean onDemand) {
+        this.onDemand = onDemand;
+    }
+
+    /**
+     * @return bytes of direct memory currently held by buffers of this allocator
+     */
+    public long residentBytes() {
+        return residentBytes.sum();
+    }
+
+    void allocated(int bytes) {
+        residentBytes.add(bytes);
+    }
+
+    void released(int bytes) {
+        residentBytes.add(-bytes);
+    }
+}
@@ -6,7 +6,7 @@ import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.*;
 import vproxy.base.util.nio.ByteArrayChannel;
 import vproxy.base.util.ringbuffer.ssl.SSL;
-import vproxy.base.util.thread.VProxyThread;
+import vproxy.base.util.ringbuffer.ssl.SSLTaskExecutor;
 import vproxy.vfd.IPPort;
 import vproxy.vfd.NetworkFD;
 import vproxy.vfd.ReadableByteStream;
@@ -189,6 +189,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         }
         engine = ssl.sslEngineBuilder.build(ctx);
         pair.engine = engine;
+        pair.handshakeBeginMillis = System.currentTimeMillis();
 
         ByteArrayChannel chnl = ByteArrayChannel.from(buf.array(), 0, n, 0);
         int n2 = super.storeBytesFrom(chnl);
@@ -343,6 +344,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
         if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
             assert Logger.lowLevelDebug("handshake finished");
+            pair.handshakeFinished();
             // should call the wrapper to send data (if any present)
             resumeGeneralWrap();
             return;
@@ -353,7 +355,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
                 lastLoop = SelectorEventLoop.current();
                 assert Logger.lowLevelDebug("resumer not specified, so we use the current event loop: " + lastLoop);
             }
-            VProxyThread.create(() -> {
+            SSLTaskExecutor.get().execute(() -> {
                 assert Logger.lowLevelDebug("TASK begins");
                 Runnable r;
                 long begin = System.currentTimeMillis();
@@ -373,7 +375,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
                 } else {
                     resumeGeneralUnwrap();
                 }
-            }, "ssl-unwrap-task").start();
+            });
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
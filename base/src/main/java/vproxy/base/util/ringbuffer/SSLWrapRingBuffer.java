@@ -1,5 +1,6 @@
 package vproxy.base.util.ringbuffer;
 
+import vproxy.base.GlobalInspection;
 import vproxy.base.util.*;
 import vproxy.vfd.IPPort;
 import vproxy.vfd.NetworkFD;
@@ -22,6 +23,7 @@ import java.util.function.Supplier;
  */
 public class SSLWrapRingBuffer extends AbstractWrapByteBufferRingBuffer implements RingBuffer {
     SSLEngine engine; // will be set when first bytes reaches if it's null
+    long handshakeBeginMillis; // set with the engine for server side connections, 0 for client side
 
     private final MirrorDataFactory plainMirrorDataFactory;
     private final MirrorDataFactory encryptedMirrorDataFactory;
@@ -251,6 +253,7 @@ public class SSLWrapRingBuffer extends AbstractWrapByteBufferRingBuffer implemen
         SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
         if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
             assert Logger.lowLevelDebug("handshake finished");
+            handshakeFinished();
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
@@ -267,4 +270,16 @@ public class SSLWrapRingBuffer extends AbstractWrapByteBufferRingBuffer implemen
             assert Logger.lowLevelDebug("get need_unwrap when handshaking, waiting for more data...");
         }
     }
+
+    // called when the handshake is reported finished by either wrap or unwrap
+    void handshakeFinished() {
+        if (handshakeBeginMillis == 0) {
+            return;
+        }
+        // a resumed session was created by a previous handshake
+        // a new session is created after the CLIENT_HELLO arrives
+        boolean resumed = engine.getSession().getCreationTime() < handshakeBeginMillis;
+        handshakeBeginMillis = 0;
+        GlobalInspection.getInstance().sslSessionResumption(resumed);
+    }
 }
@@ -1,9 +1,14 @@
 package vproxy.base.util.ringbuffer;
 
+import vproxy.base.Config;
+import vproxy.base.selector.SelectorEventLoop;
+import vproxy.base.selector.TimerEvent;
 import vproxy.base.util.*;
 import vproxy.base.util.direct.DirectMemoryUtils;
 import vproxy.base.util.nio.ByteArrayChannel;
+import vproxy.vfd.GatheringByteStream;
 import vproxy.vfd.ReadableByteStream;
+import vproxy.vfd.ScatteringByteStream;
 import vproxy.vfd.WritableByteStream;
 
 import java.io.IOException;
@@ -30,12 +35,16 @@ import java.util.Set;
  * [----------------------ePos,sPos--------]
  */
 public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
+    // passed to write out operations of an on-demand buffer without memory
+    private static final ByteBufferEx EMPTY_BYTE_BUFFER = new ByteBufferEx(ByteBuffer.allocate(0));
+
     private final boolean isDirect;
-    private /*may change after defragment*/ ByteBufferEx buffer;
+    private /*may change after defragment, null when released*/ ByteBufferEx buffer;
     private int ePos; // end pos
     private int sPos; // start pos
     private final int cap;
     private boolean ePosIsAfterSPos = true; // true then end is limit, otherwise start is limit
+    private ByteBuffer[] segments; // views of the buffer for vectored io, created when first used
 
     private boolean notFirstOperator = false;
     private boolean operating = false;
@@ -44,10 +53,24 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private final Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
     private final Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
+    final RingBufferAllocator allocator; // null if the buffer is not allocated by an allocator
+    final boolean onDemand; // memory is allocated when storing bytes, and released when it's empty for a while
+    private long emptySince;
+    private TimerEvent releaseTimer;
+
     public static SimpleRingBuffer allocateDirect(int cap) {
         return new SimpleRingBuffer(true, DirectMemoryUtils.allocateDirectBuffer(cap), 0, 0);
     }
 
+    static SimpleRingBuffer allocateDirect(int cap, RingBufferAllocator allocator, boolean onDemand) {
+        if (onDemand) {
+            return new SimpleRingBuffer(cap, allocator);
+        }
+        SimpleRingBuffer buf = new SimpleRingBuffer(true, DirectMemoryUtils.allocateDirectBuffer(cap), 0, 0, allocator);
+        allocator.allocated(cap);
+        return buf;
+    }
+
     public static SimpleRingBuffer allocate(int cap) {
         return new SimpleRingBuffer(false, new ByteBufferEx(Utils.allocateByteBuffer(cap)), 0, 0);
     }
@@ -57,11 +80,17 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     }
 
     private SimpleRingBuffer(boolean isDirect, ByteBufferEx buffer, int sPos, int ePos) {
+        this(isDirect, buffer, sPos, ePos, null);
+    }
+
+    private SimpleRingBuffer(boolean isDirect, ByteBufferEx buffer, int sPos, int ePos, RingBufferAllocator allocator) {
         this.isDirect = isDirect;
         this.buffer = buffer;
         this.cap = buffer.capacity();
         this.sPos = sPos;
         this.ePos = ePos;
+        this.allocator = allocator;
+        this.onDemand = false;
 
         // fix ePos
         if (this.ePos == this.cap) {
@@ -70,6 +99,14 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
     }
 
+    private SimpleRingBuffer(int cap, RingBufferAllocator allocator) {
+        this.isDirect = true;
+        this.buffer = null;
+        this.cap = cap;
+        this.allocator = allocator;
+        this.onDemand = true;
+    }
+
     private int storeLimit() {
         if (ePosIsAfterSPos) {
             return cap - ePos; // we can store until capacity
@@ -95,6 +132,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
      */
     @Override
     public int storeBytesFrom(ReadableByteStream channel) throws IOException {
+        if (isDirect && ePosIsAfterSPos && sPos != 0 && channel instanceof ScatteringByteStream) {
+            // the free space wraps: [ePos, cap) and [0, sPos)
+            return storeBytesFromScattering((ScatteringByteStream) channel);
+        }
         return operateOnByteBufferStoreIn(b -> channel.read(b.realBuffer()) != -1);
     }
 
@@ -107,9 +148,128 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteStream channel, int maxBytesToWrite) throws IOException {
+        if (isDirect && !ePosIsAfterSPos && ePos != 0 && maxBytesToWrite > cap - sPos && channel instanceof GatheringByteStream) {
+            // the data wraps: [sPos, cap) and [0, ePos)
+            return writeToGathering((GatheringByteStream) channel, maxBytesToWrite);
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, buffer -> channel.write(buffer.realBuffer()));
     }
 
+    private ByteBuffer[] segments() {
+        if (segments == null) {
+            ByteBuffer b = buffer.realBuffer();
+            segments = new ByteBuffer[]{b.duplicate(), b.duplicate()};
+        }
+        return segments;
+    }
+
+    // fill both segments of the free space with one read
+    private int storeBytesFromScattering(ScatteringByteStream channel) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+        ensureBufferAllocated();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerReadable = false;
+
+        assert Logger.lowLevelNetDebug("before scattering store in, ePos=" + ePos + ", sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering readable event
+            boolean triggerReadablePre = used() == 0;
+
+            ByteBuffer[] segs = segments();
+            segs[0].limit(cap).position(ePos);
+            segs[1].limit(sPos).position(0);
+
+            int read = channel.read(segs);
+            if (read <= 0)
+                return read; // nothing read, or EOF
+
+            int lim = cap - ePos;
+            if (read < lim) {
+                ePos += read;
+            } else {
+                ePos = read - lim;
+                ePosIsAfterSPos = false;
+            }
+            triggerReadable = triggerReadablePre;
+            return read;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after scattering store in, ePos=" + ePos);
+
+            operatingBuffer = false;
+            if (triggerReadable) {
+                assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.readableET();
+                }
+            }
+            resetFirst(firstOperator);
+            checkDrained();
+        }
+    }
+
+    // drain both segments of the data with one write
+    private int writeToGathering(GatheringByteStream channel, int maxBytesToWrite) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerWritable = false;
+
+        assert Logger.lowLevelNetDebug("before gathering write out, sPos=" + sPos + ", ePos=" + ePos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            int lim = cap - sPos;
+            ByteBuffer[] segs = segments();
+            segs[0].limit(cap).position(sPos);
+            segs[1].limit(Math.min(ePos, maxBytesToWrite - lim)).position(0);
+
+            int write = channel.write(segs);
+            if (write <= 0)
+                return 0;
+
+            if (write < lim) {
+                sPos += write;
+            } else {
+                sPos = write - lim;
+                ePosIsAfterSPos = true;
+                if (sPos == ePos) {
+                    // buffer is empty now
+                    resetCursors();
+                }
+            }
+            triggerWritable = triggerWritablePre;
+            return write;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after gathering write out, sPos=" + sPos);
+
+            operatingBuffer = false;
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+            checkDrained();
+        }
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -193,8 +353,15 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (cleaned)
             return;
         cleaned = true;
-        if (isDirect) {
+        if (releaseTimer != null) {
+            releaseTimer.cancel();
+            releaseTimer = null;
+        }
+        if (isDirect && buffer != null) {
             buffer.clean();
+            if (allocator != null) {
+                allocator.released(cap);
+            }
         }
     }
 
@@ -204,6 +371,55 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
     }
 
+    private void ensureBufferAllocated() {
+        if (buffer != null) {
+            return;
+        }
+        assert Logger.lowLevelDebug("allocate memory for on-demand buffer: " + cap);
+        buffer = DirectMemoryUtils.allocateDirectBuffer(cap);
+        allocator.allocated(cap);
+    }
+
+    /**
+     * @return true if the buffer currently holds memory
+     */
+    public boolean isResident() {
+        return buffer != null && !cleaned;
+    }
+
+    private void checkDrained() {
+        if (!onDemand || used() != 0 || buffer == null || cleaned) {
+            return;
+        }
+        emptySince = Config.currentTimestamp;
+        if (releaseTimer != null) {
+            return; // the timer checks emptySince when fires
+        }
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return; // not operated on an event loop, keep the memory
+        }
+        releaseTimer = loop.delay(allocator.releaseIdleMillis, this::releaseIfIdle);
+    }
+
+    private void releaseIfIdle() {
+        releaseTimer = null;
+        if (cleaned || buffer == null || used() != 0) {
+            return; // the timer will be set again when the buffer is drained
+        }
+        long idle = Config.currentTimestamp - emptySince;
+        if (idle < allocator.releaseIdleMillis) {
+            releaseTimer = SelectorEventLoop.current().delay((int) (allocator.releaseIdleMillis - idle), this::releaseIfIdle);
+            return;
+        }
+        assert Logger.lowLevelDebug("release memory of idle on-demand buffer: " + cap);
+        buffer.clean(); // back to the pool
+        buffer = null;
+        segments = null;
+        resetCursors();
+        allocator.released(cap);
+    }
+
     // clear the buffer
     @Override
     public void clear() {
@@ -252,6 +468,9 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
         boolean triggerWritable = false;
 
+        // the op is called even if the buffer is empty, see the comment below
+        ByteBufferEx buffer = this.buffer == null ? EMPTY_BYTE_BUFFER : this.buffer;
+
         assert Logger.lowLevelNetDebug("before operate write out, sPos=" + sPos);
 
         try { // only use try-finally here, we do not catch
@@ -331,6 +550,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
                 }
             }
             resetFirst(firstOperator);
+            checkDrained();
         }
     }
 
@@ -356,6 +576,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             int lim = storeLimit();
             if (lim == 0)
                 return 0; // buffer is full
+            ensureBufferAllocated();
             int newLimit = ePos + lim;
             buffer.limit(newLimit).position(ePos);
 
@@ -416,6 +637,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
                 }
             }
             resetFirst(firstOperator);
+            checkDrained();
         }
     }
 
@@ -468,5 +690,6 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             ePosIsAfterSPos = false;
         }
         buffer = newBuffer;
+        segments = null; // the views belong to the old buffer
     }
 }
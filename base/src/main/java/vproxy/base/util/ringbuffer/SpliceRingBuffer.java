@@ -0,0 +1,178 @@
+package vproxy.base.util.ringbuffer;
+
+import vproxy.base.util.LogType;
+import vproxy.base.util.Logger;
+import vproxy.vfd.FD;
+import vproxy.vfd.ReadableByteStream;
+import vproxy.vfd.WritableByteStream;
+import vproxy.vfd.posix.PosixSocketFD;
+import vproxy.vfd.posix.SplicePipe;
+
+import java.io.IOException;
+
+/**
+ * A ring buffer backed by a kernel pipe.<br>
+ * Bytes are moved with splice(2) from the reading socket into the pipe,
+ * and from the pipe into the writing socket, without being copied into user space.<br>
+ * Only usable when both ends are posix sockets and nobody needs to inspect the bytes.
+ */
+public class SpliceRingBuffer extends AbstractRingBuffer {
+    private final SplicePipe pipe;
+    private int used = 0;
+    // the pipe is organized in page slots rather than bytes,
+    // so it may refuse to take more bytes before `used` reaches the capacity
+    private boolean saturated = false;
+
+    private SpliceRingBuffer(SplicePipe pipe) {
+        this.pipe = pipe;
+    }
+
+    /**
+     * @return the buffer, or null if splice is not possible for the channel
+     */
+    public static SpliceRingBuffer tryAllocate(FD channel, int size) {
+        FD real = channel.real();
+        if (!(real instanceof PosixSocketFD)) {
+            return null;
+        }
+        PosixSocketFD fd = (PosixSocketFD) real;
+        if (!fd.spliceSupported()) {
+            return null;
+        }
+        SplicePipe pipe;
+        try {
+            pipe = fd.openSplicePipe(size);
+        } catch (IOException e) {
+            Logger.error(LogType.SYS_ERROR, "creating pipe for splice failed", e);
+            return null;
+        }
+        return new SpliceRingBuffer(pipe);
+    }
+
+    private static PosixSocketFD socket(Object channel) throws IOException {
+        if (channel instanceof FD) {
+            FD real = ((FD) channel).real();
+            if (real instanceof PosixSocketFD) {
+                return (PosixSocketFD) real;
+            }
+        }
+        throw new IOException("splice requires a posix socket, but got " + channel);
+    }
+
+    /**
+     * @return may return -1 for EOF
+     */
+    @Override
+    public int storeBytesFrom(ReadableByteStream channel) throws IOException {
+        int free = free();
+        if (free == 0) {
+            return 0;
+        }
+        int usedBefore = used;
+        int n = socket(channel).spliceRead(pipe, free);
+        if (n == 0 && used != 0) {
+            // the socket is readable (that's why we are called), but the pipe takes nothing
+            saturated = true;
+        }
+        if (n <= 0) {
+            return n;
+        }
+        used += n;
+        if (usedBefore == 0) {
+            setOperating(true);
+            try {
+                triggerReadable();
+            } finally {
+                setOperating(false);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int writeTo(WritableByteStream channel, int maxBytesToWrite) throws IOException {
+        int len = Math.min(used, maxBytesToWrite);
+        if (len == 0) {
+            return 0;
+        }
+        boolean wasFull = free() == 0;
+        int n = socket(channel).spliceWrite(pipe, len);
+        if (n == 0) {
+            return 0;
+        }
+        used -= n;
+        saturated = false;
+        if (wasFull) {
+            setOperating(true);
+            try {
+                triggerWritable();
+            } finally {
+                setOperating(false);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int free() {
+        if (saturated) {
+            return 0;
+        }
+        return pipe.capacity - used;
+    }
+
+    @Override
+    public int used() {
+        return used;
+    }
+
+    @Override
+    public int capacity() {
+        return pipe.capacity;
+    }
+
+    /**
+     * close the pipe, bytes not transferred yet are dropped
+     */
+    @Override
+    public void clean() {
+        pipe.close();
+    }
+
+    /**
+     * drop bytes in the pipe, the bytes have to be read into user space because splice cannot discard them
+     */
+    @Override
+    public void clear() {
+        if (used == 0) {
+            return;
+        }
+        boolean wasFull = free() == 0;
+        try {
+            pipe.drain(used);
+        } catch (IOException e) {
+            Logger.error(LogType.SYS_ERROR, "draining the splice pipe " + pipe + " failed", e);
+            // the bytes cannot be dropped, so the pipe is no longer usable
+            pipe.close();
+        }
+        used = 0;
+        saturated = false;
+        if (wasFull) {
+            setOperating(true);
+            try {
+                triggerWritable();
+            } finally {
+                setOperating(false);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpliceRingBuffer{" +
+            "pipe=" + pipe +
+            ", used=" + used +
+            ", saturated=" + saturated +
+            '}';
+    }
+}
@@ -0,0 +1,111 @@
+package vproxy.base.util.ringbuffer.ssl;
+
+import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
+import vproxy.base.util.LogType;
+import vproxy.base.util.Logger;
+import vproxy.base.util.thread.VProxyThread;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs delegated tasks of ssl engines on a fixed number of work-stealing threads
+ * shared by all connections, instead of starting a thread for each task.<br>
+ * The queue itself is not bounded because a handshake cannot continue without its tasks,
+ * instead, servers should stop accepting new ssl connections when {@link #isSaturated()} returns true.<br>
+ * The shared instance is sized by -DSslTaskThreads and -DSslTaskPendingLimit, see {@link Config#sslTaskThreads}.
+ */
+public class SSLTaskExecutor {
+    private static volatile SSLTaskExecutor inst;
+
+    private final ForkJoinPool pool;
+    private final int pendingLimit;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public SSLTaskExecutor(int threads, int pendingLimit) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.pendingLimit = pendingLimit;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads,
+            p -> new Worker(p, "ssl-task-" + threadIndex.incrementAndGet()),
+            (t, e) -> Logger.error(LogType.IMPROPER_USE, "got exception when running ssl task in " + t, e),
+            true /* FIFO for tasks which are never joined */);
+    }
+
+    public static SSLTaskExecutor get() {
+        SSLTaskExecutor e = inst;
+        if (e != null) {
+            return e;
+        }
+        synchronized (SSLTaskExecutor.class) {
+            if (inst == null) {
+                inst = new SSLTaskExecutor(Config.sslTaskThreads, Config.sslTaskPendingLimit);
+            }
+            return inst;
+        }
+    }
+
+    /**
+     * @return pending tasks of the shared executor, or 0 if it's not created
+     */
+    public static int currentPending() {
+        SSLTaskExecutor e = inst;
+        return e == null ? 0 : e.pending();
+    }
+
+    /**
+     * @return whether the shared executor has too many pending tasks, false if it's not created
+     */
+    public static boolean currentSaturated() {
+        SSLTaskExecutor e = inst;
+        return e != null && e.isSaturated();
+    }
+
+    public void execute(Runnable r) {
+        pending.incrementAndGet();
+        long submitNanos = System.nanoTime();
+        pool.execute(() -> {
+            GlobalInspection.getInstance().sslTaskWait(System.nanoTime() - submitNanos);
+            try {
+                r.run();
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+    public boolean isSaturated() {
+        return pending.get() >= pendingLimit;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class Worker extends ForkJoinWorkerThread implements VProxyThread {
+        private final VProxyThreadVariable variable = new VProxyThreadVariable();
+
+        Worker(ForkJoinPool pool, String name) {
+            super(pool);
+            setName(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public VProxyThreadVariable getVariable() {
+            return variable;
+        }
+
+        @Override
+        public Thread thread() {
+            return this;
+        }
+    }
+}
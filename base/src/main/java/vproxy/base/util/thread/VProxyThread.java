@@ -6,6 +6,7 @@ import vjson.parser.StringParser;
 import vjson.util.StringDictionary;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.Logger;
+import vproxy.vfd.DatagramBatch;
 
 import java.util.UUID;
 
@@ -49,6 +50,9 @@ public interface VProxyThread {
 
     class VProxyThreadVariable {
         public SelectorEventLoop loop;
+        public long ioSyscallCount; // read/write syscalls issued on network fds by this thread
+        public DatagramBatch datagramBatch;
+        public DatagramBatch datagramSendBatch;
 
         public ArrayParser threadLocalArrayParser;
         public ObjectParser threadLocalObjectParser;
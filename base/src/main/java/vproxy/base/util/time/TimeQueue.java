@@ -1,12 +1,25 @@
 package vproxy.base.util.time;
 
 import vproxy.base.util.time.impl.TimeQueueImpl;
+import vproxy.base.util.time.impl.TimeWheelImpl;
 
 public interface TimeQueue<T> {
     static <T> TimeQueue<T> create() {
         return new TimeQueueImpl<>();
     }
 
+    static <T> TimeQueue<T> createTimeWheel() {
+        return new TimeWheelImpl<>();
+    }
+
+    /**
+     * @param poolCapacity max count of elements to be recycled,
+     *                     the TimeElem must not be used after it's polled or removed
+     */
+    static <T> TimeQueue<T> createTimeWheel(int poolCapacity) {
+        return new TimeWheelImpl<>(poolCapacity);
+    }
+
     TimeElem<T> add(long current, int timeout, T elem);
 
     /**
@@ -21,4 +34,9 @@ public interface TimeQueue<T> {
      * @return time left to the nearest timeout, or 0 if the timeout event triggers, must not < 0, Integer.MAX_VALUE means no timer event
      */
     int nextTime(long current);
+
+    /**
+     * @return total count of elements allocated by this queue, for statistics
+     */
+    long elemAllocateCount();
 }
@@ -6,10 +6,12 @@ import vproxy.base.util.time.TimeQueue;
 import java.util.PriorityQueue;
 
 public class TimeQueueImpl<T> implements TimeQueue<T> {
-    PriorityQueue<TimeElemImpl<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+    PriorityQueue<TimeElemImpl<T>> queue = new PriorityQueue<>((a, b) -> Long.compare(a.triggerTime, b.triggerTime));
+    private long elemAllocateCount = 0;
 
     @Override
     public TimeElem<T> add(long currentTimestamp, int timeout, T elem) {
+        ++elemAllocateCount;
         TimeElemImpl<T> event = new TimeElemImpl<>(currentTimestamp + timeout, elem, this);
         queue.add(event);
         return event;
@@ -28,6 +30,11 @@ public class TimeQueueImpl<T> implements TimeQueue<T> {
         return queue.isEmpty();
     }
 
+    @Override
+    public long elemAllocateCount() {
+        return elemAllocateCount;
+    }
+
     @Override
     public int nextTime(long currentTimestamp) {
         TimeElemImpl<T> elem = queue.peek();
@@ -0,0 +1,33 @@
+package vproxy.base.util.time.impl;
+
+import vproxy.base.util.time.TimeElem;
+
+public class TimeWheelElemImpl<T> implements TimeElem<T> {
+    // the fields might be reused if the wheel pools elements
+    long triggerTime;
+    T elem;
+    private final TimeWheelImpl<T> wheel;
+
+    // the element is linked into a slot of the wheel
+    // slot is null when the element is polled or removed
+    TimeWheelImpl.Slot<T> slot;
+    TimeWheelElemImpl<T> prev;
+    TimeWheelElemImpl<T> next;
+
+    TimeWheelElemImpl(TimeWheelImpl<T> wheel) {
+        this.wheel = wheel;
+    }
+
+    @Override
+    public T get() {
+        return elem;
+    }
+
+    @Override
+    public void removeSelf() {
+        if (slot == null) {
+            return; // already removed or polled
+        }
+        wheel.remove(this);
+    }
+}
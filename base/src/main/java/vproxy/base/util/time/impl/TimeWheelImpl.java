@@ -0,0 +1,380 @@
+package vproxy.base.util.time.impl;
+
+import vproxy.base.util.time.TimeElem;
+import vproxy.base.util.time.TimeQueue;
+
+/**
+ * A hierarchical timing wheel, the tick is 1 millisecond.
+ * <p>
+ * Level 0 has 256 slots, each slot holds elements triggering at exactly one millisecond.
+ * Level 1 to 4 have 64 slots each, and one slot of level N covers a whole round of level N-1.
+ * When level 0 finishes a round, the corresponding slot of level 1 is cascaded into lower levels,
+ * and so on for the upper levels. Five levels cover 2^32 millis, which is enough for int timeouts.
+ * <p>
+ * Elements are linked into slots with intrusive doubly linked lists,
+ * so adding and removing are both O(1).
+ * Expired elements are moved into a list in trigger order, and {@link #poll()} takes from it.
+ * <p>
+ * The wheel is driven by the timestamps passed into {@link #add(long, int, Object)} and {@link #nextTime(long)}.
+ * This class is not thread safe.
+ * <p>
+ * When constructed with a positive pool capacity, polled and removed elements are recycled for later adding,
+ * in this case the caller must not touch the {@link TimeElem} after it's polled or removed.
+ */
+public class TimeWheelImpl<T> implements TimeQueue<T> {
+    private static final int LEVELS = 5;
+    private static final int[] SHIFT = {0, 8, 14, 20, 26};
+    private static final int[] SIZE = {256, 64, 64, 64, 64};
+    private static final long MAX_DELTA = (1L << 32) - 1;
+
+    private final Slot<T>[][] slots;
+    private final long[][] occupied; // bitmap of non-empty slots
+    private final Slot<T> expired = new Slot<>(-1, -1);
+    private boolean started = false;
+    private long current; // the timestamp which the wheel is advanced to
+    private int wheelSize = 0; // count of elements not expired yet
+
+    private final int poolCapacity;
+    private TimeWheelElemImpl<T> pool; // recycled elements linked with the `next` field
+    private int poolSize = 0;
+    private long elemAllocateCount = 0;
+
+    public TimeWheelImpl() {
+        this(0);
+    }
+
+    public TimeWheelImpl(int poolCapacity) {
+        this.poolCapacity = poolCapacity;
+        //noinspection unchecked
+        slots = new Slot[LEVELS][];
+        occupied = new long[LEVELS][];
+        for (int level = 0; level < LEVELS; ++level) {
+            //noinspection unchecked
+            slots[level] = new Slot[SIZE[level]];
+            for (int i = 0; i < SIZE[level]; ++i) {
+                slots[level][i] = new Slot<>(level, i);
+            }
+            occupied[level] = new long[(SIZE[level] + 63) / 64];
+        }
+    }
+
+    @Override
+    public TimeElem<T> add(long currentTimestamp, int timeout, T elem) {
+        if (!started) {
+            started = true;
+            current = currentTimestamp;
+        } else if (wheelSize == 0 && currentTimestamp > current) {
+            current = currentTimestamp; // nothing in the wheel, simply move forward
+        }
+        TimeWheelElemImpl<T> e = pool;
+        if (e == null) {
+            ++elemAllocateCount;
+            e = new TimeWheelElemImpl<>(this);
+        } else {
+            pool = e.next;
+            e.next = null;
+            --poolSize;
+        }
+        e.triggerTime = currentTimestamp + timeout;
+        e.elem = elem;
+        place(e);
+        return e;
+    }
+
+    @Override
+    public T poll() {
+        TimeWheelElemImpl<T> e = expired.head;
+        if (e == null) {
+            if (wheelSize == 0) {
+                return null;
+            }
+            // no element expired, find the nearest one in the wheel
+            e = nearest();
+        }
+        T elem = e.elem;
+        remove(e);
+        return elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return wheelSize == 0 && expired.head == null;
+    }
+
+    @Override
+    public long elemAllocateCount() {
+        return elemAllocateCount;
+    }
+
+    @Override
+    public int nextTime(long currentTimestamp) {
+        advance(currentTimestamp);
+        if (expired.head != null) {
+            return 0;
+        }
+        if (wheelSize == 0) {
+            return Integer.MAX_VALUE;
+        }
+        long next = nextTickLowerBound();
+        return (int) Math.max(Math.min(next - currentTimestamp, Integer.MAX_VALUE), 0);
+    }
+
+    void remove(TimeWheelElemImpl<T> e) {
+        Slot<T> slot = e.slot;
+        slot.remove(e);
+        if (slot != expired) {
+            --wheelSize;
+            if (slot.head == null) {
+                occupied[slot.level][slot.index >>> 6] &= ~(1L << (slot.index & 63));
+            }
+        }
+        recycle(e);
+    }
+
+    private void recycle(TimeWheelElemImpl<T> e) {
+        e.elem = null;
+        if (poolSize >= poolCapacity) {
+            return;
+        }
+        e.next = pool;
+        pool = e;
+        ++poolSize;
+    }
+
+    private void place(TimeWheelElemImpl<T> e) {
+        long delta = e.triggerTime - current;
+        if (delta <= 0) {
+            expired.add(e);
+            return;
+        }
+        long t = e.triggerTime;
+        if (delta > MAX_DELTA) {
+            // will be cascaded and re-placed before it triggers
+            t = current + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << SHIFT[level + 1])) {
+            ++level;
+        }
+        int index = (int) ((t >>> SHIFT[level]) & (SIZE[level] - 1));
+        slots[level][index].add(e);
+        occupied[level][index >>> 6] |= (1L << (index & 63));
+        ++wheelSize;
+    }
+
+    private void advance(long now) {
+        if (!started) {
+            started = true;
+            current = now;
+            return;
+        }
+        while (current < now) {
+            if (wheelSize == 0) {
+                current = now;
+                return;
+            }
+            if ((current & 255) == 255) {
+                // entering a new round of level 0
+                ++current;
+                cascade();
+                drain(0);
+                continue;
+            }
+            long target = Math.min(now, current | 255);
+            int from = (int) (current & 255) + 1;
+            int to = (int) (target & 255);
+            int idx = from;
+            boolean found = false;
+            while ((idx = nextOccupied(occupied[0], idx, to)) != -1) {
+                found = true;
+                drain(idx);
+                ++idx;
+            }
+            if (!found && target == (current | 255) && isLevel0Empty()) {
+                // nothing in level 0, jump to the tick right before the next cascading
+                target = Math.max(target, Math.min(now, nextHigherLevelStart() - 1));
+            }
+            current = target;
+        }
+    }
+
+    private void cascade() {
+        for (int level = 1; level < LEVELS; ++level) {
+            int index = (int) ((current >>> SHIFT[level]) & (SIZE[level] - 1));
+            Slot<T> slot = slots[level][index];
+            TimeWheelElemImpl<T> e = slot.head;
+            if (e != null) {
+                slot.head = null;
+                slot.tail = null;
+                occupied[level][index >>> 6] &= ~(1L << (index & 63));
+                while (e != null) {
+                    TimeWheelElemImpl<T> next = e.next;
+                    e.prev = null;
+                    e.next = null;
+                    e.slot = null;
+                    --wheelSize;
+                    place(e);
+                    e = next;
+                }
+            }
+            if (index != 0) {
+                break;
+            }
+        }
+    }
+
+    private void drain(int index) {
+        Slot<T> slot = slots[0][index];
+        TimeWheelElemImpl<T> e = slot.head;
+        if (e == null) {
+            return;
+        }
+        occupied[0][index >>> 6] &= ~(1L << (index & 63));
+        for (TimeWheelElemImpl<T> x = e; x != null; x = x.next) {
+            x.slot = expired;
+            --wheelSize;
+        }
+        // append the whole list
+        if (expired.tail == null) {
+            expired.head = e;
+        } else {
+            expired.tail.next = e;
+            e.prev = expired.tail;
+        }
+        expired.tail = slot.tail;
+        slot.head = null;
+        slot.tail = null;
+    }
+
+    private boolean isLevel0Empty() {
+        for (long l : occupied[0]) {
+            if (l != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // from and to are both inclusive
+    private static int nextOccupied(long[] bits, int from, int to) {
+        while (from <= to) {
+            int w = from >>> 6;
+            long word = bits[w] & (-1L << (from & 63));
+            if (word != 0) {
+                int idx = (w << 6) + Long.numberOfTrailingZeros(word);
+                return idx <= to ? idx : -1;
+            }
+            from = (w + 1) << 6;
+        }
+        return -1;
+    }
+
+    private long nextLevel0Tick() {
+        long roundBase = current & ~255L;
+        int curIdx = (int) (current & 255);
+        int idx = nextOccupied(occupied[0], curIdx + 1, 255);
+        if (idx != -1) {
+            return roundBase + idx;
+        }
+        idx = nextOccupied(occupied[0], 0, curIdx);
+        if (idx != -1) {
+            return roundBase + 256 + idx;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // the earliest timestamp when a slot of level 1+ will be cascaded
+    private long nextHigherLevelStart() {
+        long min = Long.MAX_VALUE;
+        for (int level = 1; level < LEVELS; ++level) {
+            long bits = occupied[level][0];
+            if (bits == 0) {
+                continue;
+            }
+            long cur = current >>> SHIFT[level];
+            int curIdx = (int) (cur & 63);
+            long after = curIdx == 63 ? 0 : bits & (-1L << (curIdx + 1));
+            long w;
+            if (after != 0) {
+                w = cur - curIdx + Long.numberOfTrailingZeros(after);
+            } else {
+                w = cur - curIdx + 64 + Long.numberOfTrailingZeros(bits);
+            }
+            long start = w << SHIFT[level];
+            if (start < min) {
+                min = start;
+            }
+        }
+        return min;
+    }
+
+    // elements in level 0 trigger exactly at the tick,
+    // elements in upper levels trigger no earlier than the cascading
+    private long nextTickLowerBound() {
+        return Math.min(nextLevel0Tick(), nextHigherLevelStart());
+    }
+
+    private TimeWheelElemImpl<T> nearest() {
+        TimeWheelElemImpl<T> ret = null;
+        long tick = nextLevel0Tick();
+        if (tick != Long.MAX_VALUE) {
+            ret = slots[0][(int) (tick & 255)].head;
+        }
+        for (int level = 1; level < LEVELS; ++level) {
+            long bits = occupied[level][0];
+            if (bits == 0) {
+                continue;
+            }
+            int curIdx = (int) ((current >>> SHIFT[level]) & 63);
+            long after = curIdx == 63 ? 0 : bits & (-1L << (curIdx + 1));
+            int idx = Long.numberOfTrailingZeros(after != 0 ? after : bits);
+            for (TimeWheelElemImpl<T> e = slots[level][idx].head; e != null; e = e.next) {
+                if (ret == null || e.triggerTime < ret.triggerTime) {
+                    ret = e;
+                }
+            }
+        }
+        return ret;
+    }
+
+    static class Slot<T> {
+        final int level;
+        final int index;
+        TimeWheelElemImpl<T> head;
+        TimeWheelElemImpl<T> tail;
+
+        Slot(int level, int index) {
+            this.level = level;
+            this.index = index;
+        }
+
+        void add(TimeWheelElemImpl<T> e) {
+            e.slot = this;
+            e.next = null;
+            e.prev = tail;
+            if (tail == null) {
+                head = e;
+            } else {
+                tail.next = e;
+            }
+            tail = e;
+        }
+
+        void remove(TimeWheelElemImpl<T> e) {
+            if (e.prev == null) {
+                head = e.next;
+            } else {
+                e.prev.next = e.next;
+            }
+            if (e.next == null) {
+                tail = e.prev;
+            } else {
+                e.next.prev = e.prev;
+            }
+            e.prev = null;
+            e.next = null;
+            e.slot = null;
+        }
+    }
+}
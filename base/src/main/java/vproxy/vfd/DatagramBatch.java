@@ -0,0 +1,240 @@
+package vproxy.vfd;
+
+import vproxy.base.Config;
+import vproxy.base.util.direct.DirectByteBuffer;
+import vproxy.base.util.direct.DirectMemoryUtils;
+import vproxy.base.util.thread.VProxyThread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable batch of datagrams, each datagram is stored in a fixed size slot of one direct buffer.<br>
+ * Used with {@link DatagramFD#receive(DatagramBatch)} and {@link DatagramFD#send(DatagramBatch)}
+ * to transfer multiple datagrams with one syscall when the fd supports it.
+ */
+public class DatagramBatch {
+    public static final int ADDR_LEN = 16; // bytes reserved for the address of each datagram
+
+    public final int capacity;
+    public final int slotSize;
+    private final DirectByteBuffer memory;
+    private final ByteBuffer[] views;
+    private final IPPort[] remotes;
+
+    // filled or read by fd implementations
+    private final int[] offs;
+    private final int[] lens;
+    private final byte[] addrs;
+    private final int[] ports;
+    private boolean rawIPv4;
+
+    private int size = 0;
+
+    public DatagramBatch(int capacity, int slotSize) {
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+        this.memory = DirectMemoryUtils.allocateDirectBuffer(capacity * slotSize);
+        this.views = new ByteBuffer[capacity];
+        this.remotes = new IPPort[capacity];
+        this.offs = new int[capacity];
+        this.lens = new int[capacity];
+        this.addrs = new byte[capacity * ADDR_LEN];
+        this.ports = new int[capacity];
+
+        ByteBuffer buf = memory.realBuffer();
+        for (int i = 0; i < capacity; ++i) {
+            views[i] = buf.duplicate();
+            offs[i] = i * slotSize;
+        }
+    }
+
+    /**
+     * The batch is shared by all datagram fds handled on the current thread,
+     * so packets must be consumed before the next batch operation on the thread.
+     * <p>
+     * The batch is allocated with the slot size required by the first caller, and re-allocated
+     * when a caller requires larger slots, so threads only hold memory for the datagrams they handle.
+     *
+     * @param slotSize max length of datagrams to receive, longer datagrams are truncated
+     * @return the batch of the current thread
+     */
+    public static DatagramBatch current(int slotSize) {
+        VProxyThread.VProxyThreadVariable v = VProxyThread.current();
+        v.datagramBatch = ensureSlotSize(v.datagramBatch, slotSize);
+        return v.datagramBatch;
+    }
+
+    /**
+     * Same as {@link #current(int)}, but a separated batch for collecting datagrams to send,
+     * so that it can be filled while iterating the received datagrams.
+     *
+     * @param slotSize max length of datagrams to add, {@link #add(ByteBuffer, IPPort)} fails for longer datagrams
+     * @return the batch for sending of the current thread
+     */
+    public static DatagramBatch currentForSending(int slotSize) {
+        VProxyThread.VProxyThreadVariable v = VProxyThread.current();
+        v.datagramSendBatch = ensureSlotSize(v.datagramSendBatch, slotSize);
+        return v.datagramSendBatch;
+    }
+
+    private static DatagramBatch ensureSlotSize(DatagramBatch batch, int slotSize) {
+        if (batch != null) {
+            if (batch.slotSize >= slotSize) {
+                return batch;
+            }
+            batch.clean();
+        }
+        int capacity = Math.max(1, Math.min(Config.udpBatchSize, Config.udpBatchMaxBytes / slotSize));
+        return new DatagramBatch(capacity, slotSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            remotes[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return a view of the packet, which is only valid before the batch is modified
+     */
+    public ByteBuffer packet(int i) {
+        checkIndex(i);
+        ByteBuffer b = views[i];
+        b.limit(offs[i] + lens[i]).position(offs[i]);
+        return b;
+    }
+
+    public IPPort remote(int i) {
+        checkIndex(i);
+        IPPort remote = remotes[i];
+        if (remote == null) {
+            // filled by a native call
+            IP ip;
+            if (rawIPv4) {
+                ip = IP.fromIPv4(Arrays.copyOfRange(addrs, i * ADDR_LEN, i * ADDR_LEN + 4));
+            } else {
+                ip = IP.fromIPv6(Arrays.copyOfRange(addrs, i * ADDR_LEN, i * ADDR_LEN + 16));
+            }
+            remote = new IPPort(ip, ports[i]);
+            remotes[i] = remote;
+        }
+        return remote;
+    }
+
+    /**
+     * copy the data into the batch for sending
+     *
+     * @return false if the batch is full or the data is too large for one slot
+     */
+    public boolean add(ByteBuffer data, IPPort remote) {
+        int len = data.limit() - data.position();
+        if (size == capacity || len > slotSize) {
+            return false;
+        }
+        int i = size;
+        ByteBuffer b = views[i];
+        b.limit(offs[i] + slotSize).position(offs[i]);
+        b.put(data);
+        lens[i] = len;
+        remotes[i] = remote;
+        byte[] ip = remote.getAddress().getAddress();
+        System.arraycopy(ip, 0, addrs, i * ADDR_LEN, ip.length);
+        ports[i] = remote.getPort();
+        ++size;
+        return true;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+        }
+    }
+
+    // ---- the following methods are for fd implementations ----
+
+    public ByteBuffer directBuffer() {
+        return memory.realBuffer();
+    }
+
+    public int[] offs() {
+        return offs;
+    }
+
+    public int[] lens() {
+        return lens;
+    }
+
+    public byte[] addrs() {
+        return addrs;
+    }
+
+    public int[] ports() {
+        return ports;
+    }
+
+    /**
+     * @return the slot to receive the next datagram into
+     */
+    public ByteBuffer nextSlot() {
+        ByteBuffer b = views[size];
+        b.limit(offs[size] + slotSize).position(offs[size]);
+        return b;
+    }
+
+    /**
+     * record a datagram received into {@link #nextSlot()}
+     */
+    public void received(int len, IPPort remote) {
+        lens[size] = len;
+        remotes[size] = remote;
+        ++size;
+    }
+
+    /**
+     * record datagrams received into all slots by one native call,
+     * with lens, addrs and ports filled
+     */
+    public void receivedRaw(int count, boolean ipv4) {
+        for (int i = 0; i < count; ++i) {
+            remotes[i] = null;
+        }
+        rawIPv4 = ipv4;
+        size = count;
+    }
+
+    public void checkAddresses(boolean ipv4) throws IOException {
+        for (int i = 0; i < size; ++i) {
+            IP ip = remotes[i].getAddress();
+            if (ipv4 != (ip instanceof IPv4)) {
+                throw new IOException("unsupported address for this fd: " + remotes[i]);
+            }
+        }
+    }
+
+    /**
+     * release the direct memory
+     */
+    public void clean() {
+        memory.clean();
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramBatch{" +
+            "capacity=" + capacity +
+            ", slotSize=" + slotSize +
+            ", size=" + size +
+            '}';
+    }
+}
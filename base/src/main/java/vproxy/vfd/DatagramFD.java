@@ -1,4 +1,42 @@
 package vproxy.vfd;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public interface DatagramFD extends AbstractDatagramFD<IPPort> {
+    /**
+     * clear the batch and receive as many datagrams as possible into it
+     *
+     * @return count of datagrams received
+     */
+    default int receive(DatagramBatch batch) throws IOException {
+        batch.clear();
+        while (!batch.isFull()) {
+            ByteBuffer slot = batch.nextSlot();
+            int pos = slot.position();
+            IPPort remote = receive(slot);
+            if (remote == null) {
+                break;
+            }
+            batch.received(slot.position() - pos, remote);
+        }
+        return batch.size();
+    }
+
+    /**
+     * send datagrams in the batch in order
+     *
+     * @return count of datagrams sent
+     */
+    default int send(DatagramBatch batch) throws IOException {
+        int n = 0;
+        for (; n < batch.size(); ++n) {
+            ByteBuffer packet = batch.packet(n);
+            int len = packet.limit() - packet.position();
+            if (send(packet, batch.remote(n)) < len) {
+                break;
+            }
+        }
+        return n;
+    }
 }
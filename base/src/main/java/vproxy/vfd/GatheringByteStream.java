@@ -0,0 +1,13 @@
+package vproxy.vfd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface GatheringByteStream extends WritableByteStream {
+    /**
+     * write the buffers in order with one operation
+     *
+     * @return bytes written
+     */
+    int write(ByteBuffer[] srcs) throws IOException;
+}
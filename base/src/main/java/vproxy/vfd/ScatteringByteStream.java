@@ -0,0 +1,13 @@
+package vproxy.vfd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface ScatteringByteStream extends ReadableByteStream {
+    /**
+     * read into the buffers in order with one operation
+     *
+     * @return bytes read, or -1 for EOF
+     */
+    int read(ByteBuffer[] dsts) throws IOException;
+}
@@ -1,5 +1,6 @@
 package vproxy.vfd.jdk;
 
+import vproxy.base.util.thread.VProxyThread;
 import vproxy.vfd.DatagramFD;
 import vproxy.vfd.IPPort;
 
@@ -28,11 +29,13 @@ public class DatagramChannelFD extends ChannelFD implements DatagramFD {
 
     @Override
     public int send(ByteBuffer buf, IPPort remote) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return channel.send(buf, remote.toInetSocketAddress());
     }
 
     @Override
     public IPPort receive(ByteBuffer buf) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return IPPort.fromNullable(channel.receive(buf));
     }
 
@@ -48,11 +51,13 @@ public class DatagramChannelFD extends ChannelFD implements DatagramFD {
 
     @Override
     public int read(ByteBuffer dst) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return channel.read(dst);
     }
 
     @Override
     public int write(ByteBuffer src) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return channel.write(src);
     }
 
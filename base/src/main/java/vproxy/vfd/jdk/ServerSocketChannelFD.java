@@ -32,7 +32,8 @@ public class ServerSocketChannelFD extends ChannelFD implements ServerSocketFD {
 
     @Override
     public void bind(IPPort l4addr) throws IOException {
-        channel.bind(l4addr.toInetSocketAddress());
+        // same as the posix fds, the default backlog (50) is smaller than the accept budget
+        channel.bind(l4addr.toInetSocketAddress(), 512);
     }
 
     @Override
@@ -1,13 +1,16 @@
 package vproxy.vfd.jdk;
 
+import vproxy.base.util.thread.VProxyThread;
+import vproxy.vfd.GatheringByteStream;
 import vproxy.vfd.IPPort;
+import vproxy.vfd.ScatteringByteStream;
 import vproxy.vfd.SocketFD;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
-public class SocketChannelFD extends ChannelFD implements SocketFD {
+public class SocketChannelFD extends ChannelFD implements SocketFD, ScatteringByteStream, GatheringByteStream {
     private final SocketChannel channel;
 
     public SocketChannelFD(SocketChannel channel) {
@@ -52,14 +55,28 @@ public class SocketChannelFD extends ChannelFD implements SocketFD {
 
     @Override
     public int read(ByteBuffer dst) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return channel.read(dst);
     }
 
     @Override
     public int write(ByteBuffer src) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
         return channel.write(src);
     }
 
+    @Override
+    public int read(ByteBuffer[] dsts) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
+        return (int) channel.read(dsts);
+    }
+
+    @Override
+    public int write(ByteBuffer[] srcs) throws IOException {
+        ++VProxyThread.current().ioSyscallCount;
+        return (int) channel.write(srcs);
+    }
+
     @Override
     public SocketChannel getChannel() {
         return channel;
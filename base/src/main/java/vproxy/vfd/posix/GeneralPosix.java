@@ -135,6 +135,21 @@ public class GeneralPosix implements Posix {
     @Override
     native public int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens) throws IOException;
+
+    @Override
+    native public int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens) throws IOException;
+
+    @Override
+    native public boolean spliceSupported();
+
+    @Override
+    native public int[] openSplicePipe(int size) throws IOException;
+
+    @Override
+    native public int splice(int fdIn, int fdOut, int len) throws IOException;
+
     @Override
     native public int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
@@ -147,6 +162,12 @@ public class GeneralPosix implements Posix {
     @Override
     native public UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int recvmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int off, int slotLen, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int sendmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int[] offs, int[] lens, byte[] addrs, int[] ports, int count) throws IOException;
+
     @Override
     native public long currentTimeMillis();
 
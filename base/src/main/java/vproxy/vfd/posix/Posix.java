@@ -92,6 +92,17 @@ public interface Posix {
 
     int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens) throws IOException;
+
+    int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens) throws IOException;
+
+    boolean spliceSupported();
+
+    // returns {readFd, writeFd, capacity}
+    int[] openSplicePipe(int size) throws IOException;
+
+    int splice(int fdIn, int fdOut, int len) throws IOException;
+
     int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
     int sendtoIPv6(int fd, ByteBuffer directBuffer, int off, int len, String fullAddr, int port) throws IOException;
@@ -100,6 +111,14 @@ public interface Posix {
 
     UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    // receive at most `count` datagrams into slots of `slotLen` bytes starting from `off`
+    // addresses are stored into `addrs` with 16 bytes for each datagram
+    // returns the number of datagrams received
+    int recvmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int off, int slotLen, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
+    // returns the number of datagrams sent
+    int sendmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int[] offs, int[] lens, byte[] addrs, int[] ports, int count) throws IOException;
+
     long currentTimeMillis();
 
     boolean tapNonBlockingSupported() throws IOException;
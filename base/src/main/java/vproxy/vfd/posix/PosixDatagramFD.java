@@ -1,5 +1,6 @@
 package vproxy.vfd.posix;
 
+import vproxy.base.util.thread.VProxyThread;
 import vproxy.vfd.*;
 
 import java.io.IOException;
@@ -93,6 +94,7 @@ public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
             needCopy = true;
         }
         int n = 0;
+        ++VProxyThread.current().ioSyscallCount;
         try {
             int port = remote.getPort();
             if (ipv4) {
@@ -137,6 +139,7 @@ public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
         }
         VSocketAddress l4addr;
         int n = 0;
+        ++VProxyThread.current().ioSyscallCount;
         try {
             UDPRecvResult tup;
             if (ipv4) {
@@ -162,4 +165,35 @@ public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
         }
         return l4addr.toIPPort();
     }
+
+    @Override
+    public int receive(DatagramBatch batch) throws IOException {
+        checkFD();
+        checkNotClosed();
+        if (!bond) {
+            throw new IOException("not bond");
+        }
+        batch.clear();
+        ++VProxyThread.current().ioSyscallCount;
+        int n = posix.recvmmsg(fd, ipv4, batch.directBuffer(), 0, batch.slotSize, batch.capacity,
+            batch.lens(), batch.addrs(), batch.ports());
+        batch.receivedRaw(n, ipv4);
+        return n;
+    }
+
+    @Override
+    public int send(DatagramBatch batch) throws IOException {
+        if (connected) {
+            throw new IOException("this fd is already connected");
+        }
+        checkFD();
+        checkNotClosed();
+        if (batch.size() == 0) {
+            return 0;
+        }
+        batch.checkAddresses(ipv4);
+        ++VProxyThread.current().ioSyscallCount;
+        return posix.sendmmsg(fd, ipv4, batch.directBuffer(), batch.offs(), batch.lens(),
+            batch.addrs(), batch.ports(), batch.size());
+    }
 }
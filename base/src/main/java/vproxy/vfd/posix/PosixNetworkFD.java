@@ -1,11 +1,19 @@
 package vproxy.vfd.posix;
 
+import vproxy.base.util.thread.VProxyThread;
+import vproxy.vfd.GatheringByteStream;
+import vproxy.vfd.ScatteringByteStream;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-public class PosixNetworkFD extends PosixFD {
+public class PosixNetworkFD extends PosixFD implements ScatteringByteStream, GatheringByteStream {
     protected boolean connected = false;
 
+    // reused when calling readv/writev
+    private int[] vecOffs;
+    private int[] vecLens;
+
     protected PosixNetworkFD(Posix posix) {
         super(posix);
     }
@@ -25,6 +33,7 @@ public class PosixNetworkFD extends PosixFD {
         checkConnected();
         checkNotClosed();
 
+        ++VProxyThread.current().ioSyscallCount;
         return utilRead(dst, (buf, off, len) -> posix.read(fd, buf, off, len));
     }
 
@@ -33,6 +42,113 @@ public class PosixNetworkFD extends PosixFD {
         checkConnected();
         checkNotClosed();
 
+        ++VProxyThread.current().ioSyscallCount;
         return utilWrite(src, (buf, off, len) -> posix.write(fd, buf, off, len));
     }
+
+    @Override
+    public int read(ByteBuffer[] dsts) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        if (!allDirect(dsts)) {
+            // read one by one, stop when a buffer is not filled
+            int total = 0;
+            for (ByteBuffer dst : dsts) {
+                int len = dst.limit() - dst.position();
+                if (len == 0) {
+                    continue;
+                }
+                int n = read(dst);
+                if (n == -1) {
+                    return total == 0 ? -1 : total;
+                }
+                total += n;
+                if (n < len) {
+                    break;
+                }
+            }
+            return total;
+        }
+        if (!fillVec(dsts)) {
+            return 0;
+        }
+        ++VProxyThread.current().ioSyscallCount;
+        int n = posix.readv(fd, dsts, vecOffs, vecLens);
+        if (n > 0) {
+            advance(dsts, n);
+        }
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer[] srcs) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        if (!allDirect(srcs)) {
+            // write one by one, stop when a buffer is not fully written
+            int total = 0;
+            for (ByteBuffer src : srcs) {
+                int len = src.limit() - src.position();
+                if (len == 0) {
+                    continue;
+                }
+                int n = write(src);
+                total += n;
+                if (n < len) {
+                    break;
+                }
+            }
+            return total;
+        }
+        if (!fillVec(srcs)) {
+            return 0;
+        }
+        ++VProxyThread.current().ioSyscallCount;
+        int n = posix.writev(fd, srcs, vecOffs, vecLens);
+        if (n > 0) {
+            advance(srcs, n);
+        }
+        return n;
+    }
+
+    private static boolean allDirect(ByteBuffer[] bufs) {
+        for (ByteBuffer b : bufs) {
+            if (!b.isDirect()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // return false if there's nothing to read or write
+    private boolean fillVec(ByteBuffer[] bufs) {
+        if (vecOffs == null || vecOffs.length < bufs.length) {
+            vecOffs = new int[bufs.length];
+            vecLens = new int[bufs.length];
+        }
+        int total = 0;
+        for (int i = 0; i < bufs.length; ++i) {
+            ByteBuffer b = bufs[i];
+            vecOffs[i] = b.position();
+            vecLens[i] = b.limit() - b.position();
+            total += vecLens[i];
+        }
+        return total != 0;
+    }
+
+    private static void advance(ByteBuffer[] bufs, int n) {
+        for (ByteBuffer b : bufs) {
+            int len = b.limit() - b.position();
+            if (n <= len) {
+                b.position(b.position() + n);
+                return;
+            }
+            b.position(b.limit());
+            n -= len;
+        }
+    }
 }
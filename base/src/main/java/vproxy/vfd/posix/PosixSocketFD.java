@@ -1,5 +1,6 @@
 package vproxy.vfd.posix;
 
+import vproxy.base.util.thread.VProxyThread;
 import vproxy.vfd.SocketFD;
 
 import java.io.IOException;
@@ -32,4 +33,41 @@ public class PosixSocketFD extends PosixInetNetworkFD implements SocketFD {
         connected = true;
         return true;
     }
+
+    public boolean spliceSupported() {
+        return posix.spliceSupported();
+    }
+
+    public SplicePipe openSplicePipe(int size) throws IOException {
+        return SplicePipe.open(posix, size);
+    }
+
+    /**
+     * move data from this socket into the pipe
+     *
+     * @return bytes moved, 0 when nothing to read, -1 for EOF
+     */
+    public int spliceRead(SplicePipe pipe, int len) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+        pipe.checkNotClosed();
+        ++VProxyThread.current().ioSyscallCount;
+        return posix.splice(fd, pipe.writeFd, len);
+    }
+
+    /**
+     * move data from the pipe into this socket
+     *
+     * @return bytes moved
+     */
+    public int spliceWrite(SplicePipe pipe, int len) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+        pipe.checkNotClosed();
+        ++VProxyThread.current().ioSyscallCount;
+        int n = posix.splice(pipe.readFd, fd, len);
+        return Math.max(n, 0); // -1 only means the pipe is empty
+    }
 }
@@ -0,0 +1,93 @@
+package vproxy.vfd.posix;
+
+import vproxy.base.util.direct.DirectByteBuffer;
+import vproxy.base.util.direct.DirectMemoryUtils;
+
+import java.io.IOException;
+
+/**
+ * A non-blocking kernel pipe used as the intermediate buffer of splice(2).
+ * Data moved from a socket into the pipe stays in kernel space until
+ * it's moved out into another socket.
+ */
+public class SplicePipe {
+    private final Posix posix;
+    final int readFd;
+    final int writeFd;
+    public final int capacity;
+    private boolean closed = false;
+
+    private SplicePipe(Posix posix, int readFd, int writeFd, int capacity) {
+        this.posix = posix;
+        this.readFd = readFd;
+        this.writeFd = writeFd;
+        this.capacity = capacity;
+    }
+
+    static SplicePipe open(Posix posix, int size) throws IOException {
+        int[] fds = posix.openSplicePipe(size);
+        return new SplicePipe(posix, fds[0], fds[1], fds[2]);
+    }
+
+    void checkNotClosed() throws IOException {
+        if (closed) {
+            throw new IOException("closed");
+        }
+    }
+
+    /**
+     * read bytes out of the pipe and drop them
+     *
+     * @param len max bytes to drop
+     * @return bytes dropped
+     */
+    public int drain(int len) throws IOException {
+        checkNotClosed();
+        if (len <= 0) {
+            return 0;
+        }
+        DirectByteBuffer buf = DirectMemoryUtils.allocateDirectBuffer(Math.min(len, 16384));
+        try {
+            int total = 0;
+            while (total < len) {
+                int n = posix.read(readFd, buf.realBuffer(), 0, Math.min(len - total, buf.capacity()));
+                if (n <= 0) { // empty
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        } finally {
+            buf.clean(true);
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            posix.close(readFd);
+        } catch (IOException ignore) {
+        }
+        try {
+            posix.close(writeFd);
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SplicePipe{" +
+            "readFd=" + readFd +
+            ", writeFd=" + writeFd +
+            ", capacity=" + capacity +
+            ", closed=" + closed +
+            '}';
+    }
+}
@@ -607,6 +607,13 @@ public class Mirror {
     private final DirectByteBuffer writeBuffer = DirectMemoryUtils.allocateDirectBuffer(2048);
 
     private void sendPacket(TapDatagramFD tap, List<? extends AbstractEthernetPacket> packets) {
+        // packets are mirrored from all event loops
+        synchronized (writeBuffer) {
+            sendPacket0(tap, packets);
+        }
+    }
+
+    private void sendPacket0(TapDatagramFD tap, List<? extends AbstractEthernetPacket> packets) {
         for (AbstractEthernetPacket pkt : packets) {
             try {
                 writeBuffer.limit(writeBuffer.capacity()).position(0);
@@ -11,5 +11,7 @@ public abstract class AbstractEthernetPacket extends AbstractPacket {
 
     public abstract void setDst(MacAddress dst);
 
+    public abstract int getType();
+
     public abstract AbstractPacket getPacket();
 }
@@ -10,44 +10,79 @@ public class EthernetPacket extends AbstractEthernetPacket {
     private MacAddress src;
     private int type;
     private AbstractPacket packet;
+    private ByteArray packetBytes; // the ip packet which is not parsed yet
 
     @Override
     public String from(ByteArray bytes) {
+        return from(bytes, false);
+    }
+
+    /**
+     * @param lazyIPPacket when set to true, the ip packet is parsed when it's retrieved for the first time,
+     *                     so frames which are only forwarded by mac do not build the l3/l4 packets
+     */
+    public String from(ByteArray bytes, boolean lazyIPPacket) {
         String err = from(bytes, null);
         if (err != null) {
             return err;
         }
         ByteArray data = bytes.sub(14, bytes.length() - 14);
+        raw = bytes;
+        if (type == Consts.ETHER_TYPE_IPv4 || type == Consts.ETHER_TYPE_IPv6) {
+            if (lazyIPPacket) {
+                packetBytes = data;
+            } else {
+                parseIPPacket(data);
+            }
+            return null;
+        }
         AbstractPacket packet;
-        boolean mayIgnoreError = false;
         if (type == Consts.ETHER_TYPE_ARP) {
             packet = new ArpPacket();
-        } else if (type == Consts.ETHER_TYPE_IPv4) {
-            mayIgnoreError = true;
-            packet = new Ipv4Packet();
-        } else if (type == Consts.ETHER_TYPE_IPv6) {
-            mayIgnoreError = true;
-            packet = new Ipv6Packet();
         } else {
             packet = new PacketBytes();
         }
         packet.recordParent(this);
         err = packet.from(data);
         if (err != null) {
-            if (mayIgnoreError) {
-                Logger.warn(LogType.SYS_ERROR, "got l3 packet unable to parse, type=" + type + ", packet=" + data.toHexString() + ": " + err);
-                packet = new PacketBytes();
-                packet.from(data);
-            } else {
-                return err;
-            }
+            raw = null;
+            return err;
         }
         this.packet = packet;
-
-        raw = bytes;
         return null;
     }
 
+    private void parseIPPacket(ByteArray data) {
+        AbstractPacket packet;
+        if (type == Consts.ETHER_TYPE_IPv4) {
+            packet = new Ipv4Packet();
+        } else {
+            packet = new Ipv6Packet();
+        }
+        packet.recordParent(this);
+        String err = packet.from(data);
+        if (err != null) {
+            Logger.warn(LogType.SYS_ERROR, "got l3 packet unable to parse, type=" + type + ", packet=" + data.toHexString() + ": " + err);
+            packet = new PacketBytes();
+            packet.from(data);
+        }
+        this.packet = packet;
+    }
+
+    /**
+     * @return true if the payload is already parsed into packet objects
+     */
+    public boolean isPacketParsed() {
+        return packetBytes == null;
+    }
+
+    /**
+     * @return bytes of the ip packet which is not parsed yet, or null if the payload is already parsed
+     */
+    public ByteArray getPacketBytes() {
+        return packetBytes;
+    }
+
     public String from(ByteArray bytes, AbstractPacket packet) {
         if (bytes.length() < (6 /*dst*/ + 6 /*src*/ + 2 /*type*/)) {
             return "input packet length too short for a ethernet packet";
@@ -67,7 +102,7 @@ public class EthernetPacket extends AbstractEthernetPacket {
         return dst.bytes // dst
             .concat(src.bytes) // src
             .concat(ByteArray.allocate(2).int16(0, type)) // type
-            .concat(packet.getRawPacket()); // packet
+            .concat(packetBytes != null ? packetBytes : packet.getRawPacket()); // packet
     }
 
     @Override
@@ -75,7 +110,7 @@ public class EthernetPacket extends AbstractEthernetPacket {
         return "ether"
             + ",dl_dst=" + dst
             + ",dl_src=" + src
-            + "," + packet.description();
+            + "," + getPacket().description();
     }
 
     @Override
@@ -84,7 +119,7 @@ public class EthernetPacket extends AbstractEthernetPacket {
             "dst=" + dst +
             ", src=" + src +
             ", type=" + Utils.toHexString(type) +
-            ", packet=" + packet +
+            ", packet=" + getPacket() +
             '}';
     }
 
@@ -108,6 +143,7 @@ public class EthernetPacket extends AbstractEthernetPacket {
         this.dst = dst;
     }
 
+    @Override
     public int getType() {
         return type;
     }
@@ -119,11 +155,17 @@ public class EthernetPacket extends AbstractEthernetPacket {
 
     @Override
     public AbstractPacket getPacket() {
+        if (packetBytes != null) {
+            ByteArray data = packetBytes;
+            packetBytes = null;
+            parseIPPacket(data);
+        }
         return packet;
     }
 
     public void setPacket(AbstractPacket packet) {
         clearRawPacket();
+        this.packetBytes = null;
         this.packet = packet;
     }
 
@@ -135,11 +177,11 @@ public class EthernetPacket extends AbstractEthernetPacket {
         return type == that.type &&
             Objects.equals(dst, that.dst) &&
             Objects.equals(src, that.src) &&
-            Objects.equals(packet, that.packet);
+            Objects.equals(getPacket(), that.getPacket());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(dst, src, type, packet);
+        return Objects.hash(dst, src, type, getPacket());
     }
 }
@@ -14,6 +14,13 @@ public class VXLanPacket extends AbstractPacket {
 
     @Override
     public String from(ByteArray bytes) {
+        return from(bytes, false);
+    }
+
+    /**
+     * @param lazyIPPacket see {@link EthernetPacket#from(ByteArray, boolean)}
+     */
+    public String from(ByteArray bytes, boolean lazyIPPacket) {
         if (bytes.length() < 1 + 3 + 3 + 1) {
             return "input packet length too short for a vxlan packet";
         }
@@ -22,9 +29,10 @@ public class VXLanPacket extends AbstractPacket {
         vni = bytes.uint24(4);
         reserved2 = bytes.uint8(7);
         // for now, we only consider it being this type of ethernet packet
-        packet = new EthernetPacket();
+        EthernetPacket packet = new EthernetPacket();
+        this.packet = packet;
         packet.recordParent(this);
-        String err = packet.from(bytes.sub(8, bytes.length() - 8));
+        String err = packet.from(bytes.sub(8, bytes.length() - 8), lazyIPPacket);
         if (err != null) {
             return err;
         }
@@ -1,6 +1,7 @@
 package vproxy.component.app;
 
 import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
 import vproxy.base.component.elgroup.EventLoopGroup;
 import vproxy.base.component.elgroup.EventLoopGroupAttach;
 import vproxy.base.component.elgroup.EventLoopWrapper;
@@ -8,11 +9,13 @@ import vproxy.base.connection.*;
 import vproxy.base.processor.Hint;
 import vproxy.base.processor.Processor;
 import vproxy.base.processor.ProcessorProvider;
+import vproxy.base.prometheus.GaugeF;
 import vproxy.base.util.LogType;
 import vproxy.base.util.Logger;
 import vproxy.base.util.exception.AlreadyExistException;
 import vproxy.base.util.exception.ClosedException;
 import vproxy.base.util.exception.NotFoundException;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
 import vproxy.base.util.ringbuffer.ssl.VSSLContext;
 import vproxy.component.proxy.*;
 import vproxy.component.secure.SecurityGroup;
@@ -25,11 +28,28 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 public class TcpLB {
+    private static final String tcp_lb_resident_buffer_bytes_current = "tcp_lb_resident_buffer_bytes_current";
+    private static final String tcp_lb_backend_pool_idle_current = "tcp_lb_backend_pool_idle_current";
+    private static final String tcp_lb_h2_mux_backend_connections_current = "tcp_lb_h2_mux_backend_connections_current";
+    private static final String tcp_lb_h2_mux_streams_current = "tcp_lb_h2_mux_streams_current";
+
+    static {
+        GlobalInspection.getInstance().registerHelpMessage(tcp_lb_resident_buffer_bytes_current,
+            "The current direct memory in bytes held by ring buffers of connections of the tcp-lb");
+        GlobalInspection.getInstance().registerHelpMessage(tcp_lb_backend_pool_idle_current,
+            "The current count of idle backend connections in the backend pool of the tcp-lb");
+        GlobalInspection.getInstance().registerHelpMessage(tcp_lb_h2_mux_backend_connections_current,
+            "The current count of backend connections shared by h2 streams of the tcp-lb");
+        GlobalInspection.getInstance().registerHelpMessage(tcp_lb_h2_mux_streams_current,
+            "The current count of h2 streams multiplexed on the backend connections of the tcp-lb");
+    }
+
     class LBProxyEventHandler implements ProxyEventHandler {
         @Override
         public void serverRemoved(ServerSock server) {
@@ -73,6 +93,16 @@ public class TcpLB {
     private int timeout; // modifiable
     private int inBufferSize; // modifiable
     private int outBufferSize; // modifiable
+    private boolean splice = false; // modifiable, only takes effect on plain tcp without tls
+    private final RingBufferAllocator bufferAllocator = new RingBufferAllocator(); // buffer-on-demand is modifiable
+    private final GaugeF statisticsResidentBufferBytes;
+    private final BackendConnectionPool backendPool = new BackendConnectionPool(
+        Config.backendPoolMaxIdle, Config.backendPoolIdleTimeoutMillis, Config.backendPoolMaxLifetimeMillis); // backend-pool is modifiable, only takes effect on processors
+    private final GaugeF statisticsBackendPoolIdle;
+    private final Http2Multiplexer h2Mux = new Http2Multiplexer(
+        Config.h2MuxMaxConnectionsPerServer, Config.h2MuxMaxStreamsPerConnection, Config.backendPoolIdleTimeoutMillis); // h2-mux is modifiable, only takes effect on h2
+    private final GaugeF statisticsH2MuxConnections;
+    private final GaugeF statisticsH2MuxStreams;
     public final String protocol;
     public final Processor processor;
     private VSSLContext sslContext;
@@ -136,6 +166,19 @@ public class TcpLB {
         // attach to acceptorGroup
         this.attach = new LBAttach();
         acceptorGroup.attachResource(attach);
+
+        statisticsResidentBufferBytes = GlobalInspection.getInstance().addMetric(tcp_lb_resident_buffer_bytes_current,
+            Map.of("tcp_lb", alias),
+            (m, l) -> new GaugeF(m, l, bufferAllocator::residentBytes));
+        statisticsBackendPoolIdle = GlobalInspection.getInstance().addMetric(tcp_lb_backend_pool_idle_current,
+            Map.of("tcp_lb", alias),
+            (m, l) -> new GaugeF(m, l, () -> (long) backendPool.idleCount()));
+        statisticsH2MuxConnections = GlobalInspection.getInstance().addMetric(tcp_lb_h2_mux_backend_connections_current,
+            Map.of("tcp_lb", alias),
+            (m, l) -> new GaugeF(m, l, () -> (long) h2Mux.connectionCount()));
+        statisticsH2MuxStreams = GlobalInspection.getInstance().addMetric(tcp_lb_h2_mux_streams_current,
+            Map.of("tcp_lb", alias),
+            (m, l) -> new GaugeF(m, l, () -> (long) h2Mux.streamCount()));
     }
 
     // this method can override
@@ -195,7 +238,11 @@ public class TcpLB {
             .setOutBufferSize(outBufferSize)
             .setServer(server)
             .setAcceptLoop(eventLoop)
-            .setSslContext(sslContext);
+            .setSslContext(sslContext)
+            .setSplice(splice)
+            .setBufferAllocator(bufferAllocator)
+            .setBackendPool(backendPool)
+            .setH2Mux(h2Mux);
     }
 
     public void start() throws IOException {
@@ -275,6 +322,12 @@ public class TcpLB {
         } catch (NotFoundException e) {
             // ignore
         }
+        GlobalInspection.getInstance().removeMetric(statisticsResidentBufferBytes);
+        GlobalInspection.getInstance().removeMetric(statisticsBackendPoolIdle);
+        GlobalInspection.getInstance().removeMetric(statisticsH2MuxConnections);
+        GlobalInspection.getInstance().removeMetric(statisticsH2MuxStreams);
+        backendPool.setEnabled(false);
+        h2Mux.setEnabled(false);
     }
 
     public int sessionCount() {
@@ -312,6 +365,25 @@ public class TcpLB {
         }
     }
 
+    public void setSplice(boolean splice) {
+        this.splice = splice;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setSplice(splice);
+        }
+    }
+
+    public void setBufferOnDemand(boolean bufferOnDemand) {
+        bufferAllocator.setOnDemand(bufferOnDemand);
+    }
+
+    public void setBackendPool(boolean backendPool) {
+        this.backendPool.setEnabled(backendPool);
+    }
+
+    public void setH2Mux(boolean h2Mux) {
+        this.h2Mux.setEnabled(h2Mux);
+    }
+
     public void setCertKeys(VSSLContext sslContext, CertKey[] certKeys) {
         this.sslContext = sslContext;
         this.certKeys = certKeys;
@@ -331,6 +403,50 @@ public class TcpLB {
         return timeout;
     }
 
+    public boolean isSplice() {
+        return splice;
+    }
+
+    public boolean isBufferOnDemand() {
+        return bufferAllocator.isOnDemand();
+    }
+
+    /**
+     * @return direct memory in bytes held by ring buffers of connections of this lb
+     */
+    public long residentBufferBytes() {
+        return bufferAllocator.residentBytes();
+    }
+
+    public boolean isBackendPool() {
+        return backendPool.isEnabled();
+    }
+
+    /**
+     * @return count of idle backend connections kept for reusing
+     */
+    public int backendPoolIdleCount() {
+        return backendPool.idleCount();
+    }
+
+    public boolean isH2Mux() {
+        return h2Mux.isEnabled();
+    }
+
+    /**
+     * @return count of backend connections shared by h2 streams
+     */
+    public int h2MuxConnectionCount() {
+        return h2Mux.connectionCount();
+    }
+
+    /**
+     * @return count of h2 streams on the shared backend connections
+     */
+    public int h2MuxStreamCount() {
+        return h2Mux.streamCount();
+    }
+
     public CertKey[] getCertKeys() {
         return certKeys;
     }
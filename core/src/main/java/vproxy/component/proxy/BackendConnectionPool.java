@@ -0,0 +1,358 @@
+package vproxy.component.proxy;
+
+import vproxy.base.Config;
+import vproxy.base.connection.*;
+import vproxy.base.selector.PeriodicEvent;
+import vproxy.base.util.Logger;
+import vproxy.base.util.ThreadSafe;
+import vproxy.vfd.IPPort;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Idle backend connections of processors, shared by all frontend connections on the same event loop.<br>
+ * Connections are grouped by {@link vproxy.base.processor.Processor#backendPoolKey} and the remote address.
+ * An idle connection is closed when it receives data or FIN, when it stays idle longer than the idle timeout,
+ * when it's alive longer than the max lifetime, or when its server is removed or becomes unhealthy.
+ * <p>
+ * Each loop only touches its own part of the pool, so the connections are handled without locks.
+ * Connections which may be pooled are registered with a {@link SwitchableHandler},
+ * they stay in the loop when lent or returned, only the handler is switched.
+ */
+public class BackendConnectionPool {
+    private static final int SWEEP_INTERVAL = 1000;
+
+    private final int maxIdlePerServer;
+    private final int idleTimeout;
+    private final int maxLifetime;
+    private volatile boolean enabled = false;
+
+    private final ConcurrentHashMap<NetEventLoop, LoopPool> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param maxIdlePerServer max idle connections of one server on each event loop
+     * @param idleTimeout      milliseconds for a connection to stay in the pool
+     * @param maxLifetime      milliseconds since the connection is created, after which the connection won't be reused
+     */
+    public BackendConnectionPool(int maxIdlePerServer, int idleTimeout, int maxLifetime) {
+        this.maxIdlePerServer = maxIdlePerServer;
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * when disabled, idle connections are closed
+     */
+    @ThreadSafe
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * @return count of idle connections in the pool
+     */
+    public int idleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * close all idle connections
+     */
+    @ThreadSafe
+    public void clear() {
+        for (LoopPool p : pools.values()) {
+            p.loop.getSelectorEventLoop().runOnLoop(p::clear);
+        }
+    }
+
+    /**
+     * dispatch events to the current owner of the connection
+     */
+    static class SwitchableHandler implements ConnectableConnectionHandler {
+        ConnectableConnectionHandler target;
+
+        SwitchableHandler(ConnectableConnectionHandler target) {
+            this.target = target;
+        }
+
+        @Override
+        public void connected(ConnectableConnectionHandlerContext ctx) {
+            target.connected(ctx);
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            target.readable(ctx);
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            target.writable(ctx);
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            target.exception(ctx, err);
+        }
+
+        @Override
+        public void remoteClosed(ConnectionHandlerContext ctx) {
+            target.remoteClosed(ctx);
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            target.closed(ctx);
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            target.removed(ctx);
+        }
+    }
+
+    static class PooledConnection {
+        final ConnectableConnection conn;
+        final long createTime;
+        final SwitchableHandler handler;
+
+        PooledConnection(ConnectableConnection conn, long createTime, SwitchableHandler handler) {
+            this.conn = conn;
+            this.createTime = createTime;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * take an idle connection out of the pool, the caller should switch the handler to its own handler.
+     * must be called on the loop thread
+     *
+     * @return the connection or null if not found
+     */
+    PooledConnection borrow(NetEventLoop loop, String key, IPPort remote) {
+        LoopPool p = pools.get(loop);
+        if (p == null) {
+            return null;
+        }
+        return p.borrow(new Key(key, remote));
+    }
+
+    /**
+     * put the connection into the pool, the handler is switched to the pool if succeeded.
+     * must be called on the loop thread
+     *
+     * @return true if the connection is pooled, false if the caller should close the connection
+     */
+    boolean release(NetEventLoop loop, String key, ConnectableConnection conn, long createTime, SwitchableHandler handler) {
+        if (!enabled || loop.getSelectorEventLoop().isClosed()) {
+            return false;
+        }
+        if (!reusable(conn, createTime)) {
+            return false;
+        }
+        return pools.computeIfAbsent(loop, LoopPool::new).release(new Key(key, conn.remote), conn, createTime, handler);
+    }
+
+    private boolean reusable(ConnectableConnection conn, long createTime) {
+        if (conn.isClosed() || conn.isWriteClosed() || conn.isRemoteClosed()) {
+            return false;
+        }
+        if (Config.currentTimestamp - createTime > maxLifetime) {
+            assert Logger.lowLevelDebug("backend connection " + conn + " exceeds max lifetime");
+            return false;
+        }
+        Connector connector = conn.getConnector();
+        return connector == null || (connector.isValid() && connector.isHealthy());
+    }
+
+    private static class Key {
+        final String key;
+        final IPPort remote;
+
+        Key(String key, IPPort remote) {
+            this.key = key;
+            this.remote = remote;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return key.equals(that.key) && remote.equals(that.remote);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, remote);
+        }
+    }
+
+    private class LoopPool {
+        private final NetEventLoop loop;
+        private final Map<Key, ArrayDeque<Entry>> idle = new HashMap<>();
+        private PeriodicEvent sweepEvent;
+
+        LoopPool(NetEventLoop loop) {
+            this.loop = loop;
+        }
+
+        PooledConnection borrow(Key key) {
+            ArrayDeque<Entry> entries = idle.get(key);
+            if (entries == null) {
+                return null;
+            }
+            Entry e;
+            // use the most recently returned connection, so that others can be closed by idle timeout when the load goes down
+            while ((e = entries.pollLast()) != null) {
+                detach(e, entries);
+                if (reusable(e.conn, e.createTime)) {
+                    assert Logger.lowLevelDebug("borrowed backend connection " + e.conn + " from pool");
+                    return new PooledConnection(e.conn, e.createTime, e.handler);
+                }
+                e.conn.close();
+            }
+            return null;
+        }
+
+        boolean release(Key key, ConnectableConnection conn, long createTime, SwitchableHandler handler) {
+            ArrayDeque<Entry> entries = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (entries.size() >= maxIdlePerServer) {
+                if (entries.isEmpty()) {
+                    idle.remove(key);
+                }
+                return false;
+            }
+            Entry e = new Entry(key, conn, createTime, handler);
+            handler.target = e;
+            entries.addLast(e);
+            idleCount.incrementAndGet();
+            if (sweepEvent == null) {
+                sweepEvent = loop.getSelectorEventLoop().period(SWEEP_INTERVAL, this::sweep);
+            }
+            assert Logger.lowLevelDebug("released backend connection " + conn + " to pool");
+            return true;
+        }
+
+        private void detach(Entry e, ArrayDeque<Entry> entries) {
+            e.detached = true;
+            idleCount.decrementAndGet();
+            if (entries.isEmpty()) {
+                idle.remove(e.key);
+                if (idle.isEmpty()) {
+                    if (sweepEvent != null) {
+                        sweepEvent.cancel();
+                        sweepEvent = null;
+                    }
+                    pools.remove(loop, this);
+                }
+            }
+        }
+
+        void evict(Entry e) {
+            if (e.detached) {
+                return;
+            }
+            ArrayDeque<Entry> entries = idle.get(e.key);
+            entries.remove(e);
+            detach(e, entries);
+            e.conn.close();
+        }
+
+        private void sweep() {
+            long now = Config.currentTimestamp;
+            ArrayList<Entry> toEvict = new ArrayList<>();
+            for (ArrayDeque<Entry> entries : idle.values()) {
+                for (Entry e : entries) {
+                    if (now - e.idleSince > idleTimeout || !reusable(e.conn, e.createTime)) {
+                        toEvict.add(e);
+                    }
+                }
+            }
+            for (Entry e : toEvict) {
+                assert Logger.lowLevelDebug("evict idle backend connection " + e.conn);
+                evict(e);
+            }
+        }
+
+        void clear() {
+            ArrayList<Entry> all = new ArrayList<>();
+            for (ArrayDeque<Entry> entries : idle.values()) {
+                all.addAll(entries);
+            }
+            for (Entry e : all) {
+                evict(e);
+            }
+        }
+
+        // the entry handles events of the connection when it's idle
+        private class Entry implements ConnectableConnectionHandler {
+            final Key key;
+            final ConnectableConnection conn;
+            final long createTime;
+            final SwitchableHandler handler;
+            final long idleSince = Config.currentTimestamp;
+            boolean detached = false; // true when the entry is taken out of the pool
+
+            Entry(Key key, ConnectableConnection conn, long createTime, SwitchableHandler handler) {
+                this.key = key;
+                this.conn = conn;
+                this.createTime = createTime;
+                this.handler = handler;
+            }
+
+            @Override
+            public void connected(ConnectableConnectionHandlerContext ctx) {
+                // ignore the event, the connection is already connected
+            }
+
+            @Override
+            public void readable(ConnectionHandlerContext ctx) {
+                // nothing is expected from an idle connection
+                assert Logger.lowLevelDebug("idle backend connection " + conn + " receives data");
+                evict(this);
+            }
+
+            @Override
+            public void writable(ConnectionHandlerContext ctx) {
+                // ignore the event
+            }
+
+            @Override
+            public void exception(ConnectionHandlerContext ctx, IOException err) {
+                assert Logger.lowLevelDebug("idle backend connection " + conn + " got exception: " + err);
+                evict(this);
+            }
+
+            @Override
+            public void remoteClosed(ConnectionHandlerContext ctx) {
+                evict(this);
+            }
+
+            @Override
+            public void closed(ConnectionHandlerContext ctx) {
+                evict(this);
+            }
+
+            @Override
+            public void removed(ConnectionHandlerContext ctx) {
+                evict(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package vproxy.component.proxy;
+
+import vproxy.base.Config;
+import vproxy.base.connection.*;
+import vproxy.base.selector.PeriodicEvent;
+import vproxy.base.util.LogType;
+import vproxy.base.util.Logger;
+import vproxy.base.util.RingBuffer;
+import vproxy.base.util.ThreadSafe;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
+import vproxy.vfd.IPPort;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multiplex streams of h2 frontend connections onto a few h2 backend connections.<br>
+ * Backend connections are grouped by the event loop and the remote address,
+ * each frontend stream is mapped to a stream on the least loaded backend connection which
+ * has not reached the SETTINGS_MAX_CONCURRENT_STREAMS of the server.
+ * When all connections are full and the connection limit is reached, streams wait until a stream finishes.
+ * <p>
+ * Backend connections without streams are closed after the idle timeout,
+ * and connections to a removed or unhealthy server are closed when their streams finish.
+ */
+public class Http2Multiplexer {
+    private static final int SWEEP_INTERVAL = 1000;
+
+    private final int maxConnectionsPerServer;
+    private final int maxStreamsPerConnection;
+    private final int idleTimeout;
+    private volatile boolean enabled = false;
+
+    private final ConcurrentHashMap<NetEventLoop, LoopMux> muxes = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger streamCount = new AtomicInteger();
+
+    /**
+     * @param maxConnectionsPerServer max backend connections of one server on each event loop
+     * @param maxStreamsPerConnection max concurrent streams on one backend connection
+     * @param idleTimeout             milliseconds for a backend connection without streams to stay open
+     */
+    public Http2Multiplexer(int maxConnectionsPerServer, int maxStreamsPerConnection, int idleTimeout) {
+        this.maxConnectionsPerServer = maxConnectionsPerServer;
+        this.maxStreamsPerConnection = maxStreamsPerConnection;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * when disabled, new frontend connections are proxied without multiplexing,
+     * and the backend connections are closed when their streams finish
+     */
+    @ThreadSafe
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            for (LoopMux m : muxes.values()) {
+                m.loop.getSelectorEventLoop().runOnLoop(m::drain);
+            }
+        }
+    }
+
+    /**
+     * @return count of backend connections
+     */
+    public int connectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return count of streams opened on backend connections
+     */
+    public int streamCount() {
+        return streamCount.get();
+    }
+
+    /**
+     * handle a new frontend connection, events of the connection and its streams are handled on the loop
+     */
+    void handle(ProxyNetConfig config, NetEventLoop loop, Connection frontendConnection) {
+        Http2MuxFrontend frontend = new Http2MuxFrontend(this, config, loop, frontendConnection);
+        try {
+            loop.addConnection(frontendConnection, null, frontend);
+        } catch (IOException e) {
+            Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
+            frontendConnection.close(true);
+        }
+    }
+
+    /**
+     * open the stream on a backend connection, or keep it waiting
+     */
+    void dispatch(Http2MuxStream s) {
+        LoopMux m = muxes.computeIfAbsent(s.frontend.loop, LoopMux::new);
+        ServerMux server = m.servers.computeIfAbsent(s.connector.remote, r -> new ServerMux(m, r));
+        server.waiting.add(s);
+        server.dispatchWaiting();
+    }
+
+    private class LoopMux {
+        private final NetEventLoop loop;
+        private final Map<IPPort, ServerMux> servers = new HashMap<>();
+        private PeriodicEvent sweepEvent;
+
+        LoopMux(NetEventLoop loop) {
+            this.loop = loop;
+        }
+
+        void added() {
+            if (sweepEvent == null) {
+                sweepEvent = loop.getSelectorEventLoop().period(SWEEP_INTERVAL, this::sweep);
+            }
+        }
+
+        void removeIfEmpty(ServerMux server) {
+            if (!server.backends.isEmpty() || !server.waiting.isEmpty()) {
+                return;
+            }
+            servers.remove(server.remote, server);
+            if (servers.isEmpty()) {
+                if (sweepEvent != null) {
+                    sweepEvent.cancel();
+                    sweepEvent = null;
+                }
+                muxes.remove(loop, this);
+            }
+        }
+
+        private void sweep() {
+            long now = Config.currentTimestamp;
+            for (ServerMux server : new ArrayList<>(servers.values())) {
+                for (Http2MuxBackend b : new ArrayList<>(server.backends)) {
+                    if (!b.connector.isValid() || !b.connector.isHealthy()) {
+                        b.draining = true;
+                    }
+                    if (b.streams.isEmpty() && (b.draining || now - b.idleSince > idleTimeout)) {
+                        assert Logger.lowLevelDebug("close idle h2 mux backend connection " + b);
+                        b.close();
+                    }
+                }
+            }
+        }
+
+        void drain() {
+            for (ServerMux server : new ArrayList<>(servers.values())) {
+                for (Http2MuxBackend b : new ArrayList<>(server.backends)) {
+                    b.draining = true;
+                    if (b.streams.isEmpty()) {
+                        b.close();
+                    }
+                }
+            }
+        }
+    }
+
+    class ServerMux {
+        private final LoopMux m;
+        private final IPPort remote;
+        private final List<Http2MuxBackend> backends = new ArrayList<>();
+        private final ArrayDeque<Http2MuxStream> waiting = new ArrayDeque<>();
+
+        ServerMux(LoopMux m, IPPort remote) {
+            this.m = m;
+            this.remote = remote;
+        }
+
+        int maxStreamsPerConnection() {
+            return maxStreamsPerConnection;
+        }
+
+        void streamOpened() {
+            streamCount.incrementAndGet();
+        }
+
+        void streamDone(Http2MuxBackend b) {
+            streamCount.decrementAndGet();
+            if (b.draining && b.streams.isEmpty()) {
+                b.close(); // will call removed()
+                return;
+            }
+            dispatchWaiting();
+        }
+
+        void removed(Http2MuxBackend b) {
+            if (!backends.remove(b)) {
+                return;
+            }
+            connectionCount.decrementAndGet();
+            if (!b.isConnected()) {
+                // the server cannot be reached, do not retry for the waiting streams
+                refuseWaiting();
+            } else {
+                dispatchWaiting();
+            }
+            m.removeIfEmpty(this);
+        }
+
+        void dispatchWaiting() {
+            Http2MuxStream s;
+            while ((s = waiting.peekFirst()) != null) {
+                if (s.reset) {
+                    waiting.pollFirst();
+                    continue;
+                }
+                Http2MuxBackend chosen = null;
+                for (Http2MuxBackend b : backends) {
+                    if (b.canOpen() && (chosen == null || b.streams.size() < chosen.streams.size())) {
+                        chosen = b;
+                    }
+                }
+                if (chosen != null) {
+                    waiting.pollFirst();
+                    chosen.open(s);
+                    continue;
+                }
+                if (backends.size() >= maxConnectionsPerServer) {
+                    break; // wait for running streams to finish
+                }
+                if (connect(s) == null) {
+                    if (backends.isEmpty()) {
+                        refuseWaiting();
+                    }
+                    break;
+                }
+            }
+            m.removeIfEmpty(this);
+        }
+
+        private void refuseWaiting() {
+            Http2MuxStream s;
+            while ((s = waiting.pollFirst()) != null) {
+                s.reset(Http2MuxStream.REFUSED_STREAM, null);
+            }
+        }
+
+        private Http2MuxBackend connect(Http2MuxStream s) {
+            ProxyNetConfig config = s.frontend.config;
+            Connector connector = s.connector;
+            ConnectableConnection conn;
+            RingBufferAllocator allocator = config.bufferAllocator;
+            try {
+                conn = connector.connect(
+                    new ConnectionOpts().setTimeout(config.timeout),
+                    allocator == null ? RingBuffer.allocateDirect(config.inBufferSize) : allocator.allocateDirect(config.inBufferSize),
+                    allocator == null ? RingBuffer.allocateDirect(config.outBufferSize) : allocator.allocateDirect(config.outBufferSize));
+            } catch (IOException e) {
+                Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
+                return null;
+            }
+            Http2MuxBackend b = new Http2MuxBackend(this, connector, conn, maxStreamsPerConnection);
+            try {
+                m.loop.addConnectableConnection(conn, null, b);
+            } catch (IOException e) {
+                Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add connectable connection " + conn + " to loop failed");
+                conn.close(true);
+                return null;
+            }
+            assert Logger.lowLevelDebug("new h2 mux backend connection " + conn);
+            backends.add(b);
+            connectionCount.incrementAndGet();
+            m.added();
+            return b;
+        }
+    }
+}
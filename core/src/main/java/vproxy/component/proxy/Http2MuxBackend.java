@@ -0,0 +1,193 @@
+package vproxy.component.proxy;
+
+import vproxy.base.Config;
+import vproxy.base.connection.*;
+import vproxy.base.processor.httpbin.BinaryHttpSubContext;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.processor.httpbin.frame.GoAwayFrame;
+import vproxy.base.processor.httpbin.frame.PushPromiseFrame;
+import vproxy.base.processor.httpbin.frame.SettingsFrame;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A backend h2 connection shared by streams of frontend connections on the same event loop.
+ */
+class Http2MuxBackend extends Http2MuxEndpoint implements ConnectableConnectionHandler {
+    private static final ByteArray CLIENT_FIRST_FRAME;
+
+    static {
+        SettingsFrame settings = SettingsFrame.newClientSettings();
+        // push promises cannot be mapped to a frontend stream
+        settings.enablePush = 0;
+        CLIENT_FIRST_FRAME = BinaryHttpSubContext.H2_PREFACE.concat(settings.serializeH2(null)).arrange();
+    }
+
+    final Http2Multiplexer.ServerMux server;
+    final Connector connector;
+    private boolean connected = false;
+    private int nextStreamId = 1;
+    private int maxConcurrentStreams;
+    boolean draining = false; // no more streams are opened on the connection
+    long idleSince = Config.currentTimestamp;
+
+    Http2MuxBackend(Http2Multiplexer.ServerMux server, Connector connector, ConnectableConnection conn, int maxConcurrentStreams) {
+        super(conn, true);
+        this.server = server;
+        this.connector = connector;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        write(CLIENT_FIRST_FRAME);
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    boolean canOpen() {
+        return !closed && !draining && streams.size() < maxConcurrentStreams;
+    }
+
+    void open(Http2MuxStream s) {
+        int streamId = nextStreamId;
+        nextStreamId += 2;
+        if (nextStreamId < 0) {
+            // stream ids are used up, new streams go to another connection
+            draining = true;
+        }
+        s.opened(this, streamId);
+        s.request.sendWindow = initialSendWindow;
+        streams.put(streamId, s);
+        server.streamOpened();
+        assert Logger.lowLevelDebug("h2 mux stream " + s + " opened");
+        send(s);
+    }
+
+    @Override
+    int streamIdOf(Http2MuxStream s) {
+        return s.backendStreamId;
+    }
+
+    @Override
+    Http2MuxStream.Flow inbound(Http2MuxStream s) {
+        return s.response;
+    }
+
+    @Override
+    Http2MuxStream.Flow outbound(Http2MuxStream s) {
+        return s.request;
+    }
+
+    @Override
+    Http2MuxEndpoint peerOf(Http2MuxStream s) {
+        return s.frontend;
+    }
+
+    @Override
+    void detach(Http2MuxStream s) {
+        if (streams.remove(s.backendStreamId) == null) {
+            return;
+        }
+        idleSince = Config.currentTimestamp;
+        server.streamDone(this);
+    }
+
+    @Override
+    boolean canFlush() {
+        return connected;
+    }
+
+    @Override
+    void onPreface() {
+        // the server does not send preface
+    }
+
+    @Override
+    void onSettings(SettingsFrame settings) {
+        if (settings.maxConcurrentStreamsSet) {
+            maxConcurrentStreams = Math.min(server.maxStreamsPerConnection(), settings.maxConcurrentStreams);
+            // more streams may be opened
+            server.dispatchWaiting();
+        }
+    }
+
+    @Override
+    void onHeaders(int streamId, List<Header> headers, boolean endStream) {
+        Http2MuxStream s = streams.get(streamId);
+        if (s == null || s.response.endReceived) {
+            assert Logger.lowLevelDebug("got headers of a closed stream " + streamId + " from " + conn);
+            return;
+        }
+        s.response.add(new Http2MuxStream.Chunk(null, headers, endStream));
+        s.frontend.send(s);
+        s.progress();
+    }
+
+    @Override
+    void onPushPromise(PushPromiseFrame pushPromise) {
+        // push is disabled in the settings, refuse it anyway
+        writeRstStream(pushPromise.promisedStreamId, Http2MuxStream.REFUSED_STREAM);
+    }
+
+    @Override
+    void onGoAway(GoAwayFrame goAway) {
+        assert Logger.lowLevelDebug("h2 mux backend " + conn + " got goaway, last stream id " + goAway.lastStreamId);
+        draining = true;
+        for (Http2MuxStream s : new ArrayList<>(streams.values())) {
+            if (s.backendStreamId > goAway.lastStreamId) {
+                // the server did not process the stream
+                s.reset(Http2MuxStream.REFUSED_STREAM, this);
+            }
+        }
+        if (streams.isEmpty()) {
+            close();
+        }
+    }
+
+    @Override
+    void onClose() {
+        resetAll(connected ? Http2MuxStream.INTERNAL_ERROR : Http2MuxStream.REFUSED_STREAM);
+        server.removed(this);
+    }
+
+    @Override
+    public void connected(ConnectableConnectionHandlerContext ctx) {
+        assert Logger.lowLevelDebug("h2 mux backend " + conn + " connected");
+        connected = true;
+        flush();
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readFrames();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flush();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        assert Logger.lowLevelDebug("h2 mux backend connection " + conn + " got exception: " + err);
+        close();
+    }
+
+    @Override
+    public void remoteClosed(ConnectionHandlerContext ctx) {
+        close();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        close();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        close();
+    }
+}
@@ -0,0 +1,410 @@
+package vproxy.component.proxy;
+
+import vproxy.base.connection.Connection;
+import vproxy.base.http.Http2Decoder;
+import vproxy.base.processor.httpbin.BinaryHttpSubContext;
+import vproxy.base.processor.httpbin.HttpFrame;
+import vproxy.base.processor.httpbin.HttpFrameType;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.processor.httpbin.frame.*;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.LogType;
+import vproxy.base.util.Logger;
+import vproxy.base.util.RingBuffer;
+import vproxy.base.util.nio.ByteArrayChannel;
+
+import java.util.*;
+
+/**
+ * One side of a multiplexed h2 stream: a frontend connection or a shared backend connection.<br>
+ * Frames are decoded and then encoded again for the other side, the stream id and the hpack state are per connection.
+ * DATA frames are sent within the flow control windows of the receiving side,
+ * and the bytes are returned to the sending side with WINDOW_UPDATE only after they are forwarded,
+ * so the bytes held by the proxy are limited by the windows.
+ */
+abstract class Http2MuxEndpoint {
+    static final int WINDOW_SIZE = SettingsFrame.DEFAULT_WINDOW_SIZE;
+    private static final int CREDIT_THRESHOLD = WINDOW_SIZE / 2;
+    private static final ByteArray SETTINGS_ACK = SettingsFrame.newAck().serializeH2(null).arrange();
+
+    final Connection conn;
+    private final BinaryHttpSubContext codec;
+    private final Http2Decoder decoder;
+    private final ArrayDeque<ByteArrayChannel> writeQueue = new ArrayDeque<>();
+    private boolean isFlushing = false;
+    boolean closed = false;
+
+    // key is the stream id on this connection
+    final Map<Integer, Http2MuxStream> streams = new HashMap<>();
+    // streams with data to send but the connection window is used up
+    private final LinkedHashSet<Http2MuxStream> blocked = new LinkedHashSet<>();
+
+    private int connectionSendWindow = WINDOW_SIZE;
+    int initialSendWindow = WINDOW_SIZE;
+    private int maxFrameSize = SettingsFrame.DEFAULT_MAX_FRAME_SIZe;
+    private int connectionCredit = 0;
+
+    // the header block which is continued by CONTINUATION frames
+    private int headersStreamId = 0;
+    private List<Header> headersBlock = null;
+    private boolean headersEndStream = false;
+
+    Http2MuxEndpoint(Connection conn, boolean isClient) {
+        this.conn = conn;
+        this.decoder = new Http2Decoder(isClient);
+        this.codec = decoder.getCtx();
+    }
+
+    /**
+     * @return id of the stream on this connection
+     */
+    abstract int streamIdOf(Http2MuxStream s);
+
+    /**
+     * @return the flow received from this connection
+     */
+    abstract Http2MuxStream.Flow inbound(Http2MuxStream s);
+
+    /**
+     * @return the flow sent to this connection
+     */
+    abstract Http2MuxStream.Flow outbound(Http2MuxStream s);
+
+    /**
+     * @return the other side of the stream, or null if not determined yet
+     */
+    abstract Http2MuxEndpoint peerOf(Http2MuxStream s);
+
+    abstract void detach(Http2MuxStream s);
+
+    abstract void onPreface();
+
+    abstract void onSettings(SettingsFrame settings);
+
+    abstract void onHeaders(int streamId, List<Header> headers, boolean endStream);
+
+    abstract void onPushPromise(PushPromiseFrame pushPromise);
+
+    abstract void onGoAway(GoAwayFrame goAway);
+
+    /**
+     * called when the connection is closed, streams should be reset
+     */
+    abstract void onClose();
+
+    boolean canFlush() {
+        return true;
+    }
+
+    void readFrames() {
+        RingBuffer in = conn.getInBuffer();
+        while (!closed && in.used() > 0) {
+            if (decoder.feed(in) != 0) {
+                if (decoder.getErrorMessage() != null) {
+                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, "decoding h2 frames from " + conn + " failed: " + decoder.getErrorMessage());
+                    close();
+                }
+                return; // want more data
+            }
+            HttpFrame frame = decoder.getResult();
+            assert Logger.lowLevelDebug("h2 mux got frame from " + conn + ": " + frame);
+            handleFrame(frame);
+        }
+    }
+
+    private void handleFrame(HttpFrame frame) {
+        if (headersBlock != null && frame.type != HttpFrameType.CONTINUATION) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "expecting continuation frame from " + conn + ", but got " + frame.type);
+            close();
+            return;
+        }
+        switch (frame.type) {
+            case PREFACE:
+                onPreface();
+                break;
+            case SETTINGS:
+                handleSettings((SettingsFrame) frame);
+                break;
+            case PING:
+                handlePing((PingFrame) frame);
+                break;
+            case WINDOW_UPDATE:
+                handleWindowUpdate((WindowUpdateFrame) frame);
+                break;
+            case DATA:
+                handleData((DataFrame) frame);
+                break;
+            case HEADERS:
+                HeadersFrame headers = (HeadersFrame) frame;
+                if (headers.endHeaders) {
+                    onHeaders(headers.streamId, headers.headers, headers.endStream);
+                } else {
+                    headersStreamId = headers.streamId;
+                    headersBlock = new ArrayList<>(headers.headers);
+                    headersEndStream = headers.endStream;
+                }
+                break;
+            case CONTINUATION:
+                handleContinuation((ContinuationFrame) frame);
+                break;
+            case RST_STREAM:
+                Http2MuxStream s = streams.get(frame.streamId);
+                if (s != null) {
+                    s.reset(((RstStreamFrame) frame).errorCode, this);
+                }
+                break;
+            case GOAWAY:
+                onGoAway((GoAwayFrame) frame);
+                break;
+            case PUSH_PROMISE:
+                onPushPromise((PushPromiseFrame) frame);
+                break;
+            default:
+                // PRIORITY is ignored, streams are sent in the order they are received
+                break;
+        }
+    }
+
+    private void handleContinuation(ContinuationFrame frame) {
+        if (headersBlock == null || frame.streamId != headersStreamId) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "unexpected continuation frame from " + conn + ": " + frame);
+            close();
+            return;
+        }
+        headersBlock.addAll(frame.headers);
+        if (frame.endHeaders) {
+            List<Header> headers = headersBlock;
+            headersBlock = null;
+            onHeaders(headersStreamId, headers, headersEndStream);
+        }
+    }
+
+    private void handleSettings(SettingsFrame settings) {
+        if (settings.ack) {
+            return;
+        }
+        if (settings.headerTableSizeSet) {
+            codec.getHPack().setEncoderMaxHeaderTableSize(settings.headerTableSize);
+        }
+        if (settings.maxFrameSizeSet) {
+            maxFrameSize = settings.maxFrameSize;
+        }
+        int delta = 0;
+        if (settings.initialWindowSizeSet) {
+            delta = settings.initialWindowSize - initialSendWindow;
+            initialSendWindow = settings.initialWindowSize;
+            for (Http2MuxStream s : streams.values()) {
+                outbound(s).sendWindow += delta;
+            }
+        }
+        onSettings(settings);
+        write(SETTINGS_ACK);
+        if (delta > 0) {
+            for (Http2MuxStream s : new ArrayList<>(streams.values())) {
+                send(s);
+            }
+        }
+    }
+
+    private void handlePing(PingFrame ping) {
+        if (ping.ack) {
+            return;
+        }
+        ping.ack = true;
+        ping.flags = 0;
+        write(ping.serializeH2(codec));
+    }
+
+    private void handleWindowUpdate(WindowUpdateFrame windowUpdate) {
+        int incr = windowUpdate.windowSizeIncrement;
+        if (windowUpdate.streamId == 0) {
+            connectionSendWindow += incr;
+            if (blocked.isEmpty()) {
+                return;
+            }
+            List<Http2MuxStream> ls = new ArrayList<>(blocked);
+            blocked.clear();
+            for (Http2MuxStream s : ls) {
+                send(s);
+            }
+        } else {
+            Http2MuxStream s = streams.get(windowUpdate.streamId);
+            if (s == null) {
+                return;
+            }
+            outbound(s).sendWindow += incr;
+            send(s);
+        }
+    }
+
+    private void handleData(DataFrame data) {
+        Http2MuxStream s = streams.get(data.streamId);
+        Http2MuxStream.Flow flow = s == null ? null : inbound(s);
+        if (flow == null || flow.endReceived) {
+            // the stream is already closed, but the bytes still count in the connection window
+            returnConnectionCredit(data.length);
+            return;
+        }
+        // padding is not forwarded
+        returnCredit(s, flow, data.length - data.data.length());
+        flow.add(new Http2MuxStream.Chunk(data.data, null, data.endStream));
+        Http2MuxEndpoint peer = peerOf(s);
+        if (peer != null) {
+            peer.send(s);
+        }
+        s.progress();
+    }
+
+    /**
+     * send the pending frames of the stream to this connection
+     */
+    void send(Http2MuxStream s) {
+        if (closed || s.reset) {
+            return;
+        }
+        Http2MuxStream.Flow flow = outbound(s);
+        int streamId = streamIdOf(s);
+        Http2MuxEndpoint source = peerOf(s);
+        Http2MuxStream.Chunk c;
+        while ((c = flow.pending.peekFirst()) != null) {
+            if (c.headers != null) {
+                flow.pending.pollFirst();
+                writeHeaders(streamId, c.headers, c.end);
+            } else {
+                int len = c.data.length();
+                int n = Math.min(len, Math.min(maxFrameSize, Math.min(flow.sendWindow, connectionSendWindow)));
+                if (n <= 0 && len > 0) {
+                    if (connectionSendWindow <= 0) {
+                        blocked.add(s);
+                    }
+                    break; // wait for window update
+                }
+                boolean whole = n == len;
+                writeData(streamId, whole ? c.data : c.data.sub(0, n), whole && c.end);
+                flow.sendWindow -= n;
+                connectionSendWindow -= n;
+                flow.pendingBytes -= n;
+                if (source != null) {
+                    source.returnCredit(s, flow, n);
+                }
+                if (!whole) {
+                    c.data = c.data.sub(n, len - n);
+                    continue;
+                }
+                flow.pending.pollFirst();
+            }
+            if (c.end) {
+                flow.endSent = true;
+            }
+        }
+        s.progress();
+    }
+
+    /**
+     * return bytes received from this connection to the flow control windows
+     */
+    void returnCredit(Http2MuxStream s, Http2MuxStream.Flow flow, int n) {
+        returnConnectionCredit(n);
+        if (closed || n == 0 || flow.endReceived || s.reset) {
+            return;
+        }
+        flow.credit += n;
+        if (flow.credit >= CREDIT_THRESHOLD) {
+            writeWindowUpdate(streamIdOf(s), flow.credit);
+            flow.credit = 0;
+        }
+    }
+
+    void returnConnectionCredit(int n) {
+        if (closed || n == 0) {
+            return;
+        }
+        connectionCredit += n;
+        if (connectionCredit >= CREDIT_THRESHOLD) {
+            writeWindowUpdate(0, connectionCredit);
+            connectionCredit = 0;
+        }
+    }
+
+    private static ByteArray frameHeader(int len, HttpFrameType type, int flags, int streamId) {
+        return ByteArray.allocate(BinaryHttpSubContext.H2_HEADER_SIZE)
+            .int24(0, len).set(3, (byte) type.h2type).set(4, (byte) flags).int32(5, streamId);
+    }
+
+    private void writeFrame(HttpFrameType type, int flags, int streamId, ByteArray payload) {
+        ByteArray header = frameHeader(payload.length(), type, flags, streamId);
+        write(payload.length() == 0 ? header : header.concat(payload));
+    }
+
+    void writeHeaders(int streamId, List<Header> headers, boolean endStream) {
+        ByteArray block = codec.getHPack().encode(headers);
+        int len = block.length();
+        int n = Math.min(len, maxFrameSize);
+        writeFrame(HttpFrameType.HEADERS, (endStream ? 0x1 : 0) | (n == len ? 0x4 : 0), streamId, block.sub(0, n));
+        int off = n;
+        while (off < len) {
+            n = Math.min(len - off, maxFrameSize);
+            writeFrame(HttpFrameType.CONTINUATION, off + n == len ? 0x4 : 0, streamId, block.sub(off, n));
+            off += n;
+        }
+    }
+
+    private void writeData(int streamId, ByteArray data, boolean endStream) {
+        writeFrame(HttpFrameType.DATA, endStream ? 0x1 : 0, streamId, data);
+    }
+
+    void writeRstStream(int streamId, int errorCode) {
+        writeFrame(HttpFrameType.RST_STREAM, 0, streamId, ByteArray.allocate(4).int32(0, errorCode));
+    }
+
+    private void writeWindowUpdate(int streamId, int incr) {
+        writeFrame(HttpFrameType.WINDOW_UPDATE, 0, streamId, ByteArray.allocate(4).int32(0, incr));
+    }
+
+    void write(ByteArray data) {
+        if (closed) {
+            return;
+        }
+        writeQueue.add(data.toFullChannel());
+        flush();
+    }
+
+    void flush() {
+        if (closed || isFlushing || !canFlush()) {
+            return;
+        }
+        isFlushing = true;
+        ByteArrayChannel chnl;
+        while ((chnl = writeQueue.peekFirst()) != null) {
+            conn.getOutBuffer().storeBytesFrom(chnl);
+            if (chnl.used() != 0) {
+                break; // the buffer is full, wait for writable event
+            }
+            writeQueue.pollFirst();
+        }
+        isFlushing = false;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        assert Logger.lowLevelDebug("closing h2 mux connection " + conn);
+        writeQueue.clear();
+        blocked.clear();
+        conn.close();
+        onClose();
+    }
+
+    void resetAll(int errorCode) {
+        for (Http2MuxStream s : new ArrayList<>(streams.values())) {
+            s.reset(errorCode, this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return conn.toString();
+    }
+}
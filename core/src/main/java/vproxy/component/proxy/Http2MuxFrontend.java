@@ -0,0 +1,190 @@
+package vproxy.component.proxy;
+
+import vproxy.base.connection.Connection;
+import vproxy.base.connection.ConnectionHandler;
+import vproxy.base.connection.ConnectionHandlerContext;
+import vproxy.base.connection.Connector;
+import vproxy.base.connection.NetEventLoop;
+import vproxy.base.processor.Hint;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.processor.httpbin.frame.GoAwayFrame;
+import vproxy.base.processor.httpbin.frame.PushPromiseFrame;
+import vproxy.base.processor.httpbin.frame.SettingsFrame;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.LogType;
+import vproxy.base.util.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A frontend h2 connection, its streams are dispatched to the shared backend connections by the {@link Http2Multiplexer}.
+ */
+class Http2MuxFrontend extends Http2MuxEndpoint implements ConnectionHandler {
+    private static final int MAX_CONCURRENT_STREAMS = 128;
+    private static final ByteArray SERVER_SETTINGS;
+
+    static {
+        SettingsFrame settings = SettingsFrame.newServerSettings();
+        settings.maxConcurrentStreams = MAX_CONCURRENT_STREAMS;
+        // extended CONNECT is not supported when multiplexing
+        settings.enableConnectProtocolSet = false;
+        SERVER_SETTINGS = settings.serializeH2(null).arrange();
+    }
+
+    final Http2Multiplexer mux;
+    final ProxyNetConfig config;
+    final NetEventLoop loop;
+    private int lastStreamId = 0;
+
+    Http2MuxFrontend(Http2Multiplexer mux, ProxyNetConfig config, NetEventLoop loop, Connection conn) {
+        super(conn, false);
+        this.mux = mux;
+        this.config = config;
+        this.loop = loop;
+    }
+
+    @Override
+    int streamIdOf(Http2MuxStream s) {
+        return s.frontendStreamId;
+    }
+
+    @Override
+    Http2MuxStream.Flow inbound(Http2MuxStream s) {
+        return s.request;
+    }
+
+    @Override
+    Http2MuxStream.Flow outbound(Http2MuxStream s) {
+        return s.response;
+    }
+
+    @Override
+    Http2MuxEndpoint peerOf(Http2MuxStream s) {
+        return s.backend;
+    }
+
+    @Override
+    void detach(Http2MuxStream s) {
+        streams.remove(s.frontendStreamId);
+    }
+
+    @Override
+    void onPreface() {
+        write(SERVER_SETTINGS);
+    }
+
+    @Override
+    void onSettings(SettingsFrame settings) {
+        // nothing to do besides the flow control settings
+    }
+
+    @Override
+    void onHeaders(int streamId, List<Header> headers, boolean endStream) {
+        Http2MuxStream s = streams.get(streamId);
+        if (s != null) {
+            // trailers
+            if (s.request.endReceived) {
+                s.reset(Http2MuxStream.STREAM_CLOSED, null);
+                return;
+            }
+            s.request.add(new Http2MuxStream.Chunk(null, headers, endStream));
+            if (s.backend != null) {
+                s.backend.send(s);
+            }
+            s.progress();
+            return;
+        }
+        if (streamId % 2 == 0 || streamId <= lastStreamId) {
+            assert Logger.lowLevelDebug("invalid stream id " + streamId + " for new stream from " + conn);
+            writeRstStream(streamId, Http2MuxStream.STREAM_CLOSED);
+            return;
+        }
+        lastStreamId = streamId;
+        if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+            writeRstStream(streamId, Http2MuxStream.REFUSED_STREAM);
+            return;
+        }
+
+        String host = null;
+        String authority = null;
+        String path = null;
+        List<Header> forward = new ArrayList<>(headers.size() + 2);
+        for (Header h : headers) {
+            if (h.keyStr.equalsIgnoreCase("x-forwarded-for") || h.keyStr.equalsIgnoreCase("x-client-port")) {
+                continue;
+            }
+            if (h.keyStr.equalsIgnoreCase("host")) {
+                host = new String(h.value);
+            } else if (h.keyStr.equalsIgnoreCase(":authority")) {
+                authority = new String(h.value);
+            } else if (h.keyStr.equalsIgnoreCase(":path")) {
+                path = new String(h.value);
+            }
+            forward.add(h);
+        }
+        forward.add(new Header("x-forwarded-for", conn.remote.getAddress().formatToIPString()));
+        forward.add(new Header("x-client-port", conn.remote.getPort() + ""));
+
+        Connector connector = config.connGen.genConnector(conn, Hint.ofHostUri(host == null ? authority : host, path));
+        if (connector == null) {
+            assert Logger.lowLevelDebug("no available remote server for stream " + streamId + " from " + conn);
+            writeRstStream(streamId, Http2MuxStream.REFUSED_STREAM);
+            return;
+        }
+
+        s = new Http2MuxStream(this, streamId, connector);
+        s.response.sendWindow = initialSendWindow;
+        s.request.add(new Http2MuxStream.Chunk(null, forward, endStream));
+        streams.put(streamId, s);
+        mux.dispatch(s);
+    }
+
+    @Override
+    void onPushPromise(PushPromiseFrame pushPromise) {
+        Logger.warn(LogType.INVALID_EXTERNAL_DATA, "client " + conn + " sends push promise");
+        close();
+    }
+
+    @Override
+    void onGoAway(GoAwayFrame goAway) {
+        // the client closes the connection when it finishes the streams
+    }
+
+    @Override
+    void onClose() {
+        resetAll(Http2MuxStream.CANCEL);
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readFrames();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flush();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        assert Logger.lowLevelDebug("h2 mux frontend connection " + conn + " got exception: " + err);
+        close();
+    }
+
+    @Override
+    public void remoteClosed(ConnectionHandlerContext ctx) {
+        close();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        close();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        close();
+    }
+}
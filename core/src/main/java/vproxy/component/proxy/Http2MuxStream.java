@@ -0,0 +1,152 @@
+package vproxy.component.proxy;
+
+import vproxy.base.connection.Connector;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.Logger;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * A stream of a frontend h2 connection, and the stream it's mapped to on a shared backend connection.
+ */
+class Http2MuxStream {
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int STREAM_CLOSED = 0x5;
+
+    final Http2MuxFrontend frontend;
+    final int frontendStreamId;
+    final Connector connector;
+    Http2MuxBackend backend; // null when waiting for a backend connection
+    int backendStreamId; // 0 when not opened on the backend
+
+    final Flow request = new Flow(); // frontend -> backend
+    final Flow response = new Flow(); // backend -> frontend
+
+    private boolean frontendOpen = true;
+    private boolean backendOpen = false;
+    boolean reset = false;
+
+    Http2MuxStream(Http2MuxFrontend frontend, int frontendStreamId, Connector connector) {
+        this.frontend = frontend;
+        this.frontendStreamId = frontendStreamId;
+        this.connector = connector;
+    }
+
+    static class Chunk {
+        ByteArray data; // null for headers
+        final List<Header> headers;
+        final boolean end;
+
+        Chunk(ByteArray data, List<Header> headers, boolean end) {
+            this.data = data;
+            this.headers = headers;
+            this.end = end;
+        }
+    }
+
+    /**
+     * frames of one direction which are received but not sent yet
+     */
+    static class Flow {
+        final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+        int pendingBytes = 0;
+        boolean endReceived = false;
+        boolean endSent = false;
+        int sendWindow; // window of the stream on the receiving side
+        int credit = 0; // bytes forwarded but not returned to the sending side with window update
+
+        void add(Chunk c) {
+            pending.add(c);
+            if (c.data != null) {
+                pendingBytes += c.data.length();
+            }
+            if (c.end) {
+                endReceived = true;
+            }
+        }
+
+        int clear() {
+            int n = pendingBytes;
+            pending.clear();
+            pendingBytes = 0;
+            return n;
+        }
+    }
+
+    void opened(Http2MuxBackend backend, int backendStreamId) {
+        this.backend = backend;
+        this.backendStreamId = backendStreamId;
+        this.backendOpen = true;
+    }
+
+    boolean isBackendOpen() {
+        return backendOpen;
+    }
+
+    /**
+     * remove the stream from the connections where both directions are finished
+     */
+    void progress() {
+        if (reset) {
+            return;
+        }
+        if (backendOpen && request.endSent && response.endReceived) {
+            backendOpen = false;
+            backend.detach(this);
+        }
+        if (frontendOpen && request.endReceived && response.endSent) {
+            frontendOpen = false;
+            frontend.detach(this);
+        }
+    }
+
+    /**
+     * terminate the stream on both sides
+     *
+     * @param errorCode error code sent with RST_STREAM
+     * @param from      the connection which reset the stream, or null if reset by the proxy,
+     *                  RST_STREAM is not sent back to this connection
+     */
+    void reset(int errorCode, Http2MuxEndpoint from) {
+        if (reset) {
+            return;
+        }
+        reset = true;
+        assert Logger.lowLevelDebug("reset h2 mux stream " + this + " with error " + errorCode);
+
+        // flow control windows of the connections still count these bytes
+        int requestBytes = request.clear();
+        int responseBytes = response.clear();
+        frontend.returnConnectionCredit(requestBytes);
+        if (backend != null) {
+            backend.returnConnectionCredit(responseBytes);
+        }
+
+        if (frontendOpen) {
+            frontendOpen = false;
+            if (from != frontend) {
+                frontend.writeRstStream(frontendStreamId, errorCode);
+            }
+            frontend.detach(this);
+        }
+        if (backendOpen) {
+            backendOpen = false;
+            if (from != backend) {
+                backend.writeRstStream(backendStreamId, errorCode);
+            }
+            backend.detach(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Http2MuxStream{" +
+            "frontend=" + frontendStreamId + "/" + frontend +
+            ", backend=" + backendStreamId + "/" + backend +
+            '}';
+    }
+}
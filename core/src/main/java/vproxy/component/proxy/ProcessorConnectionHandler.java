@@ -1,5 +1,6 @@
 package vproxy.component.proxy;
 
+import vproxy.base.Config;
 import vproxy.base.connection.*;
 import vproxy.base.processor.ConnectionDelegate;
 import vproxy.base.processor.Hint;
@@ -7,6 +8,8 @@ import vproxy.base.processor.Processor;
 import vproxy.base.util.*;
 import vproxy.base.util.nio.ByteArrayChannel;
 import vproxy.base.util.ringbuffer.ProxyOutputRingBuffer;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
+import vproxy.vfd.IPPort;
 
 import java.io.IOException;
 import java.util.*;
@@ -242,7 +245,12 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         private final Processor.SubContext subCtx;
         private final ConnectableConnection conn;
+        private final long createTime; // kept when the connection is lent by the backend pool
         private boolean isConnected = false;
+        // registered in the loop instead of this handler when the connection may be returned to the backend pool
+        private BackendConnectionPool.SwitchableHandler switchable = null;
+        // set to true when the connection is detached from the frontend and returned to the backend pool
+        private boolean released = false;
 
         private ByteArrayChannel chnl = null;
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
@@ -253,9 +261,10 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // set to true when processor.disconnected(...) is called, this prevents being called multiple times in exception()/closed()/removed() event handlers
         private boolean disconnectedCalled = false;
 
-        BackendConnectionHandler(Processor.SubContext subCtx, ConnectableConnection conn) {
+        BackendConnectionHandler(Processor.SubContext subCtx, ConnectableConnection conn, long createTime) {
             this.subCtx = subCtx;
             this.conn = conn;
+            this.createTime = createTime;
         }
 
         void writeToBackend(ByteArray data) {
@@ -528,6 +537,10 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void removed(ConnectionHandlerContext ctx) {
+            if (released) {
+                assert Logger.lowLevelDebug("backend connection " + ctx.connection + " is released to the pool");
+                return;
+            }
             if (!ctx.connection.isClosed()) {
                 Logger.error(LogType.IMPROPER_USE, "backend connection " + ctx.connection + " removed from event loop " + loop);
                 closeAll();
@@ -847,40 +860,42 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             }
         }
 
+        // borrow an idle connection from other frontend connections on this loop
+        BackendConnectionPool pool = config.backendPool;
+        String poolKey = pool != null && pool.isEnabled() ? processor.backendPoolKey(topCtx) : null;
+        if (poolKey != null) {
+            BackendConnectionPool.PooledConnection pooled = pool.borrow(loop, poolKey, connector.remote);
+            if (pooled != null) {
+                BackendConnectionHandler bh = newBackend(connector.remote, pooled.conn, pooled.createTime);
+                bh.switchable = pooled.handler;
+                bh.switchable.target = bh;
+                bh.isConnected = true;
+                // processor.connected(...) is not called because the connection is already initiated
+                chosen.accept(bh.subCtx);
+                return bh;
+            }
+        }
+
         // get a new connection
         ConnectableConnection connectableConnection;
+        RingBufferAllocator allocator = config.bufferAllocator;
         try {
             connectableConnection = connector.connect(
                 new ConnectionOpts().setTimeout(config.timeout),
-                RingBuffer.allocateDirect(config.inBufferSize), ProxyOutputRingBuffer.allocateDirect(config.outBufferSize));
+                allocator == null ? RingBuffer.allocateDirect(config.inBufferSize) : allocator.allocateDirect(config.inBufferSize),
+                allocator == null ? ProxyOutputRingBuffer.allocateDirect(config.outBufferSize) : ProxyOutputRingBuffer.allocateDirect(config.outBufferSize, allocator));
         } catch (IOException e) {
             Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
             return null;
         }
 
-        // record in collections
-        int newConnId = ++cursor;
-        BackendConnectionHandler[] handlerPtr = new BackendConnectionHandler[]{null};
-        //noinspection DuplicatedCode
-        Processor.SubContext subCtx = processor.initSub(topCtx, newConnId, new ConnectionDelegate(connector.remote) {
-            @Override
-            public void pause() {
-                assert handlerPtr[0] != null;
-                handlerPtr[0].pause();
-            }
-
-            @Override
-            public void resume() {
-                assert handlerPtr[0] != null;
-                handlerPtr[0].resume();
-            }
-        });
-        BackendConnectionHandler bh = new BackendConnectionHandler(subCtx, connectableConnection);
-        handlerPtr[0] = bh;
-        recordBackend(bh, newConnId);
+        BackendConnectionHandler bh = newBackend(connector.remote, connectableConnection, Config.currentTimestamp);
+        if (poolKey != null) {
+            bh.switchable = new BackendConnectionPool.SwitchableHandler(bh);
+        }
         // register
         try {
-            loop.addConnectableConnection(connectableConnection, null, bh);
+            loop.addConnectableConnection(connectableConnection, null, bh.switchable == null ? bh : bh.switchable);
         } catch (IOException e) {
             Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add connectable connection " + connectableConnection + " to loop failed");
 
@@ -906,6 +921,30 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         return bh;
     }
 
+    private BackendConnectionHandler newBackend(IPPort remote, ConnectableConnection connectableConnection, long createTime) {
+        // record in collections
+        int newConnId = ++cursor;
+        BackendConnectionHandler[] handlerPtr = new BackendConnectionHandler[]{null};
+        //noinspection DuplicatedCode
+        Processor.SubContext subCtx = processor.initSub(topCtx, newConnId, new ConnectionDelegate(remote) {
+            @Override
+            public void pause() {
+                assert handlerPtr[0] != null;
+                handlerPtr[0].pause();
+            }
+
+            @Override
+            public void resume() {
+                assert handlerPtr[0] != null;
+                handlerPtr[0].resume();
+            }
+        });
+        BackendConnectionHandler bh = new BackendConnectionHandler(subCtx, connectableConnection, createTime);
+        handlerPtr[0] = bh;
+        recordBackend(bh, newConnId);
+        return bh;
+    }
+
     @Override
     public void writable(ConnectionHandlerContext ctx) {
         doFrontendWrite();
@@ -929,6 +968,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // we should send FIN to all backends
         assert Logger.lowLevelDebug("send FIN to all backend");
 
+        releaseIdleBackends();
         List<Integer> ints = new ArrayList<>(conn2intMap.values());
         boolean allBackendRemoteClosed = true;
         for (int i : ints) {
@@ -971,6 +1011,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         closed = true;
 
         assert Logger.lowLevelDebug("close all connections of " + frontendConnection);
+        releaseIdleBackends();
         List<Integer> ints = new ArrayList<>(conn2intMap.values());
         for (int i : ints) {
             BackendConnectionHandler be = conns[i];
@@ -979,4 +1020,41 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
         frontendConnection.close();
     }
+
+    // return backends at request boundaries to the pool instead of closing them
+    private void releaseIdleBackends() {
+        BackendConnectionPool pool = config.backendPool;
+        if (pool == null || !pool.isEnabled() || conn2intMap.isEmpty()) {
+            return;
+        }
+        String poolKey = processor.backendPoolKey(topCtx);
+        if (poolKey == null) {
+            return;
+        }
+        List<Integer> ints = new ArrayList<>(conn2intMap.values());
+        for (int i : ints) {
+            BackendConnectionHandler be = conns[i];
+            if (be.switchable == null || !backendIdle(be)) {
+                continue;
+            }
+            removeBackend(be);
+            be.released = true;
+            if (!pool.release(loop, poolKey, be.conn, be.createTime, be.switchable)) {
+                be.conn.close();
+            }
+        }
+    }
+
+    private boolean backendIdle(BackendConnectionHandler be) {
+        if (!be.isConnected || be.disconnectedCalled || be.paused || be.chnl != null) {
+            return false;
+        }
+        if (be.backendByteFlow.currentSegment != null || be.frontendByteFlow.currentSegment != null) {
+            return false;
+        }
+        if (be.conn.getInBuffer().used() != 0 || be.conn.getOutBuffer().used() != 0) {
+            return false;
+        }
+        return processor.backendIdle(topCtx, be.subCtx);
+    }
 }
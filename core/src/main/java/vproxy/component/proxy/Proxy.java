@@ -1,5 +1,6 @@
 package vproxy.component.proxy;
 
+import vproxy.base.GlobalInspection;
 import vproxy.base.connection.*;
 import vproxy.base.processor.ConnectionDelegate;
 import vproxy.base.processor.Processor;
@@ -9,9 +10,12 @@ import vproxy.base.protocol.ProtocolHandlerContext;
 import vproxy.base.util.*;
 import vproxy.base.util.ringbuffer.ByteBufferRingBuffer;
 import vproxy.base.util.ringbuffer.ProxyOutputRingBuffer;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
 import vproxy.base.util.ringbuffer.SSLUtils;
+import vproxy.base.util.ringbuffer.SpliceRingBuffer;
 import vproxy.base.util.ringbuffer.ssl.SSL;
 import vproxy.base.util.ringbuffer.ssl.SSLEngineBuilder;
+import vproxy.base.util.ringbuffer.ssl.SSLTaskExecutor;
 import vproxy.vfd.SocketFD;
 
 import javax.net.ssl.SSLParameters;
@@ -240,6 +244,11 @@ public class Proxy {
             NetEventLoop loop = config.handleLoopProvider.getHandleLoop(acceptLoop);
 
             Processor processor = config.connGen.processor();
+            Http2Multiplexer h2Mux = config.h2Mux;
+            if (h2Mux != null && h2Mux.isEnabled() && "h2".equals(processor.name())) {
+                h2Mux.handle(config, loop, frontendConnection);
+                return;
+            }
             Processor.Context topCtx = processor.init(frontendConnection.remote);
             ProcessorConnectionHandler[] handlerPtr = new ProcessorConnectionHandler[]{null};
             //noinspection DuplicatedCode
@@ -293,6 +302,19 @@ public class Proxy {
             }
         }
 
+        private Tuple<RingBuffer, RingBuffer> getSpliceBuffers(SocketFD channel, int inBufferSize, int outBufferSize) {
+            SpliceRingBuffer inBuffer = SpliceRingBuffer.tryAllocate(channel, inBufferSize);
+            if (inBuffer == null) {
+                return null;
+            }
+            SpliceRingBuffer outBuffer = SpliceRingBuffer.tryAllocate(channel, outBufferSize);
+            if (outBuffer == null) {
+                inBuffer.clean();
+                return null;
+            }
+            return new Tuple<>(inBuffer, outBuffer);
+        }
+
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketFD channel) {
             int inBufferSize, outBufferSize;
@@ -305,11 +327,29 @@ public class Proxy {
                 inBufferSize = Math.max(config.inBufferSize, 24576);
                 outBufferSize = Math.max(config.outBufferSize, 24576);
             }
-            ByteBufferRingBuffer inBuffer = RingBuffer.allocateDirect(inBufferSize);
-            RingBuffer outBuffer =
-                (config.connGen.type() == ConnectorGen.Type.processor && config.sslContext == null)
+            if (config.splice && config.sslContext == null && config.connGen.type() == ConnectorGen.Type.direct) {
+                // bytes are relayed from one socket to another without being touched,
+                // so let the kernel move them through pipes
+                Tuple<RingBuffer, RingBuffer> buffers = getSpliceBuffers(channel, inBufferSize, outBufferSize);
+                if (buffers != null) {
+                    return buffers;
+                }
+                // otherwise fall back to normal buffers
+            }
+            RingBufferAllocator allocator = config.bufferAllocator;
+            ByteBufferRingBuffer inBuffer = allocator == null
+                ? RingBuffer.allocateDirect(inBufferSize)
+                : allocator.allocateDirect(inBufferSize);
+            RingBuffer outBuffer;
+            if (config.connGen.type() == ConnectorGen.Type.processor && config.sslContext == null) {
+                outBuffer = allocator == null
                     ? ProxyOutputRingBuffer.allocateDirect(outBufferSize)
-                    : RingBuffer.allocateDirect(outBufferSize);
+                    : ProxyOutputRingBuffer.allocateDirect(outBufferSize, allocator);
+            } else {
+                outBuffer = allocator == null
+                    ? RingBuffer.allocateDirect(outBufferSize)
+                    : allocator.allocateDirect(outBufferSize);
+            }
 
             if (config.sslContext == null) {
                 return new Tuple<>(inBuffer, outBuffer);
@@ -356,6 +396,16 @@ public class Proxy {
         public ConnectionOpts connectionOpts() {
             return new ConnectionOpts().setTimeout(config.timeout);
         }
+
+        @Override
+        public boolean pauseAccepting(ServerHandlerContext ctx) {
+            if (config.sslContext == null || !SSLTaskExecutor.currentSaturated()) {
+                return false;
+            }
+            // new handshakes would only make the pending tasks wait longer
+            GlobalInspection.getInstance().sslAcceptPaused();
+            return true;
+        }
     }
 
     static class SessionConnectionHandler implements ConnectionHandler {
@@ -3,6 +3,7 @@ package vproxy.component.proxy;
 import vproxy.base.Config;
 import vproxy.base.connection.NetEventLoop;
 import vproxy.base.connection.ServerSock;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
 import vproxy.base.util.ringbuffer.ssl.VSSLContext;
 
 import javax.net.ssl.SSLEngine;
@@ -22,6 +23,12 @@ public class ProxyNetConfig {
     VSSLContext sslContext = null;
     BiConsumer<SSLEngine, SSLParameters> sslEngineManipulator = null;
 
+    boolean splice = false;
+
+    RingBufferAllocator bufferAllocator = null;
+    BackendConnectionPool backendPool = null;
+    Http2Multiplexer h2Mux = null;
+
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
         return this;
@@ -67,6 +74,26 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setSplice(boolean splice) {
+        this.splice = splice;
+        return this;
+    }
+
+    public ProxyNetConfig setBufferAllocator(RingBufferAllocator bufferAllocator) {
+        this.bufferAllocator = bufferAllocator;
+        return this;
+    }
+
+    public ProxyNetConfig setBackendPool(BackendConnectionPool backendPool) {
+        this.backendPool = backendPool;
+        return this;
+    }
+
+    public ProxyNetConfig setH2Mux(Http2Multiplexer h2Mux) {
+        this.h2Mux = h2Mux;
+        return this;
+    }
+
     public NetEventLoop getAcceptLoop() {
         return acceptLoop;
     }
@@ -102,4 +129,20 @@ public class ProxyNetConfig {
     public BiConsumer<SSLEngine, SSLParameters> getSslEngineManipulator() {
         return sslEngineManipulator;
     }
+
+    public boolean isSplice() {
+        return splice;
+    }
+
+    public RingBufferAllocator getBufferAllocator() {
+        return bufferAllocator;
+    }
+
+    public BackendConnectionPool getBackendPool() {
+        return backendPool;
+    }
+
+    public Http2Multiplexer getH2Mux() {
+        return h2Mux;
+    }
 }
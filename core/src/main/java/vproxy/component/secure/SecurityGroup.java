@@ -1,22 +1,32 @@
 package vproxy.component.secure;
 
 import vproxy.base.connection.Protocol;
+import vproxy.base.util.Network;
+import vproxy.base.util.NetworkTrie;
+import vproxy.base.util.Utils;
 import vproxy.base.util.exception.AlreadyExistException;
 import vproxy.base.util.exception.NotFoundException;
 import vproxy.vfd.IP;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 public class SecurityGroup {
     public static final String defaultName = "(allow-all)";
 
     public final String alias;
     public boolean defaultAllow;
-    private LinkedList<SecurityGroupRule> tcpRules = new LinkedList<>();
-    private LinkedList<SecurityGroupRule> udpRules = new LinkedList<>();
+    // the lists keep the adding order for listing, modified with the lock held
+    private final List<SecurityGroupRule> tcpRules = new ArrayList<>();
+    private final List<SecurityGroupRule> udpRules = new ArrayList<>();
+    private final Map<String, SecurityGroupRule> aliases = new HashMap<>();
+    // rules indexed by network prefix for lookup, which can be read without the lock
+    private final RuleIndex tcpIndex = new RuleIndex();
+    private final RuleIndex udpIndex = new RuleIndex();
+    private long nextSeq = 0;
 
     public SecurityGroup(String alias, boolean defaultAllow) {
         this.alias = alias;
@@ -28,77 +38,64 @@ public class SecurityGroup {
     }
 
     public boolean allow(Protocol protocol, IP address, int port) {
-        LinkedList<SecurityGroupRule> rules;
+        RuleIndex index;
         if (protocol == Protocol.TCP) {
-            rules = tcpRules;
+            index = tcpIndex;
         } else {
             assert protocol == Protocol.UDP;
-            rules = udpRules;
+            index = udpIndex;
         }
-        if (rules.isEmpty())
+        if (index.isEmpty())
             return defaultAllow;
-        for (SecurityGroupRule rule : rules) {
-            if (rule.match(address, port))
-                return rule.allow;
-        }
+        // the first added rule wins among all matching rules
+        SecurityGroupRule rule = index.lookup(address, port);
+        if (rule != null)
+            return rule.allow;
         return defaultAllow;
     }
 
-    public List<SecurityGroupRule> getRules() {
-        LinkedList<SecurityGroupRule> tcpRules = this.tcpRules;
-        LinkedList<SecurityGroupRule> udpRules = this.udpRules;
+    public synchronized List<SecurityGroupRule> getRules() {
         List<SecurityGroupRule> rules = new ArrayList<>(tcpRules.size() + udpRules.size());
         rules.addAll(tcpRules);
         rules.addAll(udpRules);
         return rules;
     }
 
-    public void addRule(SecurityGroupRule rule) throws AlreadyExistException {
-        if (getRules().stream().anyMatch(r -> r.alias.equals(rule.alias)))
+    public synchronized void addRule(SecurityGroupRule rule) throws AlreadyExistException {
+        if (aliases.containsKey(rule.alias))
             throw new AlreadyExistException("security-group-rule in security-group " + this.alias, rule.alias);
 
-        LinkedList<SecurityGroupRule> rules;
+        List<SecurityGroupRule> rules;
+        RuleIndex index;
         if (rule.protocol == Protocol.TCP) {
-            rules = new LinkedList<>(tcpRules);
+            rules = tcpRules;
+            index = tcpIndex;
         } else {
             assert rule.protocol == Protocol.UDP;
-            rules = new LinkedList<>(udpRules);
+            rules = udpRules;
+            index = udpIndex;
         }
         // check ip mask
-        for (SecurityGroupRule r : rules) {
-            if (r.ipMaskMatch(rule) &&
-                r.protocol == rule.protocol &&
-                r.minPort == rule.minPort &&
-                r.maxPort == rule.maxPort)
-                throw new AlreadyExistException("security-group-rule " + r + " already exists in security-group " + this.alias);
-        }
+        SecurityGroupRule r = index.find(rule.network, rule.minPort, rule.maxPort);
+        if (r != null)
+            throw new AlreadyExistException("security-group-rule " + r + " already exists in security-group " + this.alias);
+
+        index.add(rule, nextSeq++);
         rules.add(rule);
-        if (rule.protocol == Protocol.TCP) {
-            this.tcpRules = rules;
-        } else {
-            //noinspection ConstantConditions
-            assert rule.protocol == Protocol.UDP;
-            this.udpRules = rules;
-        }
+        aliases.put(rule.alias, rule);
     }
 
-    public void removeRule(String name) throws NotFoundException {
-        LinkedList<SecurityGroupRule> tcpRules = this.tcpRules;
-        LinkedList<SecurityGroupRule> udpRules = this.udpRules;
-
-        List<SecurityGroupRule> oldRules = new ArrayList<>(tcpRules.size() + udpRules.size());
-        oldRules.addAll(tcpRules);
-        oldRules.addAll(udpRules);
-        Optional<SecurityGroupRule> optRule = oldRules.stream().filter(r -> r.alias.equals(name)).findFirst();
-        if (optRule.isEmpty())
+    public synchronized void removeRule(String name) throws NotFoundException {
+        SecurityGroupRule rule = aliases.remove(name);
+        if (rule == null)
             throw new NotFoundException("security-group-rule in security-group " + this.alias, name);
-        if (optRule.get().protocol == Protocol.TCP) {
-            tcpRules.remove(optRule.get());
-            this.tcpRules = tcpRules;
+        if (rule.protocol == Protocol.TCP) {
+            tcpIndex.remove(rule);
+            tcpRules.remove(rule);
         } else {
-            assert optRule.get().protocol == Protocol.UDP;
-            udpRules.remove(optRule.get());
-            this.udpRules = udpRules;
+            assert rule.protocol == Protocol.UDP;
+            udpIndex.remove(rule);
+            udpRules.remove(rule);
         }
     }
 
@@ -106,4 +103,147 @@ public class SecurityGroup {
     public String toString() {
         return alias + " -> default " + (defaultAllow ? "allow" : "deny");
     }
+
+    private static final class IndexedRule {
+        final SecurityGroupRule rule;
+        final long seq;
+
+        IndexedRule(SecurityGroupRule rule, long seq) {
+            this.rule = rule;
+            this.seq = seq;
+        }
+    }
+
+    private static final class Matching {
+        final IP address;
+        final int port;
+        IndexedRule result;
+
+        Matching(IP address, int port) {
+            this.address = address;
+            this.port = port;
+        }
+
+        void check(IndexedRule r) {
+            if (result != null && result.seq < r.seq)
+                return;
+            // the trie only finds candidates, the rule decides whether the address matches,
+            // e.g. ipv4 address and ipv6 rule
+            if (r.rule.match(address, port)) {
+                result = r;
+            }
+        }
+
+        static void visit(IndexedRule[] rules, Matching m) {
+            for (IndexedRule r : rules) {
+                m.check(r);
+            }
+        }
+    }
+
+    private static final class RuleIndex {
+        private static final IndexedRule[] EMPTY = new IndexedRule[0];
+        private static final byte[] V4_MAPPED_PREFIX = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+
+        private final NetworkTrie<IndexedRule[]> v4 = new NetworkTrie<>(32);
+        private final NetworkTrie<IndexedRule[]> v6 = new NetworkTrie<>(128);
+        // networks with bits set out of the mask cannot be placed into the tries
+        private volatile IndexedRule[] others = EMPTY;
+
+        boolean isEmpty() {
+            return v4.isEmpty() && v6.isEmpty() && others.length == 0;
+        }
+
+        private NetworkTrie<IndexedRule[]> trieOf(Network net) {
+            byte[] ip = net.getRawIpBytes();
+            byte[] mask = Network.parseMask(net.getMask());
+            if (!Network.validNetwork(ip, mask)) {
+                return null;
+            }
+            return ip.length == 4 ? v4 : v6;
+        }
+
+        SecurityGroupRule find(Network network, int minPort, int maxPort) {
+            NetworkTrie<IndexedRule[]> trie = trieOf(network);
+            IndexedRule[] rules;
+            if (trie == null) {
+                rules = others;
+            } else {
+                rules = trie.get(network.getRawIpBytes(), network.getMask());
+                if (rules == null)
+                    return null;
+            }
+            for (IndexedRule r : rules) {
+                if (r.rule.network.equals(network) && r.rule.minPort == minPort && r.rule.maxPort == maxPort)
+                    return r.rule;
+            }
+            return null;
+        }
+
+        void add(SecurityGroupRule rule, long seq) {
+            IndexedRule r = new IndexedRule(rule, seq);
+            NetworkTrie<IndexedRule[]> trie = trieOf(rule.network);
+            if (trie == null) {
+                others = append(others, r);
+                return;
+            }
+            byte[] ip = rule.network.getRawIpBytes();
+            int prefix = rule.network.getMask();
+            IndexedRule[] old = trie.get(ip, prefix);
+            trie.put(ip, prefix, append(old == null ? EMPTY : old, r));
+        }
+
+        void remove(SecurityGroupRule rule) {
+            NetworkTrie<IndexedRule[]> trie = trieOf(rule.network);
+            if (trie == null) {
+                others = without(others, rule);
+                return;
+            }
+            byte[] ip = rule.network.getRawIpBytes();
+            int prefix = rule.network.getMask();
+            IndexedRule[] old = trie.get(ip, prefix);
+            if (old == null)
+                return;
+            IndexedRule[] rules = without(old, rule);
+            if (rules.length == 0) {
+                trie.remove(ip, prefix);
+            } else {
+                trie.put(ip, prefix, rules);
+            }
+        }
+
+        SecurityGroupRule lookup(IP address, int port) {
+            Matching m = new Matching(address, port);
+            byte[] addr = address.getAddress();
+            if (addr.length == 4) {
+                v4.forEachMatch(addr, 0, m, Matching::visit);
+                if (!v6.isEmpty()) {
+                    // ipv6 rules may match ipv4 addresses in the compatible or mapped form
+                    byte[] v6addr = new byte[16];
+                    System.arraycopy(addr, 0, v6addr, 12, 4);
+                    v6.forEachMatch(v6addr, 0, m, Matching::visit);
+                    System.arraycopy(V4_MAPPED_PREFIX, 0, v6addr, 0, V4_MAPPED_PREFIX.length);
+                    v6.forEachMatch(v6addr, 0, m, Matching::visit);
+                }
+            } else {
+                v6.forEachMatch(addr, 0, m, Matching::visit);
+                if (!v4.isEmpty() && Utils.lowBitsV6V4(addr, 11, 10)) {
+                    // ipv4 rules match the compatible or mapped ipv6 addresses
+                    v4.forEachMatch(addr, 12, m, Matching::visit);
+                }
+            }
+            Matching.visit(others, m);
+            return m.result == null ? null : m.result.rule;
+        }
+
+        private static IndexedRule[] append(IndexedRule[] rules, IndexedRule r) {
+            IndexedRule[] ret = Arrays.copyOf(rules, rules.length + 1);
+            ret[rules.length] = r;
+            return ret;
+        }
+
+        private static IndexedRule[] without(IndexedRule[] rules, SecurityGroupRule rule) {
+            return Arrays.stream(rules).filter(r -> r.rule != rule).toArray(IndexedRule[]::new);
+        }
+    }
 }
@@ -1,10 +1,12 @@
 package vproxy.component.ssl;
 
+import vproxy.base.Config;
 import vproxy.base.util.ringbuffer.ssl.VSSLContext;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.ByteArrayInputStream;
 import java.security.KeyFactory;
 import java.security.KeyStore;
@@ -22,6 +24,9 @@ public class CertKey {
     public final String[] certPaths;
     public final String keyPath;
 
+    private SSLContext sslContext; // built on first use
+    private X509Certificate[] x509Certificates;
+
     public CertKey(String alias, String[] certs, String key) {
         this(alias, certs, key, null, null);
     }
@@ -71,37 +76,45 @@ public class CertKey {
     }
 
     public void setInto(VSSLContext vsslContext) throws Exception {
-        // create ctx
-        SSLContext ctx = SSLContext.getInstance("TLS");
-        // create empty key store
-        KeyStore keyStore = KeyStore.getInstance("JKS");
-        keyStore.load(null);
-        // init keystore
-        X509Certificate[] certs = this.setInto(keyStore);
-        // retrieve key manager array
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(keyStore, "changeit".toCharArray());
-        KeyManager[] km = kmf.getKeyManagers();
-        // init ctx
-        ctx.init(km, null, null);
-
+        // the ssl context is shared by all users of the cert-key,
+        // so that sessions and session tickets can be resumed no matter which lb or event loop handles the connection
+        SSLContext ctx;
+        X509Certificate[] certs;
+        synchronized (this) {
+            if (sslContext == null) {
+                KeyStore keyStore = KeyStore.getInstance("JKS");
+                keyStore.load(null);
+                x509Certificates = this.setInto(keyStore);
+                sslContext = buildSSLContext(keyStore);
+            }
+            ctx = sslContext;
+            certs = x509Certificates;
+        }
         vsslContext.sslContextHolder.add(ctx, certs);
     }
 
     public SSLContext buildSSLContext() throws Exception {
-        // create ctx
-        SSLContext ctx = SSLContext.getInstance("TLS");
         // create empty key store
         KeyStore keyStore = KeyStore.getInstance("JKS");
         keyStore.load(null);
         // init keystore
         this.setInto(keyStore);
+        return buildSSLContext(keyStore);
+    }
+
+    private static SSLContext buildSSLContext(KeyStore keyStore) throws Exception {
+        // create ctx
+        SSLContext ctx = SSLContext.getInstance("TLS");
         // retrieve key manager array
         KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
         kmf.init(keyStore, "changeit".toCharArray());
         KeyManager[] km = kmf.getKeyManagers();
         // init ctx
         ctx.init(km, null, null);
+        // server side session cache
+        SSLSessionContext sessionContext = ctx.getServerSessionContext();
+        sessionContext.setSessionCacheSize(Config.sslSessionCacheSize);
+        sessionContext.setSessionTimeout(Config.sslSessionTimeout);
         return ctx;
     }
 
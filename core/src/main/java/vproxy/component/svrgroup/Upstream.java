@@ -1,26 +1,27 @@
 package vproxy.component.svrgroup;
 
 import vproxy.base.component.svrgroup.ServerGroup;
+import vproxy.base.component.svrgroup.WRRSequence;
 import vproxy.base.connection.Connector;
 import vproxy.base.processor.Hint;
+import vproxy.base.processor.HintIndex;
 import vproxy.base.util.Annotations;
 import vproxy.base.util.exception.AlreadyExistException;
 import vproxy.base.util.exception.NotFoundException;
 import vproxy.vfd.IPPort;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class Upstream {
     public class ServerGroupHandle {
         public final String alias;
         public final ServerGroup group;
-        private int weight;
+        private volatile int weight;
         private Annotations annotations = new Annotations();
+        private final Runnable groupAnnotationsListener = Upstream.this::rebuildIndex;
 
         public ServerGroupHandle(ServerGroup group, int weight) {
             this.alias = group.alias;
@@ -46,107 +47,55 @@ public class Upstream {
                 annotations = new Annotations();
             }
             this.annotations = annotations;
+            rebuildIndex();
         }
     }
 
-    class WRR {
+    /**
+     * Immutable wrr snapshot, rebuilt by the thread modifying the upstream
+     * and published with a volatile write, so that `next()` never locks.
+     */
+    static class WRR {
         final AtomicInteger cursor = new AtomicInteger(0);
         final ArrayList<ServerGroupHandle> groups;
-        int[] seq;
+        final int[] seq;
 
-        WRR(ArrayList<ServerGroupHandle> serverGroupHandles) {
+        WRR(ArrayList<ServerGroupHandle> serverGroupHandles, int[] weights) {
             this.groups = serverGroupHandles;
+            this.seq = WRRSequence.build(weights);
         }
     }
 
     public final String alias;
-    private ArrayList<ServerGroupHandle> serverGroupHandles = new ArrayList<>(0);
-    private WRR _wrr;
+    private volatile ArrayList<ServerGroupHandle> serverGroupHandles = new ArrayList<>(0);
+    private volatile WRR _wrr;
+    private volatile HintIndex<ServerGroupHandle> _index;
 
     public Upstream(String alias) {
         this.alias = alias;
         recalculateWRR();
+        rebuildIndex();
     }
 
-    private void recalculateWRR() {
-        ArrayList<ServerGroupHandle> groups =
-            serverGroupHandles
-                .stream()
-                .filter(g -> g.weight > 0)
-                .collect(Collectors.toCollection(ArrayList::new));
-        WRR wrr = new WRR(groups);
-
-        if (wrr.groups.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.groups.size()];
-            int[] original = new int[wrr.groups.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.groups.size(); i++) {
-                ServerGroupHandle h = wrr.groups.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
+    private synchronized void recalculateWRR() {
+        ArrayList<ServerGroupHandle> groups = new ArrayList<>(serverGroupHandles.size());
+        int[] weights = new int[serverGroupHandles.size()];
+        for (ServerGroupHandle g : serverGroupHandles) {
+            int w = g.weight; // read only once, it might be modified concurrently
+            if (w > 0) {
+                weights[groups.size()] = w;
+                groups.add(g);
             }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
-            Iterator<Integer> ite = listSeq.iterator();
-            int seqIdx = 0;
-            while (ite.hasNext()) {
-                int idx = ite.next();
-                seq[seqIdx++] = idx;
-            }
-
-            wrr.seq = seq;
-        }
-
-        _wrr = wrr;
-    }
-
-    private static int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
-        }
-        return s;
-    }
-
-    private static boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
         }
-        return true;
+        _wrr = new WRR(groups, Arrays.copyOf(weights, groups.size()));
     }
 
-    private static int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
-            }
-        }
-        return maxIdx;
+    // rebuilt when groups or annotations change, and published with a volatile write, same as the wrr
+    private synchronized void rebuildIndex() {
+        _index = new HintIndex<>(serverGroupHandles, h -> new Annotations[]{h.annotations, h.group.getAnnotations()});
     }
 
-    public ServerGroupHandle add(ServerGroup group, int weight) throws AlreadyExistException {
+    public synchronized ServerGroupHandle add(ServerGroup group, int weight) throws AlreadyExistException {
         List<ServerGroupHandle> groups = serverGroupHandles;
         if (groups.stream().anyMatch(g -> g.group.equals(group)))
             throw new AlreadyExistException("server-group in upstream " + this.alias, group.alias);
@@ -156,6 +105,8 @@ public class Upstream {
         newLs.add(h);
         serverGroupHandles = newLs;
         recalculateWRR();
+        group.addAnnotationsListener(h.groupAnnotationsListener);
+        rebuildIndex();
         return h;
     }
 
@@ -168,6 +119,7 @@ public class Upstream {
         for (ServerGroupHandle g : groups) {
             if (g.group.equals(group)) {
                 found = true;
+                group.removeAnnotationsListener(g.groupAnnotationsListener);
             } else {
                 newLs.add(g);
             }
@@ -177,6 +129,7 @@ public class Upstream {
         }
         serverGroupHandles = newLs;
         recalculateWRR();
+        rebuildIndex();
     }
 
     public List<ServerGroupHandle> getServerGroupHandles() {
@@ -188,16 +141,7 @@ public class Upstream {
     }
 
     public ServerGroupHandle searchForGroup(Hint hint) {
-        int level = 0;
-        ServerGroupHandle lastMax = null;
-        for (ServerGroupHandle h : serverGroupHandles) {
-            int l = hint.matchLevel(h.annotations, h.group.getAnnotations());
-            if (l > level) {
-                level = l;
-                lastMax = h;
-            }
-        }
-        return lastMax;
+        return _index.search(hint);
     }
 
     public Connector seek(IPPort source, Hint hint) {
@@ -218,24 +162,24 @@ public class Upstream {
             // fall through
         }
         WRR wrr = _wrr;
-        return next(source, wrr, 0);
+        return wrrNext(source, wrr);
     }
 
-    private /*use static to prevent access local variable*/ static Connector next(IPPort source, WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
-            return null;
+    private /*use static to prevent access local variable*/ static Connector wrrNext(IPPort source, WRR wrr) {
         if (wrr.seq.length == 0)
             return null;
-        ++recursion;
 
-        int idx = wrr.cursor.getAndIncrement();
-        if (wrr.seq.length <= idx) {
-            idx = idx % wrr.seq.length;
-            wrr.cursor.set(idx + 1);
+        // the seq may be long, so use a loop instead of recursion
+        for (int i = 0; i <= wrr.seq.length; ++i) {
+            int idx = wrr.cursor.getAndIncrement();
+            if (wrr.seq.length <= idx) {
+                idx = idx % wrr.seq.length;
+                wrr.cursor.set(idx + 1);
+            }
+            Connector connector = wrr.groups.get(wrr.seq[idx]).group.next(source);
+            if (connector != null)
+                return connector;
         }
-        Connector connector = wrr.groups.get(wrr.seq[idx]).group.next(source);
-        if (connector != null)
-            return connector;
-        return next(source, wrr, recursion);
+        return null;
     }
 }
@@ -0,0 +1,377 @@
+package vproxy.dns;
+
+import vproxy.base.dns.DNSClass;
+import vproxy.base.dns.DNSPacket;
+import vproxy.base.dns.DNSQuestion;
+import vproxy.base.dns.DNSType;
+import vproxy.base.util.Logger;
+import vproxy.vfd.IPPort;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Cache of responses of recursive lookups, keyed by (qname, qtype, qclass).<br>
+ * Responses are kept in wire format, a hit copies the bytes and only rewrites the id, the flags and the ttl fields,
+ * the DNSPacket object model is not used when serving from the cache.
+ * <p>
+ * Positive responses live for the smallest ttl of their records.
+ * NXDOMAIN and NODATA responses are cached for the ttl of the SOA record in the authority section as rfc 2308 describes,
+ * and are not cached if the SOA record is missing.
+ * Entries are evicted in LRU order when the cache is full.
+ * <p>
+ * The cache also tracks in-flight lookups, so identical queries arriving before the upstream responds
+ * are answered together by one upstream request.
+ */
+public class DNSAnswerCache {
+    // refresh an entry after this fraction of its ttl is passed if it's hit again
+    private static final int PREFETCH_PERCENT = 90;
+    // only entries hit at least this many times are refreshed before expiry
+    private static final int PREFETCH_MIN_HITS = 2;
+
+    private static final int TYPE_SOA = 6;
+    private static final int TYPE_OPT = 41;
+
+    public static final class Key {
+        final String qname;
+        final DNSType qtype;
+        final DNSClass qclass;
+
+        Key(String qname, DNSType qtype, DNSClass qclass) {
+            this.qname = qname;
+            this.qtype = qtype;
+            this.qclass = qclass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return qname.equals(key.qname) && qtype == key.qtype && qclass == key.qclass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(qname, qtype, qclass);
+        }
+
+        @Override
+        public String toString() {
+            return qname + "/" + qtype + "/" + qclass;
+        }
+    }
+
+    public static final class Waiter {
+        public final DNSPacket request;
+        public final IPPort remote;
+
+        public Waiter(DNSPacket request, IPPort remote) {
+            this.request = request;
+            this.remote = remote;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] bytes;
+        final int[] ttlOffsets; // offsets of ttl fields of all records except OPT
+        final int[] ttls;
+        final long insertMillis;
+        final long prefetchMillis;
+        final long expireMillis;
+        int hits;
+        boolean prefetching;
+
+        Entry(byte[] bytes, int[] ttlOffsets, int[] ttls, long insertMillis, int ttl) {
+            this.bytes = bytes;
+            this.ttlOffsets = ttlOffsets;
+            this.ttls = ttls;
+            this.insertMillis = insertMillis;
+            this.prefetchMillis = insertMillis + ttl * 10L * PREFETCH_PERCENT;
+            this.expireMillis = insertMillis + ttl * 1000L;
+        }
+    }
+
+    public final int capacity;
+    private final int maxTtl;
+    private final int negativeMaxTtl;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<Key, List<Waiter>> inflight = new HashMap<>();
+
+    public DNSAnswerCache(int capacity, int maxTtl, int negativeMaxTtl) {
+        this.capacity = capacity;
+        this.maxTtl = maxTtl;
+        this.negativeMaxTtl = negativeMaxTtl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > DNSAnswerCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cache key of the request, or null if the request cannot be answered from the cache
+     */
+    public static Key keyOf(DNSPacket request) {
+        if (request.opcode != DNSPacket.Opcode.QUERY || request.questions.size() != 1) {
+            return null;
+        }
+        DNSQuestion q = request.questions.get(0);
+        if (q.qname == null || q.qtype == null || q.qclass == null) {
+            return null;
+        }
+        if (q.qtype == DNSType.OTHER) { // types not recorded in DNSType cannot be distinguished
+            return null;
+        }
+        return new Key(q.qname.toLowerCase(), q.qtype, q.qclass);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @param prefetch set to true when the caller should refresh the entry from upstream
+     * @return the response for the request, or null if not cached or expired
+     */
+    public ByteBuffer get(Key key, DNSPacket request, long now, boolean[] prefetch) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (now >= e.expireMillis) {
+                entries.remove(key);
+                return null;
+            }
+            ++e.hits;
+            if (!e.prefetching && e.hits >= PREFETCH_MIN_HITS && now >= e.prefetchMillis) {
+                e.prefetching = true;
+                prefetch[0] = true;
+            }
+        }
+        byte[] bytes = Arrays.copyOf(e.bytes, e.bytes.length);
+        int elapsed = (int) ((now - e.insertMillis) / 1000);
+        for (int i = 0; i < e.ttlOffsets.length; ++i) {
+            writeInt32(bytes, e.ttlOffsets[i], Math.max(e.ttls[i] - elapsed, 0));
+        }
+        return patch(bytes, request);
+    }
+
+    /**
+     * Store the response if it's cacheable.
+     *
+     * @return true if stored
+     */
+    public boolean put(Key key, byte[] response, long now) {
+        if (capacity <= 0) {
+            return false;
+        }
+        Entry e = parse(response, now);
+        if (e == null) {
+            assert Logger.lowLevelDebug("response for " + key + " is not cacheable");
+            return false;
+        }
+        synchronized (this) {
+            entries.put(key, e);
+        }
+        return true;
+    }
+
+    /**
+     * @param waiter the request waiting for the response, or null when refreshing the entry
+     * @return true if the caller should send the request to upstream,
+     * false if the same query is already in flight and the waiter is recorded
+     */
+    public synchronized boolean startLookup(Key key, Waiter waiter) {
+        List<Waiter> ls = inflight.get(key);
+        if (ls != null) {
+            if (waiter != null) {
+                ls.add(waiter);
+            }
+            return false;
+        }
+        ls = new ArrayList<>(1);
+        if (waiter != null) {
+            ls.add(waiter);
+        }
+        inflight.put(key, ls);
+        return true;
+    }
+
+    /**
+     * @return requests waiting for the lookup
+     */
+    public synchronized List<Waiter> finishLookup(Key key) {
+        List<Waiter> ls = inflight.remove(key);
+        Entry e = entries.get(key);
+        if (e != null) {
+            e.prefetching = false;
+        }
+        return ls == null ? Collections.emptyList() : ls;
+    }
+
+    /**
+     * copy the response and make it a response of the request: the id, the rd flag and the case of the qname
+     */
+    public static ByteBuffer toRequest(byte[] response, DNSPacket request) {
+        return patch(Arrays.copyOf(response, response.length), request);
+    }
+
+    private static ByteBuffer patch(byte[] bytes, DNSPacket request) {
+        bytes[0] = (byte) (request.id >> 8);
+        bytes[1] = (byte) request.id;
+        if (request.rd) {
+            bytes[2] |= 0b00000001;
+        } else {
+            bytes[2] &= ~0b00000001;
+        }
+        // some clients randomize the case of the qname and check it in the response
+        // answers usually point to the question, so only the question needs to be rewritten
+        if (request.questions.size() == 1 && readUInt16(bytes, 4) == 1) {
+            copyNameCase(bytes, request.questions.get(0).qname);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void copyNameCase(byte[] bytes, String qname) {
+        int off = 12;
+        int idx = 0;
+        while (off < bytes.length) {
+            int len = bytes[off] & 0xff;
+            if (len == 0 || (len & 0xc0) != 0) {
+                return;
+            }
+            ++off;
+            if (off + len > bytes.length || idx + len > qname.length()) {
+                return;
+            }
+            for (int i = 0; i < len; ++i) {
+                char c = qname.charAt(idx + i);
+                if (Character.toLowerCase(c) != Character.toLowerCase((char) (bytes[off + i] & 0xff))) {
+                    return; // not the same name
+                }
+                bytes[off + i] = (byte) c;
+            }
+            off += len;
+            idx += len;
+            if (idx < qname.length() && qname.charAt(idx) == '.') {
+                ++idx;
+            }
+        }
+    }
+
+    private Entry parse(byte[] bytes, long now) {
+        if (bytes.length < 12) {
+            return null;
+        }
+        boolean tc = (bytes[2] & 0b00000010) != 0;
+        int rcode = bytes[3] & 0x0f;
+        if (tc) {
+            return null;
+        }
+        boolean nxdomain = rcode == DNSPacket.RCode.NameError.code;
+        if (rcode != DNSPacket.RCode.NoError.code && !nxdomain) {
+            return null;
+        }
+        int qdcount = readUInt16(bytes, 4);
+        int ancount = readUInt16(bytes, 6);
+        int nscount = readUInt16(bytes, 8);
+        int arcount = readUInt16(bytes, 10);
+
+        int off = 12;
+        for (int i = 0; i < qdcount; ++i) {
+            off = skipName(bytes, off);
+            if (off < 0 || off + 4 > bytes.length) {
+                return null;
+            }
+            off += 4;
+        }
+        int total = ancount + nscount + arcount;
+        int[] ttlOffsets = new int[total];
+        int[] ttls = new int[total];
+        int n = 0;
+        long minTtl = Long.MAX_VALUE;
+        long soaTtl = -1;
+        for (int i = 0; i < total; ++i) {
+            off = skipName(bytes, off);
+            if (off < 0 || off + 10 > bytes.length) {
+                return null;
+            }
+            int type = readUInt16(bytes, off);
+            int ttlOff = off + 4;
+            long ttl = readUInt32(bytes, ttlOff);
+            int rdlen = readUInt16(bytes, off + 8);
+            off += 10;
+            if (off + rdlen > bytes.length) {
+                return null;
+            }
+            if (type != TYPE_OPT) { // ttl field of OPT carries flags
+                ttlOffsets[n] = ttlOff;
+                ttls[n] = (int) Math.min(ttl, Integer.MAX_VALUE);
+                ++n;
+                minTtl = Math.min(minTtl, ttl);
+                if (type == TYPE_SOA && i >= ancount && i < ancount + nscount && rdlen >= 20) {
+                    // the last field of SOA is MINIMUM
+                    soaTtl = Math.min(ttl, readUInt32(bytes, off + rdlen - 4));
+                }
+            }
+            off += rdlen;
+        }
+
+        long ttl;
+        if (nxdomain || ancount == 0) {
+            // negative response
+            if (soaTtl < 0) {
+                return null;
+            }
+            ttl = Math.min(soaTtl, negativeMaxTtl);
+        } else {
+            ttl = Math.min(minTtl, maxTtl);
+        }
+        if (ttl <= 0) {
+            return null;
+        }
+        return new Entry(bytes, Arrays.copyOf(ttlOffsets, n), Arrays.copyOf(ttls, n), now, (int) ttl);
+    }
+
+    // return offset after the name, or -1 if malformed
+    private static int skipName(byte[] bytes, int off) {
+        while (off < bytes.length) {
+            int len = bytes[off] & 0xff;
+            if ((len & 0xc0) == 0xc0) { // pointer
+                return off + 2 <= bytes.length ? off + 2 : -1;
+            }
+            if ((len & 0xc0) != 0) {
+                return -1;
+            }
+            ++off;
+            if (len == 0) {
+                return off;
+            }
+            off += len;
+        }
+        return -1;
+    }
+
+    private static int readUInt16(byte[] bytes, int off) {
+        return ((bytes[off] & 0xff) << 8) | (bytes[off + 1] & 0xff);
+    }
+
+    private static long readUInt32(byte[] bytes, int off) {
+        return ((long) readUInt16(bytes, off) << 16) | readUInt16(bytes, off + 2);
+    }
+
+    private static void writeInt32(byte[] bytes, int off, int v) {
+        bytes[off] = (byte) (v >> 24);
+        bytes[off + 1] = (byte) (v >> 16);
+        bytes[off + 2] = (byte) (v >> 8);
+        bytes[off + 3] = (byte) v;
+    }
+}
@@ -1,6 +1,7 @@
 package vproxy.dns;
 
 import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
 import vproxy.base.component.elgroup.EventLoopAttach;
 import vproxy.base.component.elgroup.EventLoopGroup;
 import vproxy.base.component.elgroup.EventLoopGroupAttach;
@@ -18,6 +19,8 @@ import vproxy.base.dns.rdata.SRV;
 import vproxy.base.processor.Hint;
 import vproxy.base.selector.Handler;
 import vproxy.base.selector.HandlerContext;
+import vproxy.base.selector.PeriodicEvent;
+import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.*;
 import vproxy.base.util.exception.AlreadyExistException;
 import vproxy.base.util.exception.ClosedException;
@@ -33,27 +36,42 @@ import java.net.SocketException;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DNSServer {
+    // the udp payload size recommended by rfc 6891 (edns), queries are much smaller,
+    // and larger responses are sent without batching
+    private static final int MAX_BATCHED_PACKET_LEN = 4096;
+
     public final String alias;
     public final IPPort bindAddress;
     public final EventLoopGroup eventLoopGroup;
     public final Upstream rrsets;
     public final DNSClient client;
     private Map<String, IP> hosts;
-    private final ByteBuffer buffer = Utils.allocateByteBuffer(Config.udpMtu);
     private final ConcurrentHashSet<ResolvingInfoRecorder> resolvingInfoRecorders = new ConcurrentHashSet<>();
+    private final DNSAnswerCache cache = new DNSAnswerCache(Config.dnsCacheSize, Config.dnsCacheMaxTtl, Config.dnsCacheNegativeMaxTtl);
+
+    // bind one socket with SO_REUSEPORT on each loop of the group, the kernel distributes packets between them
+    public final boolean sharded;
 
     private final ELGAttach elgAttach = new ELGAttach();
-    private final ELAttach elAttach = new ELAttach();
-    protected NetEventLoop loop = null;
-    private DatagramFD sock = null;
+    // one shard when not sharded
+    private final Map<SelectorEventLoop, Shard> shards = new ConcurrentHashMap<>();
+    protected NetEventLoop loop = null; // loop of the first started shard, which runs periodic tasks
+    private PeriodicEvent reloadHostsEvent = null;
     private boolean needToStart = false;
     public int ttl;
     public SecurityGroup securityGroup;
 
     public DNSServer(String alias, IPPort bindAddress, EventLoopGroup eventLoopGroup, Upstream rrsets, int ttl, SecurityGroup securityGroup) {
+        this(alias, bindAddress, eventLoopGroup, rrsets, ttl, securityGroup, Config.dnsServerSharded);
+    }
+
+    public DNSServer(String alias, IPPort bindAddress, EventLoopGroup eventLoopGroup, Upstream rrsets, int ttl, SecurityGroup securityGroup,
+                     boolean sharded) {
         this.alias = alias;
+        this.sharded = sharded;
         this.bindAddress = bindAddress;
         this.eventLoopGroup = eventLoopGroup;
         this.rrsets = rrsets;
@@ -86,7 +104,18 @@ public class DNSServer {
         }
     }
 
-    class ELAttach implements EventLoopAttach {
+    class Shard implements EventLoopAttach {
+        final NetEventLoop loop;
+        final DatagramFD sock;
+        // responses generated when handling a batch of requests, will be sent together
+        // only set on the loop thread while handling the batch
+        DatagramBatch pendingResponses = null;
+
+        Shard(NetEventLoop loop, DatagramFD sock) {
+            this.loop = loop;
+            this.sock = sock;
+        }
+
         @Override
         public String id() {
             return "DNSServer:" + alias;
@@ -94,6 +123,11 @@ public class DNSServer {
 
         @Override
         public void onClose() {
+            if (isSharded()) {
+                Logger.warn(LogType.ALERT, "closing event loop which runs a shard of dns-server " + alias);
+                removeShard(this);
+                return;
+            }
             Logger.error(LogType.IMPROPER_USE, "closing event loop which runs dns-server " + alias + ", the dns-server will be stopped");
             stop();
             // try to start again
@@ -349,26 +383,155 @@ public class DNSServer {
     }
 
     protected void runRecursive(DNSPacket p, IPPort remote) {
+        DNSAnswerCache.Key key = DNSAnswerCache.keyOf(p);
+        if (key == null) {
+            client.request(p, new Callback<>() {
+                @Override
+                protected void onSucceeded(DNSPacket value) {
+                    sendPacket(p.id, remote, value);
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    sendError(p, remote, err);
+                }
+            });
+            return;
+        }
+
+        boolean[] prefetch = {false};
+        ByteBuffer cached = cache.get(key, p, Config.currentTimestamp, prefetch);
+        if (cached != null) {
+            assert Logger.lowLevelDebug("dns cache hit: " + key);
+            GlobalInspection.getInstance().dnsCacheHit();
+            sendBytes(cached, remote);
+            if (prefetch[0]) {
+                // refresh the entry in background, nobody is waiting for the response
+                if (cache.startLookup(key, null)) {
+                    GlobalInspection.getInstance().dnsCachePrefetch();
+                    recursiveLookup(key, p);
+                }
+            }
+            return;
+        }
+        GlobalInspection.getInstance().dnsCacheMiss();
+        if (!cache.startLookup(key, new DNSAnswerCache.Waiter(p, remote))) {
+            assert Logger.lowLevelDebug("dns query " + key + " is already in flight");
+            GlobalInspection.getInstance().dnsCacheCoalesced();
+            return;
+        }
+        recursiveLookup(key, p);
+    }
+
+    private void recursiveLookup(DNSAnswerCache.Key key, DNSPacket p) {
         client.request(p, new Callback<>() {
             @Override
             protected void onSucceeded(DNSPacket value) {
-                sendPacket(p.id, remote, value);
+                byte[] bytes = value.toByteArray().toJavaArray();
+                cache.put(key, bytes, Config.currentTimestamp);
+                for (DNSAnswerCache.Waiter w : cache.finishLookup(key)) {
+                    sendBytes(DNSAnswerCache.toRequest(bytes, w.request), w.remote);
+                }
             }
 
             @Override
             protected void onFailed(IOException err) {
-                sendError(p, remote, err);
+                for (DNSAnswerCache.Waiter w : cache.finishLookup(key)) {
+                    sendError(w.request, w.remote, err);
+                }
             }
         });
     }
 
+    private void handlePacket(ByteBuffer packet, IPPort remote) {
+        if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
+            assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
+            return;
+        }
+        int read = packet.limit() - packet.position();
+        if (read == 0) {
+            return;
+        }
+        byte[] bytes = Utils.allocateByteArray(read);
+        packet.get(bytes);
+        ByteArray array = ByteArray.from(bytes);
+
+        List<DNSPacket> packets;
+        try {
+            packets = Formatter.parsePackets(array);
+        } catch (InvalidDNSPacketException e) {
+            Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
+            return;
+        }
+        assert Logger.lowLevelDebug("received dns packets: " + packets);
+        for (DNSPacket p : packets) {
+            if (p.isResponse) {
+                Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
+                continue;
+            }
+            if (p.opcode != DNSPacket.Opcode.QUERY) {
+                runRecursive(p, remote);
+                continue;
+            }
+            handleRequest(p, remote);
+        }
+    }
+
+    private void flushResponses(Shard shard) {
+        DatagramBatch batch = shard.pendingResponses;
+        if (batch == null || batch.size() == 0) {
+            return;
+        }
+        int sent;
+        try {
+            sent = shard.sock.send(batch);
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending " + batch.size() + " dns response packets failed", e);
+            batch.clear();
+            return;
+        }
+        if (sent < batch.size()) {
+            Logger.error(LogType.CONN_ERROR, "sending dns response packets failed, sent " + sent + " of " + batch.size());
+        }
+        batch.clear();
+        for (var r : resolvingInfoRecorders) {
+            for (int i = 0; i < sent; ++i) {
+                r.incSuccessfulResolvingCount();
+            }
+        }
+    }
+
     protected void sendPacket(int id, IPPort remote, DNSPacket p) {
         p.id = id;
-        ByteBuffer buf = ByteBuffer.wrap(p.toByteArray().toJavaArray());
+        sendBytes(ByteBuffer.wrap(p.toByteArray().toJavaArray()), remote);
+    }
+
+    private void sendBytes(ByteBuffer buf, IPPort remote) {
+        SelectorEventLoop current = SelectorEventLoop.current();
+        Shard shard = current == null ? null : shards.get(current);
+        if (shard != null && shard.pendingResponses != null) {
+            // handling requests on the loop, send the response later with other responses
+            DatagramBatch batch = shard.pendingResponses;
+            if (batch.isFull()) {
+                flushResponses(shard);
+            }
+            if (batch.add(buf, remote)) {
+                return;
+            }
+        }
+        if (shard == null) {
+            // not on a loop of this server, e.g. callback of a recursive lookup
+            // any socket works since they are bound to the same address
+            shard = anyShard();
+            if (shard == null) {
+                assert Logger.lowLevelDebug("dns server " + alias + " is stopped, drop the response to " + remote);
+                return;
+            }
+        }
         int len = buf.limit();
         int sent;
         try {
-            sent = sock.send(buf, remote);
+            sent = shard.sock.send(buf, remote);
         } catch (IOException e) {
             Logger.error(LogType.CONN_ERROR, "sending dns response packet to " + remote + " failed", e);
             return;
@@ -397,8 +560,24 @@ public class DNSServer {
         sendPacket(p.id, remote, p);
     }
 
-    public void start() throws IOException {
-        if (sock == null) { // udp sock not created yet
+    private Shard anyShard() {
+        NetEventLoop loop = this.loop;
+        if (loop != null) {
+            Shard shard = shards.get(loop.getSelectorEventLoop());
+            if (shard != null) {
+                return shard;
+            }
+        }
+        Iterator<Shard> ite = shards.values().iterator();
+        return ite.hasNext() ? ite.next() : null;
+    }
+
+    private boolean isSharded() {
+        return sharded && ServerSock.supportReusePort() && Config.supportReusePortLB();
+    }
+
+    public synchronized void start() throws IOException {
+        if (shards.isEmpty()) { // udp sock not created yet
             // need to check whether it's bond
             if (Config.checkBind) {
                 ServerSock.checkBind(bindAddress);
@@ -416,114 +595,184 @@ public class DNSServer {
         }
 
         needToStart = true;
-        loop = eventLoopGroup.next();
-        if (loop == null) {
-            assert Logger.lowLevelDebug("no event loop in the group for now, will start later when loop available");
-            return;
-        }
-        if (sock != null) { // already started
-            return;
+        if (isSharded()) {
+            List<EventLoopWrapper> eventLoops = eventLoopGroup.list();
+            if (eventLoops.isEmpty()) {
+                assert Logger.lowLevelDebug("no event loop in the group for now, will start later when loop available");
+                return;
+            }
+            for (EventLoopWrapper w : eventLoops) {
+                if (shards.containsKey(w.getSelectorEventLoop())) {
+                    continue; // already started on the loop
+                }
+                startShard(w);
+            }
+        } else {
+            if (!shards.isEmpty()) { // already started
+                return;
+            }
+            NetEventLoop w = eventLoopGroup.next();
+            if (w == null) {
+                assert Logger.lowLevelDebug("no event loop in the group for now, will start later when loop available");
+                return;
+            }
+            startShard(w);
         }
+    }
 
+    private void startShard(NetEventLoop w) throws IOException {
+        DatagramFD sock = FDProvider.get().openDatagramFD();
+        Shard shard = new Shard(w, sock);
         try {
-            ((EventLoopWrapper) loop).attachResource(elAttach);
+            ((EventLoopWrapper) w).attachResource(shard);
         } catch (AlreadyExistException e) {
+            sock.close();
             Logger.shouldNotHappen("adding attachment to event loop failed", e);
             throw new IOException("adding attachment to event loop failed, should not happen, it's a bug");
         } catch (ClosedException e) {
+            sock.close();
             throw new IOException("the event loop is already closed");
         }
 
-        Logger.alert("dns server " + alias + " " + bindAddress + " starts on loop " + ((EventLoopWrapper) loop).alias);
+        Logger.alert("dns server " + alias + " " + bindAddress + " starts on loop " + ((EventLoopWrapper) w).alias);
 
-        sock = FDProvider.get().openDatagramFD();
-        sock.configureBlocking(false);
-        if (ServerSock.supportReusePort()) {
-            sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
-        }
-        sock.bind(bindAddress);
-        loop.getSelectorEventLoop().add(sock, EventSet.read(), null, new Handler<>() {
-            @Override
-            public void accept(HandlerContext<DatagramFD> ctx) {
-                // will not fire
+        try {
+            sock.configureBlocking(false);
+            if (ServerSock.supportReusePort()) {
+                sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
             }
-
-            @Override
-            public void connected(HandlerContext<DatagramFD> ctx) {
-                // will not fire
+            sock.bind(bindAddress);
+            w.getSelectorEventLoop().add(sock, EventSet.read(), null, new ShardHandler(shard));
+        } catch (IOException e) {
+            try {
+                ((EventLoopWrapper) w).detachResource(shard);
+            } catch (NotFoundException ignore) {
             }
+            sock.close();
+            throw e;
+        }
+        shards.put(w.getSelectorEventLoop(), shard);
 
-            @Override
-            public void readable(HandlerContext<DatagramFD> ctx) {
+        if (loop == null) {
+            loop = w;
+            startReloadingHosts();
+        }
+    }
+
+    private class ShardHandler implements Handler<DatagramFD> {
+        private final Shard shard;
+
+        private ShardHandler(Shard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void accept(HandlerContext<DatagramFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void connected(HandlerContext<DatagramFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void readable(HandlerContext<DatagramFD> ctx) {
+            // the batches are thread local, so each shard uses buffers of its own loop
+            DatagramBatch batch = DatagramBatch.current(MAX_BATCHED_PACKET_LEN);
+            shard.pendingResponses = DatagramBatch.currentForSending(MAX_BATCHED_PACKET_LEN);
+            try {
                 while (true) { // read until no packet available
-                    buffer.limit(buffer.capacity()).position(0);
-                    IPPort remote;
+                    int n;
                     try {
-                        remote = ctx.getChannel().receive(buffer);
+                        n = ctx.getChannel().receive(batch);
                     } catch (IOException e) {
                         Logger.error(LogType.CONN_ERROR, "reading data from dns sock " + ctx.getChannel() + " failed", e);
                         return;
                     }
-                    if (remote == null) {
-                        return; // nothing received
-                    }
-                    if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
-                        assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
-                        continue;
-                    }
-                    int read = buffer.position();
-                    if (read == 0) {
-                        return;
-                    }
-                    buffer.flip();
-                    byte[] bytes = Utils.allocateByteArray(read);
-                    buffer.get(bytes);
-                    ByteArray array = ByteArray.from(bytes);
-
-                    List<DNSPacket> packets;
-                    try {
-                        packets = Formatter.parsePackets(array);
-                    } catch (InvalidDNSPacketException e) {
-                        Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
-                        return;
+                    for (int i = 0; i < n; ++i) {
+                        handlePacket(batch.packet(i), batch.remote(i));
                     }
-                    assert Logger.lowLevelDebug("received dns packets: " + packets);
-                    for (DNSPacket p : packets) {
-                        if (p.isResponse) {
-                            Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
-                            continue;
-                        }
-                        if (p.opcode != DNSPacket.Opcode.QUERY) {
-                            runRecursive(p, remote);
-                            continue;
-                        }
-                        handleRequest(p, remote);
+                    if (n < batch.capacity) {
+                        return; // nothing more to receive
                     }
                 }
+            } finally {
+                batch.clear();
+                flushResponses(shard);
+                shard.pendingResponses = null;
             }
+        }
 
-            @Override
-            public void writable(HandlerContext<DatagramFD> ctx) {
-                // will not fire
+        @Override
+        public void writable(HandlerContext<DatagramFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void removed(HandlerContext<DatagramFD> ctx) {
+            if (shards.get(shard.loop.getSelectorEventLoop()) != shard) {
+                return; // removed by stop() or removeShard()
+            }
+            if (isSharded()) {
+                Logger.warn(LogType.ALERT, "a shard of dns server (" + alias + ") is removed from event loop");
+                removeShard(shard);
+                return;
             }
+            Logger.alert("the current dns server (" + alias + ") is removed from event loop");
+            stop();
+            try {
+                start();
+            } catch (IOException e) {
+                Logger.error(LogType.IMPROPER_USE, "starting dns-server (" + alias + ") failed");
+            }
+        }
+    }
 
-            @Override
-            public void removed(HandlerContext<DatagramFD> ctx) {
-                Logger.alert("the current dns server (" + alias + ") is removed from event loop");
-                stop();
-                try {
-                    start();
-                } catch (IOException e) {
-                    Logger.error(LogType.IMPROPER_USE, "starting dns-server (" + alias + ") failed");
-                }
+    private synchronized void removeShard(Shard shard) {
+        if (!shards.remove(shard.loop.getSelectorEventLoop(), shard)) {
+            return;
+        }
+        closeShard(shard);
+        if (loop == shard.loop) {
+            stopReloadingHosts();
+            Shard next = anyShard();
+            loop = next == null ? null : next.loop;
+            if (loop != null) {
+                startReloadingHosts();
             }
-        });
+        }
+        Logger.alert("dns server " + alias + " " + bindAddress + " stops on loop " + ((EventLoopWrapper) shard.loop).alias
+            + ", " + shards.size() + " shard(s) left");
+    }
 
-        // start reloading hosts
-        loop.getSelectorEventLoop().period(30_000, () -> hosts = Resolver.getHosts());
+    private void startReloadingHosts() {
+        reloadHostsEvent = loop.getSelectorEventLoop().period(30_000, () -> hosts = Resolver.getHosts());
     }
 
-    public void stop() {
+    private void stopReloadingHosts() {
+        if (reloadHostsEvent != null) {
+            reloadHostsEvent.cancel();
+            reloadHostsEvent = null;
+        }
+    }
+
+    private void closeShard(Shard shard) {
+        try {
+            ((EventLoopWrapper) shard.loop).detachResource(shard);
+        } catch (NotFoundException ignore) {
+        }
+        try {
+            shard.loop.getSelectorEventLoop().remove(shard.sock);
+        } catch (Throwable ignore) {
+        }
+        try {
+            shard.sock.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    public synchronized void stop() {
         if (!needToStart) {
             return;
         }
@@ -533,27 +782,18 @@ public class DNSServer {
             eventLoopGroup.detachResource(elgAttach);
         } catch (NotFoundException ignore) {
         }
-        if (loop instanceof EventLoopWrapper) {
-            try {
-                ((EventLoopWrapper) loop).detachResource(elAttach);
-            } catch (NotFoundException ignore) {
-            }
-        }
 
-        if (sock != null) {
-            if (loop != null) {
-                try {
-                    loop.getSelectorEventLoop().remove(sock);
-                } catch (Throwable ignore) {
-                }
-            }
-            try {
-                sock.close();
-            } catch (IOException ignore) {
-            }
+        List<Shard> ls = new ArrayList<>(shards.values());
+        shards.clear();
+        for (Shard shard : ls) {
+            closeShard(shard);
         }
+        stopReloadingHosts();
         loop = null;
-        sock = null;
         assert Logger.lowLevelDebug("dns server " + alias + " stopped");
     }
+
+    public int shardCount() {
+        return shards.size();
+    }
 }
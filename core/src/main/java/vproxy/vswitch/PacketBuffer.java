@@ -52,8 +52,9 @@ public class PacketBuffer {
     // ----- packet -----
     public VXLanPacket vxlan;
     public AbstractEthernetPacket pkt; // not null if it's an input packet
-    public AbstractIpPacket ipPkt;
-    public TcpPacket tcpPkt;
+    public AbstractIpPacket ipPkt; // call ensurePartialPacketParsed() before using it
+    public TcpPacket tcpPkt; // call ensurePartialPacketParsed() before using it
+    private boolean partial = false; // the ip packet of pkt is not parsed yet
 
     // ----- helper fields -----
     // l3
@@ -152,7 +153,14 @@ public class PacketBuffer {
         } else {
             pkt = new EthernetPacket();
         }
-        String err = pkt.from(pktBuf);
+        String err;
+        if (pkt instanceof VXLanPacket) {
+            err = ((VXLanPacket) pkt).from(pktBuf, true);
+        } else if (pkt instanceof EthernetPacket) {
+            err = ((EthernetPacket) pkt).from(pktBuf, true);
+        } else {
+            err = pkt.from(pktBuf);
+        }
         if (err != null) {
             return err;
         }
@@ -170,6 +178,62 @@ public class PacketBuffer {
         return null;
     }
 
+    /**
+     * Build {@link #ipPkt} and {@link #tcpPkt} if the ip packet was left unparsed by {@link #init()}.
+     * Frames which are only forwarded by mac never need to call this method.
+     */
+    public void ensurePartialPacketParsed() {
+        if (!partial) {
+            return;
+        }
+        partial = false;
+        if (pkt.getPacket() instanceof AbstractIpPacket) {
+            ipPkt = (AbstractIpPacket) pkt.getPacket();
+            if (ipPkt.getPacket() instanceof TcpPacket) {
+                tcpPkt = (TcpPacket) ipPkt.getPacket();
+            }
+        }
+    }
+
+    /**
+     * Parse the input packet again on a copy of the buffer,
+     * so that the packet can be handled after the receiving buffer is reused, e.g. on another loop.
+     * Only for input packets which are not handled yet.
+     *
+     * @return error message if the copied bytes cannot be parsed, null if succeeded
+     */
+    public String copyInputBuffer() {
+        if (fullbuf == null) {
+            return null; // the packets are built on arrays of their own
+        }
+        fullbuf = fullbuf.copy();
+        if (pktOff == 0 && pad == 0) {
+            pktBuf = fullbuf;
+        } else {
+            pktBuf = fullbuf.sub(pktOff, fullbuf.length() - pad - pktOff);
+        }
+        return init();
+    }
+
+    /**
+     * Rebuild the ethernet packet on a copy of its bytes, so that it does not refer to the receiving buffer any more.
+     * Modifications on the packet are kept, while the buffers and the helper fields are cleared.
+     *
+     * @return error message if the copied bytes cannot be parsed, null if succeeded
+     */
+    public String copyPacket() {
+        if (fullbuf == null) {
+            return null; // the packets are built on arrays of their own
+        }
+        EthernetPacket ether = new EthernetPacket();
+        String err = ether.from(pkt.getRawPacket().copy());
+        if (err != null) {
+            return err;
+        }
+        replacePacket(ether);
+        return null;
+    }
+
     public void clearBuffers() {
         if (this.fullbuf instanceof XDPChunkByteArray) {
             var buf = (XDPChunkByteArray) this.fullbuf;
@@ -215,7 +279,14 @@ public class PacketBuffer {
         } else {
             this.vxlan = null;
         }
+        partial = false;
         if (hasEther) {
+            if (pkt instanceof EthernetPacket && !((EthernetPacket) pkt).isPacketParsed()) {
+                partial = true;
+                this.ipPkt = null;
+                this.tcpPkt = null;
+                return;
+            }
             if (pkt.getPacket() instanceof AbstractIpPacket) {
                 this.ipPkt = (AbstractIpPacket) pkt.getPacket();
                 hasIp = true;
@@ -1,6 +1,7 @@
 package vproxy.vswitch;
 
 import vproxy.base.util.Network;
+import vproxy.base.util.NetworkTrie;
 import vproxy.base.util.exception.AlreadyExistException;
 import vproxy.base.util.exception.NotFoundException;
 import vproxy.base.util.exception.XException;
@@ -9,7 +10,9 @@ import vproxy.vfd.IPv4;
 import vproxy.vfd.IPv6;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class RouteTable {
@@ -19,8 +22,10 @@ public class RouteTable {
     private final RouteRule defaultV4Rule;
     private final RouteRule defaultV6Rule;
 
-    private final List<RouteRule> rulesV4 = new ArrayList<>();
-    private final List<RouteRule> rulesV6 = new ArrayList<>();
+    // rules are indexed by the network prefix, the longest prefix matching the address is used
+    private final NetworkTrie<RouteRule> rulesV4 = new NetworkTrie<>(32);
+    private final NetworkTrie<RouteRule> rulesV6 = new NetworkTrie<>(128);
+    private final Map<String, RouteRule> aliases = new HashMap<>();
 
     public RouteTable() {
         this.defaultV4Rule = null;
@@ -35,52 +40,38 @@ public class RouteTable {
         }
         this.defaultV6Rule = defaultV6Rule;
 
-        rulesV4.add(defaultV4Rule);
+        addRule(defaultV4Rule, rulesV4);
         if (defaultV6Rule != null) {
-            rulesV6.add(defaultV6Rule);
+            addRule(defaultV6Rule, rulesV6);
         }
     }
 
     public RouteRule lookup(IP ip) {
         if (ip instanceof IPv4) {
-            for (RouteRule r : rulesV4) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
-            }
+            return rulesV4.longestMatch(ip.getAddress(), 0);
         } else {
-            for (RouteRule r : rulesV6) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
-            }
+            return rulesV6.longestMatch(ip.getAddress(), 0);
         }
-        return null;
     }
 
+    /**
+     * @return all rules, a rule is always placed before the rules containing it
+     */
     public List<RouteRule> getRules() {
         List<RouteRule> ret = new ArrayList<>(rulesV4.size() + rulesV6.size());
-        ret.addAll(rulesV4);
-        ret.addAll(rulesV6);
+        ret.addAll(rulesV4.values());
+        ret.addAll(rulesV6.values());
         return ret;
     }
 
-    public void addRule(RouteRule r) throws AlreadyExistException, XException {
-        for (RouteRule rr : rulesV4) {
-            if (rr.alias.equals(r.alias)) {
-                throw new AlreadyExistException("route", r.alias);
-            }
-            if (rr.rule.equals(r.rule)) {
-                throw new AlreadyExistException("route " + rr.alias + " has the same network rule as the adding one: " + r.rule);
-            }
+    public synchronized void addRule(RouteRule r) throws AlreadyExistException, XException {
+        if (aliases.containsKey(r.alias)) {
+            throw new AlreadyExistException("route", r.alias);
         }
-        for (RouteRule rr : rulesV6) {
-            if (rr.alias.equals(r.alias)) {
-                throw new AlreadyExistException("route", r.alias);
-            }
-            if (rr.rule.equals(r.rule)) {
-                throw new AlreadyExistException("route " + rr.alias + " has the same network rule as the adding one: " + r.rule);
-            }
+        NetworkTrie<RouteRule> rules = r.rule.getRawIpBytes().length == 4 ? rulesV4 : rulesV6;
+        RouteRule rr = rules.get(r.rule.getRawIpBytes(), r.rule.getMask());
+        if (rr != null) {
+            throw new AlreadyExistException("route " + rr.alias + " has the same network rule as the adding one: " + r.rule);
         }
 
         if (r.alias.equals(defaultRuleName)) {
@@ -100,82 +91,28 @@ public class RouteTable {
             }
         }
 
-        if (r.rule.getRawIpBytes().length == 4) {
-            addRule(r, rulesV4);
-        } else {
-            addRule(r, rulesV6);
-        }
+        addRule(r, rules);
     }
 
-    private void addRule(RouteRule r, List<RouteRule> rules) {
-        // try to find rules that contain each other
-        int similarRule = -1;
-        for (int i = 0; i < rules.size(); ++i) {
-            RouteRule ri = rules.get(i);
-            if (ri.rule.contains(r.rule) || r.rule.contains(ri.rule)) {
-                similarRule = i;
-                break;
-            }
-        }
-
-        if (similarRule == -1) { // no crossing among all rules
-            rules.add(r);
-            return;
-        }
-
-        // find a place to insert the rule
-        int insertIndex = 0;
-        for (int i = similarRule; i < rules.size(); ++i) {
-            RouteRule curr = rules.get(i);
-            RouteRule next = (i + 1) < rules.size() ? rules.get(i + 1) : null;
-            if (curr.rule.contains(r.rule)) { // the route at [i] contains the adding rule, so the adding rule should be placed before [i] rule
-                insertIndex = i;
-                break;
-            }
-            if (r.rule.contains(curr.rule)) { // should be placed after [i] rule
-                if (next == null) {
-                    insertIndex = i + 1;
-                    break;
-                }
-                if (r.rule.contains(next.rule)) {
-                    continue;
-                }
-                if (next.rule.contains(r.rule)) {
-                    insertIndex = i + 1;
-                    break;
-                }
-            }
-            // reaches here means the next rule has nothing to do with this network
-            // so place the new rule after (next to) [i] rule
-            insertIndex = i + 1;
-            break;
-        }
-        rules.add(insertIndex, r);
+    private void addRule(RouteRule r, NetworkTrie<RouteRule> rules) {
+        rules.put(r.rule.getRawIpBytes(), r.rule.getMask(), r);
+        aliases.put(r.alias, r);
     }
 
-    public void delRule(String alias) throws NotFoundException {
-        for (int i = 0; i < rulesV4.size(); ++i) {
-            var ri = rulesV4.get(i);
-            if (ri.alias.equals(alias)) {
-                rulesV4.remove(i);
-                return;
-            }
-        }
-        for (int i = 0; i < rulesV6.size(); ++i) {
-            var ri = rulesV6.get(i);
-            if (ri.alias.equals(alias)) {
-                rulesV6.remove(i);
-                return;
-            }
+    public synchronized void delRule(String alias) throws NotFoundException {
+        RouteRule r = aliases.remove(alias);
+        if (r == null) {
+            throw new NotFoundException("route", alias);
         }
-        throw new NotFoundException("route", alias);
+        NetworkTrie<RouteRule> rules = r.rule.getRawIpBytes().length == 4 ? rulesV4 : rulesV6;
+        rules.remove(r.rule.getRawIpBytes(), r.rule.getMask());
     }
 
     @Override
     public String toString() {
         return "RouteTable{" +
-            "rulesV4=" + rulesV4 +
-            ", rulesV6=" + rulesV6 +
+            "rulesV4=" + rulesV4.values() +
+            ", rulesV6=" + rulesV6.values() +
             '}';
     }
 
@@ -1,8 +1,15 @@
 package vproxy.vswitch;
 
+import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
+import vproxy.base.component.elgroup.EventLoopAttach;
 import vproxy.base.component.elgroup.EventLoopGroup;
 import vproxy.base.component.elgroup.EventLoopGroupAttach;
+import vproxy.base.component.elgroup.EventLoopWrapper;
 import vproxy.base.connection.NetEventLoop;
+import vproxy.base.connection.ServerSock;
+import vproxy.base.prometheus.Counter;
+import vproxy.base.selector.HandlerContext;
 import vproxy.base.selector.PeriodicEvent;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.Timer;
@@ -32,15 +39,30 @@ import vproxy.xdp.BPFMode;
 import vproxy.xdp.UMem;
 
 import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Switch {
+    private static final String switch_shard_input_packet_count = "switch_shard_input_packet_count";
+    private static final String switch_shard_input_bytes_total = "switch_shard_input_bytes_total";
+    private static final String switch_shard_handled_packet_count = "switch_shard_handled_packet_count";
+
+    static {
+        GlobalInspection.getInstance().registerHelpMessage(switch_shard_input_packet_count,
+            "Total count of packets received by the switch on the event loop");
+        GlobalInspection.getInstance().registerHelpMessage(switch_shard_input_bytes_total,
+            "Total bytes of packets received by the switch on the event loop");
+        GlobalInspection.getInstance().registerHelpMessage(switch_shard_handled_packet_count,
+            "Total count of packets handled by the network stack of the switch on the event loop");
+    }
+
     public final String alias;
     public final IPPort vxlanBindingAddress;
     public final EventLoopGroup eventLoopGroup;
-    private NetEventLoop eventLoop;
-    private PeriodicEvent refreshCacheEvent;
+    private final boolean sharded;
+    private volatile NetEventLoop eventLoop; // loop of the first shard, which runs the persistent ifaces
     private int macTableTimeout;
     private int arpTableTimeout;
     public SecurityGroup bareVXLanAccess;
@@ -52,10 +74,12 @@ public class Switch {
     private boolean started = false;
     private boolean wantStart = false;
 
-    private final Map<String, UserInfo> users = new HashMap<>();
-    private DatagramFD sock;
+    private final Map<String, UserInfo> users = new ConcurrentHashMap<>();
+    private volatile DatagramFD sock; // sock of the first shard
+    // one shard when not sharded
+    private final Map<SelectorEventLoop, Shard> shards = new ConcurrentHashMap<>();
     private final Map<Integer, Table> tables = new ConcurrentHashMap<>();
-    private final Map<Iface, IfaceTimer> ifaces = new HashMap<>();
+    private final Map<Iface, IfaceTimer> ifaces = new ConcurrentHashMap<>();
 
     private final Map<String, UMem> umems = new ConcurrentHashMap<>();
 
@@ -74,16 +98,31 @@ public class Switch {
         () -> eventLoop.getSelectorEventLoop(),
         this::onIfacePacketsArrive,
         this::utilRemoveIface,
-        this::initIface
+        this::initIface,
+        this::handOffPacket
     );
     private final NetworkStack netStack = new NetworkStack(swCtx);
 
     public Switch(String alias, IPPort vxlanBindingAddress, EventLoopGroup eventLoopGroup,
                   int macTableTimeout, int arpTableTimeout, SecurityGroup bareVXLanAccess,
                   int defaultMtu, boolean defaultFloodAllowed) throws AlreadyExistException, ClosedException {
+        this(alias, vxlanBindingAddress, eventLoopGroup, macTableTimeout, arpTableTimeout, bareVXLanAccess,
+            defaultMtu, defaultFloodAllowed, Config.switchSharded);
+    }
+
+    /**
+     * @param sharded bind one vxlan socket on each loop of the event loop group, and spread the vnis over the loops,
+     *                packets are received on any of the loops and handled on the loop of their vni.
+     *                Takes effect only when SO_REUSEPORT can balance packets between sockets.
+     *                Xdp is not supported by a sharded switch.
+     */
+    public Switch(String alias, IPPort vxlanBindingAddress, EventLoopGroup eventLoopGroup,
+                  int macTableTimeout, int arpTableTimeout, SecurityGroup bareVXLanAccess,
+                  int defaultMtu, boolean defaultFloodAllowed, boolean sharded) throws AlreadyExistException, ClosedException {
         this.alias = alias;
         this.vxlanBindingAddress = vxlanBindingAddress;
         this.eventLoopGroup = eventLoopGroup;
+        this.sharded = sharded;
         this.macTableTimeout = macTableTimeout;
         this.arpTableTimeout = arpTableTimeout;
         this.bareVXLanAccess = bareVXLanAccess;
@@ -114,31 +153,246 @@ public class Switch {
 
     public synchronized void start() throws IOException {
         wantStart = true;
-        if (started) {
+        if (!started) {
+            var netLoop = eventLoopGroup.next();
+            if (netLoop == null) {
+                return;
+            }
+
+            if (sock == null) {
+                sock = FDProvider.get().openDatagramFD();
+                try {
+                    sock.configureBlocking(false);
+                    if (isSharded()) {
+                        sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    }
+                    sock.bind(vxlanBindingAddress);
+                } catch (IOException e) {
+                    releaseSock();
+                    throw e;
+                }
+            }
+
+            if (isSharded()) {
+                // the first shard is removed in the same way as the others when its loop is closed
+                addShard(netLoop, sock);
+            } else {
+                var loop = netLoop.getSelectorEventLoop();
+                loop.add(sock, EventSet.read(), null, new DatagramInputHandler(swCtx));
+                addShard(new Shard(netLoop, sock));
+            }
+            eventLoop = netLoop;
+            startShards();
+            // the caches are cleared when stopped, so the tables can be moved to any loop
+            assignTables();
+            started = true;
             return;
         }
-        var netLoop = eventLoopGroup.next();
-        if (netLoop == null) {
+        // tables keep their loops, new shards handle new tables
+        startShards();
+    }
+
+    private void startShards() {
+        if (!isSharded()) {
             return;
         }
-
-        if (sock == null) {
-            sock = FDProvider.get().openDatagramFD();
+        for (EventLoopWrapper w : eventLoopGroup.list()) {
+            if (shards.containsKey(w.getSelectorEventLoop())) {
+                continue; // already started on the loop
+            }
             try {
-                sock.configureBlocking(false);
-                sock.bind(vxlanBindingAddress);
+                startShard(w);
             } catch (IOException e) {
-                releaseSock();
-                throw e;
+                Logger.error(LogType.SYS_ERROR, "starting a shard of Switch:" + alias + " on loop " + w.alias + " failed", e);
+            }
+        }
+    }
+
+    private boolean isSharded() {
+        return sharded && ServerSock.supportReusePort() && Config.supportReusePortLB();
+    }
+
+    private void startShard(EventLoopWrapper w) throws IOException {
+        DatagramFD sock = FDProvider.get().openDatagramFD();
+        try {
+            sock.configureBlocking(false);
+            sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            sock.bind(vxlanBindingAddress);
+            addShard(w, sock);
+        } catch (IOException e) {
+            sock.close();
+            throw e;
+        }
+        Logger.alert("Switch:" + alias + " " + vxlanBindingAddress.formatToIPPortString() + " starts a shard on loop " + w.alias);
+    }
+
+    private void addShard(EventLoopWrapper w, DatagramFD sock) throws IOException {
+        Shard shard = new Shard(w, sock);
+        try {
+            w.attachResource(shard);
+        } catch (AlreadyExistException e) {
+            shard.removeMetrics();
+            Logger.shouldNotHappen("adding attachment to event loop failed", e);
+            throw new IOException("adding attachment to event loop failed, should not happen, it's a bug");
+        } catch (ClosedException e) {
+            shard.removeMetrics();
+            throw new IOException("the event loop is already closed");
+        }
+        try {
+            w.getSelectorEventLoop().add(sock, EventSet.read(), null, new DatagramInputHandler(swCtx) {
+                @Override
+                public void removed(HandlerContext<DatagramFD> ctx) {
+                    if (shards.get(w.getSelectorEventLoop()) != shard) {
+                        return; // removed by stop() or removeShard()
+                    }
+                    Logger.warn(LogType.ALERT, "a shard of Switch:" + alias + " is removed from event loop");
+                    removeShard(shard);
+                }
+            });
+        } catch (IOException e) {
+            try {
+                w.detachResource(shard);
+            } catch (NotFoundException ignore) {
             }
+            shard.removeMetrics();
+            throw e;
         }
+        addShard(shard);
+    }
 
-        var loop = netLoop.getSelectorEventLoop();
-        loop.add(sock, EventSet.read(), null, new DatagramInputHandler(swCtx));
-        eventLoop = netLoop;
-        refreshCacheEvent = eventLoop.getSelectorEventLoop().period(40_000, this::refreshCache);
-        tables.values().forEach(t -> t.setLoop(loop));
-        started = true;
+    private void addShard(Shard shard) {
+        shards.put(shard.loop.getSelectorEventLoop(), shard);
+        shard.refreshCacheEvent = shard.loop.getSelectorEventLoop().period(40_000, () -> refreshCache(shard));
+    }
+
+    // spread the tables over the shards, all tables are assigned to the only shard when not sharded
+    private void assignTables() {
+        List<Shard> ls = new ArrayList<>(shards.values());
+        if (ls.isEmpty()) {
+            return;
+        }
+        int i = 0;
+        for (Table t : tables.values()) {
+            t.setLoop(ls.get(i++ % ls.size()).loop.getSelectorEventLoop());
+        }
+    }
+
+    // the shard handling the fewest tables
+    private Shard pickShard() {
+        Shard chosen = null;
+        int min = 0;
+        for (Shard shard : shards.values()) {
+            int n = 0;
+            for (Table t : tables.values()) {
+                if (t.getLoop() == shard.loop.getSelectorEventLoop()) {
+                    ++n;
+                }
+            }
+            if (chosen == null || n < min) {
+                chosen = shard;
+                min = n;
+            }
+        }
+        return chosen;
+    }
+
+    private synchronized void removeShard(Shard shard) {
+        if (!shards.remove(shard.loop.getSelectorEventLoop(), shard)) {
+            return;
+        }
+        SelectorEventLoop removed = shard.loop.getSelectorEventLoop();
+        if (shard.sock == sock) {
+            Shard next = pickShard();
+            if (next == null) {
+                closeShard(shard);
+                Logger.warn(LogType.ALERT, "the last shard of Switch:" + alias + " is removed, " +
+                    "the loop is considered to be closed, it's required to terminate all ifaces");
+                swCtx.loopRemovalStop();
+                return;
+            }
+            moveFirstShard(next);
+        }
+        closeShard(shard);
+        // caches of the tables are bound to the removed loop, so they are cleared and learned again on the new loop
+        for (Table t : tables.values()) {
+            if (t.getLoop() != removed) {
+                continue;
+            }
+            Shard next = pickShard();
+            if (next == null) {
+                break;
+            }
+            t.clearCache();
+            t.setLoop(next.loop.getSelectorEventLoop());
+        }
+        moveIfaces(removed);
+        Logger.alert("Switch:" + alias + " " + vxlanBindingAddress.formatToIPPortString() + " stops a shard on loop "
+            + shard.loop.alias + ", " + shards.size() + " shard(s) left");
+    }
+
+    // the persistent ifaces and new ifaces are bound to the loop and sock of the first shard
+    private void moveFirstShard(Shard next) {
+        DatagramFD old = sock;
+        sock = next.sock;
+        eventLoop = next.loop;
+        for (Iface iface : ifaces.keySet()) {
+            if (!(iface instanceof AbstractBaseSwitchSocketIface)) {
+                continue;
+            }
+            // the iface may be sending packets on other loops
+            synchronized (iface) {
+                ((AbstractBaseSwitchSocketIface) iface).switchSockReplaced(old, next.sock);
+            }
+        }
+        Logger.alert("Switch:" + alias + " moves the persistent ifaces to loop " + next.loop.alias);
+    }
+
+    // timers of the ifaces would never fire on the removed loop
+    private void moveIfaces(SelectorEventLoop removed) {
+        SelectorEventLoop loop = eventLoop.getSelectorEventLoop();
+        for (var entry : ifaces.entrySet()) {
+            Iface iface = entry.getKey();
+            IfaceTimer timer = entry.getValue();
+            if (timer.loop != removed) {
+                continue;
+            }
+            IfaceTimer newTimer = new IfaceTimer(loop, timer.getTimeout(), iface);
+            if (!ifaces.replace(iface, timer, newTimer)) {
+                continue; // removed or recorded concurrently
+            }
+            loop.runOnLoop(() -> {
+                if (iface instanceof IfaceBondToLoop) {
+                    ((IfaceBondToLoop) iface).attachedToLoopAlert(loop);
+                }
+                newTimer.resetTimer();
+            });
+        }
+    }
+
+    private void closeShard(Shard shard) {
+        if (shard.refreshCacheEvent != null) {
+            shard.refreshCacheEvent.cancel();
+            shard.refreshCacheEvent = null;
+        }
+        shard.removeMetrics();
+        if (shard.sock == sock && !isSharded()) {
+            return; // the sock is kept in the loop until the switch is destroyed
+        }
+        try {
+            shard.loop.detachResource(shard);
+        } catch (NotFoundException ignore) {
+        }
+        try {
+            shard.loop.getSelectorEventLoop().remove(shard.sock);
+        } catch (Throwable ignore) {
+        }
+        if (shard.sock == sock) {
+            return; // the sock of the first shard is kept until the switch is destroyed
+        }
+        try {
+            shard.sock.close();
+        } catch (IOException ignore) {
+        }
     }
 
     private void cancelAllIface() {
@@ -148,9 +402,10 @@ public class Switch {
 
     private void cancelEventLoop() {
         eventLoop = null;
-        if (refreshCacheEvent != null) {
-            refreshCacheEvent.cancel();
-            refreshCacheEvent = null;
+        List<Shard> ls = new ArrayList<>(shards.values());
+        shards.clear();
+        for (Shard shard : ls) {
+            closeShard(shard);
         }
     }
 
@@ -195,8 +450,18 @@ public class Switch {
         stop();
     }
 
-    private void refreshCache() {
+    /**
+     * @return count of loops receiving and handling packets, 1 when not sharded
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+
+    private void refreshCache(Shard shard) {
         for (Table t : tables.values()) {
+            if (t.getLoop() != shard.loop.getSelectorEventLoop()) {
+                continue; // handled by another shard
+            }
             for (ArpTable.ArpEntry arp : t.arpTable.listEntries()) {
                 if (arp.getTTL() < ArpTable.ARP_REFRESH_CACHE_BEFORE_TTL_TIME) {
                     refreshArpCache(t, arp.ip, arp.mac);
@@ -258,10 +523,13 @@ public class Switch {
         if (tables.containsKey(vni)) {
             throw new AlreadyExistException("vni " + vni + " already exists in switch " + alias);
         }
-        if (eventLoop == null) {
+        NetEventLoop netEventLoop = eventLoop;
+        if (netEventLoop == null) {
             throw new XException("the switch " + alias + " is not bond to any event loop, cannot add vni");
         }
-        return tables.computeIfAbsent(vni, n -> new Table(n, eventLoop, v4network, v6network, macTableTimeout, arpTableTimeout, annotations));
+        Shard shard = pickShard();
+        NetEventLoop loop = shard == null ? netEventLoop : shard.loop;
+        return tables.computeIfAbsent(vni, n -> new Table(n, loop, v4network, v6network, macTableTimeout, arpTableTimeout, annotations));
     }
 
     public void delTable(int vni) throws NotFoundException {
@@ -358,12 +626,17 @@ public class Switch {
         cb.block();
     }
 
-    private void recordIface(Iface iface) {
+    private void recordIface(Shard shard, Iface iface) {
         final int IFACE_TIMEOUT = 60 * 1000;
 
         var timer = ifaces.get(iface);
         if (timer == null) {
-            timer = new Switch.IfaceTimer(eventLoop.getSelectorEventLoop(), IFACE_TIMEOUT, iface);
+            timer = new Switch.IfaceTimer(shard.loop.getSelectorEventLoop(), IFACE_TIMEOUT, iface);
+        } else if (timer.loop != shard.loop.getSelectorEventLoop()) {
+            // the timer is not thread safe, record on the loop where the iface is found
+            var t = timer;
+            t.loop.runOnLoop(() -> t.record(iface));
+            return;
         }
         timer.record(iface);
     }
@@ -563,6 +836,9 @@ public class Switch {
         }
         SelectorEventLoop loop = netEventLoop.getSelectorEventLoop();
 
+        if (isSharded()) {
+            throw new XException("the switch " + this.alias + " is sharded, xdp is not supported");
+        }
         if (!umems.containsValue(umem)) {
             throw new XException("the provided umem does not belong to this switch");
         }
@@ -656,16 +932,33 @@ public class Switch {
     private void sendPacket(PacketBuffer pkb, Iface iface) {
         assert Logger.lowLevelDebug("sendPacket(" + pkb + ", " + iface + ")");
 
+        FilterResult res;
+        if (isSharded()) {
+            // the iface may be sending packets of other vnis on other loops
+            synchronized (iface) {
+                res = filterAndSendPacket(pkb, iface);
+            }
+        } else {
+            res = filterAndSendPacket(pkb, iface);
+        }
+        if (res != FilterResult.PASS) {
+            // handled out of the lock, the packet may be redirected to another iface
+            handleEgressFilterResult(pkb, res);
+        }
+    }
+
+    // the packet is sent only when the egress filter passes it
+    private FilterResult filterAndSendPacket(PacketBuffer pkb, Iface iface) {
         // handle it by packet filter
         var egressFilter = iface.getEgressFilter();
         if (egressFilter == null) {
             assert Logger.lowLevelDebug("no egress filter on " + iface);
         } else {
             assert Logger.lowLevelDebug("run egress filter " + egressFilter + " on " + pkb);
+            pkb.ensurePartialPacketParsed();
             var res = egressFilter.handle(swCtx, pkb);
             if (res != FilterResult.PASS) {
-                handleEgressFilterResult(pkb, res);
-                return;
+                return res;
             }
             assert Logger.lowLevelDebug("the filter returns pass");
         }
@@ -676,6 +969,7 @@ public class Switch {
         }
 
         iface.sendPacket(pkb);
+        return FilterResult.PASS;
     }
 
     private void handleEgressFilterResult(PacketBuffer pkb, FilterResult res) {
@@ -709,35 +1003,71 @@ public class Switch {
         Logger.error(LogType.IMPROPER_USE, "filter returns unexpected result " + res + " on packet egress");
     }
 
-    private final CursorList<PacketBuffer> socketBuffersToBeHandled = new CursorList<>(128);
+    private Shard currentShard() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        return shards.get(loop);
+    }
 
     private void onIfacePacketsArrive() {
+        Shard shard = currentShard();
         for (Iface iface : ifaces.keySet()) {
             PacketBuffer pkb;
             while ((pkb = iface.pollPacket()) != null) {
-                preHandleInputPkb(pkb);
+                if (shard == null) {
+                    assert Logger.lowLevelDebug("the switch is not running on current loop, drop " + pkb);
+                    continue;
+                }
+                inputPkb(shard, pkb);
             }
         }
-        handleInputPkb();
+        if (shard != null) {
+            handleInputPkb(shard);
+        }
     }
 
     private void onIfacePacketsArrive(CursorList<PacketBuffer> ls) {
-        while (!ls.isEmpty()) {
-            PacketBuffer pkb = ls.remove(ls.size() - 1);
-            preHandleInputPkb(pkb);
+        Shard shard = currentShard();
+        if (shard == null) {
+            assert Logger.lowLevelDebug("the switch is not running on current loop, drop " + ls.size() + " packet(s)");
+            ls.clear();
+            return;
         }
-        handleInputPkb();
+        // keep the receiving order
+        for (int i = 0; i < ls.size(); ++i) {
+            inputPkb(shard, ls.get(i));
+        }
+        ls.clear();
+        handleInputPkb(shard);
     }
 
     private void onIfacePacketsArrive(PacketBuffer pkb) {
-        preHandleInputPkb(pkb);
-        handleInputPkb();
+        Shard shard = currentShard();
+        if (shard == null) {
+            assert Logger.lowLevelDebug("the switch is not running on current loop, drop " + pkb);
+            return;
+        }
+        inputPkb(shard, pkb);
+        handleInputPkb(shard);
     }
 
-    private void preHandleInputPkb(PacketBuffer pkb) {
+    private void inputPkb(Shard shard, PacketBuffer pkb) {
+        shard.inputPacketCount.incr(1);
+        if (pkb.pktBuf != null) {
+            shard.inputBytes.incr(pkb.pktBuf.length());
+        } else if (pkb.vxlan != null) {
+            shard.inputBytes.incr(pkb.vxlan.getRawPacket().length());
+        }
+
         // ensure the dev is recorded
-        recordIface(pkb.devin);
+        recordIface(shard, pkb.devin);
 
+        preHandleInputPkb(shard, pkb);
+    }
+
+    private void preHandleInputPkb(Shard shard, PacketBuffer pkb) {
         // init vpc table
         int vni = pkb.vni;
         Table table = swCtx.getTable(vni);
@@ -745,6 +1075,10 @@ public class Switch {
             assert Logger.lowLevelDebug("vni not defined: " + vni);
             return;
         }
+        if (table.getLoop() != shard.loop.getSelectorEventLoop()) {
+            handOffInputPkb(shard, table, pkb);
+            return;
+        }
         pkb.table = table;
 
         // init tun packets
@@ -768,9 +1102,10 @@ public class Switch {
             assert Logger.lowLevelDebug("no ingress filter on " + pkb.devin);
         } else {
             assert Logger.lowLevelDebug("run ingress filter " + ingressFilter + " on " + pkb);
+            pkb.ensurePartialPacketParsed();
             var res = ingressFilter.handle(swCtx, pkb);
             if (res != FilterResult.PASS) {
-                handleIngressFilterResult(pkb, res);
+                handleIngressFilterResult(shard, pkb, res);
                 return;
             }
             assert Logger.lowLevelDebug("the filter returns pass");
@@ -787,10 +1122,63 @@ public class Switch {
             return;
         }
 
-        socketBuffersToBeHandled.add(pkb);
+        shard.socketBuffersToBeHandled.add(pkb);
+    }
+
+    private void handOffInputPkb(Shard shard, Table table, PacketBuffer pkb) {
+        Shard owner = shards.get(table.getLoop());
+        if (owner == null) {
+            assert Logger.lowLevelDebug("the loop of vni " + table.vni + " is not running, drop " + pkb);
+            return;
+        }
+        // the receiving buffer will be reused for the next packet
+        String err = pkb.copyInputBuffer();
+        if (err != null) {
+            Logger.shouldNotHappen("parsing the copied packet failed: " + err + ", " + pkb);
+            return;
+        }
+        assert Logger.lowLevelDebug("hand off " + pkb + " to the loop of vni " + table.vni);
+        shard.handOff(owner, () -> preHandleInputPkb(owner, pkb));
+    }
+
+    private boolean handOffPacket(PacketBuffer pkb, Table table, Runnable handle) {
+        SelectorEventLoop loop = table.getLoop();
+        if (loop == SelectorEventLoop.current()) {
+            return false;
+        }
+        Shard owner = shards.get(loop);
+        if (owner == null) {
+            assert Logger.lowLevelDebug("the loop of vni " + table.vni + " is not running, drop " + pkb);
+            return true;
+        }
+        String err = pkb.copyPacket();
+        if (err != null) {
+            Logger.shouldNotHappen("parsing the copied packet failed: " + err + ", " + pkb);
+            return true;
+        }
+        assert Logger.lowLevelDebug("hand off " + pkb + " to the loop of vni " + table.vni);
+        Shard shard = currentShard();
+        if (shard == null) {
+            loop.runOnLoop(() -> handleHandOffs(owner, List.of(handle)));
+        } else {
+            shard.handOff(owner, handle);
+        }
+        return true;
+    }
+
+    private void handleHandOffs(Shard shard, List<Runnable> handles) {
+        if (shards.get(shard.loop.getSelectorEventLoop()) != shard) {
+            assert Logger.lowLevelDebug("the shard is removed, drop " + handles.size() + " packet(s)");
+            return;
+        }
+        for (Runnable r : handles) {
+            VProxyThread.current().newUuidDebugInfo();
+            r.run();
+        }
+        handleInputPkb(shard);
     }
 
-    private void handleIngressFilterResult(PacketBuffer pkb, FilterResult res) {
+    private void handleIngressFilterResult(Shard shard, PacketBuffer pkb, FilterResult res) {
         if (res == FilterResult.DROP) {
             assert Logger.lowLevelDebug("ingress filter drops the packet: " + pkb);
             return;
@@ -811,7 +1199,8 @@ public class Switch {
                     assert Logger.lowLevelDebug("set devin to " + redirect);
                     pkb.devin = redirect;
                 }
-                preHandleInputPkb(pkb); // the packet is not actually handled yet, so run the preHandle would be enough
+                recordIface(shard, pkb.devin);
+                preHandleInputPkb(shard, pkb); // the packet is not actually handled yet, so run the preHandle would be enough
             } else {
                 sendPacket(pkb, redirect);
             }
@@ -878,7 +1267,25 @@ public class Switch {
         pkb.replacePacket(ether);
     }
 
-    private void handleInputPkb() {
+    private void handleInputPkb(Shard shard) {
+        // udp packets generated when handling the batch are sent together
+        boolean batchingSends = Config.switchBatchIO && shard.pendingSends == null;
+        if (batchingSends) {
+            shard.pendingSends = DatagramBatch.currentForSending(SwitchUtils.TOTAL_RCV_BUF_LEN);
+        }
+        try {
+            handleInputPkb0(shard);
+        } finally {
+            if (batchingSends) {
+                flushSends(shard);
+                shard.pendingSends = null;
+            }
+        }
+    }
+
+    private void handleInputPkb0(Shard shard) {
+        var socketBuffersToBeHandled = shard.socketBuffersToBeHandled;
+        shard.handledPacketCount.incr(socketBuffersToBeHandled.size());
         for (PacketBuffer pkb : socketBuffersToBeHandled) {
             // the umem chunk need to be released after processing
             XDPChunkByteArray umemChunkByteArray = null;
@@ -912,6 +1319,38 @@ public class Switch {
         utilRemoveIface(iface);
     }
 
+    private boolean sendLater(ByteBuffer data, IPPort remote) {
+        Shard shard = currentShard();
+        if (shard == null || shard.pendingSends == null) {
+            return false;
+        }
+        DatagramBatch batch = shard.pendingSends;
+        if (batch.isFull()) {
+            flushSends(shard);
+        }
+        return batch.add(data, remote);
+    }
+
+    private void flushSends(Shard shard) {
+        DatagramBatch batch = shard.pendingSends;
+        if (batch == null || batch.size() == 0) {
+            return;
+        }
+        // all shard socks are bound to the same address, so it's the same as sending with the sock of the iface
+        int sent;
+        try {
+            sent = shard.sock.send(batch);
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending " + batch.size() + " packets with " + shard.sock + " failed", e);
+            batch.clear();
+            return;
+        }
+        if (sent < batch.size()) {
+            assert Logger.lowLevelDebug("sock " + shard.sock + " is busy, " + (batch.size() - sent) + " packets dropped");
+        }
+        batch.clear();
+    }
+
     private final IfaceInitParams.PacketCallback packetCallback = new IfaceInitParams.PacketCallback() {
         @Override
         public void alertPacketsArrive() {
@@ -922,6 +1361,11 @@ public class Switch {
         public void alertDeviceDown(Iface iface) {
             onIfaceDown(iface);
         }
+
+        @Override
+        public boolean sendLater(ByteBuffer data, IPPort remote) {
+            return Switch.this.sendLater(data, remote);
+        }
     };
 
     private void ifaceAdded(Iface iface) {
@@ -938,7 +1382,7 @@ public class Switch {
         }
 
         for (var table : tables.values()) {
-            table.macTable.disconnect(iface);
+            table.getLoop().runOnLoop(() -> table.macTable.disconnect(iface));
         }
         Logger.warn(LogType.ALERT, iface + " disconnected from Switch:" + alias);
 
@@ -968,6 +1412,69 @@ public class Switch {
         return true;
     }
 
+    private class Shard implements EventLoopAttach {
+        final EventLoopWrapper loop;
+        final DatagramFD sock;
+        final CursorList<PacketBuffer> socketBuffersToBeHandled = new CursorList<>(128);
+        // packets to be handled on other shards, only accessed on the loop of this shard
+        private final Map<Shard, List<Runnable>> handOffs = new HashMap<>();
+        private boolean handOffScheduled = false;
+        PeriodicEvent refreshCacheEvent;
+        // udp packets to be sent after the current batch is handled
+        // only set on the loop thread while handling the batch
+        DatagramBatch pendingSends = null;
+
+        final Counter inputPacketCount;
+        final Counter inputBytes;
+        final Counter handledPacketCount;
+
+        Shard(EventLoopWrapper loop, DatagramFD sock) {
+            this.loop = loop;
+            this.sock = sock;
+
+            var labels = Map.of("switch", alias, "loop", loop.alias);
+            inputPacketCount = GlobalInspection.getInstance().addMetric(switch_shard_input_packet_count, labels, Counter::new);
+            inputBytes = GlobalInspection.getInstance().addMetric(switch_shard_input_bytes_total, labels, Counter::new);
+            handledPacketCount = GlobalInspection.getInstance().addMetric(switch_shard_handled_packet_count, labels, Counter::new);
+        }
+
+        void handOff(Shard target, Runnable handle) {
+            handOffs.computeIfAbsent(target, t -> new ArrayList<>()).add(handle);
+            if (!handOffScheduled) {
+                handOffScheduled = true;
+                // packets received in the same round of the loop are handed off together
+                loop.getSelectorEventLoop().nextTick(this::flushHandOffs);
+            }
+        }
+
+        private void flushHandOffs() {
+            handOffScheduled = false;
+            for (var entry : handOffs.entrySet()) {
+                Shard target = entry.getKey();
+                List<Runnable> handles = entry.getValue();
+                target.loop.getSelectorEventLoop().runOnLoop(() -> handleHandOffs(target, handles));
+            }
+            handOffs.clear();
+        }
+
+        void removeMetrics() {
+            GlobalInspection.getInstance().removeMetric(inputPacketCount);
+            GlobalInspection.getInstance().removeMetric(inputBytes);
+            GlobalInspection.getInstance().removeMetric(handledPacketCount);
+        }
+
+        @Override
+        public String id() {
+            return "Switch:" + alias;
+        }
+
+        @Override
+        public void onClose() {
+            Logger.warn(LogType.ALERT, "closing event loop which runs a shard of Switch:" + alias);
+            removeShard(this);
+        }
+    }
+
     private class SwitchEventLoopGroupAttach implements EventLoopGroupAttach {
         @Override
         public String id() {
@@ -1009,9 +1516,12 @@ public class Switch {
 
         void record(Iface newIface) {
             SwitchUtils.updateBothSideVni(iface, newIface);
-            if (ifaces.putIfAbsent(iface, this) == null) {
+            var old = ifaces.putIfAbsent(iface, this);
+            if (old == null) {
                 Logger.alert(iface + " connected to Switch:" + alias);
                 ifaceAdded(iface);
+            } else if (old != this) {
+                return; // recorded on another loop
             }
             resetTimer();
         }
@@ -20,7 +20,8 @@ public class SwitchContext {
                          GetSelectorEventLoop getSelectorEventLoopFunc,
                          AlertPacketsArrive alertPacketsArriveFunc,
                          DestroyIface destroyIfaceFunc,
-                         InitIface initIfaceFunc) {
+                         InitIface initIfaceFunc,
+                         HandOffPacket handOffPacketFunc) {
         this.sw = sw;
         this.netStack = netStack;
         this.loopRemovalStopFunc = loopRemovalStop;
@@ -32,6 +33,7 @@ public class SwitchContext {
         this.alertPacketsArriveFunc = alertPacketsArriveFunc;
         this.destroyIfaceFunc = destroyIfaceFunc;
         this.initIfaceFunc = initIfaceFunc;
+        this.handOffPacketFunc = handOffPacketFunc;
     }
 
     public final Switch sw;
@@ -126,4 +128,20 @@ public class SwitchContext {
     public void alertPacketsArrive(CursorList<PacketBuffer> pkb) {
         alertPacketsArriveFunc.alertPacketsArrive(pkb);
     }
+
+    public interface HandOffPacket {
+        boolean handOff(PacketBuffer pkb, Table table, Runnable handle);
+    }
+
+    private final HandOffPacket handOffPacketFunc;
+
+    /**
+     * hand off the packet to the loop which handles the table
+     *
+     * @return true if the handle will run on the loop of the table,
+     * false if the current loop handles the table, in which case the caller should continue handling the packet
+     */
+    public boolean handOffPacket(PacketBuffer pkb, Table table, Runnable handle) {
+        return handOffPacketFunc.handOff(pkb, table, handle);
+    }
 }
@@ -19,6 +19,7 @@ public class Table {
     public final SyntheticIpHolder ips;
     public final RouteTable routeTable;
     private Annotations annotations;
+    private volatile SelectorEventLoop loop; // the loop which handles packets of the vni
 
     public final Conntrack conntrack = new Conntrack();
 
@@ -33,6 +34,7 @@ public class Table {
             annotations = new Annotations();
         }
         this.annotations = annotations;
+        this.loop = loop.getSelectorEventLoop();
 
         macTable = new MacTable(loop.getSelectorEventLoop(), macTableTimeout);
         arpTable = new ArpTable(loop.getSelectorEventLoop(), arpTableTimeout);
@@ -57,7 +59,12 @@ public class Table {
         arpTable.clearCache();
     }
 
+    public SelectorEventLoop getLoop() {
+        return loop;
+    }
+
     public void setLoop(SelectorEventLoop loop) {
+        this.loop = loop;
         macTable.setLoop(loop);
         arpTable.setLoop(loop);
     }
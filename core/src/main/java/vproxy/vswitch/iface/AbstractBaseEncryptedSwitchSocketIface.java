@@ -9,8 +9,6 @@ import vproxy.vpacket.VProxyEncryptedPacket;
 import vproxy.vswitch.PacketBuffer;
 import vproxy.vswitch.util.SwitchUtils;
 
-import java.io.IOException;
-
 public abstract class AbstractBaseEncryptedSwitchSocketIface extends AbstractBaseSwitchSocketIface implements IfaceCanSendVProxyPacket {
     private final String user;
 
@@ -53,14 +51,6 @@ public abstract class AbstractBaseEncryptedSwitchSocketIface extends AbstractBas
         sndBuf.put(bytes);
         sndBuf.flip();
 
-        try {
-            if (sockConnected) {
-                sock.write(sndBuf);
-            } else {
-                sock.send(sndBuf, remote);
-            }
-        } catch (IOException e) {
-            Logger.error(LogType.CONN_ERROR, "sending packet to " + this + " failed", e);
-        }
+        sendSndBuf();
     }
 }
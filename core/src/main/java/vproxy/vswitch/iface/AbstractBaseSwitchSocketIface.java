@@ -15,7 +15,8 @@ public abstract class AbstractBaseSwitchSocketIface extends AbstractIface implem
     protected DatagramFD sock;
     protected boolean sockConnected = false; // default sock is the server sock in switch, so it's not connected
     public final IPPort remote;
-    protected final ByteBuffer sndBuf = Utils.allocateByteBuffer(2048);
+    // direct, so that sending does not use the shared writing buffer of the sock, which may be used on other loops
+    protected final ByteBuffer sndBuf = ByteBuffer.allocateDirect(2048);
 
     protected AbstractBaseSwitchSocketIface(IPPort remote) {
         this.remote = remote;
@@ -32,6 +33,13 @@ public abstract class AbstractBaseSwitchSocketIface extends AbstractIface implem
         this.sockConnected = connected;
     }
 
+    // the switch moves its sock to another loop when the loop running the sock is closed
+    public void switchSockReplaced(DatagramFD old, DatagramFD now) {
+        if (!sockConnected && sock == old) {
+            this.sock = now;
+        }
+    }
+
     @SuppressWarnings("DuplicatedCode")
     @Override
     public void sendPacket(PacketBuffer pkb) {
@@ -47,10 +55,14 @@ public abstract class AbstractBaseSwitchSocketIface extends AbstractIface implem
 
         manipulate();
 
+        sendSndBuf();
+    }
+
+    protected void sendSndBuf() {
         try {
             if (sockConnected) {
                 sock.write(sndBuf);
-            } else {
+            } else if (!callback.sendLater(sndBuf, remote)) {
                 sock.send(sndBuf, remote);
             }
         } catch (IOException e) {
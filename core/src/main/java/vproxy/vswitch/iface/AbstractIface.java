@@ -9,6 +9,7 @@ public abstract class AbstractIface implements Iface {
     private boolean floodAllowed;
     protected IfaceInitParams.PacketCallback callback;
     private final CursorList<PacketBuffer> rcvQ = new CursorList<>(1);
+    private int rcvQPolled = 0; // packets are polled in the receiving order
     private PacketFilter ingressFilter;
     private PacketFilter egressFilter;
 
@@ -39,8 +40,12 @@ public abstract class AbstractIface implements Iface {
 
     @Override
     public PacketBuffer pollPacket() {
-        if (rcvQ.isEmpty()) return null;
-        return rcvQ.remove(rcvQ.size() - 1);
+        if (rcvQPolled >= rcvQ.size()) {
+            rcvQ.clear();
+            rcvQPolled = 0;
+            return null;
+        }
+        return rcvQ.get(rcvQPolled++);
     }
 
     @Override
@@ -1,11 +1,13 @@
 package vproxy.vswitch.iface;
 
+import vproxy.base.Config;
 import vproxy.base.connection.Protocol;
 import vproxy.base.selector.Handler;
 import vproxy.base.selector.HandlerContext;
 import vproxy.base.util.*;
 import vproxy.base.util.objectpool.CursorList;
 import vproxy.base.util.thread.VProxyThread;
+import vproxy.vfd.DatagramBatch;
 import vproxy.vfd.DatagramFD;
 import vproxy.vfd.IPPort;
 import vproxy.vpacket.VProxyEncryptedPacket;
@@ -26,6 +28,9 @@ public class DatagramInputHandler implements Handler<DatagramFD> {
     private final ByteBuffer rcvBuf = Utils.allocateByteBuffer(TOTAL_LEN);
     private final ByteArray raw = ByteArray.from(rcvBuf.array());
     private final CursorList<PacketBuffer> rcvQ = new CursorList<>(1);
+    // buffers of packets received in one batch, the pkbs refer to them until the batch is handled
+    private ByteBuffer[] batchRcvBufs;
+    private ByteArray[] batchRaws;
 
     public DatagramInputHandler(SwitchContext swCtx) {
         this.swCtx = swCtx;
@@ -43,7 +48,64 @@ public class DatagramInputHandler implements Handler<DatagramFD> {
 
     @Override
     public void readable(HandlerContext<DatagramFD> ctx) {
-        readable0(ctx);
+        if (Config.switchBatchIO) {
+            readableBatch(ctx);
+        } else {
+            readable0(ctx);
+        }
+    }
+
+    private void readableBatch(HandlerContext<DatagramFD> ctx) {
+        DatagramFD sock = ctx.getChannel();
+        // the batch is thread local, packets are copied out of it before being handled
+        DatagramBatch batch = DatagramBatch.current(TOTAL_LEN - PRESERVED_LEN);
+        if (batchRcvBufs == null || batchRcvBufs.length < batch.capacity) {
+            batchRcvBufs = new ByteBuffer[batch.capacity];
+            batchRaws = new ByteArray[batch.capacity];
+            for (int i = 0; i < batch.capacity; ++i) {
+                batchRcvBufs[i] = Utils.allocateByteBuffer(TOTAL_LEN);
+                batchRaws[i] = ByteArray.from(batchRcvBufs[i].array());
+            }
+        }
+        try {
+            while (true) { // read until no packet available
+                int n;
+                try {
+                    n = sock.receive(batch);
+                } catch (IOException e) {
+                    Logger.error(LogType.CONN_ERROR, "udp sock " + sock + " got error when reading", e);
+                    return;
+                }
+                for (int i = 0; i < n; ++i) {
+                    VProxyThread.current().newUuidDebugInfo();
+
+                    ByteBuffer packet = batch.packet(i);
+                    if (packet.limit() - packet.position() > TOTAL_LEN - PRESERVED_LEN) {
+                        assert Logger.lowLevelDebug("packet too large: " + (packet.limit() - packet.position()) + ", drop it");
+                        continue;
+                    }
+                    ByteBuffer buf = batchRcvBufs[i];
+                    buf.limit(TOTAL_LEN).position(PRESERVED_LEN);
+                    buf.put(packet);
+
+                    var pkb = handleNetworkAndGetPKB(buf, batchRaws[i], batch.remote(i));
+                    if (pkb == null) {
+                        assert Logger.lowLevelDebug("no pkb provided, ignore");
+                        continue;
+                    }
+                    rcvQ.add(pkb);
+                }
+                if (!rcvQ.isEmpty()) {
+                    // the packets are handled together
+                    swCtx.alertPacketsArrive(rcvQ);
+                }
+                if (n < batch.capacity) {
+                    return; // nothing more to receive
+                }
+            }
+        } finally {
+            batch.clear();
+        }
     }
 
     private void readable0(HandlerContext<DatagramFD> ctx) {
@@ -63,7 +125,7 @@ public class DatagramInputHandler implements Handler<DatagramFD> {
                 break; // nothing read, quit loop
             }
 
-            var pkb = handleNetworkAndGetPKB(remote);
+            var pkb = handleNetworkAndGetPKB(rcvBuf, raw, remote);
             if (pkb == null) {
                 assert Logger.lowLevelDebug("no pkb provided, ignore");
                 continue;
@@ -73,7 +135,7 @@ public class DatagramInputHandler implements Handler<DatagramFD> {
         }
     }
 
-    private PacketBuffer handleNetworkAndGetPKB(IPPort remote) {
+    private PacketBuffer handleNetworkAndGetPKB(ByteBuffer rcvBuf, ByteArray raw, IPPort remote) {
         ByteArray data = raw.sub(PRESERVED_LEN, rcvBuf.position() - PRESERVED_LEN);
 
         VProxyEncryptedPacket packet = new VProxyEncryptedPacket(uname -> {
@@ -249,7 +311,10 @@ public class DatagramInputHandler implements Handler<DatagramFD> {
         });
         p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
         p.setType(Consts.VPROXY_SWITCH_TYPE_PING);
-        iface.sendVProxyPacket(p);
+        // the iface may be sending packets on another loop when the switch is sharded
+        synchronized (iface) {
+            iface.sendVProxyPacket(p);
+        }
     }
 
     @Override
@@ -0,0 +1,13 @@
+package vproxy.vswitch.iface;
+
+import vproxy.base.selector.SelectorEventLoop;
+
+public interface IfaceBondToLoop {
+    /**
+     * the fds are removed from the closed loop but kept open,
+     * the iface will be attached to another loop or destroyed by the switch
+     */
+    void detachedFromLoopAlert(SelectorEventLoop loop);
+
+    void attachedToLoopAlert(SelectorEventLoop newLoop);
+}
@@ -2,9 +2,11 @@ package vproxy.vswitch.iface;
 
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.vfd.DatagramFD;
+import vproxy.vfd.IPPort;
 import vproxy.vswitch.Switch;
 import vproxy.vswitch.util.UserInfo;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public class IfaceInitParams {
@@ -30,5 +32,12 @@ public class IfaceInitParams {
         void alertPacketsArrive();
 
         void alertDeviceDown(Iface iface);
+
+        /**
+         * send the datagram with the switch sock after the current batch of packets is handled
+         *
+         * @return true if the data is copied and will be sent later, false if the caller should send it now
+         */
+        boolean sendLater(ByteBuffer data, IPPort remote);
     }
 }
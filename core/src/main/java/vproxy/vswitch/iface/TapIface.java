@@ -1,5 +1,6 @@
 package vproxy.vswitch.iface;
 
+import vproxy.base.Config;
 import vproxy.base.selector.Handler;
 import vproxy.base.selector.HandlerContext;
 import vproxy.base.selector.SelectorEventLoop;
@@ -15,7 +16,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
-public class TapIface extends AbstractIface implements Iface {
+public class TapIface extends AbstractIface implements Iface, IfaceBondToLoop {
     public final String devPattern;
     private TapDatagramFD tap;
     public final int localSideVni;
@@ -77,7 +78,7 @@ public class TapIface extends AbstractIface implements Iface {
             } else {
                 operateTap = new BlockingDatagramFD<>(tap, bondLoop, 2048, 65536, 32);
             }
-            bondLoop.add(operateTap, EventSet.read(), null, new TapHandler());
+            bondLoop.add(operateTap, EventSet.read(), null, new TapHandler(bondLoop));
         } catch (IOException e) {
             if (operateTap != null) {
                 try {
@@ -132,6 +133,24 @@ public class TapIface extends AbstractIface implements Iface {
         }
     }
 
+    @Override
+    public synchronized void detachedFromLoopAlert(SelectorEventLoop loop) {
+        if (bondLoop == loop) { // may be already attached to another loop
+            bondLoop = null;
+        }
+    }
+
+    @Override
+    public synchronized void attachedToLoopAlert(SelectorEventLoop newLoop) {
+        this.bondLoop = newLoop;
+        try {
+            bondLoop.add(operateTap, EventSet.read(), null, new TapHandler(bondLoop));
+        } catch (IOException e) {
+            Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "adding tap device " + tap + " for " + this + " into event loop failed", e);
+            callback.alertDeviceDown(this);
+        }
+    }
+
     @Override
     public void destroy() {
         if (operateTap != null) {
@@ -162,10 +181,23 @@ public class TapIface extends AbstractIface implements Iface {
         private static final int PRESERVED_LEN = SwitchUtils.RCV_HEAD_PRESERVE_LEN;
 
         private final TapIface iface = TapIface.this;
+        private final SelectorEventLoop loop;
         private final TapDatagramFD tapDatagramFD = TapIface.this.tap;
 
-        private final ByteBuffer rcvBuf = Utils.allocateByteBuffer(TOTAL_LEN);
-        private final ByteArray raw = ByteArray.from(rcvBuf.array());
+        // packets read in one round refer to the buffers until they are handled
+        private final ByteBuffer[] rcvBufs = new ByteBuffer[Config.switchBatchIO ? Config.udpBatchSize : 1];
+        private final ByteArray[] raws = new ByteArray[rcvBufs.length];
+
+        {
+            for (int i = 0; i < rcvBufs.length; ++i) {
+                rcvBufs[i] = Utils.allocateByteBuffer(TOTAL_LEN);
+                raws[i] = ByteArray.from(rcvBufs[i].array());
+            }
+        }
+
+        TapHandler(SelectorEventLoop loop) {
+            this.loop = loop;
+        }
 
         @Override
         public void accept(HandlerContext<AbstractDatagramFD<?>> ctx) {
@@ -180,27 +212,41 @@ public class TapIface extends AbstractIface implements Iface {
         @Override
         public void readable(HandlerContext<AbstractDatagramFD<?>> ctx) {
             while (true) {
-                VProxyThread.current().newUuidDebugInfo();
+                int count = 0;
+                boolean drained = false;
+                for (int i = 0; i < rcvBufs.length; ++i) {
+                    VProxyThread.current().newUuidDebugInfo();
 
-                rcvBuf.limit(TOTAL_LEN).position(PRESERVED_LEN);
-                try {
-                    ctx.getChannel().read(rcvBuf);
-                } catch (IOException e) {
-                    Logger.error(LogType.CONN_ERROR, "tap device " + tapDatagramFD + " got error when reading", e);
-                    return;
+                    ByteBuffer rcvBuf = rcvBufs[i];
+                    rcvBuf.limit(TOTAL_LEN).position(PRESERVED_LEN);
+                    try {
+                        ctx.getChannel().read(rcvBuf);
+                    } catch (IOException e) {
+                        Logger.error(LogType.CONN_ERROR, "tap device " + tapDatagramFD + " got error when reading", e);
+                        drained = true;
+                        break;
+                    }
+                    if (rcvBuf.position() == PRESERVED_LEN) {
+                        drained = true;
+                        break; // nothing read, quit loop
+                    }
+                    PacketBuffer pkb = PacketBuffer.fromEtherBytes(iface, localSideVni, raws[i], PRESERVED_LEN, TOTAL_LEN - rcvBuf.position());
+                    String err = pkb.init();
+                    if (err != null) {
+                        assert Logger.lowLevelDebug("got invalid packet: " + err);
+                        continue;
+                    }
+
+                    received(pkb);
+                    ++count;
                 }
-                if (rcvBuf.position() == PRESERVED_LEN) {
-                    break; // nothing read, quit loop
+                if (count > 0) {
+                    // packets read in one round are handled together
+                    callback.alertPacketsArrive();
                 }
-                PacketBuffer pkb = PacketBuffer.fromEtherBytes(iface, localSideVni, raw, PRESERVED_LEN, TOTAL_LEN - rcvBuf.position());
-                String err = pkb.init();
-                if (err != null) {
-                    assert Logger.lowLevelDebug("got invalid packet: " + err);
-                    continue;
+                if (drained) {
+                    return;
                 }
-
-                received(pkb);
-                callback.alertPacketsArrive();
             }
         }
 
@@ -211,6 +257,12 @@ public class TapIface extends AbstractIface implements Iface {
 
         @Override
         public void removed(HandlerContext<AbstractDatagramFD<?>> ctx) {
+            if (loop.isClosed() && operateTap == tapDatagramFD) {
+                // the device is kept open, the switch attaches it to another loop or destroys it
+                Logger.warn(LogType.ALERT, "tap device " + tapDatagramFD + " removed from the closed loop");
+                iface.detachedFromLoopAlert(loop);
+                return;
+            }
             Logger.warn(LogType.CONN_ERROR, "tap device " + tapDatagramFD + " removed from loop, it's not handled anymore, need to be closed");
             callback.alertDeviceDown(iface);
         }
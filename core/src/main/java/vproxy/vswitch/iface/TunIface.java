@@ -1,5 +1,6 @@
 package vproxy.vswitch.iface;
 
+import vproxy.base.Config;
 import vproxy.base.selector.Handler;
 import vproxy.base.selector.HandlerContext;
 import vproxy.base.selector.SelectorEventLoop;
@@ -16,7 +17,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
-public class TunIface extends AbstractIface implements Iface {
+public class TunIface extends AbstractIface implements Iface, IfaceBondToLoop {
     private final ByteArray icmpPingPayloadPrefix = ByteArray.from("vpsrtunarp");
     private final ByteArray icmpPingPayloadPlaceHolder = ByteArray.from("macadd"); // 6 bytes mac of the original req pkt
     private final ByteArray icmpPingOtherPart = ByteArray.from("id").concat(ByteArray.from(0, 0))
@@ -88,7 +89,7 @@ public class TunIface extends AbstractIface implements Iface {
             } else {
                 operateTun = new BlockingDatagramFD<>(tun, bondLoop, 2048, 65536, 32);
             }
-            bondLoop.add(operateTun, EventSet.read(), null, new TunHandler());
+            bondLoop.add(operateTun, EventSet.read(), null, new TunHandler(bondLoop));
         } catch (IOException e) {
             if (operateTun != null) {
                 try {
@@ -132,6 +133,7 @@ public class TunIface extends AbstractIface implements Iface {
 
     @Override
     public void sendPacket(PacketBuffer pkb) {
+        pkb.ensurePartialPacketParsed();
         if (handleArpOrNdpOutput(pkb)) {
             assert Logger.lowLevelDebug("the packet is arp/ndp req, which is handled another way, " +
                 "original packet will not be sent");
@@ -285,6 +287,24 @@ public class TunIface extends AbstractIface implements Iface {
         return SwitchUtils.buildEtherIpPacket(dldst, mac, ipicmp);
     }
 
+    @Override
+    public synchronized void detachedFromLoopAlert(SelectorEventLoop loop) {
+        if (bondLoop == loop) { // may be already attached to another loop
+            bondLoop = null;
+        }
+    }
+
+    @Override
+    public synchronized void attachedToLoopAlert(SelectorEventLoop newLoop) {
+        this.bondLoop = newLoop;
+        try {
+            bondLoop.add(operateTun, EventSet.read(), null, new TunHandler(bondLoop));
+        } catch (IOException e) {
+            Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "adding tun device " + tun + " for " + this + " into event loop failed", e);
+            callback.alertDeviceDown(this);
+        }
+    }
+
     @Override
     public void destroy() {
         if (operateTun != null) {
@@ -315,10 +335,23 @@ public class TunIface extends AbstractIface implements Iface {
         private static final int PRESERVED_LEN = SwitchUtils.RCV_HEAD_PRESERVE_LEN;
 
         private final TunIface iface = TunIface.this;
+        private final SelectorEventLoop loop;
         private final TapDatagramFD tunDatagramFD = TunIface.this.tun;
 
-        private final ByteBuffer rcvBuf = Utils.allocateByteBuffer(TOTAL_LEN);
-        private final ByteArray raw = ByteArray.from(rcvBuf.array());
+        // packets read in one round refer to the buffers until they are handled
+        private final ByteBuffer[] rcvBufs = new ByteBuffer[Config.switchBatchIO ? Config.udpBatchSize : 1];
+        private final ByteArray[] raws = new ByteArray[rcvBufs.length];
+
+        {
+            for (int i = 0; i < rcvBufs.length; ++i) {
+                rcvBufs[i] = Utils.allocateByteBuffer(TOTAL_LEN);
+                raws[i] = ByteArray.from(rcvBufs[i].array());
+            }
+        }
+
+        TunHandler(SelectorEventLoop loop) {
+            this.loop = loop;
+        }
 
         @Override
         public void accept(HandlerContext<AbstractDatagramFD<?>> ctx) {
@@ -332,31 +365,45 @@ public class TunIface extends AbstractIface implements Iface {
 
         @Override
         public void readable(HandlerContext<AbstractDatagramFD<?>> ctx) {
+            int position = PRESERVED_LEN - (OS.isMac() ? 4 : 0);
             while (true) {
-                VProxyThread.current().newUuidDebugInfo();
-
-                int position = PRESERVED_LEN - (OS.isMac() ? 4 : 0);
-                rcvBuf.limit(TOTAL_LEN).position(position);
-                try {
-                    ctx.getChannel().read(rcvBuf);
-                } catch (IOException e) {
-                    Logger.error(LogType.CONN_ERROR, "tun device " + tunDatagramFD + " got error when reading", e);
-                    return;
+                int count = 0;
+                boolean drained = false;
+                for (int i = 0; i < rcvBufs.length; ++i) {
+                    VProxyThread.current().newUuidDebugInfo();
+
+                    ByteBuffer rcvBuf = rcvBufs[i];
+                    rcvBuf.limit(TOTAL_LEN).position(position);
+                    try {
+                        ctx.getChannel().read(rcvBuf);
+                    } catch (IOException e) {
+                        Logger.error(LogType.CONN_ERROR, "tun device " + tunDatagramFD + " got error when reading", e);
+                        drained = true;
+                        break;
+                    }
+                    if (rcvBuf.position() == position) {
+                        drained = true;
+                        break; // nothing read, quit loop
+                    }
+                    PacketBuffer pkb = PacketBuffer.fromIpBytes(iface, localSideVni, raws[i], PRESERVED_LEN, TOTAL_LEN - rcvBuf.position());
+                    String err = pkb.init();
+                    if (err != null) {
+                        assert Logger.lowLevelDebug("got invalid packet: " + err);
+                        continue;
+                    }
+
+                    transformToArpOrNdpInput(pkb);
+
+                    received(pkb);
+                    ++count;
                 }
-                if (rcvBuf.position() == position) {
-                    break; // nothing read, quit loop
+                if (count > 0) {
+                    // packets read in one round are handled together
+                    callback.alertPacketsArrive();
                 }
-                PacketBuffer pkb = PacketBuffer.fromIpBytes(iface, localSideVni, raw, PRESERVED_LEN, TOTAL_LEN - rcvBuf.position());
-                String err = pkb.init();
-                if (err != null) {
-                    assert Logger.lowLevelDebug("got invalid packet: " + err);
-                    continue;
+                if (drained) {
+                    return;
                 }
-
-                transformToArpOrNdpInput(pkb);
-
-                received(pkb);
-                callback.alertPacketsArrive();
             }
         }
 
@@ -367,6 +414,12 @@ public class TunIface extends AbstractIface implements Iface {
 
         @Override
         public void removed(HandlerContext<AbstractDatagramFD<?>> ctx) {
+            if (loop.isClosed() && operateTun == tunDatagramFD) {
+                // the device is kept open, the switch attaches it to another loop or destroys it
+                Logger.warn(LogType.ALERT, "tun device " + tunDatagramFD + " removed from the closed loop");
+                iface.detachedFromLoopAlert(loop);
+                return;
+            }
             Logger.warn(LogType.CONN_ERROR, "tun device " + tunDatagramFD + " removed from loop, it's not handled anymore, need to be closed");
             callback.alertDeviceDown(iface);
         }
@@ -20,7 +20,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
-public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface implements Iface, IfaceCanSendVProxyPacket {
+public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface implements Iface, IfaceCanSendVProxyPacket, IfaceBondToLoop {
     public final UserInfo user;
     private final Aes256Key key;
 
@@ -34,11 +34,15 @@ public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface impl
         this.key = key;
     }
 
-    public void detachedFromLoopAlert() {
-        bondLoop = null;
+    @Override
+    public synchronized void detachedFromLoopAlert(SelectorEventLoop loop) {
+        if (bondLoop == loop) { // may be already attached to another loop
+            bondLoop = null;
+        }
     }
 
-    public void attachedToLoopAlert(SelectorEventLoop newLoop) {
+    @Override
+    public synchronized void attachedToLoopAlert(SelectorEventLoop newLoop) {
         this.bondLoop = newLoop;
         try {
             bondLoop.add(sock, EventSet.read(), null, new UserClientHandler(bondLoop));
@@ -154,6 +158,7 @@ public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface impl
     private class UserClientHandler implements Handler<DatagramFD> {
         private final ByteBuffer rcvBuf = Utils.allocateByteBuffer(SwitchUtils.TOTAL_RCV_BUF_LEN);
         private final UserClientIface iface = UserClientIface.this;
+        private final SelectorEventLoop loop;
 
         private ConnectedToSwitchTimer connectedToSwitchTimer = null;
         private static final int toSwitchTimeoutSeconds = 60;
@@ -176,6 +181,7 @@ public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface impl
         }
 
         public UserClientHandler(SelectorEventLoop loop) {
+            this.loop = loop;
             pingPeriodicEvent = loop.period(pingPeriod, this::sendPingPacket);
             sendPingPacket();
         }
@@ -250,7 +256,7 @@ public class UserClientIface extends AbstractBaseEncryptedSwitchSocketIface impl
 
         @Override
         public void removed(HandlerContext<DatagramFD> ctx) {
-            iface.detachedFromLoopAlert();
+            iface.detachedFromLoopAlert(loop);
             if (connectedToSwitchTimer != null) {
                 connectedToSwitchTimer.cancel();
                 connectedToSwitchTimer = null;
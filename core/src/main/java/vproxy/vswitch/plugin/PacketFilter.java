@@ -3,6 +3,12 @@ package vproxy.vswitch.plugin;
 import vproxy.vswitch.PacketBuffer;
 import vproxy.vswitch.SwitchContext;
 
+/**
+ * When the switch is sharded, packets of different vnis are handled on different event loops.
+ * The egress filter of an iface runs while holding the lock of the iface,
+ * but the ingress filter runs without any lock, and one filter may be set on multiple ifaces,
+ * so the filter must be thread safe.
+ */
 public interface PacketFilter {
     FilterResult handle(SwitchContext swCtx, PacketBuffer pkb);
 }
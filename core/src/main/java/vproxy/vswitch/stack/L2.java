@@ -115,6 +115,13 @@ public class L2 {
     private void updateArpTable(PacketBuffer pkb) {
         assert Logger.lowLevelDebug("updateArpTable(" + pkb + ")");
 
+        // only arp and ndp (over ipv6) packets are used, check the type before the payload is parsed
+        int type = pkb.pkt.getType();
+        if (type != Consts.ETHER_TYPE_ARP && type != Consts.ETHER_TYPE_IPv6) {
+            assert Logger.lowLevelDebug("neither arp nor ipv6");
+            return;
+        }
+
         AbstractPacket packet = pkb.pkt.getPacket();
         if (packet instanceof ArpPacket) {
 
@@ -27,6 +27,7 @@ public class L3 {
 
     public void input(PacketBuffer pkb) {
         assert Logger.lowLevelDebug("L3.input(" + pkb + ")");
+        pkb.ensurePartialPacketParsed();
         if (pkb.pkt.getDst().isUnicast()) {
             handleInputUnicast(pkb);
         } else {
@@ -451,37 +452,11 @@ public class L3 {
             }
             assert Logger.lowLevelDebug("target table is found");
 
-            // get src mac
-            var newSrcMac = getRoutedSrcMac(t, dst);
-            if (newSrcMac == null) {
-                assert Logger.lowLevelDebug("cannot route because source mac is not found");
+            if (swCtx.handOffPacket(pkb, t, () -> routeToAnotherVpc(pkb, t, dst))) {
+                assert Logger.lowLevelDebug("the target table is handled on another loop");
                 return;
             }
-
-            var targetRule = t.routeTable.lookup(dst);
-            if (!targetRule.isLocalDirect(t.vni)) {
-                assert Logger.lowLevelDebug("still require routing after switching the table");
-                pkb.setTable(t);
-                pkb.pkt.setSrc(newSrcMac);
-                routeOutput(pkb);
-                return;
-            }
-
-            assert Logger.lowLevelDebug("direct route after switching the table");
-
-            // get target mac
-            var targetMac = t.lookup(dst);
-            if (targetMac == null) {
-                assert Logger.lowLevelDebug("cannot route because dest mac is not found");
-                broadcastArpOrNdp(t, dst);
-                return;
-            }
-            assert Logger.lowLevelDebug("found dst mac: " + targetMac);
-
-            pkb.pkt.setSrc(newSrcMac);
-            pkb.pkt.setDst(targetMac);
-            pkb.setTable(t);
-            L2.input(pkb);
+            routeToAnotherVpc(pkb, t, dst);
         } else {
             // route based on ip
             var targetIp = rule.ip;
@@ -505,6 +480,40 @@ public class L3 {
         }
     }
 
+    private void routeToAnotherVpc(PacketBuffer pkb, Table t, IP dst) {
+        // get src mac
+        var newSrcMac = getRoutedSrcMac(t, dst);
+        if (newSrcMac == null) {
+            assert Logger.lowLevelDebug("cannot route because source mac is not found");
+            return;
+        }
+
+        var targetRule = t.routeTable.lookup(dst);
+        if (!targetRule.isLocalDirect(t.vni)) {
+            assert Logger.lowLevelDebug("still require routing after switching the table");
+            pkb.setTable(t);
+            pkb.pkt.setSrc(newSrcMac);
+            routeOutput(pkb);
+            return;
+        }
+
+        assert Logger.lowLevelDebug("direct route after switching the table");
+
+        // get target mac
+        var targetMac = t.lookup(dst);
+        if (targetMac == null) {
+            assert Logger.lowLevelDebug("cannot route because dest mac is not found");
+            broadcastArpOrNdp(t, dst);
+            return;
+        }
+        assert Logger.lowLevelDebug("found dst mac: " + targetMac);
+
+        pkb.pkt.setSrc(newSrcMac);
+        pkb.pkt.setDst(targetMac);
+        pkb.setTable(t);
+        L2.input(pkb);
+    }
+
     private void broadcastArpOrNdp(Table table, IP dst) {
         assert Logger.lowLevelDebug("getRoutedSrcMac(" + table + "," + dst + ")");
         if (dst instanceof IPv4) {
@@ -685,15 +694,11 @@ public class L3 {
                 assert Logger.lowLevelDebug("target vpc not found");
                 return;
             }
-            MacAddress targetMac = getRoutedSrcMac(targetTable, dst);
-            if (targetMac == null) {
-                assert Logger.lowLevelDebug("cannot find dst mac for sending this packet to another vpc");
+            if (swCtx.handOffPacket(pkb, targetTable, () -> routeOutputToAnotherVpc(pkb, targetTable, dst))) {
+                assert Logger.lowLevelDebug("the target vpc is handled on another loop");
                 return;
             }
-            pkb.pkt.setSrc(targetMac);
-            pkb.pkt.setDst(targetMac);
-            pkb.setTable(targetTable);
-            L2.input(pkb);
+            routeOutputToAnotherVpc(pkb, targetTable, dst);
         } else {
             assert Logger.lowLevelDebug("route based on ip");
 
@@ -710,8 +715,21 @@ public class L3 {
         }
     }
 
+    private void routeOutputToAnotherVpc(PacketBuffer pkb, Table targetTable, IP dst) {
+        MacAddress targetMac = getRoutedSrcMac(targetTable, dst);
+        if (targetMac == null) {
+            assert Logger.lowLevelDebug("cannot find dst mac for sending this packet to another vpc");
+            return;
+        }
+        pkb.pkt.setSrc(targetMac);
+        pkb.pkt.setDst(targetMac);
+        pkb.setTable(targetTable);
+        L2.input(pkb);
+    }
+
     public void output(PacketBuffer pkb) {
         assert Logger.lowLevelDebug("L3.output(" + pkb + ")");
+        pkb.ensurePartialPacketParsed();
 
         // assign mac to the packet
         MacAddress srcMac = pkb.table.ips.lookup(pkb.ipPkt.getSrc());
@@ -431,7 +431,7 @@ public class L4 {
             assert Logger.lowLevelDebug("delayed ack already scheduled");
             return;
         }
-        tcp.delayedAckTimer = swCtx.getSelectorEventLoop().delay(TcpEntry.DELAYED_ACK_TIMEOUT, () -> sendAck(table, tcp));
+        tcp.delayedAckTimer = table.getLoop().delay(TcpEntry.DELAYED_ACK_TIMEOUT, () -> sendAck(table, tcp));
     }
 
     private void sendAck(Table table, TcpEntry tcp) {
@@ -499,7 +499,7 @@ public class L4 {
         }
         assert Logger.lowLevelDebug("will delay " + delay + " ms then retransmit");
         final int finalRetransmissionCount = retransmissionCount;
-        tcp.retransmissionTimer = swCtx.getSelectorEventLoop().delay(delay, () ->
+        tcp.retransmissionTimer = table.getLoop().delay(delay, () ->
             transmitTcp(table, tcp, currentBeginSeq, finalRetransmissionCount + 1)
         );
 
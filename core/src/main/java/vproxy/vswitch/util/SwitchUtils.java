@@ -56,9 +56,51 @@ public class SwitchUtils {
         return pkb.vxlan;
     }
 
+    // check the raw ip packet, return false only when it's surely not a tcp syn packet
+    private static boolean mayBeTcpSyn(ByteArray ip) {
+        if (ip.length() < 1) {
+            return true; // let the parser handle it
+        }
+        int version = (ip.uint8(0) >> 4) & 0x0f;
+        int protocol;
+        int tcpOff;
+        if (version == 4) {
+            if (ip.length() < 20) {
+                return true;
+            }
+            protocol = ip.uint8(9);
+            tcpOff = (ip.uint8(0) & 0x0f) * 4;
+        } else if (version == 6) {
+            if (ip.length() < 40) {
+                return true;
+            }
+            protocol = ip.uint8(6);
+            if (protocol == Consts.IP_PROTOCOL_ICMPv6 || protocol == Consts.IP_PROTOCOL_UDP) {
+                return false;
+            }
+            if (protocol != Consts.IP_PROTOCOL_TCP) {
+                return true; // might be extension headers
+            }
+            tcpOff = 40;
+        } else {
+            return true;
+        }
+        if (protocol != Consts.IP_PROTOCOL_TCP) {
+            return false;
+        }
+        if (ip.length() < tcpOff + 14) {
+            return true;
+        }
+        return (ip.uint8(tcpOff + 13) & Consts.TCP_FLAGS_SYN) == Consts.TCP_FLAGS_SYN;
+    }
+
     public static void checkAndUpdateMss(PacketBuffer pkb, Iface iface) {
         int maxMss = iface.getBaseMTU() - iface.getOverhead() - 20 /* tcp common */
             - 20 /* possible options in normal tcp packets, and also ip headers/opts */;
+        if (pkb.pkt instanceof EthernetPacket && !((EthernetPacket) pkb.pkt).isPacketParsed()
+            && !mayBeTcpSyn(((EthernetPacket) pkb.pkt).getPacketBytes())) {
+            return; // only tcp syn requires modification, no need to parse the ip packet
+        }
         if (!(pkb.pkt.getPacket() instanceof AbstractIpPacket) ||
             !(((AbstractIpPacket) pkb.pkt.getPacket()).getPacket() instanceof TcpPacket)) {
             return; // only tcp requires modification
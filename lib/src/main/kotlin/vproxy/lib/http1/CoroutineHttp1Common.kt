@@ -24,6 +24,11 @@ abstract class CoroutineHttp1Common(private val conn: CoroutineConnection) {
   }
 
   open suspend fun endChunks(trailers: List<Header>) {
+    if (!headersSent) {
+      // no chunk sent
+      headersSent = true
+      sendHeadersBeforeChunks()
+    }
     val chunk = Chunk()
     chunk.size = 0
 
@@ -0,0 +1,165 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.Config;
+import vproxy.base.component.check.HealthCheckConfig;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.component.svrgroup.Method;
+import vproxy.base.component.svrgroup.ServerGroup;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.vfd.IPPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short http/1.x client connections through a tcp-lb, with and without the backend pool.
+ * Each op opens a client connection, sends one request and closes the connection when the response is read.
+ * <p>
+ * request: throughput, the backendConnects counter shows connections accepted by the backend per second.
+ * requestLatency: latency percentiles of the whole op.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=BackendPoolBenchmark
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackendPoolBenchmark {
+    private static final int LB_PORT = 18381;
+    private static final byte[] REQUEST = ("" +
+        "GET / HTTP/1.1\r\n" +
+        "Host: bench\r\n" +
+        "Connection: close\r\n" +
+        "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE = ("" +
+        "HTTP/1.1 200 OK\r\n" +
+        "Content-Length: 2\r\n" +
+        "\r\n" +
+        "ok").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"false", "true"})
+    public boolean backendPool;
+
+    private ServerSocket httpServer;
+    private final AtomicLong accepted = new AtomicLong();
+    private EventLoopGroup elg;
+    private TcpLB lb;
+    private final byte[] recvBuf = new byte[4096];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Connects {
+        public long backendConnects;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        httpServer = new ServerSocket();
+        httpServer.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        Thread acceptor = new Thread(this::serve, "http-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        elg = new EventLoopGroup("bench");
+        elg.add("bench-loop");
+        ServerGroup sg = new ServerGroup("bench", elg, new HealthCheckConfig(1000, 24 * 60 * 60 * 1000, 1, 3), Method.wrr);
+        sg.add("http", new IPPort("127.0.0.1", httpServer.getLocalPort()), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("bench");
+        ups.add(sg, 10);
+
+        lb = new TcpLB("bench", elg, elg, new IPPort("127.0.0.1", LB_PORT), ups,
+            Config.tcpTimeout, 16384, 16384, "http/1.x", null, null, SecurityGroup.allowAll());
+        lb.setBackendPool(backendPool);
+        lb.start();
+    }
+
+    private void serve() {
+        while (true) {
+            Socket sock;
+            try {
+                sock = httpServer.accept();
+            } catch (IOException e) {
+                return; // closed
+            }
+            accepted.incrementAndGet();
+            Thread t = new Thread(() -> {
+                byte[] buf = new byte[4096];
+                try (sock) {
+                    InputStream in = sock.getInputStream();
+                    OutputStream out = sock.getOutputStream();
+                    // respond when the request head ends, requests have no body
+                    int matched = 0;
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        for (int i = 0; i < n; ++i) {
+                            byte b = buf[i];
+                            matched = (b == '\r' || b == '\n') ? matched + 1 : 0;
+                            if (matched == 4) {
+                                out.write(RESPONSE);
+                                matched = 0;
+                            }
+                        }
+                    }
+                } catch (IOException ignore) {
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        lb.destroy();
+        // the loop threads are daemon threads, leave them to the exit of the forked jvm
+        httpServer.close();
+    }
+
+    private int doRequest() throws IOException {
+        try (Socket client = new Socket()) {
+            client.setTcpNoDelay(true);
+            client.setSoLinger(true, 0); // reset, so that client ports do not stay in TIME_WAIT
+            client.connect(new InetSocketAddress("127.0.0.1", LB_PORT));
+            client.getOutputStream().write(REQUEST);
+            InputStream in = client.getInputStream();
+            int total = 0;
+            while (total < RESPONSE.length) {
+                int n = in.read(recvBuf, total, recvBuf.length - total);
+                if (n == -1) {
+                    throw new IOException("remote closed");
+                }
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int request(Connects connects) throws IOException {
+        int n = doRequest();
+        connects.backendConnects += accepted.getAndSet(0);
+        return n;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int requestLatency() throws IOException {
+        return doRequest();
+    }
+}
@@ -0,0 +1,165 @@
+package vproxy.bench;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.Config;
+import vproxy.base.component.check.HealthCheckConfig;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.component.svrgroup.Method;
+import vproxy.base.component.svrgroup.ServerGroup;
+import vproxy.base.http.Http2Decoder;
+import vproxy.base.processor.httpbin.BinaryHttpSubContext;
+import vproxy.base.processor.httpbin.HttpFrame;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.processor.httpbin.frame.DataFrame;
+import vproxy.base.processor.httpbin.frame.HeadersFrame;
+import vproxy.base.processor.httpbin.frame.SettingsFrame;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.RingBuffer;
+import vproxy.base.util.nio.ByteArrayChannel;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.vfd.IPPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short h2 client connections through a tcp-lb with protocol h2, with and without h2-mux.
+ * Each op opens a client connection, sends one request on stream 1 and closes the connection when the response ends.
+ * <p>
+ * request: throughput, the backendConnects counter shows connections accepted by the backend per second.
+ * requestLatency: latency percentiles of the whole op.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=H2MuxBenchmark
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class H2MuxBenchmark {
+    private static final int LB_PORT = 18382;
+
+    @Param({"false", "true"})
+    public boolean h2Mux;
+
+    private Vertx vertx;
+    private final AtomicLong accepted = new AtomicLong();
+    private EventLoopGroup elg;
+    private TcpLB lb;
+    private final byte[] recvBuf = new byte[4096];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Connects {
+        public long backendConnects;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        vertx.createHttpServer(new HttpServerOptions().setHost("127.0.0.1"))
+            .connectionHandler(c -> accepted.incrementAndGet())
+            .requestHandler(req -> req.response().end("ok"))
+            .listen(0, r -> {
+                if (r.failed()) {
+                    listening.completeExceptionally(r.cause());
+                } else {
+                    listening.complete(r.result());
+                }
+            });
+        int port = listening.get().actualPort();
+
+        elg = new EventLoopGroup("bench");
+        elg.add("bench-loop");
+        ServerGroup sg = new ServerGroup("bench", elg, new HealthCheckConfig(1000, 24 * 60 * 60 * 1000, 1, 3), Method.wrr);
+        sg.add("h2", new IPPort("127.0.0.1", port), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("bench");
+        ups.add(sg, 10);
+
+        lb = new TcpLB("bench", elg, elg, new IPPort("127.0.0.1", LB_PORT), ups,
+            Config.tcpTimeout, 16384, 16384, "h2", null, null, SecurityGroup.allowAll());
+        lb.setH2Mux(h2Mux);
+        lb.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        lb.destroy();
+        // the loop threads are daemon threads, leave them to the exit of the forked jvm
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(v -> closed.complete(null));
+        closed.get();
+    }
+
+    private int doRequest() throws IOException {
+        Http2Decoder decoder = new Http2Decoder(true);
+        BinaryHttpSubContext ctx = decoder.getCtx();
+        HeadersFrame headers = HeadersFrame.newRequest("http", "GET", "/", new Header(":authority", "bench"));
+        headers.streamId = 1;
+        headers.endStream = true;
+        ByteArray first = BinaryHttpSubContext.H2_PREFACE
+            .concat(SettingsFrame.newClientSettings().serializeH2(ctx))
+            .concat(headers.serializeH2(ctx));
+
+        try (Socket client = new Socket()) {
+            client.setTcpNoDelay(true);
+            client.setSoLinger(true, 0); // reset, so that client ports do not stay in TIME_WAIT
+            client.connect(new InetSocketAddress("127.0.0.1", LB_PORT));
+            client.getOutputStream().write(first.toJavaArray());
+            InputStream in = client.getInputStream();
+            RingBuffer buf = RingBuffer.allocate(recvBuf.length);
+            int total = 0;
+            while (true) {
+                int n = in.read(recvBuf);
+                if (n == -1) {
+                    throw new IOException("remote closed");
+                }
+                total += n;
+                buf.storeBytesFrom(ByteArrayChannel.fromFull(ByteArray.from(recvBuf).sub(0, n)));
+                while (buf.used() > 0) {
+                    if (decoder.feed(buf) != 0) {
+                        if (decoder.getErrorMessage() != null) {
+                            throw new IOException(decoder.getErrorMessage());
+                        }
+                        break;
+                    }
+                    HttpFrame f = decoder.getResult();
+                    if (f.streamId == 1 && (
+                        (f instanceof HeadersFrame && ((HeadersFrame) f).endStream) ||
+                            (f instanceof DataFrame && ((DataFrame) f).endStream))) {
+                        return total;
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int request(Connects connects) throws IOException {
+        int n = doRequest();
+        connects.backendConnects += accepted.getAndSet(0);
+        return n;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int requestLatency() throws IOException {
+        return doRequest();
+    }
+}
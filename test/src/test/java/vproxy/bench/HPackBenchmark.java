@@ -0,0 +1,85 @@
+package vproxy.bench;
+
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.processor.httpbin.entity.Header;
+import vproxy.base.processor.httpbin.hpack.HPack;
+import vproxy.base.util.ByteArray;
+import vproxy.test.cases.TestHttp2Decoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare HPack with the com.twitter.hpack codec used through streams, which is what HPack used to do.
+ * Each operation encodes one header list and decodes it on the peer side,
+ * taken from the corpus in TestHttp2Decoder, which contains h2load, browser, api and grpc headers.
+ * The header blocks are sub arrays, as they are in the frames.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=HPackBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HPackBenchmark {
+    private List<Header>[] headerLists;
+    private int cursor;
+
+    private HPack hpack;
+    private HPack hpackPeer;
+    private Encoder twitterEncoder;
+    private Decoder twitterDecoder;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setUp() {
+        int n = TestHttp2Decoder.HEADER_CORPUS.length;
+        headerLists = new List[n];
+        for (int i = 0; i < n; ++i) {
+            headerLists[i] = TestHttp2Decoder.headersOf(TestHttp2Decoder.HEADER_CORPUS[i]);
+        }
+        hpack = new HPack(4096, 4096);
+        hpackPeer = new HPack(4096, 4096);
+        hpackPeer.setReuseHeaderList(true);
+        twitterEncoder = new Encoder(4096);
+        twitterDecoder = new Decoder(65536, 4096);
+    }
+
+    private List<Header> nextHeaders() {
+        int idx = cursor;
+        cursor = (idx + 1) % headerLists.length;
+        return headerLists[idx];
+    }
+
+    private static ByteArray asFramePayload(ByteArray block) {
+        return ByteArray.allocate(9).concat(block).sub(9, block.length());
+    }
+
+    @Benchmark
+    public int hpack() throws Exception {
+        ByteArray block = asFramePayload(hpack.encode(nextHeaders()));
+        return hpackPeer.decode(block).size();
+    }
+
+    @Benchmark
+    public int twitter() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (Header h : nextHeaders()) {
+            twitterEncoder.encodeHeader(baos, h.key, h.value, h.caseSensitive);
+        }
+        ByteArray block = asFramePayload(ByteArray.from(baos.toByteArray()));
+
+        List<Header> headers = new ArrayList<>();
+        twitterDecoder.decode(new ByteArrayInputStream(block.toJavaArray()),
+            (name, value, sensitive) -> headers.add(new Header(name, value, sensitive)));
+        twitterDecoder.endHeaderBlock();
+        return headers.size();
+    }
+}
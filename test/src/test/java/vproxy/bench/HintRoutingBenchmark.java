@@ -0,0 +1,100 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.processor.Hint;
+import vproxy.base.processor.HintIndex;
+import vproxy.base.util.AnnotationKeys;
+import vproxy.base.util.Annotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare HintIndex with calling Hint.matchLevel on every server group, which is what Upstream.searchForGroup used to do.
+ * Each virtual host is a server group annotated with a host, half of them also have a uri prefix,
+ * and there is a wildcard group at the end.
+ * Requests use exact hosts, sub domains, and unknown hosts falling back to the wildcard.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=HintRoutingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HintRoutingBenchmark {
+    private static final int HINTS = 1024;
+
+    @Param({"100", "2000"})
+    public int hosts;
+
+    private List<Annotations[]> groups;
+    private HintIndex<Annotations[]> index;
+    private Hint[] hints;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rand = new Random(42);
+        groups = new ArrayList<>(hosts + 1);
+        for (int i = 0; i < hosts; ++i) {
+            Annotations group;
+            if (i % 2 == 0) {
+                group = new Annotations(Map.of(AnnotationKeys.ServerGroup_HintHost.name, "svc" + i + ".example.com"));
+            } else {
+                group = new Annotations(Map.of(
+                    AnnotationKeys.ServerGroup_HintHost.name, "svc" + i + ".example.com",
+                    AnnotationKeys.ServerGroup_HintUri.name, "/api/v" + (i % 3)));
+            }
+            groups.add(new Annotations[]{new Annotations(), group});
+        }
+        groups.add(new Annotations[]{new Annotations(), new Annotations(Map.of(AnnotationKeys.ServerGroup_HintHost.name, "*"))});
+        index = new HintIndex<>(groups, g -> g);
+
+        hints = new Hint[HINTS];
+        for (int i = 0; i < HINTS; ++i) {
+            int n = rand.nextInt(hosts);
+            String host;
+            switch (rand.nextInt(3)) {
+                case 0:
+                    host = "svc" + n + ".example.com";
+                    break;
+                case 1:
+                    host = "node" + rand.nextInt(10) + ".svc" + n + ".example.com";
+                    break;
+                default:
+                    host = "unknown" + n + ".example.org";
+                    break;
+            }
+            hints[i] = Hint.ofHostUri(host, "/api/v" + rand.nextInt(3) + "/users/" + n);
+        }
+    }
+
+    private Hint nextHint() {
+        return hints[cursor++ & (HINTS - 1)];
+    }
+
+    @Benchmark
+    public Annotations[] index() {
+        return index.search(nextHint());
+    }
+
+    @Benchmark
+    public Annotations[] linear() {
+        Hint hint = nextHint();
+        int level = 0;
+        Annotations[] lastMax = null;
+        for (Annotations[] g : groups) {
+            int l = hint.matchLevel(g);
+            if (l > level) {
+                level = l;
+                lastMax = g;
+            }
+        }
+        return lastMax;
+    }
+}
@@ -0,0 +1,79 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.processor.ConnectionDelegate;
+import vproxy.base.processor.Processor;
+import vproxy.base.processor.http1.HttpContext;
+import vproxy.base.processor.http1.HttpProcessor;
+import vproxy.base.processor.http1.HttpSubContext;
+import vproxy.base.util.ByteArray;
+import vproxy.test.cases.TestHttp1Parser;
+import vproxy.vfd.IP;
+import vproxy.vfd.IPPort;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the bulk head scanner with the byte by byte state machine when proxying http/1.x.
+ * Each operation feeds one request from the frontend and its response from the backend,
+ * taken from the corpus in TestHttp1Parser, which contains browser, api and legacy requests with small bodies.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=Http1ParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Http1ParserBenchmark {
+    @Param({"true", "false"})
+    public boolean bulkScan;
+
+    private ByteArray[] requests;
+    private ByteArray[] responses;
+    private HttpSubContext front;
+    private HttpSubContext backend;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int n = TestHttp1Parser.REQUEST_CORPUS.length;
+        requests = new ByteArray[n];
+        responses = new ByteArray[n];
+        for (int i = 0; i < n; ++i) {
+            requests[i] = ByteArray.from(TestHttp1Parser.REQUEST_CORPUS[i].getBytes());
+            responses[i] = ByteArray.from(TestHttp1Parser.RESPONSE_CORPUS[i].getBytes());
+        }
+
+        IPPort client = new IPPort(IP.from(new byte[]{10, 0, 0, 1}), 51234);
+        ConnectionDelegate delegate = new ConnectionDelegate(client) {
+            @Override
+            public void pause() {
+            }
+
+            @Override
+            public void resume() {
+            }
+        };
+        HttpProcessor p = new HttpProcessor();
+        HttpContext ctx = p.init(client);
+        front = p.initSub(ctx, 0, delegate);
+        backend = p.initSub(ctx, 1, delegate);
+        front.setBulkScan(bulkScan);
+        backend.setBulkScan(bulkScan);
+    }
+
+    @Benchmark
+    public int exchange() throws Exception {
+        int idx = cursor;
+        cursor = (idx + 1) % requests.length;
+
+        Processor.HandleTODO req = front.process().feed.apply(requests[idx]);
+        if (req.connTODO.chosen != null) { // otherwise the last backend is used
+            req.connTODO.chosen.accept(backend);
+        }
+        Processor.HandleTODO resp = backend.process().feed.apply(responses[idx]);
+        return req.send.length() + resp.send.length();
+    }
+}
@@ -0,0 +1,131 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.connection.Protocol;
+import vproxy.base.util.Network;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
+import vproxy.vfd.IP;
+import vproxy.vswitch.RouteTable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the prefix trie lookup of RouteTable and SecurityGroup with scanning the rules one by one.
+ * Rules are random ipv4 networks with prefix length in [16, 32] inside 10.0.0.0/8,
+ * so some of them are nested and many of the addresses do not match any rule.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=NetworkLookupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkLookupBenchmark {
+    private static final int ADDRESSES = 4096;
+
+    @Param({"10000", "100000"})
+    public int rules;
+
+    private RouteTable routeTable;
+    private RouteTable.RouteRule[] routeRules;
+    private SecurityGroup secg;
+    private SecurityGroupRule[] secgRules;
+    private IP[] addresses;
+    private RouteTable.RouteRule extraRule;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random rand = new Random(42);
+        routeTable = new RouteTable();
+        secg = new SecurityGroup("bench", false);
+        Set<Network> networks = new HashSet<>();
+        int n = 0;
+        while (n < rules) {
+            Network net = randomNetwork(rand);
+            if (!networks.add(net)) {
+                continue;
+            }
+            routeTable.addRule(new RouteTable.RouteRule("r" + n, net, n));
+            secg.addRule(new SecurityGroupRule("s" + n, net, Protocol.TCP, 0, 65535, n % 2 == 0));
+            ++n;
+        }
+        List<RouteTable.RouteRule> rr = routeTable.getRules();
+        routeRules = rr.toArray(new RouteTable.RouteRule[0]);
+        List<SecurityGroupRule> sr = secg.getRules();
+        secgRules = sr.toArray(new SecurityGroupRule[0]);
+
+        addresses = new IP[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; ++i) {
+            byte[] b = new byte[4];
+            rand.nextBytes(b);
+            b[0] = 10;
+            addresses[i] = IP.from(b);
+        }
+        Network extra;
+        do {
+            extra = randomNetwork(rand);
+        } while (networks.contains(extra));
+        extraRule = new RouteTable.RouteRule("extra", extra, 0);
+    }
+
+    private static Network randomNetwork(Random rand) {
+        int prefix = 16 + rand.nextInt(17);
+        byte[] ip = new byte[4];
+        rand.nextBytes(ip);
+        ip[0] = 10;
+        byte[] mask = Network.parseMask(prefix);
+        Network.eraseToNetwork(ip, mask);
+        return new Network(ip, mask);
+    }
+
+    private IP nextAddress() {
+        return addresses[cursor++ & (ADDRESSES - 1)];
+    }
+
+    @Benchmark
+    public RouteTable.RouteRule routeTrie() {
+        return routeTable.lookup(nextAddress());
+    }
+
+    @Benchmark
+    public RouteTable.RouteRule routeLinear() {
+        // rules are listed from the most specific ones, so the first match is the longest match
+        IP ip = nextAddress();
+        for (RouteTable.RouteRule r : routeRules) {
+            if (r.rule.contains(ip)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public boolean securityGroupTrie() {
+        return secg.allow(Protocol.TCP, nextAddress(), 80);
+    }
+
+    @Benchmark
+    public boolean securityGroupLinear() {
+        IP ip = nextAddress();
+        for (SecurityGroupRule r : secgRules) {
+            if (r.match(ip, 80)) {
+                return r.allow;
+            }
+        }
+        return secg.defaultAllow;
+    }
+
+    @Benchmark
+    public void routeAddDelete() throws Exception {
+        routeTable.addRule(extraRule);
+        routeTable.delRule(extraRule.alias);
+    }
+}
@@ -0,0 +1,84 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.Consts;
+import vproxy.vpacket.AbstractIpPacket;
+import vproxy.vpacket.EthernetPacket;
+import vproxy.vpacket.TcpPacket;
+import vproxy.vpacket.VXLanPacket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode vxlan frames carrying ipv4 tcp packets with eager and lazy ip packet parsing.
+ * <p>
+ * l2Forward: read the vni and the mac addresses then take the raw bytes to send, which is what L2 does for known macs.
+ * l3Forward: also read the ip dst and the tcp port, so the lazy mode has to parse the ip packet as well.
+ * <p>
+ * The score is millions of frames per second (Mpps) per thread.
+ * Add -prof gc to see the allocation rate and bytes per frame.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=PacketDecodeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketDecodeBenchmark {
+    private static final int PAYLOAD = 512;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    private ByteArray frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int ipLen = 20 + 20 + PAYLOAD;
+        ByteArray ip = ByteArray.allocate(20)
+            .set(0, (byte) 0x45).int16(2, ipLen).int16(4, 1234).set(6, (byte) 0x40)
+            .set(8, (byte) 64).set(9, (byte) Consts.IP_PROTOCOL_TCP)
+            .int32(12, 0x0a000102).int32(16, 0x0a000103);
+        ByteArray tcp = ByteArray.allocate(20)
+            .int16(0, 52000).int16(2, 443).int32(4, 1000).int32(8, 2000)
+            .set(12, (byte) 0x50).set(13, (byte) (Consts.TCP_FLAGS_ACK | Consts.TCP_FLAGS_PSH)).int16(14, 65535);
+        ByteArray ether = ByteArray.from(
+            0x02, 0x00, 0x00, 0x00, 0x00, 0x02, 0x02, 0x00, 0x00, 0x00, 0x00, 0x01, 0x08, 0x00);
+        ByteArray vxlan = ByteArray.allocate(8).set(0, (byte) 0x08).int24(4, 1314);
+        frame = vxlan.concat(ether).concat(ip).concat(tcp).concat(ByteArray.allocate(PAYLOAD)).arrange();
+    }
+
+    private VXLanPacket decode() {
+        VXLanPacket vxlan = new VXLanPacket();
+        String err = vxlan.from(frame, lazy);
+        if (err != null) {
+            throw new IllegalStateException(err);
+        }
+        return vxlan;
+    }
+
+    @Benchmark
+    public int l2Forward() {
+        VXLanPacket vxlan = decode();
+        EthernetPacket ether = (EthernetPacket) vxlan.getPacket();
+        return vxlan.getVni()
+            + ether.getDst().hashCode()
+            + ether.getSrc().hashCode()
+            + ether.getRawPacket().length();
+    }
+
+    @Benchmark
+    public int l3Forward() {
+        VXLanPacket vxlan = decode();
+        EthernetPacket ether = (EthernetPacket) vxlan.getPacket();
+        AbstractIpPacket ip = (AbstractIpPacket) ether.getPacket();
+        TcpPacket tcp = (TcpPacket) ip.getPacket();
+        return vxlan.getVni()
+            + ether.getDst().hashCode()
+            + ip.getDst().hashCode()
+            + tcp.getDstPort();
+    }
+}
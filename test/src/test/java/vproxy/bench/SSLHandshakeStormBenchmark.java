@@ -0,0 +1,224 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import vproxy.base.Config;
+import vproxy.base.prometheus.Summary;
+import vproxy.base.util.Logger;
+import vproxy.base.util.ringbuffer.ssl.SSLTaskExecutor;
+
+import javax.net.ssl.*;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start a storm of tls handshakes at the same time and drive them from one thread like an event loop,
+ * delegated tasks are run by a new thread for each task (the old behavior) or by the shared SSLTaskExecutor.
+ * Each invocation finishes all handshakes of the storm, the p50/p99 latency of handshakes are logged when the trial ends.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=SSLHandshakeStormBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SSLHandshakeStormBenchmark {
+    @Param({"thread", "pool"})
+    public String mode;
+
+    @Param({"200", "1000"})
+    public int handshakes;
+
+    private SSLContext context;
+    private SSLTaskExecutor executor;
+    private Summary latencyMicros;
+    private boolean measuring;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        char[] passphrase = "passphrase".toCharArray();
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(SSLHandshakeStormBenchmark.class.getResourceAsStream("/testkeys"), passphrase);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, passphrase);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(ks);
+        context = SSLContext.getInstance("TLSv1.2");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        if (mode.equals("pool")) {
+            executor = new SSLTaskExecutor(Config.sslTaskThreads, Integer.MAX_VALUE);
+        }
+        latencyMicros = new Summary("handshake_latency_micros", Map.of());
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration(IterationParams params) {
+        // only record latency of measurement iterations
+        measuring = params.getType() == IterationType.MEASUREMENT;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        // quantiles cannot be reported as aux counters, which are summed over iterations
+        Logger.alert("mode=" + mode + " handshakes=" + handshakes
+            + " handshake latency p50=" + latencyMicros.quantile(0.5) / 1000 + "ms"
+            + " p99=" + latencyMicros.quantile(0.99) / 1000 + "ms");
+    }
+
+    private class Side {
+        final Pair pair;
+        final SSLEngine engine;
+        ByteBuffer in; // written by the peer
+        final ByteBuffer app;
+        boolean waitingForTask = false;
+        boolean finished = false;
+
+        Side(Pair pair, SSLEngine engine) {
+            this.pair = pair;
+            this.engine = engine;
+            this.app = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+
+        // return true if made progress
+        boolean step(ByteBuffer out, LinkedBlockingQueue<Side> doneTasks) throws Exception {
+            if (finished || waitingForTask) {
+                return false;
+            }
+            SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+            switch (hs) {
+                case NEED_TASK:
+                    waitingForTask = true;
+                    Runnable r = () -> {
+                        Runnable t;
+                        while ((t = engine.getDelegatedTask()) != null) {
+                            t.run();
+                        }
+                        doneTasks.add(this);
+                    };
+                    if (executor == null) {
+                        new Thread(r, "ssl-unwrap-task").start();
+                    } else {
+                        executor.execute(r);
+                    }
+                    return true;
+                case NEED_WRAP: {
+                    SSLEngineResult res = engine.wrap(ByteBuffer.allocate(0), out);
+                    check(res);
+                    return true;
+                }
+                case NEED_UNWRAP: {
+                    in.flip();
+                    SSLEngineResult res;
+                    try {
+                        res = engine.unwrap(in, app);
+                    } finally {
+                        in.compact();
+                    }
+                    if (res.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        return false;
+                    }
+                    check(res);
+                    return true;
+                }
+                default:
+                    finished = true;
+                    return true;
+            }
+        }
+
+        private void check(SSLEngineResult res) {
+            if (res.getStatus() != SSLEngineResult.Status.OK) {
+                throw new IllegalStateException("unexpected result " + res);
+            }
+            if (res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                finished = true;
+            }
+        }
+    }
+
+    private class Pair {
+        final Side client;
+        final Side server;
+        final ByteBuffer c2s;
+        final ByteBuffer s2c;
+        boolean recorded = false;
+
+        Pair() {
+            SSLEngine c = context.createSSLEngine("localhost", 443);
+            c.setUseClientMode(true);
+            SSLEngine s = context.createSSLEngine();
+            s.setUseClientMode(false);
+            client = new Side(this, c);
+            server = new Side(this, s);
+            c2s = ByteBuffer.allocate(c.getSession().getPacketBufferSize() * 4);
+            s2c = ByteBuffer.allocate(s.getSession().getPacketBufferSize() * 4);
+            client.in = s2c;
+            server.in = c2s;
+            try {
+                c.beginHandshake();
+                s.beginHandshake();
+            } catch (SSLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        boolean step(LinkedBlockingQueue<Side> doneTasks) throws Exception {
+            boolean progress = false;
+            while (client.step(c2s, doneTasks) | server.step(s2c, doneTasks)) {
+                progress = true;
+            }
+            return progress;
+        }
+
+        boolean done() {
+            return client.finished && server.finished;
+        }
+    }
+
+    @Benchmark
+    public int storm() throws Exception {
+        LinkedBlockingQueue<Side> doneTasks = new LinkedBlockingQueue<>();
+        List<Pair> pairs = new ArrayList<>(handshakes);
+        for (int i = 0; i < handshakes; ++i) {
+            pairs.add(new Pair());
+        }
+        long begin = System.nanoTime();
+        int remaining = handshakes;
+        // first round: all handshakes arrive at the same time
+        for (Pair p : pairs) {
+            p.step(doneTasks);
+        }
+        while (remaining > 0) {
+            // like an event loop: wait for task completions, then continue the handshakes
+            Side side = doneTasks.poll(10, TimeUnit.SECONDS);
+            if (side == null) {
+                throw new IllegalStateException("handshakes stuck");
+            }
+            do {
+                side.waitingForTask = false;
+                Pair p = side.pair;
+                p.step(doneTasks);
+                if (p.done() && !p.recorded) {
+                    p.recorded = true;
+                    --remaining;
+                    if (measuring) {
+                        latencyMicros.record((System.nanoTime() - begin) / 1000);
+                    }
+                }
+            } while ((side = doneTasks.poll()) != null);
+        }
+        return remaining;
+    }
+}
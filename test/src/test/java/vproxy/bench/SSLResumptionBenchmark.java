@@ -0,0 +1,128 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.util.ringbuffer.ssl.VSSLContext;
+import vproxy.component.ssl.CertKey;
+import vproxy.test.cases.TestSSL;
+
+import javax.net.ssl.*;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare throughput of full handshakes and resumed handshakes against the ssl context built by CertKey.
+ * Engines are driven in memory by the benchmark thread, so the result only contains the cost of the handshake itself.
+ * The client sends the peer host and port to look up its session cache only in the resumed mode.
+ * The secondary result "resumed" is the rate of resumed handshakes, it equals the score when all handshakes are resumed.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=SSLResumptionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SSLResumptionBenchmark {
+    @Param({"full", "resumed"})
+    public String mode;
+
+    @Param({"TLSv1.2", "TLSv1.3"})
+    public String protocol;
+
+    private SSLContext server;
+    private SSLContext client;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Resumed {
+        public long resumed;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        VSSLContext vsslContext = new VSSLContext();
+        new CertKey("bench", new String[]{TestSSL.TEST_CERT}, TestSSL.TEST_KEY).setInto(vsslContext);
+        server = vsslContext.sslContextHolder.choose(null);
+
+        client = SSLContext.getInstance(protocol);
+        client.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+    }
+
+    @Benchmark
+    public SSLSession handshake(Resumed counters) throws Exception {
+        SSLEngine c = mode.equals("resumed")
+            ? client.createSSLEngine("localhost", 443)
+            : client.createSSLEngine();
+        c.setUseClientMode(true);
+        c.setEnabledProtocols(new String[]{protocol});
+        SSLEngine s = server.createSSLEngine();
+        s.setUseClientMode(false);
+
+        ByteBuffer c2s = ByteBuffer.allocate(c.getSession().getPacketBufferSize() * 4);
+        ByteBuffer s2c = ByteBuffer.allocate(s.getSession().getPacketBufferSize() * 4);
+        ByteBuffer app = ByteBuffer.allocate(c.getSession().getApplicationBufferSize());
+
+        long begin = System.currentTimeMillis();
+        c.beginHandshake();
+        s.beginHandshake();
+        while (!done(c) || !done(s)) {
+            step(c, c2s, s2c, app);
+            step(s, s2c, c2s, app);
+        }
+        // let the client receive the session ticket sent after the tls 1.3 handshake
+        s.wrap(ByteBuffer.allocate(0), s2c);
+        s2c.flip();
+        while (s2c.hasRemaining()) {
+            app.clear();
+            if (c.unwrap(s2c, app).bytesConsumed() == 0) {
+                break;
+            }
+        }
+        s2c.clear();
+
+        SSLSession session = s.getSession();
+        if (session.getCreationTime() < begin) {
+            ++counters.resumed;
+        }
+        return session;
+    }
+
+    private static boolean done(SSLEngine engine) {
+        return engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    private static void step(SSLEngine engine, ByteBuffer out, ByteBuffer in, ByteBuffer app) throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                Runnable r;
+                while ((r = engine.getDelegatedTask()) != null) {
+                    r.run();
+                }
+                break;
+            case NEED_WRAP:
+                engine.wrap(ByteBuffer.allocate(0), out);
+                break;
+            case NEED_UNWRAP:
+                in.flip();
+                app.clear();
+                engine.unwrap(in, app);
+                in.compact();
+                break;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.component.check.HealthCheckConfig;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.component.svrgroup.Method;
+import vproxy.base.component.svrgroup.ServerGroup;
+import vproxy.base.component.svrgroup.SvrHandleConnector;
+import vproxy.vfd.IP;
+import vproxy.vfd.IPPort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the selection cost of all server group methods.
+ * One of every ten servers is unhealthy, which makes wrr and source retry.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=ServerGroupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerGroupBenchmark {
+    private static final int SOURCES = 4096;
+
+    @Param({"wrr", "wlc", "source", "maglev", "p2c", "latency"})
+    public String method;
+
+    @Param({"10", "100", "1000"})
+    public int servers;
+
+    private EventLoopGroup elg;
+    private ServerGroup group;
+    private IPPort[] sources;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // no event loop in the group, so health check won't start
+        elg = new EventLoopGroup("bench");
+        group = new ServerGroup("bench", elg, new HealthCheckConfig(1000, 5000, 2, 3), Method.valueOf(method));
+        for (int i = 0; i < servers; ++i) {
+            group.add("svr" + i, new IPPort(IP.from(new byte[]{10, 0, (byte) (i >> 8), (byte) i}), 80), 10);
+        }
+        List<ServerGroup.ServerHandle> handles = group.getServerHandles();
+        for (int i = 0; i < handles.size(); ++i) {
+            handles.get(i).healthy = i % 10 != 0;
+        }
+        sources = new IPPort[SOURCES];
+        for (int i = 0; i < SOURCES; ++i) {
+            sources[i] = new IPPort(IP.from(new byte[]{(byte) 192, (byte) 168, (byte) (i >> 8), (byte) i}), 10000 + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        group.destroy();
+        elg.close();
+    }
+
+    @Benchmark
+    public SvrHandleConnector next() {
+        int idx = cursor++ & (SOURCES - 1);
+        return group.next(sources[idx]);
+    }
+}
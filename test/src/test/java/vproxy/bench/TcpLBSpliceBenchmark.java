@@ -0,0 +1,134 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import vproxy.base.Config;
+import vproxy.base.component.check.HealthCheckConfig;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.component.svrgroup.Method;
+import vproxy.base.component.svrgroup.ServerGroup;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.vfd.IPPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback throughput of a plain tcp-lb, relaying with user space buffers or with splice(2).
+ * Each op sends a chunk through the lb to an echo server and reads it back.
+ * <p>
+ * splice only takes effect with the posix vfd on linux, e.g. append jmh args:
+ * -jvmArgsAppend "-Dvfd=posix -Djava.library.path=/path/to/libvfdposix",
+ * otherwise both params fall back to the same buffers.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=TcpLBSpliceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TcpLBSpliceBenchmark {
+    private static final int LB_PORT = 18380;
+
+    @Param({"false", "true"})
+    public boolean splice;
+
+    @Param({"65536"})
+    public int chunk;
+
+    private ServerSocket echoServer;
+    private EventLoopGroup elg;
+    private TcpLB lb;
+    private Socket client;
+    private byte[] sendBuf;
+    private byte[] recvBuf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        echoServer = new ServerSocket();
+        echoServer.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread echo = new Thread(this::echo, "echo-server");
+        echo.setDaemon(true);
+        echo.start();
+
+        elg = new EventLoopGroup("bench");
+        elg.add("bench-loop");
+        ServerGroup sg = new ServerGroup("bench", elg, new HealthCheckConfig(1000, 24 * 60 * 60 * 1000, 1, 3), Method.wrr);
+        sg.add("echo", new IPPort("127.0.0.1", echoServer.getLocalPort()), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("bench");
+        ups.add(sg, 10);
+
+        lb = new TcpLB("bench", elg, elg, new IPPort("127.0.0.1", LB_PORT), ups,
+            Config.tcpTimeout, 65536, 65536, SecurityGroup.allowAll());
+        lb.setSplice(splice);
+        lb.start();
+
+        client = new Socket();
+        client.connect(new InetSocketAddress("127.0.0.1", LB_PORT));
+        sendBuf = new byte[chunk];
+        for (int i = 0; i < chunk; ++i) {
+            sendBuf[i] = (byte) i;
+        }
+        recvBuf = new byte[chunk];
+    }
+
+    private void echo() {
+        while (true) {
+            Socket sock;
+            try {
+                sock = echoServer.accept();
+            } catch (IOException e) {
+                return; // closed
+            }
+            Thread t = new Thread(() -> {
+                byte[] buf = new byte[65536];
+                try (sock) {
+                    InputStream in = sock.getInputStream();
+                    OutputStream out = sock.getOutputStream();
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                    }
+                } catch (IOException ignore) {
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        lb.destroy();
+        // the loop threads are daemon threads, leave them to the exit of the forked jvm:
+        // closing the group joins the loops, and the posix selector does not wake up a blocking poll on close
+        echoServer.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        client.getOutputStream().write(sendBuf);
+        InputStream in = client.getInputStream();
+        int total = 0;
+        while (total < chunk) {
+            int n = in.read(recvBuf, total, chunk - total);
+            if (n == -1) {
+                throw new IOException("remote closed");
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,92 @@
+package vproxy.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import vproxy.base.util.time.TimeElem;
+import vproxy.base.util.time.TimeQueue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the priority queue and the timing wheel implementations of TimeQueue.
+ * Timeouts are spread in [1, 60s) which is similar to connection/arp/dns timeouts.
+ * <p>
+ * Run with: ./gradlew :test:jmh -Dbench=TimeQueueBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeQueueBenchmark {
+    private static final long START = 1_000_000_000L;
+
+    @Param({"heap", "wheel"})
+    public String impl;
+
+    @Param({"10000", "100000", "1000000"})
+    public int timers;
+
+    private int[] timeouts;
+    private TimeQueue<Integer> queue;
+    private TimeElem<?>[] elems;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Random rand = new Random(42);
+        timeouts = new int[timers];
+        for (int i = 0; i < timers; ++i) {
+            timeouts[i] = 1 + rand.nextInt(60_000);
+        }
+        elems = new TimeElem[timers];
+    }
+
+    private TimeQueue<Integer> newQueue() {
+        if (impl.equals("wheel")) {
+            return TimeQueue.createTimeWheel();
+        } else {
+            return TimeQueue.create();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        queue = newQueue();
+        for (int i = 0; i < timers; ++i) {
+            elems[i] = queue.add(START, timeouts[i], i);
+        }
+    }
+
+    @Benchmark
+    public TimeQueue<Integer> add() {
+        TimeQueue<Integer> q = newQueue();
+        for (int i = 0; i < timers; ++i) {
+            q.add(START, timeouts[i], i);
+        }
+        return q;
+    }
+
+    @Benchmark
+    public void cancel() {
+        // cancel every other timer, which is the common case for connection timeouts
+        for (int i = 0; i < timers; i += 2) {
+            elems[i].removeSelf();
+        }
+    }
+
+    @Benchmark
+    public void expire(Blackhole bh) {
+        // simulate the event loop: wait for the nearest timer and fire all expired timers
+        long now = START;
+        while (!queue.isEmpty()) {
+            int next = queue.nextTime(now);
+            if (next == 0) {
+                bh.consume(queue.poll());
+            } else {
+                now += next;
+            }
+        }
+    }
+}
@@ -15,6 +15,9 @@ public class Entities {
         wrr,
         wlc,
         source,
+        maglev,
+        p2c,
+        latency,
     }
 
     enum Protocol {
@@ -13,6 +13,7 @@ import vproxy.test.cases.*;
     TestNetMask.class,
     TestTimer.class,
     TestResolver.class,
+    TestDNSServer.class,
     TestSocks5.class,
     TestConnectClient.class,
     TestSSL.class,
@@ -22,6 +23,7 @@ import vproxy.test.cases.*;
     TestHealthCheck.class,
     TestPacket.class,
     TestRouteTable.class,
+    TestSwitch.class,
     TestTCP.class,
     TestHttpServer.class,
     TestNetServerClient.class,
@@ -0,0 +1,112 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.connection.ServerSock;
+import vproxy.base.dns.*;
+import vproxy.base.util.ByteArray;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.dns.DNSServer;
+import vproxy.vfd.IPPort;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TestDNSServer {
+    private static final int port = 25353;
+    private EventLoopGroup elg;
+    private DNSServer dnsServer;
+
+    @Before
+    public void setUp() throws Exception {
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        elg.add("el1");
+    }
+
+    @After
+    public void tearDown() {
+        if (dnsServer != null) {
+            dnsServer.stop();
+        }
+        elg.close();
+    }
+
+    private void query() throws Exception {
+        DNSPacket p = new DNSPacket();
+        p.id = 7;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = "who.am.i.vproxy.local.";
+        q.qtype = DNSType.A;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        byte[] b = p.toByteArray().toJavaArray();
+
+        try (DatagramSocket sock = new DatagramSocket()) {
+            sock.setSoTimeout(1000);
+            sock.send(new DatagramPacket(b, b.length, InetAddress.getByName("127.0.0.1"), port));
+            DatagramPacket resp = new DatagramPacket(new byte[512], 512);
+            sock.receive(resp);
+            List<DNSPacket> packets = Formatter.parsePackets(ByteArray.from(resp.getData()).sub(0, resp.getLength()));
+            assertEquals(1, packets.size());
+            assertTrue(packets.get(0).isResponse);
+            assertEquals(7, packets.get(0).id);
+        }
+    }
+
+    @Test
+    public void addAndRemoveShards() throws Exception {
+        assumeTrue(ServerSock.supportReusePort());
+        dnsServer = new DNSServer("dns0", new IPPort("127.0.0.1", port), elg, new Upstream("ups0"), 0, SecurityGroup.allowAll(), true);
+        dnsServer.start();
+        assertEquals(2, dnsServer.shardCount());
+
+        elg.add("el2");
+        assertEquals(3, dnsServer.shardCount());
+
+        // the first started shard runs the hosts reloading task, which should move to another shard
+        elg.remove("el0");
+        Thread.sleep(200);
+        assertEquals(2, dnsServer.shardCount());
+        for (int i = 0; i < 10; ++i) {
+            query();
+        }
+
+        elg.remove("el1");
+        elg.remove("el2");
+        Thread.sleep(200);
+        assertEquals(0, dnsServer.shardCount());
+
+        // started again when a loop is added
+        elg.add("el3");
+        assertEquals(1, dnsServer.shardCount());
+        query();
+
+        dnsServer.stop();
+        assertEquals(0, dnsServer.shardCount());
+    }
+
+    @Test
+    public void notSharded() throws Exception {
+        dnsServer = new DNSServer("dns0", new IPPort("127.0.0.1", port), elg, new Upstream("ups0"), 0, SecurityGroup.allowAll(), false);
+        dnsServer.start();
+        assertEquals(1, dnsServer.shardCount());
+        query();
+
+        elg.add("el2");
+        assertEquals(1, dnsServer.shardCount());
+        query();
+    }
+}
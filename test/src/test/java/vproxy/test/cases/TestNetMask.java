@@ -1,13 +1,19 @@
 package vproxy.test.cases;
 
 import org.junit.Test;
+import vproxy.base.connection.Protocol;
 import vproxy.base.util.Network;
 import vproxy.base.util.Tuple;
 import vproxy.base.util.Utils;
+import vproxy.base.util.exception.AlreadyExistException;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
 import vproxy.vfd.IP;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -111,4 +117,53 @@ public class TestNetMask {
             assertEquals("match for " + tup, b, Network.maskMatch(binput, baddr, bmask));
         }
     }
+
+    @Test
+    public void securityGroupIndex() throws Exception {
+        // the indexed lookup should give the same result as checking rules one by one
+        Random rand = new Random(1);
+        String[] nets = {
+            "10.0.0.0/8", "10.1.0.0/16", "10.1.2.0/24", "10.1.2.3/32", "0.0.0.0/0",
+            "192.168.0.0/16", "::/0", "::/96", "::ffff:0:0/96", "::a01:0/112", "::ffff:a01:200/120",
+            "fd00::/16", "fd00::/8", "fd00:1::/64", "::ff00:0:0/88",
+        };
+        String[] addrs = {
+            "10.1.2.3", "10.1.2.4", "10.1.3.1", "10.2.0.1", "192.168.1.1", "8.8.8.8",
+            "::a01:203", "::ffff:a01:203", "::ffff:a02:1", "fd00:1::1", "fd00:2::1", "fe80::1",
+        };
+        for (int round = 0; round < 20; ++round) {
+            SecurityGroup secg = new SecurityGroup("secg", rand.nextBoolean());
+            List<SecurityGroupRule> rules = new ArrayList<>();
+            for (int i = 0; i < 30; ++i) {
+                int minPort = rand.nextInt(100);
+                SecurityGroupRule rule = new SecurityGroupRule("r" + i, new Network(nets[rand.nextInt(nets.length)]),
+                    Protocol.TCP, minPort, minPort + rand.nextInt(100), rand.nextBoolean());
+                try {
+                    secg.addRule(rule);
+                } catch (AlreadyExistException e) {
+                    continue;
+                }
+                rules.add(rule);
+            }
+            for (int i = 0; i < 5; ++i) {
+                SecurityGroupRule rule = rules.remove(rand.nextInt(rules.size()));
+                secg.removeRule(rule.alias);
+            }
+            for (String a : addrs) {
+                IP ip = IP.from(a);
+                for (int port = 0; port < 200; port += 7) {
+                    boolean expected = secg.defaultAllow;
+                    for (SecurityGroupRule rule : rules) {
+                        if (rule.match(ip, port)) {
+                            expected = rule.allow;
+                            break;
+                        }
+                    }
+                    assertEquals("check for " + a + ":" + port + " with " + rules,
+                        expected, secg.allow(Protocol.TCP, ip, port));
+                }
+            }
+            assertEquals(rules, secg.getRules());
+        }
+    }
 }
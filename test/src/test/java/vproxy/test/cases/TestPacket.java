@@ -239,6 +239,41 @@ public class TestPacket {
         check(ether, EthernetPacket::new);
     }
 
+    @Test
+    public void ethernetLazyIpPacket() {
+        EthernetPacket ether = new EthernetPacket();
+        ether.setType(Consts.ETHER_TYPE_IPv4);
+        ether.setDst(randomMac());
+        ether.setSrc(randomMac());
+        ether.setPacket(genIpv4());
+        ByteArray bytes = ether.getRawPacket();
+
+        EthernetPacket lazy = new EthernetPacket();
+        assertNull(lazy.from(bytes, true));
+        assertFalse(lazy.isPacketParsed());
+        assertEquals(bytes.sub(14, bytes.length() - 14), lazy.getPacketBytes());
+
+        // modify the l2 header without parsing the ip packet
+        MacAddress mac = randomMac();
+        lazy.setDst(mac);
+        ether.setDst(mac);
+        assertEquals(ether.getRawPacket(), lazy.getRawPacket());
+        assertFalse(lazy.isPacketParsed());
+
+        assertEquals(ether.getPacket(), lazy.getPacket());
+        assertTrue(lazy.isPacketParsed());
+        assertNull(lazy.getPacketBytes());
+        assertEquals(ether, lazy);
+
+        VXLanPacket vxlan = new VXLanPacket();
+        vxlan.setVni(1314);
+        vxlan.setPacket(ether);
+        VXLanPacket lazyVXLan = new VXLanPacket();
+        assertNull(lazyVXLan.from(vxlan.getRawPacket(), true));
+        assertFalse(((EthernetPacket) lazyVXLan.getPacket()).isPacketParsed());
+        assertEquals(vxlan, lazyVXLan);
+    }
+
     @Test
     public void vxlan() {
         VXLanPacket vxlan = new VXLanPacket();
@@ -3,11 +3,16 @@ package vproxy.test.cases;
 import org.junit.Test;
 import vproxy.base.prometheus.Counter;
 import vproxy.base.prometheus.Gauge;
+import vproxy.base.prometheus.Histogram;
 import vproxy.base.prometheus.Metrics;
+import vproxy.base.prometheus.Summary;
 
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestPrometheus {
     @Test
@@ -67,4 +72,89 @@ public class TestPrometheus {
                 "",
             metrics.toString());
     }
+
+    @Test
+    public void histogram() {
+        Metrics metrics = new Metrics();
+
+        Histogram histogram = new Histogram("vproxy_test_case_histogram", Map.of("class", "TestPrometheus"), new long[]{10, 100, 1000});
+        metrics.add(histogram);
+        Histogram noLabel = new Histogram("vproxy_test_case_histogram_no_label", Map.of(), new long[]{1});
+        metrics.add(noLabel);
+
+        histogram.record(1);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(500);
+        histogram.record(5000);
+        noLabel.record(2);
+
+        assertEquals("" +
+                "# TYPE vproxy_test_case_histogram histogram\n" +
+                "vproxy_test_case_histogram_bucket{class=\"TestPrometheus\",le=\"10\"} 2\n" +
+                "vproxy_test_case_histogram_bucket{class=\"TestPrometheus\",le=\"100\"} 3\n" +
+                "vproxy_test_case_histogram_bucket{class=\"TestPrometheus\",le=\"1000\"} 4\n" +
+                "vproxy_test_case_histogram_bucket{class=\"TestPrometheus\",le=\"+Inf\"} 5\n" +
+                "vproxy_test_case_histogram_sum{class=\"TestPrometheus\"} 5522\n" +
+                "vproxy_test_case_histogram_count{class=\"TestPrometheus\"} 5\n" +
+                "# TYPE vproxy_test_case_histogram_no_label histogram\n" +
+                "vproxy_test_case_histogram_no_label_bucket{le=\"1\"} 0\n" +
+                "vproxy_test_case_histogram_no_label_bucket{le=\"+Inf\"} 1\n" +
+                "vproxy_test_case_histogram_no_label_sum{} 2\n" +
+                "vproxy_test_case_histogram_no_label_count{} 1\n" +
+                "",
+            metrics.toString());
+    }
+
+    @Test
+    public void summary() {
+        Metrics metrics = new Metrics();
+
+        Summary summary = new Summary("vproxy_test_case_summary", Map.of("class", "TestPrometheus"), new double[]{0.5, 0.99});
+        metrics.add(summary);
+        for (int i = 1; i <= 100; ++i) {
+            summary.record(i);
+        }
+
+        assertEquals("" +
+                "# TYPE vproxy_test_case_summary summary\n" +
+                "vproxy_test_case_summary{class=\"TestPrometheus\",quantile=\"0.5\"} 50\n" +
+                "vproxy_test_case_summary{class=\"TestPrometheus\",quantile=\"0.99\"} 99\n" +
+                "vproxy_test_case_summary_sum{class=\"TestPrometheus\"} 5050\n" +
+                "vproxy_test_case_summary_count{class=\"TestPrometheus\"} 100\n" +
+                "",
+            metrics.toString());
+
+        // large values are recorded with a bounded relative error
+        Random rand = new Random(1);
+        for (int i = 0; i < 1000; ++i) {
+            long v = rand.nextLong() & Long.MAX_VALUE;
+            v >>>= rand.nextInt(63);
+            summary.clear();
+            summary.record(v);
+            long q = summary.quantile(0.5);
+            assertTrue("value " + v + " quantile " + q, q >= v && q - v <= v / 64);
+        }
+    }
+
+    @Test
+    public void chunks() {
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < 100; ++i) {
+            Counter c = new Counter("vproxy_test_case_chunks", Map.of("index", "" + i));
+            c.incr(i);
+            metrics.add(c);
+        }
+        Iterator<String> ite = metrics.chunks(256);
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        while (ite.hasNext()) {
+            String chunk = ite.next();
+            assertTrue(chunk.endsWith("\n"));
+            sb.append(chunk);
+            ++n;
+        }
+        assertTrue(n > 1);
+        assertEquals(metrics.toString(), sb.toString());
+    }
 }
@@ -49,6 +49,7 @@ import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestProtocols {
     private static final int lbPort = 7890;
@@ -657,6 +658,124 @@ public class TestProtocols {
         }
     }
 
+    @SuppressWarnings("deprecation")
+    @Test
+    public void h2Mux() throws Throwable {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int[] backendConn = {0};
+            Buffer big = Buffer.buffer("x".repeat(200_000)); // larger than the default flow control window
+            vertx.createHttpServer()
+                .connectionHandler(c -> ++backendConn[0])
+                .requestHandler(req -> req.bodyHandler(body -> {
+                    if (req.uri().equals("/a/big")) {
+                        req.response().end(big);
+                    } else {
+                        req.response().end("resp-" + req.localAddress().port() + "-" + body.length());
+                    }
+                }))
+                .listen(port1);
+
+            initLb("h2");
+            lb.setH2Mux(true);
+            assertTrue(lb.isH2Mux());
+
+            int clientCount = 4;
+            HttpClient[] clients = new HttpClient[clientCount];
+            String[][] resp = new String[clientCount][3];
+            for (int i = 0; i < clientCount; ++i) {
+                clients[i] = vertx.createHttpClient(new HttpClientOptions()
+                    .setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(false));
+                String[] r = resp[i];
+                HttpClientRequest req = clients[i].get(lbPort, "127.0.0.1", "/a");
+                req.handler(res -> res.bodyHandler(buf -> r[0] = buf.toString()));
+                req.end();
+                req = clients[i].post(lbPort, "127.0.0.1", "/a");
+                req.handler(res -> res.bodyHandler(buf -> r[1] = buf.toString()));
+                req.end(big);
+                req = clients[i].get(lbPort, "127.0.0.1", "/a/big");
+                req.handler(res -> res.bodyHandler(buf -> r[2] = "" + buf.length()));
+                req.end();
+            }
+            long start = System.currentTimeMillis();
+            for (String[] r : resp) {
+                while (r[0] == null || r[1] == null || r[2] == null) {
+                    if (System.currentTimeMillis() - start > 10_000) {
+                        fail("timeout waiting for responses");
+                    }
+                    Thread.sleep(1);
+                }
+                assertEquals("resp-" + port1 + "-0", r[0]);
+                assertEquals("resp-" + port1 + "-200000", r[1]);
+                assertEquals("200000", r[2]);
+            }
+            Thread.sleep(100); // wait until the streams are detached after the last frames are written
+            // streams of all frontend connections share one backend connection
+            assertEquals(1, backendConn[0]);
+            assertEquals(1, lb.h2MuxConnectionCount());
+            assertEquals(0, lb.h2MuxStreamCount());
+
+            for (HttpClient c : clients) {
+                c.close();
+            }
+            lb.setH2Mux(false);
+            Thread.sleep(100);
+            assertEquals(0, lb.h2MuxConnectionCount());
+        } finally {
+            boolean[] closeDone = {false};
+            vertx.close(v -> closeDone[0] = true);
+            while (!closeDone[0]) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void h1BackendPool() throws Throwable {
+        Vertx vertx = Vertx.vertx();
+        try {
+            int[] backendConn = {0};
+            vertx.createHttpServer()
+                .connectionHandler(c -> ++backendConn[0])
+                .requestHandler(req -> req.response().end("resp-" + req.localAddress().port()))
+                .listen(port1);
+
+            initLb("http/1.x");
+            lb.setBackendPool(true);
+            assertTrue(lb.isBackendPool());
+
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(false));
+            for (int i = 0; i < 5; ++i) {
+                String[] resp = {null};
+                HttpClientRequest req = client.get(lbPort, "127.0.0.1", "/a");
+                req.handler(r -> r.bodyHandler(buf -> resp[0] = buf.toString()));
+                req.end();
+                while (resp[0] == null) {
+                    Thread.sleep(1);
+                }
+                assertEquals("resp-" + port1, resp[0]);
+                Thread.sleep(100); // wait until the frontend connection is closed
+            }
+            // every frontend connection uses the same backend connection
+            assertEquals(1, backendConn[0]);
+            assertEquals(1, lb.backendPoolIdleCount());
+
+            lb.setBackendPool(false);
+            Thread.sleep(100);
+            assertEquals(0, lb.backendPoolIdleCount());
+        } finally {
+            boolean[] closeDone = {false};
+            vertx.close(v -> closeDone[0] = true);
+            while (!closeDone[0]) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(200);
+        }
+    }
+
     @Test
     public void h1websocket() throws Throwable {
         Vertx vertx = Vertx.vertx();
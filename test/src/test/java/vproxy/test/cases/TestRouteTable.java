@@ -2,6 +2,8 @@ package vproxy.test.cases;
 
 import org.junit.Test;
 import vproxy.base.util.Network;
+import vproxy.base.util.exception.AlreadyExistException;
+import vproxy.base.util.exception.NotFoundException;
 import vproxy.vfd.IP;
 import vproxy.vswitch.RouteTable;
 
@@ -9,7 +11,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class TestRouteTable {
     private Network getNetwork(String s) {
@@ -44,4 +46,56 @@ public class TestRouteTable {
         var actual = table.getRules().stream().map(x -> x.rule.toString()).collect(Collectors.toList());
         assertEquals(expect, actual);
     }
+
+    @Test
+    public void longestPrefixMatch() throws Exception {
+        var table = new RouteTable();
+        table.addRule(new RouteTable.RouteRule("a", getNetwork("192.168.0.0/16"), 1));
+        table.addRule(new RouteTable.RouteRule("b", getNetwork("192.168.3.0/24"), 2));
+        table.addRule(new RouteTable.RouteRule("c", getNetwork("0.0.0.0/0"), 3));
+        table.addRule(new RouteTable.RouteRule("d", getNetwork("192.168.3.128/25"), 4));
+        table.addRule(new RouteTable.RouteRule("e", getNetwork("fd00::/16"), 5));
+        table.addRule(new RouteTable.RouteRule("f", getNetwork("fd00:1::/64"), 6));
+
+        assertEquals("d", table.lookup(IP.from("192.168.3.200")).alias);
+        assertEquals("b", table.lookup(IP.from("192.168.3.1")).alias);
+        assertEquals("a", table.lookup(IP.from("192.168.4.1")).alias);
+        assertEquals("c", table.lookup(IP.from("10.0.0.1")).alias);
+        assertEquals("f", table.lookup(IP.from("fd00:1::1")).alias);
+        assertEquals("e", table.lookup(IP.from("fd00:2::1")).alias);
+        assertNull(table.lookup(IP.from("fe80::1")));
+
+        table.delRule("b");
+        assertEquals("d", table.lookup(IP.from("192.168.3.200")).alias);
+        assertEquals("a", table.lookup(IP.from("192.168.3.1")).alias);
+        table.delRule("c");
+        assertNull(table.lookup(IP.from("10.0.0.1")));
+        table.delRule("f");
+        assertEquals("e", table.lookup(IP.from("fd00:1::1")).alias);
+
+        var actual = table.getRules().stream().map(x -> x.alias).collect(Collectors.toList());
+        assertEquals(Arrays.asList("d", "a", "e"), actual);
+    }
+
+    @Test
+    public void duplicate() throws Exception {
+        var table = new RouteTable();
+        table.addRule(new RouteTable.RouteRule("a", getNetwork("192.168.0.0/16"), 1));
+        try {
+            table.addRule(new RouteTable.RouteRule("a", getNetwork("10.0.0.0/8"), 1));
+            fail();
+        } catch (AlreadyExistException ignore) {
+        }
+        try {
+            table.addRule(new RouteTable.RouteRule("b", getNetwork("192.168.0.0/16"), 2));
+            fail();
+        } catch (AlreadyExistException ignore) {
+        }
+        try {
+            table.delRule("b");
+            fail();
+        } catch (NotFoundException ignore) {
+        }
+        assertEquals(1, table.getRules().size());
+    }
 }
@@ -7,6 +7,7 @@ import org.junit.AfterClass;
 import org.junit.AssumptionViolatedException;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import vproxy.base.Config;
 import vproxy.base.component.check.CheckProtocol;
 import vproxy.base.component.check.HealthCheckConfig;
 import vproxy.base.component.elgroup.EventLoopGroup;
@@ -391,6 +392,19 @@ public class TestSSL {
         socket.close();
     }
 
+    @Test
+    public void certKeySharesSessionCache() throws Exception {
+        CertKey ck = new CertKey("ck", new String[]{TEST_CERT}, TEST_KEY);
+        VSSLContext a = new VSSLContext();
+        VSSLContext b = new VSSLContext();
+        ck.setInto(a);
+        ck.setInto(b);
+        SSLContext ctx = a.sslContextHolder.choose(null);
+        assertSame(ctx, b.sslContextHolder.choose(null));
+        assertEquals(Config.sslSessionCacheSize, ctx.getServerSessionContext().getSessionCacheSize());
+        assertEquals(Config.sslSessionTimeout, ctx.getServerSessionContext().getSessionTimeout());
+    }
+
     @SuppressWarnings("deprecation")
     @Test
     public void sslProxy() throws Exception {
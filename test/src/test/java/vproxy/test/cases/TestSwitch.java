@@ -0,0 +1,213 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.base.Config;
+import vproxy.base.GlobalInspection;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.connection.ServerSock;
+import vproxy.base.selector.SelectorEventLoop;
+import vproxy.base.util.ByteArray;
+import vproxy.base.util.Consts;
+import vproxy.base.util.Network;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.vfd.IP;
+import vproxy.vfd.IPPort;
+import vproxy.vfd.IPv4;
+import vproxy.vfd.MacAddress;
+import vproxy.vpacket.ArpPacket;
+import vproxy.vpacket.VXLanPacket;
+import vproxy.vswitch.Switch;
+import vproxy.vswitch.Table;
+import vproxy.vswitch.util.SwitchUtils;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class TestSwitch {
+    private static final int port = 24789;
+    private EventLoopGroup elg;
+    private Switch sw;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(ServerSock.supportReusePort() && Config.supportReusePortLB());
+
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        sw = new Switch("sw0", new IPPort("127.0.0.1", port), elg, 60000, 60000, SecurityGroup.allowAll(), 1500, true, true);
+        // the first shard is started on el0
+        sw.start();
+        elg.add("el1");
+        elg.add("el2");
+    }
+
+    @After
+    public void tearDown() {
+        if (sw != null) {
+            sw.destroy();
+        }
+        if (elg != null) {
+            elg.close();
+        }
+    }
+
+    private Table addTable(int vni) throws Exception {
+        Table t = sw.addTable(vni, new Network("10.0." + vni + ".0/24"), null, null);
+        t.addIp(IP.from("10.0." + vni + ".1"), new MacAddress("aa:bb:cc:00:00:0" + vni), null);
+        return t;
+    }
+
+    private SelectorEventLoop loop(String alias) throws Exception {
+        return elg.get(alias).getSelectorEventLoop();
+    }
+
+    // send an arp request for the ip of the vni from a new udp socket, and check the response
+    private void arp(int vni, int client) throws Exception {
+        MacAddress mac = new MacAddress("02:00:00:00:" + Integer.toHexString(16 + client) + ":0" + vni);
+        var arp = SwitchUtils.buildArpPacket(Consts.ARP_PROTOCOL_OPCODE_REQ, SwitchUtils.ZERO_MAC,
+            (IPv4) IP.from("10.0." + vni + ".1"), mac, (IPv4) IP.from("10.0." + vni + "." + (10 + client)));
+        VXLanPacket vxlan = new VXLanPacket();
+        vxlan.setFlags(0x08);
+        vxlan.setVni(vni);
+        vxlan.setPacket(SwitchUtils.buildEtherArpPacket(SwitchUtils.BROADCAST_MAC, mac, arp));
+        byte[] b = vxlan.getRawPacket().toJavaArray();
+
+        try (DatagramSocket sock = new DatagramSocket()) {
+            sock.setSoTimeout(1000);
+            sock.send(new DatagramPacket(b, b.length, InetAddress.getByName("127.0.0.1"), port));
+            DatagramPacket resp = new DatagramPacket(new byte[2048], 2048);
+            sock.receive(resp);
+
+            VXLanPacket r = new VXLanPacket();
+            assertNull(r.from(ByteArray.from(resp.getData()).sub(0, resp.getLength())));
+            assertEquals(vni, r.getVni());
+            assertTrue(r.getPacket().getPacket() instanceof ArpPacket);
+            assertEquals(Consts.ARP_PROTOCOL_OPCODE_RESP, ((ArpPacket) r.getPacket().getPacket()).getOpcode());
+        }
+    }
+
+    private long metric(String name, String loop) {
+        String prefix = name + "{loop=\"" + loop + "\",switch=\"sw0\"} ";
+        for (String line : GlobalInspection.getInstance().getPrometheusString().split("\n")) {
+            if (line.startsWith(prefix)) {
+                return Long.parseLong(line.substring(prefix.length()).trim());
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void spreadVnis() throws Exception {
+        assertEquals(3, sw.shardCount());
+
+        Set<SelectorEventLoop> loops = new HashSet<>();
+        for (int vni = 1; vni <= 3; ++vni) {
+            loops.add(addTable(vni).getLoop());
+        }
+        assertEquals(Set.of(loop("el0"), loop("el1"), loop("el2")), loops);
+
+        // new vnis are handled by the new shard
+        elg.add("el3");
+        assertEquals(4, sw.shardCount());
+        assertEquals(loop("el3"), addTable(4).getLoop());
+    }
+
+    @Test
+    public void handOffToOwner() throws Exception {
+        Table t = addTable(1);
+        String owner = null;
+        for (String alias : elg.names()) {
+            if (loop(alias) == t.getLoop()) {
+                owner = alias;
+            }
+        }
+        assertNotNull(owner);
+
+        // packets from different sockets are spread over the shards by SO_REUSEPORT
+        final int count = 30;
+        for (int i = 0; i < count; ++i) {
+            arp(1, i);
+        }
+
+        long input = 0;
+        for (String alias : elg.names()) {
+            input += metric("switch_shard_input_packet_count", alias);
+            if (alias.equals(owner)) {
+                assertEquals(count, metric("switch_shard_handled_packet_count", alias));
+            } else {
+                assertEquals(0, metric("switch_shard_handled_packet_count", alias));
+            }
+        }
+        assertEquals(count, input);
+        assertTrue("packets received on other shards are handed off to the owner",
+            metric("switch_shard_input_packet_count", owner) < count);
+    }
+
+    @Test
+    public void removeSecondaryLoop() throws Exception {
+        for (int vni = 1; vni <= 3; ++vni) {
+            addTable(vni);
+        }
+        elg.remove("el1");
+        Thread.sleep(200);
+        assertEquals(2, sw.shardCount());
+
+        for (int vni = 1; vni <= 3; ++vni) {
+            var l = sw.getTable(vni).getLoop();
+            assertTrue(l == loop("el0") || l == loop("el2"));
+        }
+        for (int i = 0; i < 10; ++i) {
+            for (int vni = 1; vni <= 3; ++vni) {
+                arp(vni, i);
+            }
+        }
+    }
+
+    @Test
+    public void removeFirstLoop() throws Exception {
+        for (int vni = 1; vni <= 3; ++vni) {
+            addTable(vni);
+        }
+        // the first shard runs the persistent ifaces, which should move to another shard
+        sw.addRemoteSwitch("rsw0", new IPPort("127.0.0.1", port + 1), false);
+
+        elg.remove("el0");
+        Thread.sleep(200);
+        assertEquals(2, sw.shardCount());
+        assertEquals(1, sw.getIfaces().size());
+
+        for (int vni = 1; vni <= 3; ++vni) {
+            var l = sw.getTable(vni).getLoop();
+            assertTrue(l == loop("el1") || l == loop("el2"));
+        }
+        for (int i = 0; i < 10; ++i) {
+            for (int vni = 1; vni <= 3; ++vni) {
+                arp(vni, i);
+            }
+        }
+        // bound to the loop of the new first shard
+        addTable(4);
+        arp(4, 0);
+
+        elg.remove("el1");
+        elg.remove("el2");
+        Thread.sleep(200);
+        assertEquals(0, sw.shardCount());
+
+        // started again when a loop is added
+        elg.add("el3");
+        assertEquals(1, sw.shardCount());
+        for (int vni = 1; vni <= 4; ++vni) {
+            assertEquals(loop("el3"), sw.getTable(vni).getLoop());
+            arp(vni, 20);
+        }
+    }
+}
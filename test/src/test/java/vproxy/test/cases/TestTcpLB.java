@@ -10,6 +10,7 @@ import vproxy.base.connection.Connection;
 import vproxy.base.connection.NetEventLoop;
 import vproxy.base.connection.Protocol;
 import vproxy.base.connection.ServerSock;
+import vproxy.base.prometheus.Histogram;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.util.Network;
 import vproxy.base.util.thread.VProxyThread;
@@ -26,8 +27,15 @@ import vproxy.vfd.IP;
 import vproxy.vfd.IPPort;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -144,6 +152,51 @@ public class TestTcpLB {
         // now we know that the lb can proxy data
     }
 
+    @Test
+    public void spliceProxy() throws Exception {
+        // splice only takes effect with the posix vfd on linux,
+        // otherwise the lb falls back to normal buffers, and the data must be relayed either way
+        upstream0.add(sgEcho, 10);
+        lb0.setSplice(true);
+        assertTrue(lb0.isSplice());
+
+        String data = "0123456789abcdef".repeat(16384); // larger than the pipe
+        for (int i = 0; i < 3; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+
+            for (int j = 0; j < 3; ++j) {
+                String recv = client.sendAndRecv(data, data.length());
+                assertEquals("the response should be the same as request", data, recv);
+            }
+
+            client.close();
+        }
+    }
+
+    @Test
+    public void bufferOnDemandProxy() throws Exception {
+        upstream0.add(sgEcho, 10);
+        lb0.setBufferOnDemand(true);
+        assertTrue(lb0.isBufferOnDemand());
+
+        Client client = new Client(lbPort);
+        client.connect();
+        Thread.sleep(100);
+        assertEquals(1, lb0.sessionCount());
+        assertEquals("no memory before any data", 0, lb0.residentBufferBytes());
+
+        for (int j = 0; j < 3; ++j) {
+            String recv = client.sendAndRecv("hello there", 11);
+            assertEquals("the response should be the same as request", "hello there", recv);
+        }
+        assertTrue(lb0.residentBufferBytes() > 0);
+
+        client.close();
+        Thread.sleep(100);
+        assertEquals("buffers returned when the session closes", 0, lb0.residentBufferBytes());
+    }
+
     @Test
     public void proxyWRR() throws Exception {
         // add sg0 to ups0
@@ -404,6 +457,163 @@ public class TestTcpLB {
         }
     }
 
+    @Test
+    public void proxyMaglev() throws Exception {
+        upstream0.add(sg0, 10);
+        sg0.setMethod(Method.maglev);
+
+        // make connections
+        String resp = null;
+        for (int i = 0; i < 100; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            String recv = client.sendAndRecv("anything", 1);
+            if (resp == null) {
+                resp = recv;
+            } else {
+                assertEquals("connections should be sent to the same backend because we are using maglev", resp, recv);
+            }
+        }
+    }
+
+    @Test
+    public void maglevMinimalRemap() throws Exception {
+        ServerGroup sg = new ServerGroup("sg-maglev", elg0, new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.maglev);
+        for (int i = 0; i < 50; ++i) {
+            sg.add("svr" + i, new IPPort(IP.from(new byte[]{10, 0, 0, (byte) i}), 80), 10);
+        }
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        int keys = 10000;
+        IPPort[] sources = new IPPort[keys];
+        String[] before = new String[keys];
+        for (int i = 0; i < keys; ++i) {
+            sources[i] = new IPPort(IP.from(new byte[]{(byte) 192, (byte) 168, (byte) (i >> 8), (byte) i}), 12345);
+            before[i] = sg.next(sources[i]).remote.formatToIPPortString();
+        }
+        ServerGroup.ServerHandle down = sg.getServerHandles().get(7);
+        down.healthy = false;
+        for (int i = 0; i < keys; ++i) {
+            String after = sg.next(sources[i]).remote.formatToIPPortString();
+            if (before[i].equals(down.server.formatToIPPortString())) {
+                assertNotEquals("keys of the unhealthy server should move", down.server.formatToIPPortString(), after);
+            } else {
+                assertEquals("keys of healthy servers should not move", before[i], after);
+            }
+        }
+        down.healthy = true;
+        for (int i = 0; i < keys; ++i) {
+            assertEquals("keys should come back", before[i], sg.next(sources[i]).remote.formatToIPPortString());
+        }
+        sg.destroy();
+    }
+
+    @Test
+    public void proxyP2C() throws Exception {
+        // p2c with 2 servers always compares both of them
+        // so connections should be evenly distributed when they are not released
+        upstream0.add(sg0, 10);
+        sg0.setMethod(Method.p2c);
+
+        int count0 = 0;
+        int count1 = 0;
+        for (int i = 0; i < 10; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            String recv = client.sendAndRecv("anything", 1);
+            if (recv.equals("0")) {
+                ++count0;
+            } else {
+                ++count1;
+            }
+        }
+        assertEquals("connections should be balanced", count0, count1);
+    }
+
+    @Test
+    public void concurrentConfigChange() throws Exception {
+        // selecting servers must not fail while weights and servers are modified concurrently
+        upstream0.add(sg0, 10);
+        upstream0.add(sg1, 10);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        // simulate the worker loops
+        for (int t = 0; t < 4; ++t) {
+            threads.add(new Thread(() -> {
+                IPPort source = new IPPort("127.0.0.1", 12345);
+                while (!stop.get()) {
+                    if (upstream0.next(source) == null) {
+                        errors.add(new Exception("upstream0.next() returns null"));
+                    }
+                    if (sg0.next(source) == null) {
+                        errors.add(new Exception("sg0.next() returns null"));
+                    }
+                }
+            }));
+        }
+        // modify weights of the existing servers
+        threads.add(new Thread(() -> {
+            Random rand = new Random();
+            while (!stop.get()) {
+                for (ServerGroup.ServerHandle h : sg0.getServerHandles()) {
+                    h.setWeight(1 + rand.nextInt(1000));
+                }
+                for (Upstream.ServerGroupHandle h : upstream0.getServerGroupHandles()) {
+                    h.setWeight(1 + rand.nextInt(1000));
+                }
+            }
+        }));
+        // add and remove servers, which point to the same backend as svr2
+        threads.add(new Thread(() -> {
+            int n = 0;
+            while (!stop.get()) {
+                String alias = "tmp" + (n++);
+                try {
+                    sg0.add(alias, new IPPort("127.0.0.1", 19082), 10).healthy = true;
+                    sg0.remove(alias);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        }));
+        // switch methods
+        threads.add(new Thread(() -> {
+            Method[] methods = Method.values();
+            int n = 0;
+            while (!stop.get()) {
+                sg0.setMethod(methods[(n++) % methods.length]);
+            }
+        }));
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        try {
+            // serve load
+            for (int i = 0; i < 50; ++i) {
+                Client client = new Client(lbPort);
+                client.connect();
+                clients.add(client);
+                String recv = client.sendAndRecv("anything", 1);
+                assertTrue("the response should be 0, 1 or 2, but got " + recv,
+                    recv.equals("0") || recv.equals("1") || recv.equals("2"));
+            }
+        } finally {
+            stop.set(true);
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError("got errors: " + errors, errors.get(0));
+        }
+    }
+
     @Test
     public void changeHealthCheckOnRunning() throws Exception {
         ServerGroup.ServerHandle h = sg0.getServerHandles().stream().findFirst().get();
@@ -599,6 +809,61 @@ public class TestTcpLB {
         }
     }
 
+    @Test
+    public void acceptBudget() throws Exception {
+        upstream0.add(sgEcho, 10);
+        ServerSock server = lb0.servers.keySet().stream().findFirst().get();
+        assertNull("the metrics are registered when accepting for the first time", server.getAcceptQueueDepth());
+
+        // block the loop, so that the connections are kept in the backlog and accepted in one burst
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        elg0.get("el0").getSelectorEventLoop().runOnLoop(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        blocked.await();
+
+        int total = Config.acceptBudget * 2 + 10;
+        List<SocketChannel> socks = new LinkedList<>();
+        try {
+            for (int i = 0; i < total; ++i) {
+                SocketChannel sock = SocketChannel.open();
+                socks.add(sock);
+                sock.configureBlocking(false);
+                sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+            }
+            Thread.sleep(100); // wait for the handshakes to finish
+            release.countDown();
+            // the depth is recorded after the queue is drained
+            for (int i = 0; i < 100 && (server.getAcceptQueueDepth() == null || server.getAcceptQueueDepth().sum() < total); ++i) {
+                Thread.sleep(20);
+            }
+        } finally {
+            release.countDown();
+            for (SocketChannel sock : socks) {
+                sock.close();
+            }
+        }
+        assertEquals("all connections accepted", total, server.getHistoryAcceptedConnectionCount());
+
+        Histogram depth = server.getAcceptQueueDepth();
+        assertEquals("accept latency recorded for each connection", total, server.getAcceptLatencyMicros().count());
+        assertEquals("depths of the drains add up to the accepted connections", total, depth.sum());
+        assertTrue("the burst is accepted in multiple drains", depth.count() >= 3);
+        // same bounds as the ServerSock
+        long[] bounds = Histogram.exponentialBounds(1, 2, 12);
+        long[] counts = depth.bucketCounts();
+        for (int i = 1; i < counts.length; ++i) {
+            if (bounds[i - 1] >= Config.acceptBudget) {
+                assertEquals("no drain accepts more than the budget: " + (bounds[i - 1] + 1) + "+", 0, counts[i]);
+            }
+        }
+    }
+
     @Test
     public void removeAndAddEventLoopOnRunning() throws Exception {
         upstream0.add(sg0, 10);
@@ -7,6 +7,12 @@ import vproxy.base.selector.PeriodicEvent;
 import vproxy.base.selector.SelectorEventLoop;
 import vproxy.base.selector.TimerEvent;
 import vproxy.base.util.thread.VProxyThread;
+import vproxy.base.util.time.TimeElem;
+import vproxy.base.util.time.TimeQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -76,4 +82,112 @@ public class TestTimer {
         Thread.sleep(500);
         assertEquals("still 3 alerts", 3, i[0]);
     }
+
+    @Test
+    public void timeWheelDelayOnLoop() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(true);
+        loop.loop(r -> VProxyThread.create(r, "EventLoopWithTimeWheel"));
+        try {
+            boolean[] done = {false, false, false};
+            TimerEvent te = loop.delay(1000, () -> done[0] = true);
+            loop.delay(500, () -> done[1] = true);
+            loop.delay(1500, () -> done[2] = true);
+            Thread.sleep(550);
+            assertArrayEquals("500 ms", new boolean[]{false, true, false}, done);
+            te.cancel();
+            Thread.sleep(1000);
+            assertArrayEquals("1500 ms", new boolean[]{false, true, true}, done);
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void timeWheelCancelAfterTriggered() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(true);
+        loop.loop(r -> VProxyThread.create(r, "EventLoopWithTimeWheel"));
+        try {
+            boolean[] done = {false, false};
+            int[] periodic = {0};
+            TimerEvent te = loop.delay(100, () -> done[0] = true);
+            Thread.sleep(200);
+            assertTrue(done[0]);
+            // the element of the triggered timer is recycled and reused by the following timers
+            loop.delay(300, () -> done[1] = true);
+            PeriodicEvent pe = loop.period(100, () -> ++periodic[0]);
+            te.cancel(); // should not affect other timers
+            Thread.sleep(450);
+            assertTrue(done[1]);
+            pe.cancel();
+            int n = periodic[0];
+            assertTrue("periodic event triggered " + n + " times", n >= 3);
+            Thread.sleep(250);
+            assertEquals(n, periodic[0]);
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void timeWheelSameOrderAsPriorityQueue() {
+        Random rand = new Random(1);
+        TimeQueue<Integer> heap = TimeQueue.create();
+        TimeQueue<Integer> wheel = TimeQueue.createTimeWheel();
+        List<TimeElem<Integer>> heapElems = new ArrayList<>();
+        List<TimeElem<Integer>> wheelElems = new ArrayList<>();
+        long now = 1_000_000;
+        for (int i = 0; i < 20000; ++i) {
+            int timeout;
+            switch (i % 4) {
+                case 0:
+                    timeout = rand.nextInt(256);
+                    break;
+                case 1:
+                    timeout = rand.nextInt(20_000);
+                    break;
+                case 2:
+                    timeout = rand.nextInt(5_000_000);
+                    break;
+                default:
+                    timeout = rand.nextInt(Integer.MAX_VALUE);
+            }
+            heapElems.add(heap.add(now, timeout, timeout));
+            wheelElems.add(wheel.add(now, timeout, timeout));
+        }
+        for (int i = 0; i < heapElems.size(); i += 3) {
+            heapElems.get(i).removeSelf();
+            wheelElems.get(i).removeSelf();
+        }
+        int count = 0;
+        while (!heap.isEmpty()) {
+            assertFalse(wheel.isEmpty());
+            int heapNext = heap.nextTime(now);
+            int wheelNext = wheel.nextTime(now);
+            assertTrue("wheel should never wake up later than the nearest timer", wheelNext <= heapNext);
+            if (heapNext == 0) {
+                assertEquals(0, wheelNext);
+                // the element value is the timeout, so elements triggering at the same time are equal
+                assertEquals(heap.poll(), wheel.poll());
+                ++count;
+            } else {
+                now += wheelNext == 0 ? 1 : wheelNext;
+            }
+        }
+        assertTrue(wheel.isEmpty());
+        assertEquals(20000 - 6667, count);
+    }
+
+    @Test
+    public void timeWheelPollNearest() {
+        TimeQueue<String> wheel = TimeQueue.createTimeWheel();
+        wheel.add(0, 100_000, "c");
+        wheel.add(0, 10, "a");
+        wheel.add(0, 3000, "b");
+        assertEquals("a", wheel.poll());
+        assertEquals("b", wheel.poll());
+        assertEquals("c", wheel.poll());
+        assertNull(wheel.poll());
+        assertTrue(wheel.isEmpty());
+        assertEquals(Integer.MAX_VALUE, wheel.nextTime(0));
+    }
 }
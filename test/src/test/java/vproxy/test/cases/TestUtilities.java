@@ -1,15 +1,43 @@
 package vproxy.test.cases;
 
 import org.junit.Test;
+import vproxy.base.component.elgroup.EventLoopGroup;
+import vproxy.base.component.elgroup.EventLoopPlacement;
+import vproxy.base.component.elgroup.EventLoopWrapper;
+import vproxy.base.component.svrgroup.WRRSequence;
+import vproxy.base.dns.DNSClass;
+import vproxy.base.dns.DNSPacket;
+import vproxy.base.dns.DNSQuestion;
+import vproxy.base.dns.DNSType;
+import vproxy.base.processor.Hint;
+import vproxy.base.processor.HintIndex;
+import vproxy.base.selector.Handler;
+import vproxy.base.selector.HandlerContext;
+import vproxy.base.selector.SelectorEventLoop;
+import vproxy.base.util.AnnotationKeys;
+import vproxy.base.util.Annotations;
+import vproxy.base.util.nio.ByteArrayChannel;
 import vproxy.base.util.objectpool.ConcurrentObjectPool;
 import vproxy.base.util.objectpool.CursorList;
+import vproxy.base.util.objectpool.MPSCQueue;
 import vproxy.base.util.objectpool.PrototypeObjectList;
+import vproxy.base.util.ringbuffer.RingBufferAllocator;
+import vproxy.base.util.ringbuffer.SimpleRingBuffer;
+import vproxy.base.util.thread.VProxyThread;
+import vproxy.dns.DNSAnswerCache;
+import vproxy.vfd.DatagramFD;
+import vproxy.vfd.EventSet;
+import vproxy.vfd.FDProvider;
+import vproxy.vfd.GatheringByteStream;
+import vproxy.vfd.ScatteringByteStream;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class TestUtilities {
     @Test
@@ -111,4 +139,495 @@ public class TestUtilities {
             t.join();
         }
     }
+
+    @Test
+    public void mpscQueue() throws Exception {
+        // small capacity to make sure the overflow queue is used
+        MPSCQueue<int[]> queue = new MPSCQueue<>(16);
+        int producers = 4;
+        int count = 100_000;
+        List<Thread> threads = new LinkedList<>();
+        for (int i = 0; i < producers; ++i) {
+            int producer = i;
+            threads.add(new Thread(() -> {
+                for (int n = 0; n < count; ++n) {
+                    queue.add(new int[]{producer, n});
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        int[] last = new int[producers];
+        java.util.Arrays.fill(last, -1);
+        int total = 0;
+        while (total < producers * count) {
+            int[] e = queue.poll();
+            if (e == null) {
+                continue;
+            }
+            // elements from the same producer must be in order
+            assertEquals(last[e[0]] + 1, e[1]);
+            last[e[0]] = e[1];
+            ++total;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void wrrSequence() {
+        assertArrayEquals(new int[0], WRRSequence.build(new int[0]));
+        assertArrayEquals(new int[]{0, 1}, WRRSequence.build(new int[]{10, 10}));
+        assertArrayEquals(new int[]{0, 1, 0}, WRRSequence.build(new int[]{20, 10}));
+
+        // co-prime weights are scaled down
+        int[] seq = WRRSequence.build(new int[]{100003, 50021, 7});
+        assertTrue(seq.length <= WRRSequence.MAX_LENGTH);
+        int[] counts = new int[3];
+        for (int i : seq) {
+            ++counts[i];
+        }
+        assertEquals(2.0, (double) counts[0] / counts[1], 0.01);
+        assertTrue(counts[2] >= 1);
+
+        // every element appears at least once even if there are too many elements
+        int[] weights = new int[WRRSequence.MAX_LENGTH + 10];
+        for (int i = 0; i < weights.length; ++i) {
+            weights[i] = i + 1;
+        }
+        seq = WRRSequence.build(weights);
+        boolean[] appeared = new boolean[weights.length];
+        for (int i : seq) {
+            appeared[i] = true;
+        }
+        for (boolean b : appeared) {
+            assertTrue(b);
+        }
+    }
+
+    private static class VectoredChannel implements ScatteringByteStream, GatheringByteStream {
+        final ByteBuffer src;
+        final ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        int vectoredCalls = 0;
+
+        VectoredChannel(byte[] src) {
+            this.src = ByteBuffer.wrap(src);
+        }
+
+        @Override
+        public int read(ByteBuffer b) {
+            int n = Math.min(src.remaining(), b.remaining());
+            ByteBuffer slice = src.slice().limit(n);
+            b.put(slice);
+            src.position(src.position() + n);
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer[] dsts) {
+            ++vectoredCalls;
+            int total = 0;
+            for (ByteBuffer b : dsts) {
+                total += read(b);
+            }
+            return total;
+        }
+
+        @Override
+        public int write(ByteBuffer b) {
+            int n = b.remaining();
+            byte[] arr = new byte[n];
+            b.get(arr);
+            dst.writeBytes(arr);
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer[] srcs) {
+            ++vectoredCalls;
+            int total = 0;
+            for (ByteBuffer b : srcs) {
+                total += write(b);
+            }
+            return total;
+        }
+    }
+
+    @Test
+    public void simpleRingBufferVectoredIO() throws Exception {
+        SimpleRingBuffer rb = SimpleRingBuffer.allocateDirect(16);
+        byte[] bytes = new byte[28];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        VectoredChannel chnl = new VectoredChannel(bytes);
+
+        // [0, 10) is stored, no wrapping
+        chnl.src.limit(10);
+        assertEquals(10, rb.storeBytesFrom(chnl));
+        assertEquals(0, chnl.vectoredCalls);
+        // consume 6 bytes, then the free space wraps
+        assertEquals(6, rb.writeTo(chnl, 6));
+        assertEquals(0, chnl.vectoredCalls);
+
+        // free space is [10, 16) and [0, 6)
+        chnl.src.limit(bytes.length);
+        assertEquals(12, rb.storeBytesFrom(chnl));
+        assertEquals(1, chnl.vectoredCalls);
+        assertEquals(16, rb.used());
+        assertEquals(0, rb.free());
+
+        // data is [6, 16) and [0, 6)
+        assertEquals(13, rb.writeTo(chnl, 13));
+        assertEquals(2, chnl.vectoredCalls);
+        assertEquals(3, rb.used());
+        assertEquals(3, rb.writeTo(chnl, 16));
+        assertEquals(0, rb.used());
+
+        byte[] expected = new byte[22];
+        System.arraycopy(bytes, 0, expected, 0, expected.length);
+        assertArrayEquals(expected, chnl.dst.toByteArray());
+        rb.clean();
+    }
+
+    @Test
+    public void onDemandRingBuffer() throws Exception {
+        RingBufferAllocator allocator = new RingBufferAllocator(true, 50);
+        SimpleRingBuffer buf = allocator.allocateDirect(1024);
+        assertFalse(buf.isResident());
+        assertEquals(0, allocator.residentBytes());
+        assertEquals(1024, buf.free());
+        assertEquals(0, buf.getBytes().length);
+        // writing out an empty buffer does not need memory
+        assertEquals(0, buf.writeTo(ByteArrayChannel.fromEmpty(16)));
+        assertFalse(buf.isResident());
+
+        buf.storeBytesFrom(ByteArrayChannel.fromFull("hello".getBytes()));
+        assertTrue(buf.isResident());
+        assertEquals(1024, allocator.residentBytes());
+        assertEquals(5, buf.writeTo(ByteArrayChannel.fromEmpty(16)));
+        // not operated on an event loop, the memory is kept
+        Thread.sleep(100);
+        assertTrue(buf.isResident());
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> VProxyThread.create(r, "onDemandRingBuffer"));
+        try {
+            loop.runOnLoop(() -> {
+                buf.storeBytesFrom(ByteArrayChannel.fromFull("hello".getBytes()));
+                buf.writeTo(ByteArrayChannel.fromEmpty(16));
+            });
+            Thread.sleep(20);
+            assertTrue("not idle long enough", buf.isResident());
+            Thread.sleep(200);
+            assertFalse("released after idle", buf.isResident());
+            assertEquals(0, allocator.residentBytes());
+
+            // data stored again after released
+            loop.runOnLoop(() -> buf.storeBytesFrom(ByteArrayChannel.fromFull("world".getBytes())));
+            Thread.sleep(200);
+            assertTrue("not released when holding data", buf.isResident());
+            assertEquals("world", new String(buf.getBytes()));
+        } finally {
+            loop.close();
+        }
+        buf.clean();
+        assertEquals(0, allocator.residentBytes());
+
+        // buffers allocated when not on-demand are also counted
+        allocator.setOnDemand(false);
+        SimpleRingBuffer buf2 = allocator.allocateDirect(2048);
+        assertTrue(buf2.isResident());
+        assertEquals(2048, allocator.residentBytes());
+        buf2.clean();
+        assertEquals(0, allocator.residentBytes());
+    }
+
+    @Test
+    public void hintIndex() {
+        Random rand = new Random(42);
+        String[] hosts = {"a.com", "b.a.com", "c.b.a.com", "x.com", "com", "*", "a.net", "b.a.net", ".com", ""};
+        String[] uris = {"/", "/a", "/a/b", "/ab", "/b", "*", "/a/b/c"};
+        for (int round = 0; round < 200; ++round) {
+            List<Annotations[]> values = new ArrayList<>();
+            int n = 1 + rand.nextInt(30);
+            for (int i = 0; i < n; ++i) {
+                values.add(new Annotations[]{randomAnnotations(rand, hosts, uris), randomAnnotations(rand, hosts, uris)});
+            }
+            HintIndex<Annotations[]> index = new HintIndex<>(values, v -> v);
+            for (int i = 0; i < 50; ++i) {
+                String host = rand.nextInt(5) == 0 ? null : hosts[rand.nextInt(hosts.length)];
+                if (host != null && rand.nextBoolean()) {
+                    host = "www." + host;
+                }
+                String uri = rand.nextInt(5) == 0 ? null : uris[rand.nextInt(uris.length)];
+                if (uri != null && rand.nextBoolean()) {
+                    uri = uri + "x";
+                }
+                int port = rand.nextBoolean() ? 0 : 80 + rand.nextInt(2);
+                Hint hint;
+                if (host == null) {
+                    hint = uri == null ? Hint.ofHost(null) : Hint.ofUri(uri);
+                } else {
+                    hint = Hint.ofHostPortUri(host, port, uri);
+                }
+
+                Annotations[] expected = null;
+                int level = 0;
+                for (Annotations[] v : values) {
+                    int l = hint.matchLevel(v);
+                    if (l > level) {
+                        level = l;
+                        expected = v;
+                    }
+                }
+                assertSame("round " + round + " " + hint, expected, index.search(hint));
+            }
+        }
+    }
+
+    private static Annotations randomAnnotations(Random rand, String[] hosts, String[] uris) {
+        Map<String, String> m = new HashMap<>();
+        if (rand.nextInt(3) == 0) {
+            m.put(AnnotationKeys.ServerGroup_HintHost.name, hosts[rand.nextInt(hosts.length)]);
+        }
+        if (rand.nextInt(4) == 0) {
+            m.put(AnnotationKeys.ServerGroup_HintPort.name, "" + (80 + rand.nextInt(2)));
+        }
+        if (rand.nextInt(3) == 0) {
+            m.put(AnnotationKeys.ServerGroup_HintUri.name, uris[rand.nextInt(uris.length)]);
+        }
+        return new Annotations(m);
+    }
+
+    @Test
+    public void dnsAnswerCache() {
+        DNSAnswerCache cache = new DNSAnswerCache(2, 300, 60);
+        long now = 1_000_000;
+
+        DNSPacket req = dnsQuery(1234, "Example.COM");
+        DNSAnswerCache.Key key = DNSAnswerCache.keyOf(req);
+        assertNotNull(key);
+        assertEquals(key, DNSAnswerCache.keyOf(dnsQuery(1, "example.com")));
+        assertNull(cache.get(key, req, now, new boolean[1]));
+
+        // positive response, min ttl is 100
+        assertTrue(cache.put(key, dnsResponse(7, "example.com", 0, new int[]{1, 100, 1, 200}, new int[0]), now));
+        ByteBuffer buf = cache.get(key, req, now + 30_000, new boolean[1]);
+        assertNotNull(buf);
+        byte[] resp = buf.array();
+        assertEquals(1234, ((resp[0] & 0xff) << 8) | (resp[1] & 0xff));
+        assertEquals("Example", new String(resp, 13, 7)); // case of the question follows the request
+        int answer = 12 + 13 + 4;
+        assertEquals(70, ByteBuffer.wrap(resp).getInt(answer + 6));
+        assertEquals(170, ByteBuffer.wrap(resp).getInt(answer + 16 + 6));
+        assertNull(cache.get(key, req, now + 100_000, new boolean[1]));
+
+        // prefetch only once for entries hit again near expiry
+        cache.put(key, dnsResponse(7, "example.com", 0, new int[]{1, 100}, new int[0]), now);
+        boolean[] prefetch = {false};
+        cache.get(key, req, now + 1_000, prefetch);
+        cache.get(key, req, now + 95_000, prefetch);
+        assertTrue(prefetch[0]);
+        prefetch[0] = false;
+        cache.get(key, req, now + 96_000, prefetch);
+        assertFalse(prefetch[0]);
+
+        // negative responses depend on SOA: min(ttl, minimum) capped by the negative max ttl
+        DNSAnswerCache.Key nx = DNSAnswerCache.keyOf(dnsQuery(1, "nx.example.com"));
+        assertFalse(cache.put(nx, dnsResponse(7, "nx.example.com", 3, new int[0], new int[0]), now));
+        assertTrue(cache.put(nx, dnsResponse(7, "nx.example.com", 3, new int[0], new int[]{3600, 30}), now));
+        assertNotNull(cache.get(nx, dnsQuery(2, "nx.example.com"), now + 29_000, new boolean[1]));
+        assertNull(cache.get(nx, dnsQuery(2, "nx.example.com"), now + 30_000, new boolean[1]));
+        assertTrue(cache.put(nx, dnsResponse(7, "nx.example.com", 3, new int[0], new int[]{3600, 3600}), now));
+        assertNull(cache.get(nx, dnsQuery(2, "nx.example.com"), now + 60_000, new boolean[1]));
+        // server failure is not cached
+        assertFalse(cache.put(nx, dnsResponse(7, "nx.example.com", 2, new int[0], new int[]{3600, 30}), now));
+
+        // lru eviction
+        cache.clear();
+        DNSAnswerCache.Key a = DNSAnswerCache.keyOf(dnsQuery(1, "a.com"));
+        DNSAnswerCache.Key b = DNSAnswerCache.keyOf(dnsQuery(1, "b.com"));
+        DNSAnswerCache.Key c = DNSAnswerCache.keyOf(dnsQuery(1, "c.com"));
+        cache.put(a, dnsResponse(7, "a.com", 0, new int[]{1, 100}, new int[0]), now);
+        cache.put(b, dnsResponse(7, "b.com", 0, new int[]{1, 100}, new int[0]), now);
+        assertNotNull(cache.get(a, dnsQuery(1, "a.com"), now, new boolean[1]));
+        cache.put(c, dnsResponse(7, "c.com", 0, new int[]{1, 100}, new int[0]), now);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a, dnsQuery(1, "a.com"), now, new boolean[1]));
+        assertNull(cache.get(b, dnsQuery(1, "b.com"), now, new boolean[1]));
+
+        // coalescing
+        DNSAnswerCache.Waiter w1 = new DNSAnswerCache.Waiter(dnsQuery(1, "a.com"), null);
+        DNSAnswerCache.Waiter w2 = new DNSAnswerCache.Waiter(dnsQuery(2, "a.com"), null);
+        assertTrue(cache.startLookup(a, w1));
+        assertFalse(cache.startLookup(a, w2));
+        assertEquals(Arrays.asList(w1, w2), cache.finishLookup(a));
+        assertTrue(cache.finishLookup(a).isEmpty());
+    }
+
+    private static DNSPacket dnsQuery(int id, String name) {
+        DNSPacket p = new DNSPacket();
+        p.id = id;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = name;
+        q.qtype = DNSType.A;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        return p;
+    }
+
+    // answers are pairs of (type, ttl) pointing to the question name, soa is (ttl, minimum) or empty
+    private static byte[] dnsResponse(int id, String name, int rcode, int[] answers, int[] soa) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(id >> 8);
+        out.write(id);
+        out.write(0x81);
+        out.write(0x80 | rcode);
+        writeShort(out, 1);
+        writeShort(out, answers.length / 2);
+        writeShort(out, soa.length == 0 ? 0 : 1);
+        writeShort(out, 0);
+        for (String label : name.split("\\.")) {
+            out.write(label.length());
+            out.writeBytes(label.getBytes());
+        }
+        out.write(0);
+        writeShort(out, 1);
+        writeShort(out, 1);
+        for (int i = 0; i < answers.length; i += 2) {
+            writeShort(out, 0xc00c);
+            writeShort(out, answers[i]);
+            writeShort(out, 1);
+            writeShort(out, answers[i + 1] >> 16);
+            writeShort(out, answers[i + 1]);
+            writeShort(out, 4);
+            out.writeBytes(new byte[]{10, 0, 0, 1});
+        }
+        if (soa.length != 0) {
+            writeShort(out, 0xc00c);
+            writeShort(out, 6);
+            writeShort(out, 1);
+            writeShort(out, soa[0] >> 16);
+            writeShort(out, soa[0]);
+            writeShort(out, 2 + 2 + 20);
+            writeShort(out, 0xc00c); // mname
+            writeShort(out, 0xc00c); // rname
+            for (int i = 0; i < 4; ++i) { // serial, refresh, retry, expire
+                writeShort(out, 0);
+                writeShort(out, 1);
+            }
+            writeShort(out, soa[1] >> 16);
+            writeShort(out, soa[1]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int n) {
+        out.write(n >> 8);
+        out.write(n);
+    }
+
+    @Test
+    public void eventLoopPlacement() throws Exception {
+        EventLoopGroup elg = new EventLoopGroup("placement");
+        elg.add("el0");
+        elg.add("el1");
+        elg.add("el2");
+        List<DatagramFD> fds = new ArrayList<>();
+        try {
+            EventLoopWrapper el0 = elg.get("el0");
+            EventLoopWrapper el1 = elg.get("el1");
+            EventLoopWrapper el2 = elg.get("el2");
+            Handler<DatagramFD> nop = new Handler<>() {
+                @Override
+                public void accept(HandlerContext<DatagramFD> ctx) {
+                }
+
+                @Override
+                public void connected(HandlerContext<DatagramFD> ctx) {
+                }
+
+                @Override
+                public void readable(HandlerContext<DatagramFD> ctx) {
+                }
+
+                @Override
+                public void writable(HandlerContext<DatagramFD> ctx) {
+                }
+
+                @Override
+                public void removed(HandlerContext<DatagramFD> ctx) {
+                }
+            };
+            // el0 holds 2 fds, el1 holds 1 fd, el2 holds nothing
+            for (EventLoopWrapper el : Arrays.asList(el0, el0, el1)) {
+                DatagramFD fd = FDProvider.get().getProvided().openDatagramFD();
+                fds.add(fd);
+                el.getSelectorEventLoop().add(fd, EventSet.none(), null, nop);
+            }
+            assertEquals(2, el0.getSelectorEventLoop().getFdCount());
+            assertEquals(1, el1.getSelectorEventLoop().getFdCount());
+            assertEquals(0, el2.getSelectorEventLoop().getFdCount());
+
+            assertEquals(EventLoopPlacement.rr, elg.getPlacement());
+            Set<EventLoopWrapper> chosen = new HashSet<>();
+            for (int i = 0; i < 3; ++i) {
+                chosen.add(elg.next());
+            }
+            assertEquals("rr visits all loops", 3, chosen.size());
+
+            elg.setPlacement(EventLoopPlacement.leastbusy);
+            for (int i = 0; i < 10; ++i) {
+                assertSame("idle loops, fewest fds", el2, elg.next());
+            }
+
+            elg.setPlacement(EventLoopPlacement.p2c);
+            for (int i = 0; i < 100; ++i) {
+                assertNotSame("el0 loses in every pair", el0, elg.next());
+            }
+
+            // the hint is still preferred
+            assertSame(el0, elg.next(el0));
+
+            DatagramFD fd = fds.remove(0);
+            el0.getSelectorEventLoop().remove(fd);
+            fd.close();
+            assertEquals(1, el0.getSelectorEventLoop().getFdCount());
+
+            // removed by multiple threads at the same time, the fd is only counted off once
+            DatagramFD fd2 = fds.remove(0);
+            CountDownLatch latch = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                Thread t = new Thread(() -> {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                    el0.getSelectorEventLoop().remove(fd2);
+                });
+                t.start();
+                threads.add(t);
+            }
+            latch.countDown();
+            for (Thread t : threads) {
+                t.join();
+            }
+            fd2.close();
+            assertEquals(0, el0.getSelectorEventLoop().getFdCount());
+        } finally {
+            for (DatagramFD fd : fds) {
+                fd.close();
+            }
+            elg.close();
+        }
+    }
 }